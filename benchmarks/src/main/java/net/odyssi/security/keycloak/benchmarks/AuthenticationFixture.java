@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.UUID;
+
+import javax.security.enterprise.identitystore.IdentityStore;
+
+import org.keycloak.common.util.PemUtils;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+import net.odyssi.security.keycloak.auth.KeyCloakAuthenticationMechanism;
+import net.odyssi.security.keycloak.auth.OAuthIdentityStore;
+import net.odyssi.security.keycloak.auth.cache.SharedTokenCache;
+import net.odyssi.security.keycloak.auth.cache.ValidatedTokenCache;
+import net.odyssi.security.keycloak.auth.deployment.KeycloakDeploymentRegistry;
+import net.odyssi.security.keycloak.auth.http.KeycloakHttpClientProvider;
+import net.odyssi.security.keycloak.auth.http.OutboundCallGuard;
+import net.odyssi.security.keycloak.auth.introspection.TokenIntrospectionService;
+import net.odyssi.security.keycloak.auth.mapping.ClaimMapper;
+import net.odyssi.security.keycloak.auth.mapping.RoleMapper;
+import net.odyssi.security.keycloak.auth.revocation.RevocationRegistry;
+import net.odyssi.security.keycloak.auth.session.SessionTokenRefresher;
+import net.odyssi.security.keycloak.auth.tenant.TenantResolver;
+import net.odyssi.security.keycloak.common.AuthenticationEventDispatcher;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.audit.AuthenticationAuditLog;
+import net.odyssi.security.keycloak.common.metrics.AuthenticationMetrics;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * Builds the beans under test without a CDI container, and signs tokens with a
+ * locally generated RSA key so that no KeyCloak server is required
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class AuthenticationFixture {
+
+	/**
+	 * An {@link OAuthIdentityStore} exposing its principal construction
+	 */
+	public static class BenchmarkIdentityStore extends OAuthIdentityStore {
+
+		public JWTPrincipal principal(AccessToken token) {
+			return buildPrincipal(token);
+		}
+	}
+
+	public static final String AUTH_SERVER_URL = "http://localhost:8880/auth";
+
+	public static final String KEY_ID = "benchmark-key";
+
+	public static final String REALM = "benchmark";
+
+	public static final String RESOURCE = "benchmark-client";
+
+	private final AdapterConfig adapterConfig;
+
+	private final Configuration configuration;
+
+	private final KeycloakDeploymentRegistry deploymentRegistry;
+
+	private final KeyPair keyPair;
+
+	private final AuthenticationMetrics metrics;
+
+	private final OutboundCallGuard outboundCallGuard;
+
+	private final RevocationRegistry revocationRegistry;
+
+	public AuthenticationFixture() throws NoSuchAlgorithmException {
+		this(AUTH_SERVER_URL, true);
+	}
+
+	/**
+	 * Creates a fixture for a KeyCloak server
+	 *
+	 * @param authServerUrl The KeyCloak server URL
+	 * @param realmKey      Whether tokens are verified against the fixture's
+	 *                      static key rather than the keys published by the
+	 *                      server
+	 * @throws NoSuchAlgorithmException If RSA keys cannot be generated
+	 */
+	public AuthenticationFixture(String authServerUrl, boolean realmKey) throws NoSuchAlgorithmException {
+		super();
+
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		this.keyPair = generator.generateKeyPair();
+
+		this.adapterConfig = new AdapterConfig();
+		this.adapterConfig.setRealm(REALM);
+		this.adapterConfig.setAuthServerUrl(authServerUrl);
+		this.adapterConfig.setResource(RESOURCE);
+		this.adapterConfig.setSslRequired("external");
+		if (realmKey) {
+			this.adapterConfig.setRealmKey(PemUtils.encodeKey(this.keyPair.getPublic()));
+		}
+		this.adapterConfig.setCredentials(Collections.singletonMap("secret", "password"));
+
+		this.configuration = new Configuration();
+		Mocks.invoke(this.configuration, "init");
+
+		this.outboundCallGuard = new OutboundCallGuard();
+		Mocks.inject(this.outboundCallGuard, "configuration", this.configuration);
+		Mocks.invoke(this.outboundCallGuard, "init");
+
+		KeycloakHttpClientProvider httpClientProvider = new KeycloakHttpClientProvider();
+		Mocks.inject(httpClientProvider, "configuration", this.configuration);
+		Mocks.inject(httpClientProvider, "outboundCallGuard", this.outboundCallGuard);
+		Mocks.invoke(httpClientProvider, "init");
+
+		this.metrics = new AuthenticationMetrics();
+		Mocks.inject(this.metrics, "configuration", this.configuration);
+		Mocks.invoke(this.metrics, "init");
+
+		this.revocationRegistry = new RevocationRegistry();
+		Mocks.inject(this.revocationRegistry, "configuration", this.configuration);
+		Mocks.invoke(this.revocationRegistry, "init");
+
+		this.deploymentRegistry = new KeycloakDeploymentRegistry();
+		Mocks.inject(this.deploymentRegistry, "configuration", this.configuration);
+		Mocks.inject(this.deploymentRegistry, "deploymentReloadEvent", Mocks.event());
+		Mocks.inject(this.deploymentRegistry, "httpClientProvider", httpClientProvider);
+		Mocks.inject(this.deploymentRegistry, "outboundCallGuard", this.outboundCallGuard);
+		Mocks.invoke(this.deploymentRegistry, "init");
+	}
+
+	/**
+	 * Creates an identity store with a local token cache
+	 *
+	 * @return The identity store
+	 */
+	public BenchmarkIdentityStore createIdentityStore() {
+		return createIdentityStore(createTokenCache(null));
+	}
+
+	/**
+	 * Creates an identity store
+	 *
+	 * @param cache The validated token cache
+	 * @return The identity store
+	 */
+	public BenchmarkIdentityStore createIdentityStore(ValidatedTokenCache cache) {
+		ClaimMapper claimMapper = new ClaimMapper();
+		Mocks.inject(claimMapper, "configuration", this.configuration);
+		Mocks.invoke(claimMapper, "init");
+
+		AuthenticationEventDispatcher eventDispatcher = new AuthenticationEventDispatcher();
+		Mocks.inject(eventDispatcher, "authenticationSuccessBatch", Mocks.event());
+		Mocks.inject(eventDispatcher, "authenticationSuccessEvent", Mocks.event());
+		Mocks.inject(eventDispatcher, "configuration", this.configuration);
+		Mocks.invoke(eventDispatcher, "init");
+
+		TokenIntrospectionService introspectionService = new TokenIntrospectionService();
+		Mocks.inject(introspectionService, "configuration", this.configuration);
+		Mocks.inject(introspectionService, "outboundCallGuard", this.outboundCallGuard);
+		Mocks.invoke(introspectionService, "init");
+
+		RoleMapper roleMapper = new RoleMapper();
+		Mocks.inject(roleMapper, "configuration", this.configuration);
+		Mocks.invoke(roleMapper, "init");
+
+		BenchmarkIdentityStore store = new BenchmarkIdentityStore();
+		Mocks.inject(store, "adapterConfig", this.adapterConfig);
+		Mocks.inject(store, "claimMapper", claimMapper);
+		Mocks.inject(store, "configuration", this.configuration);
+		Mocks.inject(store, "deploymentRegistry", this.deploymentRegistry);
+		Mocks.inject(store, "eventDispatcher", eventDispatcher);
+		Mocks.inject(store, "introspectionService", introspectionService);
+		Mocks.inject(store, "metrics", this.metrics);
+		Mocks.inject(store, "revocationRegistry", this.revocationRegistry);
+		Mocks.inject(store, "roleMapper", roleMapper);
+		Mocks.inject(store, "validatedTokenCache", cache);
+		Mocks.invoke(store, "init");
+		return store;
+	}
+
+	/**
+	 * Creates an authentication mechanism delegating to an identity store
+	 *
+	 * @param identityStore The identity store
+	 * @return The authentication mechanism
+	 */
+	public KeyCloakAuthenticationMechanism createMechanism(IdentityStore identityStore) {
+		SessionTokenRefresher sessionTokenRefresher = new SessionTokenRefresher();
+		Mocks.inject(sessionTokenRefresher, "configuration", this.configuration);
+		Mocks.invoke(sessionTokenRefresher, "init");
+
+		AuthenticationAuditLog auditLog = new AuthenticationAuditLog();
+		Mocks.inject(auditLog, "configuration", this.configuration);
+		Mocks.invoke(auditLog, "init");
+
+		TenantResolver tenantResolver = new TenantResolver();
+		Mocks.inject(tenantResolver, "configuration", this.configuration);
+		Mocks.invoke(tenantResolver, "init");
+
+		KeyCloakAuthenticationMechanism mechanism = new KeyCloakAuthenticationMechanism();
+		Mocks.inject(mechanism, "adapterConfigInstance", Mocks.instance(this.adapterConfig));
+		Mocks.inject(mechanism, "auditLog", auditLog);
+		Mocks.inject(mechanism, "configuration", this.configuration);
+		Mocks.inject(mechanism, "deploymentRegistry", this.deploymentRegistry);
+		Mocks.inject(mechanism, "identityStore", identityStore);
+		Mocks.inject(mechanism, "metrics", this.metrics);
+		Mocks.inject(mechanism, "revocationRegistry", this.revocationRegistry);
+		Mocks.inject(mechanism, "sessionTokenRefresher", sessionTokenRefresher);
+		Mocks.inject(mechanism, "tenantResolver", tenantResolver);
+		Mocks.inject(mechanism, "validatedTokenCache", createTokenCache(null));
+		Mocks.invoke(mechanism, "init");
+		return mechanism;
+	}
+
+	/**
+	 * Creates an access token valid for one hour
+	 *
+	 * @param roleCount  The number of realm roles
+	 * @param claimCount The number of additional claims
+	 * @return The access token
+	 */
+	public AccessToken createToken(int roleCount, int claimCount) {
+		AccessToken token = new AccessToken();
+		token.id(UUID.randomUUID().toString());
+		token.issuer(this.adapterConfig.getAuthServerUrl() + "/realms/" + REALM);
+		token.subject(UUID.randomUUID().toString());
+		token.type("Bearer");
+		token.issuedFor(RESOURCE);
+		token.issuedNow();
+		token.expiration(Time.currentTime() + 3600);
+
+		token.setPreferredUsername("user1");
+		token.setEmail("user1@example.org");
+		token.setName("user1 user1");
+		token.setGivenName("user1");
+		token.setFamilyName("user1");
+
+		AccessToken.Access realmAccess = new AccessToken.Access();
+		for (int i = 0; i < roleCount; i++) {
+			realmAccess.addRole("role-" + i);
+		}
+		token.setRealmAccess(realmAccess);
+
+		for (int i = 0; i < claimCount; i++) {
+			token.setOtherClaims("claim-" + i, "value-" + i);
+		}
+		return token;
+	}
+
+	/**
+	 * Creates a validated token cache
+	 *
+	 * @param sharedCache The shared tier, or <code>null</code> for a local cache
+	 * @return The token cache
+	 */
+	public ValidatedTokenCache createTokenCache(SharedTokenCache sharedCache) {
+		ValidatedTokenCache cache = new ValidatedTokenCache();
+		Mocks.inject(cache, "configuration", this.configuration);
+		Mocks.inject(cache, "revocationRegistry", this.revocationRegistry);
+		Mocks.inject(cache, "sharedCache", sharedCache);
+		Mocks.invoke(cache, "init");
+		return cache;
+	}
+
+	public AdapterConfig getAdapterConfig() {
+		return this.adapterConfig;
+	}
+
+	/**
+	 * Signs a token with the fixture's RSA key
+	 *
+	 * @param token The access token
+	 * @return The encoded JWS
+	 */
+	public String sign(AccessToken token) {
+		return new JWSBuilder().kid(KEY_ID).type("JWT").jsonContent(token).rsa256(this.keyPair.getPrivate());
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.enterprise.credential.Credential;
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.odyssi.security.keycloak.auth.OAuthIdentityStore;
+import net.odyssi.security.keycloak.auth.credential.AccessTokenCredential;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Measures {@link OAuthIdentityStore#validate(Credential)} for a bearer token,
+ * with and without the validated token cache
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BearerTokenValidationBenchmark {
+
+	private Credential credential = null;
+
+	private OAuthIdentityStore identityStore = null;
+
+	@Param({ "true", "false" })
+	public String tokenCache;
+
+	@Setup
+	public void setup() throws Exception {
+		System.setProperty(Constants.TOKEN_CACHE_ENABLED, this.tokenCache);
+
+		AuthenticationFixture fixture = new AuthenticationFixture();
+		String token = fixture.sign(fixture.createToken(10, 10));
+
+		this.credential = new AccessTokenCredential(token);
+		this.identityStore = fixture.createIdentityStore();
+	}
+
+	@Benchmark
+	public CredentialValidationResult validate() {
+		return this.identityStore.validate(this.credential);
+	}
+
+}
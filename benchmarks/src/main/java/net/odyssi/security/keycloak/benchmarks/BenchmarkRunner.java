@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once with a single thread and once with one thread per
+ * available processor, reporting throughput and allocation per operation via
+ * the JMH GC profiler. Any JMH command line options (e.g. a benchmark name
+ * pattern) are passed through.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		int[] threadCounts = { 1, Runtime.getRuntime().availableProcessors() };
+
+		for (int threads : threadCounts) {
+			Options options = new OptionsBuilder().parent(commandLine).threads(threads).addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON).result("jmh-result-" + threads + "t.json").build();
+			new Runner(options).run();
+		}
+	}
+
+}
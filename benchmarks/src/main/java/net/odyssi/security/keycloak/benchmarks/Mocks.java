@@ -0,0 +1,210 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Instance;
+import javax.security.enterprise.AuthenticationStatus;
+import javax.security.enterprise.authentication.mechanism.http.AuthenticationParameters;
+import javax.security.enterprise.authentication.mechanism.http.HttpMessageContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Lightweight, dependency-free stand-ins for the container objects used by the
+ * authentication mechanism and identity store. Mocks are built with
+ * {@link Proxy}; methods without an explicit answer return <code>null</code>,
+ * <code>false</code> or zero.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class Mocks {
+
+	/**
+	 * Creates a CDI {@link Event} that discards everything fired at it
+	 *
+	 * @return The event
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Event<T> event() {
+		return proxy(Event.class, Collections.emptyMap());
+	}
+
+	/**
+	 * Creates an {@link HttpMessageContext} for a protected resource
+	 *
+	 * @return The message context
+	 */
+	public static HttpMessageContext httpMessageContext() {
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("isProtected", args -> Boolean.TRUE);
+		answers.put("getAuthParameters", args -> AuthenticationParameters.withParams());
+		answers.put("notifyContainerAboutLogin", args -> AuthenticationStatus.SUCCESS);
+		answers.put("doNothing", args -> AuthenticationStatus.NOT_DONE);
+		answers.put("responseUnauthorized", args -> AuthenticationStatus.SEND_FAILURE);
+		return proxy(HttpMessageContext.class, answers);
+	}
+
+	/**
+	 * Creates a CDI {@link Instance} resolving to a fixed value
+	 *
+	 * @param value The value
+	 * @return The instance
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Instance<T> instance(T value) {
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("get", args -> value);
+		answers.put("isUnsatisfied", args -> value == null);
+		return proxy(Instance.class, answers);
+	}
+
+	/**
+	 * Sets a (possibly private) field on a bean, emulating CDI field injection
+	 *
+	 * @param target The bean
+	 * @param name   The field name
+	 * @param value  The field value
+	 */
+	public static void inject(Object target, String name, Object value) {
+		for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(target, value);
+				return;
+			} catch (NoSuchFieldException e) {
+				// Continue with the superclass
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		throw new IllegalArgumentException("No field " + name + " on " + target.getClass());
+	}
+
+	/**
+	 * Invokes a (possibly private) no-argument lifecycle method on a bean,
+	 * emulating a CDI <code>@PostConstruct</code> callback
+	 *
+	 * @param target The bean
+	 * @param name   The method name
+	 */
+	public static void invoke(Object target, String name) {
+		for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+			try {
+				Method method = type.getDeclaredMethod(name);
+				method.setAccessible(true);
+				method.invoke(target);
+				return;
+			} catch (NoSuchMethodException e) {
+				// Continue with the superclass
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		throw new IllegalArgumentException("No method " + name + " on " + target.getClass());
+	}
+
+	/**
+	 * Creates a proxy implementing an interface
+	 *
+	 * @param type    The interface
+	 * @param answers The return values, indexed by method name
+	 * @return The proxy
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T proxy(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+		return (T) Proxy.newProxyInstance(Mocks.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					Function<Object[], Object> answer = answers.get(method.getName());
+					if (answer != null) {
+						return answer.apply(args);
+					}
+					if (method.getDeclaringClass() == Object.class) {
+						switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						default:
+							return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+						}
+					}
+					return defaultValue(method.getReturnType());
+				});
+	}
+
+	/**
+	 * Creates a servlet request carrying an <code>Authorization</code> header
+	 *
+	 * @param authorization The header value, or <code>null</code> for none
+	 * @return The servlet request
+	 */
+	public static HttpServletRequest request(String authorization) {
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("getHeader", args -> "Authorization".equalsIgnoreCase((String) args[0]) ? authorization : null);
+		answers.put("getHeaders",
+				args -> "Authorization".equalsIgnoreCase((String) args[0]) && authorization != null
+						? Collections.enumeration(Collections.singletonList(authorization))
+						: Collections.emptyEnumeration());
+		answers.put("getRemoteAddr", args -> "127.0.0.1");
+		answers.put("getMethod", args -> "GET");
+		answers.put("getScheme", args -> "http");
+		answers.put("getServerName", args -> "localhost");
+		answers.put("getServerPort", args -> 8080);
+		answers.put("getRequestURI", args -> "/app/resource");
+		answers.put("getRequestURL", args -> new StringBuffer("http://localhost:8080/app/resource"));
+		answers.put("getContextPath", args -> "/app");
+		return proxy(HttpServletRequest.class, answers);
+	}
+
+	/**
+	 * Creates a servlet response that discards everything written to it
+	 *
+	 * @return The servlet response
+	 */
+	public static HttpServletResponse response() {
+		return proxy(HttpServletResponse.class, Collections.emptyMap());
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		}
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if (type == char.class) {
+			return Character.valueOf('\0');
+		}
+		if (type == long.class) {
+			return Long.valueOf(0);
+		}
+		if (type == float.class) {
+			return Float.valueOf(0);
+		}
+		if (type == double.class) {
+			return Double.valueOf(0);
+		}
+		if (type == byte.class) {
+			return Byte.valueOf((byte) 0);
+		}
+		if (type == short.class) {
+			return Short.valueOf((short) 0);
+		}
+		return Integer.valueOf(0);
+	}
+
+	private Mocks() {
+	}
+}
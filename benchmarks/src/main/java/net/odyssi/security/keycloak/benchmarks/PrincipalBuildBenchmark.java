@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.odyssi.security.keycloak.benchmarks.AuthenticationFixture.BenchmarkIdentityStore;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * Measures the construction, hashing, comparison and role checks of
+ * {@link JWTPrincipal} objects built from small and large access tokens
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrincipalBuildBenchmark {
+
+	@Param({ "5", "300" })
+	public int claims;
+
+	private BenchmarkIdentityStore identityStore = null;
+
+	private String lastRole = null;
+
+	private JWTPrincipal principal = null;
+
+	private JWTPrincipal principalCopy = null;
+
+	@Param({ "5", "300" })
+	public int roles;
+
+	private AccessToken token = null;
+
+	@Benchmark
+	public JWTPrincipal buildPrincipal() {
+		return this.identityStore.principal(this.token);
+	}
+
+	@Benchmark
+	public boolean comparePrincipals() {
+		return this.principal.equals(this.principalCopy);
+	}
+
+	@Benchmark
+	public boolean hasRole() {
+		return this.principal.hasRole(this.lastRole);
+	}
+
+	@Benchmark
+	public int hashPrincipal() {
+		return this.principal.hashCode();
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		AuthenticationFixture fixture = new AuthenticationFixture();
+
+		this.token = fixture.createToken(this.roles, this.claims);
+		this.identityStore = fixture.createIdentityStore();
+		this.lastRole = "role-" + (this.roles - 1);
+		this.principal = this.identityStore.principal(this.token);
+		this.principalCopy = this.identityStore.principal(this.token);
+	}
+
+}
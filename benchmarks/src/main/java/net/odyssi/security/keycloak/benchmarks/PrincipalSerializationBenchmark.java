@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * Compares the compact serialized form of a {@link JWTPrincipal}, as
+ * replicated with HTTP sessions, with default Java serialization. The form is
+ * chosen when the principal class is loaded, so each is measured in its own
+ * fork. The serialized size of each form is printed during setup.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrincipalSerializationBenchmark {
+
+	@Param({ "5", "300" })
+	public int claims;
+
+	private JWTPrincipal principal = null;
+
+	@Param({ "5", "300" })
+	public int roles;
+
+	private byte[] serialized = null;
+
+	private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-D" + Constants.PRINCIPAL_COMPACT_SERIALIZATION + "=true")
+	public Object deserializeCompact() throws IOException, ClassNotFoundException {
+		return deserialize(this.serialized);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-D" + Constants.PRINCIPAL_COMPACT_SERIALIZATION + "=false")
+	public Object deserializeDefault() throws IOException, ClassNotFoundException {
+		return deserialize(this.serialized);
+	}
+
+	private byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-D" + Constants.PRINCIPAL_COMPACT_SERIALIZATION + "=true")
+	public byte[] serializeCompact() throws IOException {
+		return serialize(this.principal);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-D" + Constants.PRINCIPAL_COMPACT_SERIALIZATION + "=false")
+	public byte[] serializeDefault() throws IOException {
+		return serialize(this.principal);
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		AuthenticationFixture fixture = new AuthenticationFixture();
+
+		this.principal = fixture.createIdentityStore().principal(fixture.createToken(this.roles, this.claims));
+		this.serialized = serialize(this.principal);
+
+		System.out.println("Serialized principal size - compact=" //$NON-NLS-1$
+				+ System.getProperty(Constants.PRINCIPAL_COMPACT_SERIALIZATION) + ", roles=" + this.roles //$NON-NLS-1$
+				+ ", claims=" + this.claims + ", bytes=" + this.serialized.length); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.enterprise.AuthenticationException;
+import javax.security.enterprise.AuthenticationStatus;
+import javax.security.enterprise.authentication.mechanism.http.HttpMessageContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.odyssi.security.keycloak.auth.KeyCloakAuthenticationMechanism;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Measures the full
+ * {@link KeyCloakAuthenticationMechanism#validateRequest(HttpServletRequest, HttpServletResponse, HttpMessageContext)}
+ * flow for a request carrying a bearer token
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateRequestBenchmark {
+
+	private HttpMessageContext context = null;
+
+	private KeyCloakAuthenticationMechanism mechanism = null;
+
+	private HttpServletRequest request = null;
+
+	private HttpServletResponse response = null;
+
+	@Param({ "true", "false" })
+	public String tokenCache;
+
+	@Setup
+	public void setup() throws Exception {
+		System.setProperty(Constants.TOKEN_CACHE_ENABLED, this.tokenCache);
+
+		AuthenticationFixture fixture = new AuthenticationFixture();
+		String token = fixture.sign(fixture.createToken(10, 10));
+
+		this.request = Mocks.request(Constants.BEARER_TOKEN_PREFIX + token);
+		this.response = Mocks.response();
+		this.context = Mocks.httpMessageContext();
+		this.mechanism = fixture.createMechanism(fixture.createIdentityStore());
+	}
+
+	@Benchmark
+	public AuthenticationStatus validateRequest() throws AuthenticationException {
+		return this.mechanism.validateRequest(this.request, this.response, this.context);
+	}
+
+}
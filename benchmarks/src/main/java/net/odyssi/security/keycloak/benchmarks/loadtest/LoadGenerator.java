@@ -0,0 +1,309 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import net.odyssi.security.keycloak.common.metrics.LatencyHistogram;
+
+/**
+ * Drives requests against a protected resource at a fixed arrival rate. The
+ * load is open: requests are issued on schedule whether or not earlier ones
+ * have completed, and latency is measured from the time a request was due
+ * rather than from the time it was sent, so a stalled server is not hidden by
+ * a stalled client.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class LoadGenerator {
+
+	/**
+	 * The kinds of traffic generated
+	 */
+	public enum Scenario {
+
+		/**
+		 * A request carrying a bearer token
+		 */
+		BEARER,
+
+		/**
+		 * A browser login through the authorization code grant, ending with a
+		 * request to the resource in the new session
+		 */
+		CODE_GRANT
+	}
+
+	/**
+	 * The requests, errors and latencies recorded for a scenario
+	 */
+	public static final class ScenarioStatistics {
+
+		private final LongAdder errors = new LongAdder();
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final LongAdder requests = new LongAdder();
+
+		public long getErrors() {
+			return this.errors.sum();
+		}
+
+		public LatencyHistogram getLatency() {
+			return this.latency;
+		}
+
+		public long getRequests() {
+			return this.requests.sum();
+		}
+
+		private void record(boolean success, long nanos) {
+			this.requests.increment();
+			if (!success) {
+				this.errors.increment();
+			}
+			this.latency.record(nanos);
+		}
+	}
+
+	/**
+	 * The parts of a response the scenarios act on
+	 */
+	private static final class Response {
+
+		private final String location;
+
+		private final int status;
+
+		private Response(int status, String location) {
+			this.status = status;
+			this.location = location;
+		}
+	}
+
+	private static final int MAX_REDIRECTS = 8;
+
+	private final Supplier<String> bearerTokens;
+
+	private final CloseableHttpClient client;
+
+	private final double codeGrantRatio;
+
+	private final URI resourceUri;
+
+	private final Map<Scenario, ScenarioStatistics> statistics = new EnumMap<>(Scenario.class);
+
+	private final int threads;
+
+	private final ScenarioStatistics total = new ScenarioStatistics();
+
+	/**
+	 * Creates a load generator
+	 *
+	 * @param resourceUrl    The URL of the protected resource
+	 * @param bearerTokens   The source of bearer tokens
+	 * @param codeGrantRatio The share of requests that are code grant logins,
+	 *                       between 0 and 1
+	 * @param threads        The number of client threads
+	 */
+	public LoadGenerator(String resourceUrl, Supplier<String> bearerTokens, double codeGrantRatio, int threads) {
+		super();
+		this.resourceUri = URI.create(resourceUrl);
+		this.bearerTokens = bearerTokens;
+		this.codeGrantRatio = codeGrantRatio;
+		this.threads = threads;
+
+		for (Scenario scenario : Scenario.values()) {
+			this.statistics.put(scenario, new ScenarioStatistics());
+		}
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(threads * 2);
+		connectionManager.setDefaultMaxPerRoute(threads * 2);
+		RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(30000)
+				.setRedirectsEnabled(false).build();
+		this.client = HttpClients.custom().setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig).disableRedirectHandling().build();
+	}
+
+	/**
+	 * Closes the HTTP client
+	 *
+	 * @throws IOException If the client cannot be closed
+	 */
+	public void close() throws IOException {
+		this.client.close();
+	}
+
+	/**
+	 * Executes a request, consuming its response
+	 *
+	 * @param uri           The request URI
+	 * @param authorization The authorization header, or <code>null</code>
+	 * @param context       The client context
+	 * @return The response
+	 * @throws IOException If the request fails
+	 */
+	private Response execute(URI uri, String authorization, HttpClientContext context) throws IOException {
+		HttpGet get = new HttpGet(uri);
+		if (authorization != null) {
+			get.setHeader(HttpHeaders.AUTHORIZATION, authorization);
+		}
+
+		HttpResponse response = this.client.execute(get, context);
+		try {
+			int status = response.getStatusLine().getStatusCode();
+			String location = response.containsHeader(HttpHeaders.LOCATION)
+					? response.getFirstHeader(HttpHeaders.LOCATION).getValue()
+					: null;
+			return new Response(status, location);
+		} finally {
+			EntityUtils.consumeQuietly(response.getEntity());
+		}
+	}
+
+	/**
+	 * Returns the statistics recorded for a scenario
+	 *
+	 * @param scenario The scenario
+	 * @return The statistics
+	 */
+	public ScenarioStatistics getStatistics(Scenario scenario) {
+		return this.statistics.get(scenario);
+	}
+
+	/**
+	 * Returns the statistics recorded across all scenarios
+	 *
+	 * @return The statistics
+	 */
+	public ScenarioStatistics getTotalStatistics() {
+		return this.total;
+	}
+
+	/**
+	 * Sends a request carrying a bearer token
+	 *
+	 * @return Whether the resource was served
+	 */
+	private boolean requestWithBearerToken() {
+		try {
+			Response response = execute(this.resourceUri, "Bearer " + this.bearerTokens.get(),
+					HttpClientContext.create());
+			return response.status == HttpStatus.SC_OK;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Logs in through the authorization code grant, following the redirects to
+	 * the provider and back to the resource
+	 *
+	 * @return Whether the resource was served after the login
+	 */
+	private boolean requestWithCodeGrant() {
+		HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(new BasicCookieStore());
+
+		try {
+			URI uri = this.resourceUri;
+			for (int i = 0; i < MAX_REDIRECTS; i++) {
+				Response response = execute(uri, null, context);
+				if (response.status == HttpStatus.SC_OK) {
+					// The first request must have been redirected to the login page
+					return i > 0;
+				}
+				if (response.status != HttpStatus.SC_MOVED_TEMPORARILY && response.status != HttpStatus.SC_SEE_OTHER
+						|| response.location == null) {
+					return false;
+				}
+				uri = uri.resolve(response.location);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// Counted as an error below
+		}
+		return false;
+	}
+
+	/**
+	 * Generates load at a fixed rate, blocking until all requests have completed
+	 *
+	 * @param rate            The number of requests started per second
+	 * @param durationSeconds The length of the measured period
+	 * @param warmupSeconds   The length of the unmeasured period before it
+	 * @throws InterruptedException If the calling thread is interrupted
+	 */
+	public void run(int rate, int durationSeconds, int warmupSeconds) throws InterruptedException {
+		ExecutorService workers = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>());
+
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		long measuredFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long end = measuredFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+		try {
+			for (long i = 0;; i++) {
+				long intended = start + i * interval;
+				if (intended >= end) {
+					break;
+				}
+
+				long delay;
+				while ((delay = intended - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(delay);
+				}
+
+				boolean measured = intended >= measuredFrom;
+				workers.execute(() -> send(intended, measured));
+			}
+		} finally {
+			workers.shutdown();
+		}
+		workers.awaitTermination(1, TimeUnit.HOURS);
+	}
+
+	/**
+	 * Sends one request of a randomly chosen scenario
+	 *
+	 * @param intended The time the request was due
+	 * @param measured Whether the request is past the warmup period
+	 */
+	private void send(long intended, boolean measured) {
+		Scenario scenario = ThreadLocalRandom.current().nextDouble() < this.codeGrantRatio ? Scenario.CODE_GRANT
+				: Scenario.BEARER;
+		boolean success = scenario == Scenario.CODE_GRANT ? requestWithCodeGrant() : requestWithBearerToken();
+		if (measured) {
+			long latency = System.nanoTime() - intended;
+			this.statistics.get(scenario).record(success, latency);
+			this.total.record(success, latency);
+		}
+	}
+
+}
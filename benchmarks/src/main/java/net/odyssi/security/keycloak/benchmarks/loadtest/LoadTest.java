@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks.loadtest;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import org.keycloak.util.JsonSerialization;
+
+import net.odyssi.security.keycloak.benchmarks.AuthenticationFixture;
+import net.odyssi.security.keycloak.benchmarks.loadtest.LoadGenerator.Scenario;
+import net.odyssi.security.keycloak.benchmarks.loadtest.LoadGenerator.ScenarioStatistics;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.metrics.LatencyHistogram;
+
+/**
+ * Runs a load test of the authentication mechanism. A stub OIDC provider and
+ * a servlet container protected by the mechanism are started in-process, mixed
+ * bearer and code grant traffic is driven at a fixed arrival rate, and the
+ * throughput, latency percentiles and error rates are written as JSON so that
+ * releases can be compared. Options are given as <code>--name=value</code>:
+ *
+ * <ul>
+ * <li><code>--rate</code>: requests started per second (default 100)</li>
+ * <li><code>--duration</code>: measured seconds (default 60)</li>
+ * <li><code>--warmup</code>: unmeasured seconds before that (default 15)</li>
+ * <li><code>--code-grant-ratio</code>: share of code grant logins (default
+ * 0.1)</li>
+ * <li><code>--threads</code>: client and container threads (default 64)</li>
+ * <li><code>--tokens</code>: distinct bearer tokens in rotation (default
+ * 1000)</li>
+ * <li><code>--report</code>: the report file (default
+ * <code>loadtest-report.json</code>)</li>
+ * <li><code>--introspection</code>: validate bearer tokens through the
+ * provider's introspection endpoint</li>
+ * </ul>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class LoadTest {
+
+	/**
+	 * A rotating pool of bearer tokens, each replaced with a fresh one once half
+	 * of its lifespan has passed
+	 */
+	private static final class BearerTokenPool implements Supplier<String> {
+
+		private final AtomicLong next = new AtomicLong();
+
+		private final StubOidcProvider provider;
+
+		private final AtomicLongArray renewAt;
+
+		private final AtomicReferenceArray<String> tokens;
+
+		private BearerTokenPool(StubOidcProvider provider, int size) {
+			this.provider = provider;
+			this.tokens = new AtomicReferenceArray<>(size);
+			this.renewAt = new AtomicLongArray(size);
+			for (int i = 0; i < size; i++) {
+				renew(i);
+			}
+		}
+
+		@Override
+		public String get() {
+			int index = (int) (this.next.getAndIncrement() % this.tokens.length());
+			if (System.nanoTime() - this.renewAt.get(index) > 0) {
+				renew(index);
+			}
+			return this.tokens.get(index);
+		}
+
+		private void renew(int index) {
+			String username = "user-" + index;
+			this.tokens.set(index, this.provider.issueTokens(username, UUID.randomUUID().toString()).getToken());
+			this.renewAt.set(index,
+					System.nanoTime() + TimeUnit.SECONDS.toNanos(StubOidcProvider.TOKEN_LIFESPAN_SECONDS / 2));
+		}
+	}
+
+	public static final String CLIENT_SECRET = "password";
+
+	private static Map<String, Object> latency(LatencyHistogram histogram) {
+		Map<String, Object> latency = new LinkedHashMap<>();
+		latency.put("mean", millis(histogram.getMean()));
+		latency.put("p50", millis(histogram.getQuantile(0.5)));
+		latency.put("p90", millis(histogram.getQuantile(0.9)));
+		latency.put("p99", millis(histogram.getQuantile(0.99)));
+		latency.put("p999", millis(histogram.getQuantile(0.999)));
+		latency.put("max", millis(histogram.getMax()));
+		return latency;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		int rate = Integer.parseInt(options.getOrDefault("rate", "100"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "15"));
+		double codeGrantRatio = Double.parseDouble(options.getOrDefault("code-grant-ratio", "0.1"));
+		int threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+		int tokens = Integer.parseInt(options.getOrDefault("tokens", "1000"));
+		File reportFile = new File(options.getOrDefault("report", "loadtest-report.json"));
+		String validationMode = options.containsKey("introspection") ? Constants.VALIDATION_MODE_INTROSPECTION
+				: Constants.VALIDATION_MODE_LOCAL;
+
+		// Read by the fixture's configuration, which system properties override
+		System.setProperty(Constants.VALIDATION_MODE, validationMode);
+
+		StubOidcProvider provider = new StubOidcProvider(AuthenticationFixture.REALM, AuthenticationFixture.RESOURCE,
+				CLIENT_SECRET);
+		provider.start(0, threads);
+
+		AuthenticationFixture fixture = new AuthenticationFixture(provider.getAuthServerUrl(), false);
+		LoadTestServer server = new LoadTestServer(fixture.createMechanism(fixture.createIdentityStore()));
+		server.start(0, threads);
+
+		LoadGenerator generator = new LoadGenerator(server.getResourceUrl(), new BearerTokenPool(provider, tokens),
+				codeGrantRatio, threads);
+		try {
+			System.out.println("Load testing " + server.getResourceUrl() + " at " + rate + " requests/s for "
+					+ warmup + "s warmup + " + duration + "s");
+			generator.run(rate, duration, warmup);
+		} finally {
+			generator.close();
+			server.stop();
+			provider.stop();
+		}
+
+		Map<String, Object> configuration = new LinkedHashMap<>();
+		configuration.put("rate", rate);
+		configuration.put("durationSeconds", duration);
+		configuration.put("warmupSeconds", warmup);
+		configuration.put("codeGrantRatio", codeGrantRatio);
+		configuration.put("threads", threads);
+		configuration.put("tokens", tokens);
+		configuration.put("validationMode", validationMode);
+
+		Map<String, Object> scenarios = new LinkedHashMap<>();
+		for (Scenario scenario : Scenario.values()) {
+			scenarios.put(scenario.name().toLowerCase(), summary(generator.getStatistics(scenario), duration));
+		}
+
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("configuration", configuration);
+		report.put("scenarios", scenarios);
+		report.put("total", summary(generator.getTotalStatistics(), duration));
+		report.put("providerRequests", provider.getRequestCounts());
+
+		String json = JsonSerialization.writeValueAsPrettyString(report);
+		Files.write(reportFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+		System.out.println(json);
+		System.out.println("Report written to " + reportFile.getAbsolutePath());
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unrecognized argument " + arg);
+			}
+			int separator = arg.indexOf('=');
+			if (separator < 0) {
+				options.put(arg.substring(2), "true");
+			} else {
+				options.put(arg.substring(2, separator), arg.substring(separator + 1));
+			}
+		}
+		return options;
+	}
+
+	private static Map<String, Object> summary(ScenarioStatistics statistics, int durationSeconds) {
+		long requests = statistics.getRequests();
+		long errors = statistics.getErrors();
+
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("requests", requests);
+		summary.put("errors", errors);
+		summary.put("errorRate", requests == 0 ? 0.0 : (double) errors / requests);
+		summary.put("throughputPerSecond", (double) (requests - errors) / durationSeconds);
+		summary.put("latencyMillis", latency(statistics.getLatency()));
+		return summary;
+	}
+
+}
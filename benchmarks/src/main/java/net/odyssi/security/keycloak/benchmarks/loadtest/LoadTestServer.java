@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.security.enterprise.AuthenticationException;
+import javax.security.enterprise.AuthenticationStatus;
+import javax.security.enterprise.authentication.mechanism.http.AuthenticationParameters;
+import javax.security.enterprise.authentication.mechanism.http.HttpAuthenticationMechanism;
+import javax.security.enterprise.authentication.mechanism.http.HttpMessageContext;
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import net.odyssi.security.keycloak.benchmarks.Mocks;
+
+/**
+ * An embedded servlet container serving a protected resource. Every request
+ * is passed to an {@link HttpAuthenticationMechanism} the way the Java EE
+ * Security runtime would, through a lightweight {@link HttpMessageContext}, and
+ * the resource is only served if the mechanism authenticates the caller.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class LoadTestServer {
+
+	/**
+	 * Invokes the authentication mechanism before the protected resource
+	 */
+	private static final class AuthenticationFilter implements Filter {
+
+		private final HttpAuthenticationMechanism mechanism;
+
+		private AuthenticationFilter(HttpAuthenticationMechanism mechanism) {
+			this.mechanism = mechanism;
+		}
+
+		@Override
+		public void destroy() {
+			// Nothing to release
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+				throws IOException, ServletException {
+			HttpServletRequest req = (HttpServletRequest) request;
+			HttpServletResponse res = (HttpServletResponse) response;
+
+			AuthenticationStatus status;
+			try {
+				status = this.mechanism.validateRequest(req, res, httpMessageContext(req, res));
+			} catch (AuthenticationException e) {
+				throw new ServletException(e);
+			}
+
+			// Responses the KeyCloak adapter has already answered, e.g. with a redirect
+			// to the login page, are not passed on to the resource
+			if (status == AuthenticationStatus.SUCCESS && !res.isCommitted()
+					&& res.getStatus() == HttpServletResponse.SC_OK) {
+				chain.doFilter(request, response);
+			} else if (status == AuthenticationStatus.NOT_DONE && !res.isCommitted()) {
+				res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			}
+		}
+
+		@Override
+		public void init(FilterConfig filterConfig) {
+			// Nothing to configure
+		}
+	}
+
+	/**
+	 * The protected resource
+	 */
+	private static final class ResourceServlet extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+			resp.setContentType("text/plain");
+			resp.getWriter().write("OK");
+		}
+	}
+
+	public static final String CONTEXT_PATH = "/app";
+
+	public static final String RESOURCE_PATH = "/resource";
+
+	/**
+	 * Creates the message context for a request to a protected resource
+	 *
+	 * @param req The servlet request
+	 * @param res The servlet response
+	 * @return The message context
+	 */
+	private static HttpMessageContext httpMessageContext(HttpServletRequest req, HttpServletResponse res) {
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("isProtected", args -> Boolean.TRUE);
+		answers.put("getAuthParameters", args -> AuthenticationParameters.withParams());
+		answers.put("getRequest", args -> req);
+		answers.put("getResponse", args -> res);
+		answers.put("doNothing", args -> AuthenticationStatus.NOT_DONE);
+		answers.put("notifyContainerAboutLogin", args -> {
+			if (args.length == 1 && args[0] instanceof CredentialValidationResult
+					&& ((CredentialValidationResult) args[0]).getStatus() != CredentialValidationResult.Status.VALID) {
+				return unauthorized(res);
+			}
+			return AuthenticationStatus.SUCCESS;
+		});
+		answers.put("responseUnauthorized", args -> unauthorized(res));
+		return Mocks.proxy(HttpMessageContext.class, answers);
+	}
+
+	private static AuthenticationStatus unauthorized(HttpServletResponse res) {
+		if (!res.isCommitted()) {
+			res.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+		}
+		return AuthenticationStatus.SEND_FAILURE;
+	}
+
+	private final HttpAuthenticationMechanism mechanism;
+
+	private Server server = null;
+
+	public LoadTestServer(HttpAuthenticationMechanism mechanism) {
+		super();
+		this.mechanism = mechanism;
+	}
+
+	/**
+	 * Returns the URL of the protected resource
+	 *
+	 * @return The resource URL
+	 */
+	public String getResourceUrl() {
+		ServerConnector connector = (ServerConnector) this.server.getConnectors()[0];
+		return "http://" + connector.getHost() + ":" + connector.getLocalPort() + CONTEXT_PATH + RESOURCE_PATH;
+	}
+
+	/**
+	 * Starts the container on a loopback port
+	 *
+	 * @param port    The port, or <code>0</code> for any free port
+	 * @param threads The maximum number of request threads
+	 * @throws Exception If the container cannot be started
+	 */
+	public void start(int port, int threads) throws Exception {
+		this.server = new Server(new QueuedThreadPool(threads, Math.min(threads, 8)));
+
+		ServerConnector connector = new ServerConnector(this.server);
+		connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+		connector.setPort(port);
+		connector.setAcceptQueueSize(1024);
+		this.server.addConnector(connector);
+
+		ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+		context.setContextPath(CONTEXT_PATH);
+		context.addFilter(new FilterHolder(new AuthenticationFilter(this.mechanism)), "/*",
+				EnumSet.of(DispatcherType.REQUEST));
+		context.addServlet(new ServletHolder(new ResourceServlet()), "/*");
+		this.server.setHandler(context);
+
+		this.server.start();
+	}
+
+	/**
+	 * Stops the container
+	 *
+	 * @throws Exception If the container cannot be stopped
+	 */
+	public void stop() throws Exception {
+		if (this.server != null) {
+			this.server.stop();
+		}
+	}
+
+}
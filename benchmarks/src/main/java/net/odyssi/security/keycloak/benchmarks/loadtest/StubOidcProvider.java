@@ -0,0 +1,457 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.benchmarks.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKBuilder;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.jose.jws.crypto.RSAProvider;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.RefreshToken;
+import org.keycloak.util.JsonSerialization;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for a KeyCloak realm, serving the OpenID Connect
+ * endpoints used by the library: discovery, JWKS, token (authorization code,
+ * password, client credentials and refresh token grants), introspection, and a
+ * login page that immediately redirects back with an authorization code. Tokens
+ * are signed with a key generated at startup. Nothing is persisted, and any
+ * user name is accepted.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class StubOidcProvider {
+
+	/**
+	 * The endpoints served by the provider
+	 */
+	public enum Endpoint {
+		AUTHORIZATION, DISCOVERY, INTROSPECTION, JWKS, TOKEN
+	}
+
+	public static final String KEY_ID = "stub-key";
+
+	public static final int TOKEN_LIFESPAN_SECONDS = 300;
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Map<String, String> parseParameters(String encoded) {
+		Map<String, String> parameters = new HashMap<>();
+		if (encoded == null || encoded.isEmpty()) {
+			return parameters;
+		}
+		try {
+			for (String pair : encoded.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return parameters;
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		try (InputStream in = exchange.getRequestBody()) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				body.write(buffer, 0, read);
+			}
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void send(HttpExchange exchange, int status, Object json) throws IOException {
+		byte[] body = JsonSerialization.writeValueAsBytes(json);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private final String clientId;
+
+	private final String clientSecret;
+
+	/**
+	 * Issued authorization codes, mapped to the user they were issued to
+	 */
+	private final ConcurrentMap<String, String> codes = new ConcurrentHashMap<>();
+
+	private ExecutorService executor = null;
+
+	private final KeyPair keyPair;
+
+	private final String realm;
+
+	private final LongAdder[] requests = new LongAdder[Endpoint.values().length];
+
+	private HttpServer server = null;
+
+	/**
+	 * Creates a provider for a realm and confidential client
+	 *
+	 * @param realm        The realm name
+	 * @param clientId     The client identifier
+	 * @param clientSecret The client secret
+	 * @throws NoSuchAlgorithmException If RSA keys cannot be generated
+	 */
+	public StubOidcProvider(String realm, String clientId, String clientSecret) throws NoSuchAlgorithmException {
+		super();
+		this.realm = realm;
+		this.clientId = clientId;
+		this.clientSecret = clientSecret;
+
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		this.keyPair = generator.generateKeyPair();
+
+		for (int i = 0; i < this.requests.length; i++) {
+			this.requests[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Returns true if a token request carries the client's credentials, either
+	 * as HTTP basic authentication or as form parameters
+	 */
+	private boolean authenticateClient(HttpExchange exchange, Map<String, String> form) {
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorization != null && authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+			String credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()),
+					StandardCharsets.UTF_8);
+			return credentials.equals(encode(this.clientId) + ":" + encode(this.clientSecret))
+					|| credentials.equals(this.clientId + ":" + this.clientSecret);
+		}
+		return this.clientId.equals(form.get("client_id")) && this.clientSecret.equals(form.get("client_secret"));
+	}
+
+	/**
+	 * Creates an access token for a user
+	 *
+	 * @param username     The user name
+	 * @param sessionState The session identifier
+	 * @return The access token
+	 */
+	public AccessToken createAccessToken(String username, String sessionState) {
+		AccessToken token = new AccessToken();
+		token.id(UUID.randomUUID().toString());
+		token.issuer(getIssuer());
+		token.subject(UUID.nameUUIDFromBytes(username.getBytes(StandardCharsets.UTF_8)).toString());
+		token.type("Bearer");
+		token.issuedFor(this.clientId);
+		token.issuedNow();
+		token.expiration(Time.currentTime() + TOKEN_LIFESPAN_SECONDS);
+		token.setSessionState(sessionState);
+		token.setPreferredUsername(username);
+		token.setEmail(username + "@example.org");
+
+		AccessToken.Access realmAccess = new AccessToken.Access();
+		realmAccess.addRole("user");
+		token.setRealmAccess(realmAccess);
+		return token;
+	}
+
+	/**
+	 * Returns the KeyCloak server URL of the provider, for use as an adapter's
+	 * <code>auth-server-url</code>
+	 *
+	 * @return The server URL
+	 */
+	public String getAuthServerUrl() {
+		return "http://" + this.server.getAddress().getAddress().getHostAddress() + ":"
+				+ this.server.getAddress().getPort() + "/auth";
+	}
+
+	public String getIssuer() {
+		return getAuthServerUrl() + "/realms/" + this.realm;
+	}
+
+	/**
+	 * Returns the number of requests served by each endpoint
+	 *
+	 * @return The request counts, indexed by endpoint name
+	 */
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (Endpoint endpoint : Endpoint.values()) {
+			counts.put(endpoint.name().toLowerCase(), this.requests[endpoint.ordinal()].sum());
+		}
+		return counts;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			String prefix = "/auth/realms/" + this.realm;
+			String endpoint = path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+			switch (endpoint) {
+			case "/.well-known/openid-configuration":
+				handleDiscovery(exchange);
+				break;
+			case "/protocol/openid-connect/auth":
+				handleAuthorization(exchange);
+				break;
+			case "/protocol/openid-connect/certs":
+				handleJwks(exchange);
+				break;
+			case "/protocol/openid-connect/token":
+				handleToken(exchange);
+				break;
+			case "/protocol/openid-connect/token/introspect":
+				handleIntrospection(exchange);
+				break;
+			default:
+				exchange.sendResponseHeaders(404, -1);
+				break;
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Simulates a login page: the user is logged in without a prompt and
+	 * redirected back to the client with an authorization code
+	 */
+	private void handleAuthorization(HttpExchange exchange) throws IOException {
+		this.requests[Endpoint.AUTHORIZATION.ordinal()].increment();
+
+		Map<String, String> query = parseParameters(exchange.getRequestURI().getRawQuery());
+		String redirectUri = query.get("redirect_uri");
+		if (redirectUri == null || !this.clientId.equals(query.get("client_id"))) {
+			exchange.sendResponseHeaders(400, -1);
+			return;
+		}
+
+		String code = UUID.randomUUID().toString();
+		this.codes.put(code, query.getOrDefault("login_hint", "user-" + (code.hashCode() & 0xff)));
+
+		StringBuilder location = new StringBuilder(redirectUri).append(redirectUri.indexOf('?') < 0 ? '?' : '&');
+		if (query.containsKey("state")) {
+			location.append("state=").append(encode(query.get("state"))).append('&');
+		}
+		location.append("session_state=").append(UUID.randomUUID()).append("&code=").append(code);
+
+		exchange.getResponseHeaders().set("Location", location.toString());
+		exchange.sendResponseHeaders(302, -1);
+	}
+
+	private void handleDiscovery(HttpExchange exchange) throws IOException {
+		this.requests[Endpoint.DISCOVERY.ordinal()].increment();
+
+		String protocol = getIssuer() + "/protocol/openid-connect";
+		Map<String, Object> discovery = new LinkedHashMap<>();
+		discovery.put("issuer", getIssuer());
+		discovery.put("authorization_endpoint", protocol + "/auth");
+		discovery.put("token_endpoint", protocol + "/token");
+		discovery.put("token_introspection_endpoint", protocol + "/token/introspect");
+		discovery.put("introspection_endpoint", protocol + "/token/introspect");
+		discovery.put("jwks_uri", protocol + "/certs");
+		discovery.put("grant_types_supported",
+				new String[] { "authorization_code", "client_credentials", "password", "refresh_token" });
+		discovery.put("response_types_supported", new String[] { "code" });
+		discovery.put("id_token_signing_alg_values_supported", new String[] { "RS256" });
+		send(exchange, 200, discovery);
+	}
+
+	private void handleIntrospection(HttpExchange exchange) throws IOException {
+		this.requests[Endpoint.INTROSPECTION.ordinal()].increment();
+
+		Map<String, String> form = parseParameters(readBody(exchange));
+		if (!authenticateClient(exchange, form)) {
+			exchange.sendResponseHeaders(401, -1);
+			return;
+		}
+
+		Map<String, Object> response = new LinkedHashMap<>();
+		AccessToken token = verify(form.get("token"), AccessToken.class);
+		if (token != null && token.isActive()) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> claims = JsonSerialization.mapper.convertValue(token, Map.class);
+			response.putAll(claims);
+			response.put("active", Boolean.TRUE);
+		} else {
+			response.put("active", Boolean.FALSE);
+		}
+		send(exchange, 200, response);
+	}
+
+	private void handleJwks(HttpExchange exchange) throws IOException {
+		this.requests[Endpoint.JWKS.ordinal()].increment();
+
+		JSONWebKeySet keySet = new JSONWebKeySet();
+		keySet.setKeys(new JWK[] { JWKBuilder.create().kid(KEY_ID).rs256(this.keyPair.getPublic()) });
+		send(exchange, 200, keySet);
+	}
+
+	private void handleToken(HttpExchange exchange) throws IOException {
+		this.requests[Endpoint.TOKEN.ordinal()].increment();
+
+		Map<String, String> form = parseParameters(readBody(exchange));
+		if (!authenticateClient(exchange, form)) {
+			exchange.sendResponseHeaders(401, -1);
+			return;
+		}
+
+		String username = null;
+		String sessionState = UUID.randomUUID().toString();
+		String grantType = String.valueOf(form.get("grant_type"));
+		switch (grantType) {
+		case "authorization_code":
+			username = this.codes.remove(String.valueOf(form.get("code")));
+			break;
+		case "client_credentials":
+			username = "service-account-" + this.clientId;
+			break;
+		case "password":
+			username = form.get("username");
+			break;
+		case "refresh_token":
+			RefreshToken refreshToken = verify(form.get("refresh_token"), RefreshToken.class);
+			if (refreshToken != null && refreshToken.isActive()) {
+				username = refreshToken.getPreferredUsername();
+				sessionState = refreshToken.getSessionState();
+			}
+			break;
+		default:
+			break;
+		}
+
+		if (username == null) {
+			Map<String, Object> error = new LinkedHashMap<>();
+			error.put("error", "invalid_grant");
+			send(exchange, 400, error);
+			return;
+		}
+
+		send(exchange, 200, issueTokens(username, sessionState));
+	}
+
+	/**
+	 * Issues an access and refresh token for a user
+	 *
+	 * @param username     The user name
+	 * @param sessionState The session identifier
+	 * @return The token response
+	 */
+	public AccessTokenResponse issueTokens(String username, String sessionState) {
+		AccessToken accessToken = createAccessToken(username, sessionState);
+
+		RefreshToken refreshToken = new RefreshToken(accessToken);
+		refreshToken.id(UUID.randomUUID().toString());
+		refreshToken.expiration(Time.currentTime() + TOKEN_LIFESPAN_SECONDS * 6);
+		refreshToken.setPreferredUsername(username);
+
+		AccessTokenResponse response = new AccessTokenResponse();
+		response.setToken(sign(accessToken));
+		response.setExpiresIn(TOKEN_LIFESPAN_SECONDS);
+		response.setRefreshToken(sign(refreshToken));
+		response.setRefreshExpiresIn(TOKEN_LIFESPAN_SECONDS * 6);
+		response.setTokenType("bearer");
+		response.setNotBeforePolicy(0);
+		response.setSessionState(sessionState);
+		return response;
+	}
+
+	/**
+	 * Signs a token with the provider's key
+	 *
+	 * @param token The token
+	 * @return The encoded JWS
+	 */
+	public String sign(Object token) {
+		return new JWSBuilder().kid(KEY_ID).type("JWT").jsonContent(token).rsa256(this.keyPair.getPrivate());
+	}
+
+	/**
+	 * Starts the provider on a loopback port
+	 *
+	 * @param port    The port, or <code>0</code> for any free port
+	 * @param threads The number of request threads
+	 * @throws IOException If the server cannot be started
+	 */
+	public void start(int port, int threads) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/auth/realms/" + this.realm, this::handle);
+		this.server.start();
+	}
+
+	/**
+	 * Stops the provider
+	 */
+	public void stop() {
+		if (this.server != null) {
+			this.server.stop(0);
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Verifies a token signed by the provider
+	 *
+	 * @param encoded The encoded JWS
+	 * @param type    The token type
+	 * @return The token, or <code>null</code> if it is not a valid token
+	 */
+	private <T> T verify(String encoded, Class<T> type) {
+		if (encoded == null) {
+			return null;
+		}
+		try {
+			JWSInput input = new JWSInput(encoded);
+			return RSAProvider.verify(input, this.keyPair.getPublic()) ? input.readJsonContent(type) : null;
+		} catch (JWSInputException e) {
+			return null;
+		}
+	}
+
+}
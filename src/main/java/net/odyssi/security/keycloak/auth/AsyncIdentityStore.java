@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth;
+
+import java.util.concurrent.CompletionStage;
+
+import javax.security.enterprise.credential.Credential;
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+import javax.security.enterprise.identitystore.IdentityStore;
+
+/**
+ * An {@link IdentityStore} that can validate credentials without blocking the
+ * calling thread while waiting on the identity provider
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public interface AsyncIdentityStore extends IdentityStore {
+
+	/**
+	 * Completes a validation started with {@link #validateAsync(Credential)} on
+	 * the calling thread, e.g. recording its outcome and emitting the events
+	 * that {@link #validate(Credential)} would have. Callers must invoke this on
+	 * the request thread with the result they act on, including a result they
+	 * substituted because the validation did not complete in time.
+	 *
+	 * @param result The validation result
+	 */
+	void completeValidation(CredentialValidationResult result);
+
+	/**
+	 * Validates a credential asynchronously. Validations that need no remote
+	 * call, such as cached tokens, complete immediately on the calling thread.
+	 * The returned stage only validates the credential, leaving the outcome to
+	 * {@link #completeValidation(CredentialValidationResult)}, and is not shared
+	 * with other callers, so it may be cancelled once the caller gives up on it.
+	 *
+	 * @param credential The credential to validate
+	 * @return The pending validation result
+	 */
+	CompletionStage<CredentialValidationResult> validateAsync(Credential credential);
+
+}
@@ -5,8 +5,18 @@ package net.odyssi.security.keycloak.auth;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.security.auth.callback.Callback;
@@ -26,20 +36,39 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.keycloak.adapters.AdapterDeploymentContext;
 import org.keycloak.adapters.AuthenticatedActionsHandler;
 import org.keycloak.adapters.KeycloakDeployment;
-import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.adapters.PreAuthActionsHandler;
 import org.keycloak.adapters.servlet.FilterRequestAuthenticator;
 import org.keycloak.adapters.servlet.OIDCFilterSessionStore;
 import org.keycloak.adapters.servlet.OIDCServletHttpFacade;
 import org.keycloak.adapters.spi.AuthChallenge;
 import org.keycloak.adapters.spi.AuthOutcome;
+import org.keycloak.adapters.spi.UserSessionManagement;
+import org.keycloak.common.util.Time;
+import org.keycloak.constants.AdapterConstants;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.adapters.config.AdapterConfig;
 
+import net.odyssi.security.keycloak.auth.cache.TokenCacheInvalidation;
+import net.odyssi.security.keycloak.auth.cache.ValidatedTokenCache;
 import net.odyssi.security.keycloak.auth.credential.AccessTokenCredential;
 import net.odyssi.security.keycloak.auth.credential.TokenResponseCredential;
+import net.odyssi.security.keycloak.auth.deployment.DeploymentReloadEvent;
+import net.odyssi.security.keycloak.auth.deployment.KeycloakDeploymentRegistry;
+import net.odyssi.security.keycloak.auth.path.PathPatternSet;
+import net.odyssi.security.keycloak.auth.revocation.RevocationRegistry;
+import net.odyssi.security.keycloak.auth.session.SessionTokenRefresher;
+import net.odyssi.security.keycloak.auth.tenant.TenantResolver;
+import net.odyssi.security.keycloak.auth.token.BearerTokenPrecheck;
+import net.odyssi.security.keycloak.common.Configuration;
 import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.audit.AuditOutcome;
+import net.odyssi.security.keycloak.common.audit.AuthenticationAuditLog;
+import net.odyssi.security.keycloak.common.metrics.AuthenticationMetrics;
+import net.odyssi.security.keycloak.common.metrics.AuthenticationStage;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
 
 /**
  * A Soteria {@link HttpAuthenticationMechanism} used to delegate authentication
@@ -57,13 +86,104 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 	 */
 	private static final Logger logger = Logger.getLogger(KeyCloakAuthenticationMechanism.class);
 
+	public static final long DEFAULT_VALIDATION_TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * The path KeyCloak posts not-before policies to, relative to the client's
+	 * admin URL
+	 */
+	private static final String PUSH_NOT_BEFORE_PATH = "/" + AdapterConstants.K_PUSH_NOT_BEFORE; //$NON-NLS-1$
+
+	/**
+	 * The adapter configuration, resolved once from the
+	 * {@link #adapterConfigInstance} on first use
+	 */
+	private volatile AdapterConfig adapterConfig = null;
+
 	@Inject
 	@SuppressWarnings("cdi-ambiguous-dependency")
 	private Instance<AdapterConfig> adapterConfigInstance = null;
 
+	@Inject
+	private AuthenticationAuditLog auditLog = null;
+
+	/**
+	 * The bearer token pre-checks, built on first use, indexed by the adapter
+	 * configuration of their realm
+	 */
+	private final ConcurrentMap<AdapterConfig, BearerTokenPrecheck> bearerTokenPrechecks = new ConcurrentHashMap<>();
+
+	/**
+	 * Whether bearer tokens are pre-checked before verification
+	 */
+	private boolean bearerTokenPrecheckEnabled = true;
+
+	@Inject
+	private Configuration configuration = null;
+
+	@Inject
+	private KeycloakDeploymentRegistry deploymentRegistry = null;
+
 	@Inject
 	private IdentityStore identityStore = null;
 
+	/**
+	 * Paths for which the mechanism does nothing at all
+	 */
+	private PathPatternSet ignoredPaths = PathPatternSet.EMPTY;
+
+	@Inject
+	private AuthenticationMetrics metrics = null;
+
+	/**
+	 * Paths for which anonymous requests are not authenticated
+	 */
+	private PathPatternSet publicPaths = PathPatternSet.EMPTY;
+
+	@Inject
+	private RevocationRegistry revocationRegistry = null;
+
+	@Inject
+	private SessionTokenRefresher sessionTokenRefresher = null;
+
+	@Inject
+	private TenantResolver tenantResolver = null;
+
+	@Inject
+	private ValidatedTokenCache validatedTokenCache = null;
+
+	/**
+	 * The maximum time a request thread waits for an asynchronous credential
+	 * validation
+	 */
+	private long validationTimeoutMillis = DEFAULT_VALIDATION_TIMEOUT_MILLIS;
+
+	/**
+	 * Records the outcome of an authentication in the audit log
+	 *
+	 * @param req        The servlet request
+	 * @param outcome    The outcome
+	 * @param result     The credential validation result, or <code>null</code>
+	 *                   if no credential was validated
+	 * @param startNanos The {@link System#nanoTime()} the authentication started
+	 *                   at
+	 */
+	protected void audit(HttpServletRequest req, AuditOutcome outcome, CredentialValidationResult result,
+			long startNanos) {
+		if (!this.auditLog.isEnabled()) {
+			return;
+		}
+
+		String subject = null;
+		String issuer = null;
+		if (result != null && result.getCallerPrincipal() instanceof JWTPrincipal) {
+			JWTPrincipal principal = (JWTPrincipal) result.getCallerPrincipal();
+			subject = principal.getIdentifier();
+			issuer = principal.getIssuer();
+		}
+		this.auditLog.record(outcome, subject, issuer, req.getRemoteAddr(), startNanos);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -79,6 +199,17 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 			logger.debug("cleanSubject(HttpServletRequest, HttpServletResponse, HttpMessageContext) - start"); //$NON-NLS-1$
 		}
 
+		Principal principal = request.getUserPrincipal();
+		if (principal instanceof JWTPrincipal) {
+			// The caller logged out, so their tokens are no longer served from any
+			// node's cache
+			JWTPrincipal jwtPrincipal = (JWTPrincipal) principal;
+			if (jwtPrincipal.getIssuer() != null && jwtPrincipal.getIdentifier() != null) {
+				this.validatedTokenCache.invalidate(
+						TokenCacheInvalidation.subject(jwtPrincipal.getIssuer(), jwtPrincipal.getIdentifier()));
+			}
+		}
+
 		HttpAuthenticationMechanism.super.cleanSubject(request, response, httpMessageContext);
 
 		if (logger.isDebugEnabled()) {
@@ -86,6 +217,144 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 		}
 	}
 
+	/**
+	 * Returns the KeyCloak {@link AdapterConfig}, resolving it on first use
+	 *
+	 * @return The adapter configuration, or <code>null</code> if none is available
+	 */
+	protected AdapterConfig getAdapterConfig() {
+		AdapterConfig config = this.adapterConfig;
+		if (config == null && !this.adapterConfigInstance.isUnsatisfied()) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("getAdapterConfig() - Resolving Keycloak adapter config..."); //$NON-NLS-1$
+			}
+
+			config = this.adapterConfigInstance.get();
+			this.adapterConfig = config;
+		}
+		return config;
+	}
+
+	/**
+	 * Returns the KeyCloak {@link AdapterConfig} of the tenant a request belongs
+	 * to, or the default adapter configuration if the request matches no tenant
+	 *
+	 * @param req The servlet request
+	 * @return The adapter configuration, or <code>null</code> if none is available
+	 */
+	protected AdapterConfig getAdapterConfig(HttpServletRequest req) {
+		if (this.tenantResolver.isEnabled()) {
+			AdapterConfig config = this.tenantResolver.resolve(req);
+			if (config != null) {
+				return config;
+			}
+		}
+		return getAdapterConfig();
+	}
+
+	/**
+	 * Returns the pre-check applied to bearer tokens, building it on first use
+	 *
+	 * @param adapterConfig The Keycloak adapter configuration
+	 * @return The bearer token pre-check
+	 */
+	protected BearerTokenPrecheck getBearerTokenPrecheck(AdapterConfig adapterConfig) {
+		BearerTokenPrecheck precheck = this.bearerTokenPrechecks.get(adapterConfig);
+		if (precheck == null) {
+			precheck = this.bearerTokenPrechecks.computeIfAbsent(adapterConfig,
+					config -> new BearerTokenPrecheck(this.deploymentRegistry.getDeployment(config).getRealmInfoUrl()));
+		}
+		return precheck;
+	}
+
+	/**
+	 * Handles a not-before policy pushed by the KeyCloak admin console. The
+	 * KeyCloak adapter verifies the signed push and updates the deployment, whose
+	 * new not-before time is then applied to the {@link RevocationRegistry} so
+	 * that cached validations of older tokens are rejected, and published to the
+	 * {@link ValidatedTokenCache} of every node.
+	 *
+	 * @param adapterConfig The Keycloak adapter configuration
+	 * @param req           The servlet request
+	 * @param res           The servlet response
+	 * @param ctx           The message context
+	 * @return The authentication status
+	 */
+	protected AuthenticationStatus handlePushNotBefore(AdapterConfig adapterConfig, HttpServletRequest req,
+			HttpServletResponse res, HttpMessageContext ctx) {
+		KeycloakDeployment deployment = this.deploymentRegistry.getDeployment(adapterConfig);
+		if (deployment == null || !deployment.isConfigured()) {
+			return ctx.doNothing();
+		}
+
+		UserSessionManagement sessionManagement = new UserSessionManagement() {
+
+			@Override
+			public void logoutAll() {
+				// Not used for not-before pushes
+			}
+
+			@Override
+			public void logoutHttpSessions(List<String> ids) {
+				// Not used for not-before pushes
+			}
+		};
+
+		OIDCServletHttpFacade facade = new OIDCServletHttpFacade(req, res);
+		boolean handled = new PreAuthActionsHandler(sessionManagement, new AdapterDeploymentContext(deployment), facade)
+				.handleRequest();
+		if (!handled) {
+			return ctx.doNothing();
+		}
+
+		this.revocationRegistry.pushRealmNotBefore(deployment.getRealmInfoUrl(), deployment.getNotBefore());
+		this.validatedTokenCache.invalidate(
+				TokenCacheInvalidation.issuedBefore(deployment.getRealmInfoUrl(), deployment.getNotBefore()));
+		if (logger.isInfoEnabled()) {
+			logger.info(
+					"handlePushNotBefore(AdapterConfig, HttpServletRequest, HttpServletResponse, HttpMessageContext) - Not-before policy pushed - realm=" //$NON-NLS-1$
+							+ deployment.getRealm() + ", notBefore=" + deployment.getNotBefore()); //$NON-NLS-1$
+		}
+		return AuthenticationStatus.SEND_CONTINUE;
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		this.bearerTokenPrecheckEnabled = this.configuration.getBoolean(Constants.BEARER_PRECHECK_ENABLED, true);
+		this.validationTimeoutMillis = this.configuration.getLong(Constants.VALIDATION_TIMEOUT,
+				DEFAULT_VALIDATION_TIMEOUT_MILLIS);
+		this.ignoredPaths = PathPatternSet.compile(this.configuration.getStrings(Constants.IGNORED_PATHS));
+		this.publicPaths = PathPatternSet.compile(this.configuration.getStrings(Constants.PUBLIC_PATHS));
+
+		if (logger.isInfoEnabled() && !(this.ignoredPaths.isEmpty() && this.publicPaths.isEmpty())) {
+			logger.info("init() - Authentication bypass configured - ignoredPaths=" + this.ignoredPaths //$NON-NLS-1$
+					+ ", publicPaths=" + this.publicPaths); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns true if the request can skip authentication altogether. Ignored
+	 * paths are always skipped; public paths are skipped only for requests that
+	 * carry neither a bearer token nor a session, so that callers who are logged
+	 * in are still recognized there.
+	 *
+	 * @param req The servlet request
+	 * @return The status
+	 */
+	protected boolean isBypassed(HttpServletRequest req) {
+		String uri = req.getRequestURI();
+		int offset = req.getContextPath().length();
+
+		if (this.ignoredPaths.matches(uri, offset)) {
+			return true;
+		}
+		return this.publicPaths.matches(uri, offset) && req.getHeader(Constants.AUTHORIZATION_HEADER) == null
+				&& req.getSession(false) == null;
+	}
+
 	/**
 	 * Returns true if the request is a login request
 	 *
@@ -119,6 +388,33 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 		return loginRequest;
 	}
 
+	/**
+	 * Notifies the container about the result of a credential validation
+	 *
+	 * @param ctx    The message context
+	 * @param result The validation result
+	 * @return The authentication status
+	 */
+	protected AuthenticationStatus notifyContainerAboutLogin(HttpMessageContext ctx,
+			CredentialValidationResult result) {
+		long start = this.metrics.start();
+		AuthenticationStatus status = ctx.notifyContainerAboutLogin(result);
+		this.metrics.recordStage(AuthenticationStage.CONTAINER_LOGIN, start);
+		return status;
+	}
+
+	/**
+	 * Drops the bearer token pre-checks when a reloaded deployment has a new
+	 * issuer, so that they are rebuilt against it on next use
+	 *
+	 * @param event The reload event
+	 */
+	protected void onDeploymentReload(@Observes DeploymentReloadEvent event) {
+		if (event.isIssuerChanged()) {
+			this.bearerTokenPrechecks.clear();
+		}
+	}
+
 	/**
 	 * Performs a KeyCloak authentication
 	 *
@@ -135,15 +431,43 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 			logger.debug("performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - start"); //$NON-NLS-1$
 		}
 
+		// Reject malformed and expired bearer tokens before any deployment, facade
+		// or signature verification work is done
+		long requestStart = System.nanoTime();
+		long start = this.metrics.start();
+		String authorizationHeader = req.getHeader(Constants.AUTHORIZATION_HEADER);
+		int tokenStart = StringUtils.isEmpty(authorizationHeader) ? -1
+				: BearerTokenPrecheck.tokenStart(authorizationHeader);
+		if (tokenStart >= 0 && this.bearerTokenPrecheckEnabled) {
+			BearerTokenPrecheck.Result precheck = getBearerTokenPrecheck(adapterConfig).check(authorizationHeader,
+					tokenStart, authorizationHeader.length(), Time.currentTime());
+			if (precheck != BearerTokenPrecheck.Result.ACCEPTED) {
+				this.metrics.recordStage(AuthenticationStage.HEADER_PARSING, start);
+				audit(req, AuditOutcome.REJECTED, null, requestStart);
+				if (logger.isDebugEnabled()) {
+					logger.debug(
+							"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - Bearer token rejected by pre-check - precheck=" //$NON-NLS-1$
+									+ precheck);
+					logger.debug("performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - end"); //$NON-NLS-1$
+				}
+				return ctx.responseUnauthorized();
+			}
+		}
+
+		this.metrics.recordStage(AuthenticationStage.HEADER_PARSING, start);
+
 		AuthenticationStatus status = null;
 		OIDCServletHttpFacade facade = new OIDCServletHttpFacade(req, res);
-		KeycloakDeployment deployment = KeycloakDeploymentBuilder.build(adapterConfig);
+		start = this.metrics.start();
+		KeycloakDeployment deployment = this.deploymentRegistry.getDeployment(adapterConfig);
+		this.metrics.recordStage(AuthenticationStage.DEPLOYMENT_LOOKUP, start);
 
 		if (deployment == null || !deployment.isConfigured()) {
 			logger.error(
 					"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - KeyCloak deployment is not configured", //$NON-NLS-1$
 					null);
 
+			audit(req, AuditOutcome.FAILED, null, requestStart);
 			status = ctx.responseUnauthorized();
 		} else {
 			if (logger.isDebugEnabled()) {
@@ -151,7 +475,6 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 						"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - KeyCloak deployment is configued.  Continuing..."); //$NON-NLS-1$
 			}
 
-			String authorizationHeader = req.getHeader(Constants.AUTHORIZATION_HEADER);
 			if (StringUtils.isEmpty(authorizationHeader)) {
 				if (logger.isDebugEnabled()) {
 					logger.debug(
@@ -173,7 +496,10 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 				OIDCFilterSessionStore tokenStore = new OIDCFilterSessionStore(req, facade, 100000, deployment, null);
 				FilterRequestAuthenticator authenticator = new FilterRequestAuthenticator(deployment, tokenStore,
 						facade, req, 8443);
+				start = this.metrics.start();
 				AuthOutcome outcome = authenticator.authenticate();
+				this.metrics.recordStage(AuthenticationStage.CODE_EXCHANGE, start);
+				this.metrics.recordAuthOutcome(outcome);
 				if (logger.isDebugEnabled()) {
 					logger.debug(
 							"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - AuthOutcome outcome=" //$NON-NLS-1$
@@ -215,7 +541,9 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 										+ result);
 					}
 
-					status = ctx.notifyContainerAboutLogin(result);
+					audit(req, AuditOutcome.of(result.getStatus()), result, requestStart);
+					status = notifyContainerAboutLogin(ctx, result);
+					this.sessionTokenRefresher.track(req, deployment);
 				} else {
 					AuthChallenge challenge = authenticator.getChallenge();
 					if (logger.isDebugEnabled()) {
@@ -230,6 +558,7 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 									"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - No auth challenge returned by authenticator"); //$NON-NLS-1$
 						}
 
+						audit(req, AuditOutcome.FAILED, null, requestStart);
 						status = AuthenticationStatus.SEND_FAILURE;
 					} else {
 						if (logger.isDebugEnabled()) {
@@ -238,27 +567,39 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 						}
 
 						challenge.challenge(facade);
+						audit(req, AuditOutcome.CHALLENGED, null, requestStart);
 						status = AuthenticationStatus.SEND_CONTINUE;
 					}
 				}
 			} else {
-				if (authorizationHeader.startsWith(Constants.BEARER_TOKEN_PREFIX)) {
-					String authToken = authorizationHeader.substring(Constants.BEARER_TOKEN_PREFIX.length());
+				if (tokenStart >= 0) {
+					String authToken = authorizationHeader.substring(tokenStart).trim();
 					if (logger.isDebugEnabled()) {
 						logger.debug(
 								"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - Validating access token... - authToken=" //$NON-NLS-1$
 										+ authToken);
 					}
 
-					AccessTokenCredential cred = new AccessTokenCredential(authToken);
-					CredentialValidationResult result = this.identityStore.validate(cred);
-					if (logger.isDebugEnabled()) {
-						logger.debug(
-								"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - CredentialValidationResult result=" //$NON-NLS-1$
-										+ result);
-					}
+					if (deployment.getSslRequired().isRequired(facade.getRequest().getRemoteAddr())
+							&& !facade.getRequest().isSecure()) {
+						logger.error(
+								"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - SSL is required for bearer token authentication", //$NON-NLS-1$
+								null);
+
+						audit(req, AuditOutcome.REJECTED, null, requestStart);
+						status = ctx.responseUnauthorized();
+					} else {
+						AccessTokenCredential cred = new AccessTokenCredential(authToken, deployment);
+						CredentialValidationResult result = validateCredential(cred);
+						if (logger.isDebugEnabled()) {
+							logger.debug(
+									"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - CredentialValidationResult result=" //$NON-NLS-1$
+											+ result);
+						}
 
-					status = ctx.notifyContainerAboutLogin(result);
+						audit(req, AuditOutcome.of(result.getStatus()), result, requestStart);
+						status = notifyContainerAboutLogin(ctx, result);
+					}
 				} else {
 					logger.error(
 							"performKeyCloakLogin(HttpServletRequest, HttpServletResponse, HttpMessageContext) - Invalid Authorization header provided.  Does not start with expected token prefix - authorizationHeader=" //$NON-NLS-1$
@@ -276,6 +617,56 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 		return status;
 	}
 
+	/**
+	 * Validates a credential with the identity store. When the store supports
+	 * asynchronous validation and a validation timeout is configured, the
+	 * validation runs on the store's executor and the request thread waits at
+	 * most the timeout, so that a slow identity provider cannot hold request
+	 * threads indefinitely. A validation that times out is cancelled. Either
+	 * way, the outcome is reported on the request thread, so that observers of
+	 * the authentication events run within the request.
+	 *
+	 * <p>
+	 * The request thread still blocks while it waits, so the hand-off to the
+	 * executor costs a thread switch on every cache miss. Setting
+	 * <code>keycloak.soteria.validation.timeout-millis</code> to <code>0</code>
+	 * validates on the request thread instead, without a timeout.
+	 * </p>
+	 *
+	 * @param credential The credential to validate
+	 * @return The validation result
+	 */
+	protected CredentialValidationResult validateCredential(Credential credential) {
+		if (!(this.identityStore instanceof AsyncIdentityStore) || this.validationTimeoutMillis <= 0) {
+			return this.identityStore.validate(credential);
+		}
+
+		AsyncIdentityStore store = (AsyncIdentityStore) this.identityStore;
+		CompletableFuture<CredentialValidationResult> future = store.validateAsync(credential).toCompletableFuture();
+		CredentialValidationResult result = null;
+		try {
+			result = future.get(this.validationTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			logger.error("validateCredential(Credential) - Credential validation timed out - timeoutMillis=" //$NON-NLS-1$
+					+ this.validationTimeoutMillis, null);
+
+			result = CredentialValidationResult.NOT_VALIDATED_RESULT;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+
+			result = CredentialValidationResult.NOT_VALIDATED_RESULT;
+		} catch (ExecutionException e) {
+			logger.error("validateCredential(Credential) - Credential validation failed", e.getCause()); //$NON-NLS-1$
+
+			result = CredentialValidationResult.INVALID_RESULT;
+		}
+
+		store.completeValidation(result);
+		return result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -291,14 +682,26 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 			logger.debug("validateRequest(HttpServletRequest, HttpServletResponse, HttpMessageContext) - start"); //$NON-NLS-1$
 		}
 
+		if (isBypassed(req)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(
+						"validateRequest(HttpServletRequest, HttpServletResponse, HttpMessageContext) - Request path bypasses authentication.  Continuing... - requestURI=" //$NON-NLS-1$
+								+ req.getRequestURI());
+			}
+
+			return ctx.doNothing();
+		}
+
 		AuthenticationStatus status = null;
-		AdapterConfig config = this.adapterConfigInstance.get();
+		AdapterConfig config = getAdapterConfig(req);
 		if (config == null) {
 			logger.warn(
 					"validateRequest(HttpServletRequest, HttpServletResponse, HttpMessageContext) - No Keycloak adapter config found.  Continuing...", //$NON-NLS-1$
 					null);
 
 			status = AuthenticationStatus.NOT_DONE;
+		} else if (req.getRequestURI().endsWith(PUSH_NOT_BEFORE_PATH)) {
+			status = handlePushNotBefore(config, req, res, ctx);
 		} else {
 			// TODO Move to performKeyCloakLogin()
 			Principal userPrincipal = req.getUserPrincipal();
@@ -312,6 +715,10 @@ public class KeyCloakAuthenticationMechanism implements HttpAuthenticationMechan
 					throw new AuthenticationException(e);
 				}
 
+				if (this.sessionTokenRefresher.isEnabled()) {
+					this.sessionTokenRefresher.track(req, this.deploymentRegistry.getDeployment(config));
+				}
+
 				if (logger.isDebugEnabled()) {
 					logger.debug("validateRequest(HttpServletRequest, HttpServletResponse, HttpMessageContext) - end"); //$NON-NLS-1$
 				}
@@ -5,41 +5,59 @@ package net.odyssi.security.keycloak.auth;
 
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.security.enterprise.credential.Credential;
 import javax.security.enterprise.identitystore.CredentialValidationResult;
 import javax.security.enterprise.identitystore.IdentityStore;
-import javax.servlet.http.HttpServletRequest;
 
 import org.apache.log4j.Logger;
-import org.keycloak.adapters.BearerTokenRequestAuthenticator;
 import org.keycloak.adapters.KeycloakDeployment;
-import org.keycloak.adapters.KeycloakDeploymentBuilder;
-import org.keycloak.adapters.servlet.ServletHttpFacade;
-import org.keycloak.adapters.spi.AuthOutcome;
-import org.keycloak.adapters.spi.HttpFacade;
+import org.keycloak.adapters.rotation.AdapterRSATokenVerifier;
+import org.keycloak.common.VerificationException;
 import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.adapters.config.AdapterConfig;
 
+import net.odyssi.security.keycloak.auth.cache.TokenDigest;
+import net.odyssi.security.keycloak.auth.cache.ValidatedTokenCache;
 import net.odyssi.security.keycloak.auth.credential.AccessTokenCredential;
 import net.odyssi.security.keycloak.auth.credential.TokenResponseCredential;
+import net.odyssi.security.keycloak.auth.deployment.KeycloakDeploymentRegistry;
+import net.odyssi.security.keycloak.auth.introspection.TokenIntrospectionService;
+import net.odyssi.security.keycloak.auth.mapping.ClaimMapper;
+import net.odyssi.security.keycloak.auth.mapping.RoleMapper;
+import net.odyssi.security.keycloak.auth.revocation.RevocationRegistry;
+import net.odyssi.security.keycloak.common.AuthenticationEventDispatcher;
 import net.odyssi.security.keycloak.common.AuthenticationSuccessEvent;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+import net.odyssi.security.keycloak.common.metrics.AuthenticationMetrics;
+import net.odyssi.security.keycloak.common.metrics.AuthenticationStage;
 import net.odyssi.security.keycloak.common.model.JWTPrincipal;
 import net.odyssi.security.keycloak.common.model.JWTPrincipal.JWTPrincipalBuilder;
 
 /**
- * An {@link IdentityStore} implementation used to validate OAuth credentials
+ * An {@link IdentityStore} implementation used to validate OAuth credentials.
+ * Bearer tokens may also be validated asynchronously on a dedicated executor,
+ * in which case the outcome is recorded and the
+ * {@link AuthenticationSuccessEvent} emitted on the caller's thread by
+ * {@link #completeValidation(CredentialValidationResult)}.
  *
  * @author Steven D. Nakhla
  *
  */
 @ApplicationScoped
-public class OAuthIdentityStore implements IdentityStore {
+public class OAuthIdentityStore implements AsyncIdentityStore {
+
+	public static final int DEFAULT_VALIDATION_THREADS = 16;
 
 	/**
 	 * Logger for this class
@@ -51,12 +69,42 @@ public class OAuthIdentityStore implements IdentityStore {
 	private AdapterConfig adapterConfig = null;
 
 	@Inject
-	private Event<AuthenticationSuccessEvent> authenticationSuccessEvent = null;
+	private ClaimMapper claimMapper = null;
+
+	@Inject
+	private Configuration configuration = null;
+
+	@Inject
+	private KeycloakDeploymentRegistry deploymentRegistry = null;
+
+	@Inject
+	private AuthenticationEventDispatcher eventDispatcher = null;
+
+	/**
+	 * The executor running asynchronous token verification
+	 */
+	private ExecutorService executor = null;
+
+	/**
+	 * Whether bearer tokens are validated through the introspection endpoint
+	 * rather than verified locally
+	 */
+	private boolean introspectionMode = false;
+
+	@Inject
+	private TokenIntrospectionService introspectionService = null;
 
-	private KeycloakDeployment deployment = null;
+	@Inject
+	private AuthenticationMetrics metrics = null;
 
 	@Inject
-	private Instance<HttpServletRequest> servletRequestInstance = null;
+	private RevocationRegistry revocationRegistry = null;
+
+	@Inject
+	private RoleMapper roleMapper = null;
+
+	@Inject
+	private ValidatedTokenCache validatedTokenCache = null;
 
 	/**
 	 * Builds a {@link JWTPrincipal} from a KeyCloak {@link AccessToken}
@@ -69,14 +117,14 @@ public class OAuthIdentityStore implements IdentityStore {
 			logger.debug("buildPrincipal(AccessToken) - start"); //$NON-NLS-1$
 		}
 
-		Set<String> roles = token.getRealmAccess().getRoles();
+		Set<String> roles = this.roleMapper.mapRoles(token);
 		if (logger.isDebugEnabled()) {
 			logger.debug("buildPrincipal(AccessToken) - Set<String> roles=" + roles); //$NON-NLS-1$
 		}
 
 		JWTPrincipalBuilder builder = JWTPrincipalBuilder.getInstance(token.getPreferredUsername());
 
-		JWTPrincipal principal = builder.setClaims(token.getOtherClaims()).setEmailAddress(token.getEmail())
+		JWTPrincipal principal = builder.setClaims(this.claimMapper.mapClaims(token)).setEmailAddress(token.getEmail())
 				.setFamilyName(token.getFamilyName()).setFullName(token.getName()).setGivenName(token.getGivenName())
 				.setIssuer(token.getIssuer()).setIdentifier(token.getSubject())
 				.setLoginName(token.getPreferredUsername()).setRoles(roles).build();
@@ -91,6 +139,92 @@ public class OAuthIdentityStore implements IdentityStore {
 		return principal;
 	}
 
+	/**
+	 * Builds a successful {@link CredentialValidationResult} from a KeyCloak
+	 * {@link AccessToken}
+	 *
+	 * @param token The access token
+	 * @return The validation result
+	 */
+	protected CredentialValidationResult buildValidationResult(AccessToken token) {
+		long start = this.metrics.start();
+		JWTPrincipal principal = buildPrincipal(token);
+		this.metrics.recordStage(AuthenticationStage.PRINCIPAL_BUILD, start);
+		return new CredentialValidationResult(principal, principal.getRoles());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.odyssi.security.keycloak.auth.AsyncIdentityStore#completeValidation(
+	 * javax.security.enterprise.identitystore.CredentialValidationResult)
+	 */
+	@Override
+	public void completeValidation(CredentialValidationResult result) {
+		this.metrics.recordValidationStatus(result.getStatus());
+		fireAuthenticationSuccessEvent(result);
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	private void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Validates a credential according to its type, without recording the
+	 * outcome or emitting events
+	 *
+	 * @param credential The credential to validate
+	 * @return The validation result
+	 */
+	protected CredentialValidationResult doValidate(Credential credential) {
+		CredentialValidationResult result = null;
+
+		String credentialClass = credential.getClass().getName();
+		if (logger.isDebugEnabled()) {
+			logger.debug("doValidate(Credential) - String credentialClass=" + credentialClass); //$NON-NLS-1$
+		}
+
+		if (credential instanceof TokenResponseCredential) {
+			result = this.validate((TokenResponseCredential) credential);
+		} else if (credential instanceof AccessTokenCredential) {
+			result = this.validate((AccessTokenCredential) credential);
+		} else {
+			logger.warn("doValidate(Credential) - Unable to handle credential type - credentialClass=" + credentialClass, //$NON-NLS-1$
+					null);
+
+			result = CredentialValidationResult.NOT_VALIDATED_RESULT;
+		}
+		return result;
+	}
+
+	/**
+	 * Emits an {@link AuthenticationSuccessEvent} if a validation result is
+	 * successful
+	 *
+	 * @param result The validation result
+	 */
+	protected void fireAuthenticationSuccessEvent(CredentialValidationResult result) {
+		if (result.getStatus().equals(CredentialValidationResult.Status.VALID)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(
+						"fireAuthenticationSuccessEvent(CredentialValidationResult) - Credential validation successful.  Dispatching CDI event..."); //$NON-NLS-1$
+			}
+
+			long start = this.metrics.start();
+			this.eventDispatcher.dispatch(new AuthenticationSuccessEvent((JWTPrincipal) result.getCallerPrincipal()));
+			this.metrics.recordStage(AuthenticationStage.SUCCESS_EVENT, start);
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("fireAuthenticationSuccessEvent(CredentialValidationResult) - CDI event dispatched."); //$NON-NLS-1$
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -112,6 +246,18 @@ public class OAuthIdentityStore implements IdentityStore {
 		return groups;
 	}
 
+	/**
+	 * Returns the deployment a credential is verified against
+	 *
+	 * @param credential The credential
+	 * @return The credential's tenant deployment, or the current default
+	 *         deployment
+	 */
+	protected KeycloakDeployment getDeployment(AccessTokenCredential credential) {
+		return credential.getDeployment() == null ? this.deploymentRegistry.getDeployment(this.adapterConfig)
+				: credential.getDeployment();
+	}
+
 	/**
 	 * Performs object initialization
 	 */
@@ -121,7 +267,18 @@ public class OAuthIdentityStore implements IdentityStore {
 			logger.debug("init() - start"); //$NON-NLS-1$
 		}
 
-		this.deployment = KeycloakDeploymentBuilder.build(this.adapterConfig);
+		// Builds the default deployment ahead of the first request
+		this.deploymentRegistry.getDeployment(this.adapterConfig);
+		this.introspectionMode = Constants.VALIDATION_MODE_INTROSPECTION
+				.equalsIgnoreCase(this.configuration.getString(Constants.VALIDATION_MODE, Constants.VALIDATION_MODE_LOCAL));
+
+		int threads = this.configuration.getInt(Constants.VALIDATION_THREADS, DEFAULT_VALIDATION_THREADS);
+		this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("keycloak-soteria-validation")); //$NON-NLS-1$
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Bearer token validation mode - introspectionMode=" + this.introspectionMode //$NON-NLS-1$
+					+ ", validationThreads=" + threads); //$NON-NLS-1$
+		}
 
 		if (logger.isDebugEnabled()) {
 			logger.debug("init() - end"); //$NON-NLS-1$
@@ -139,33 +296,30 @@ public class OAuthIdentityStore implements IdentityStore {
 			logger.debug("validate(AccessTokenCredential) - start"); //$NON-NLS-1$
 		}
 
-		HttpServletRequest servletRequest = this.servletRequestInstance.get();
-
-		BearerTokenRequestAuthenticator authenticator = new BearerTokenRequestAuthenticator(this.deployment);
-		HttpFacade facade = new ServletHttpFacade(servletRequest, null);
-
-		AuthOutcome outcome = authenticator.authenticate(facade);
-		if (logger.isDebugEnabled()) {
-			logger.debug("validate(AccessTokenCredential) - AuthOutcome outcome=" + outcome); //$NON-NLS-1$
+		if (this.introspectionMode) {
+			CredentialValidationResult result = this.introspectionService.introspect(getDeployment(credential),
+					credential.getToken(), this::buildValidationResult);
+			if (logger.isDebugEnabled()) {
+				logger.debug("validate(AccessTokenCredential) - Access token introspected - status=" //$NON-NLS-1$
+						+ result.getStatus());
+				logger.debug("validate(AccessTokenCredential) - end"); //$NON-NLS-1$
+			}
+			return result;
 		}
 
-		CredentialValidationResult result = null;
-		if (outcome.equals(AuthOutcome.AUTHENTICATED)) {
-			if (logger.isInfoEnabled()) {
-				logger.info(
-						"validate(AccessTokenCredential) - Access token validated successfully.  Generating principal..."); //$NON-NLS-1$
+		KeycloakDeployment deployment = getDeployment(credential);
+		TokenDigest digest = TokenDigest.of(credential.getToken());
+		CredentialValidationResult result = this.validatedTokenCache.get(digest, deployment.getRealmInfoUrl());
+		if (result != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("validate(AccessTokenCredential) - Access token found in validated token cache"); //$NON-NLS-1$
+				logger.debug("validate(AccessTokenCredential) - end"); //$NON-NLS-1$
 			}
-
-			AccessToken token = authenticator.getToken();
-			JWTPrincipal principal = buildPrincipal(token);
-
-			result = new CredentialValidationResult(principal, principal.getRoles());
-		} else {
-			logger.error("validate(AccessTokenCredential) - Access token failed validation.  Returning error...", null); //$NON-NLS-1$
-
-			result = CredentialValidationResult.INVALID_RESULT;
+			return result;
 		}
 
+		result = verify(credential.getToken(), digest, deployment);
+
 		if (logger.isDebugEnabled()) {
 			logger.debug("validate(AccessTokenCredential) - end"); //$NON-NLS-1$
 		}
@@ -185,36 +339,8 @@ public class OAuthIdentityStore implements IdentityStore {
 			logger.debug("validate(Credential) - start"); //$NON-NLS-1$
 		}
 
-		CredentialValidationResult result = null;
-
-		String credentialClass = credential.getClass().getName();
-		if (logger.isDebugEnabled()) {
-			logger.debug("validate(Credential) - String credentialClass=" + credentialClass); //$NON-NLS-1$
-		}
-
-		if (credential instanceof TokenResponseCredential) {
-			result = this.validate((TokenResponseCredential) credential);
-		} else if (credential instanceof AccessTokenCredential) {
-			result = this.validate((AccessTokenCredential) credential);
-		} else {
-			logger.warn("validate(Credential) - Unable to handle credential type - credentialClass=" + credentialClass, //$NON-NLS-1$
-					null);
-
-			result = CredentialValidationResult.NOT_VALIDATED_RESULT;
-		}
-
-		if (result.getStatus().equals(CredentialValidationResult.Status.VALID)) {
-			if (logger.isDebugEnabled()) {
-				logger.debug("validate(Credential) - Credential validation successful.  Emitting CDI event..."); //$NON-NLS-1$
-			}
-
-			this.authenticationSuccessEvent
-					.fire(new AuthenticationSuccessEvent((JWTPrincipal) result.getCallerPrincipal()));
-
-			if (logger.isDebugEnabled()) {
-				logger.debug("validate(Credential) - CDI event emitted."); //$NON-NLS-1$
-			}
-		}
+		CredentialValidationResult result = doValidate(credential);
+		completeValidation(result);
 
 		if (logger.isDebugEnabled()) {
 			logger.debug("validate(Credential) - end"); //$NON-NLS-1$
@@ -248,8 +374,7 @@ public class OAuthIdentityStore implements IdentityStore {
 						"validate(TokenResponseCredential) - Access token found in token response credential.  Building successful validation result..."); //$NON-NLS-1$
 			}
 
-			JWTPrincipal principal = buildPrincipal(token);
-			result = new CredentialValidationResult(principal, principal.getRoles());
+			result = buildValidationResult(token);
 		}
 
 		if (logger.isDebugEnabled()) {
@@ -258,6 +383,63 @@ public class OAuthIdentityStore implements IdentityStore {
 		return result;
 	}
 
+	/**
+	 * Validates an {@link AccessTokenCredential} credential asynchronously
+	 *
+	 * @param credential The credential to validate
+	 * @return The pending validation result
+	 */
+	protected CompletionStage<CredentialValidationResult> validateAsync(AccessTokenCredential credential) {
+		if (this.introspectionMode) {
+			return this.introspectionService
+					.introspectAsync(getDeployment(credential), credential.getToken(), this::buildValidationResult)
+					.exceptionally(e -> {
+						logger.error("validateAsync(AccessTokenCredential) - Token introspection failed", e); //$NON-NLS-1$
+
+						return CredentialValidationResult.INVALID_RESULT;
+					});
+		}
+
+		KeycloakDeployment deployment = getDeployment(credential);
+		TokenDigest digest = TokenDigest.of(credential.getToken());
+		CredentialValidationResult result = this.validatedTokenCache.get(digest, deployment.getRealmInfoUrl());
+		if (result != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("validateAsync(AccessTokenCredential) - Access token found in validated token cache"); //$NON-NLS-1$
+			}
+			return CompletableFuture.completedFuture(result);
+		}
+
+		return CompletableFuture.supplyAsync(() -> verify(credential.getToken(), digest, deployment), this.executor);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.odyssi.security.keycloak.auth.AsyncIdentityStore#validateAsync(javax.
+	 * security.enterprise.credential.Credential)
+	 */
+	@Override
+	public CompletionStage<CredentialValidationResult> validateAsync(Credential credential) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("validateAsync(Credential) - start"); //$NON-NLS-1$
+		}
+
+		CompletionStage<CredentialValidationResult> stage = null;
+		if (credential instanceof AccessTokenCredential) {
+			stage = validateAsync((AccessTokenCredential) credential);
+		} else {
+			// Other credentials need no remote call
+			stage = CompletableFuture.completedFuture(doValidate(credential));
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("validateAsync(Credential) - end"); //$NON-NLS-1$
+		}
+		return stage;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -280,4 +462,64 @@ public class OAuthIdentityStore implements IdentityStore {
 		return types;
 	}
 
+	/**
+	 * Verifies the signature and claims of a bearer token against the realm
+	 * keys, caching the result if successful
+	 *
+	 * @param tokenString The raw token
+	 * @param digest      The token digest
+	 * @param deployment  The deployment of the realm the token is verified
+	 *                    against
+	 * @return The validation result
+	 */
+	protected CredentialValidationResult verify(String tokenString, TokenDigest digest,
+			KeycloakDeployment deployment) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("verify(String, TokenDigest, KeycloakDeployment) - start"); //$NON-NLS-1$
+		}
+
+		CredentialValidationResult result = null;
+		try {
+			long start = this.metrics.start();
+			AccessToken token = null;
+			try {
+				token = AdapterRSATokenVerifier.verifyToken(tokenString, deployment);
+			} finally {
+				this.metrics.recordStage(AuthenticationStage.SIGNATURE_VERIFICATION, start);
+			}
+			if (token.getIssuedAt() < deployment.getNotBefore()) {
+				logger.error(
+						"verify(String, TokenDigest, KeycloakDeployment) - Access token issued before realm not-before policy", //$NON-NLS-1$
+						null);
+
+				result = CredentialValidationResult.INVALID_RESULT;
+			} else if (this.revocationRegistry.isRevoked(token)) {
+				logger.error("verify(String, TokenDigest, KeycloakDeployment) - Access token has been revoked", //$NON-NLS-1$
+						null);
+
+				result = CredentialValidationResult.INVALID_RESULT;
+			} else {
+				if (logger.isInfoEnabled()) {
+					logger.info(
+							"verify(String, TokenDigest, KeycloakDeployment) - Access token validated successfully.  Generating principal..."); //$NON-NLS-1$
+				}
+
+				result = buildValidationResult(token);
+				this.validatedTokenCache.put(digest, result, token);
+			}
+		} catch (VerificationException e) {
+			logger.error(
+					"verify(String, TokenDigest, KeycloakDeployment) - Access token failed validation.  Returning error... - reason=" //$NON-NLS-1$
+							+ e.getMessage(),
+					null);
+
+			result = CredentialValidationResult.INVALID_RESULT;
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("verify(String, TokenDigest, KeycloakDeployment) - end"); //$NON-NLS-1$
+		}
+		return result;
+	}
+
 }
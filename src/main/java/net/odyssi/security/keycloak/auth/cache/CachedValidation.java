@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import java.io.Serializable;
+
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * A successful token validation as held by a {@link SharedTokenCache}: the
+ * principal built from the token, along with the values needed to expire and
+ * invalidate it
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class CachedValidation implements Serializable {
+
+	private static final long serialVersionUID = -2520496217703846613L;
+
+	private final String clientId;
+
+	private final long expiresAtMillis;
+
+	private final int issuedAt;
+
+	private final String issuer;
+
+	private final JWTPrincipal principal;
+
+	private final String tokenId;
+
+	public CachedValidation(JWTPrincipal principal, String tokenId, String issuer, String clientId, int issuedAt,
+			long expiresAtMillis) {
+		super();
+		this.principal = principal;
+		this.tokenId = tokenId;
+		this.issuer = issuer;
+		this.clientId = clientId;
+		this.issuedAt = issuedAt;
+		this.expiresAtMillis = expiresAtMillis;
+	}
+
+	/**
+	 * Returns the client the token was issued for
+	 *
+	 * @return The token <code>azp</code> claim, or <code>null</code>
+	 */
+	public String getClientId() {
+		return this.clientId;
+	}
+
+	/**
+	 * Returns the time the validation expires
+	 *
+	 * @return The expiry time, in milliseconds since the epoch
+	 */
+	public long getExpiresAtMillis() {
+		return this.expiresAtMillis;
+	}
+
+	/**
+	 * Returns the token's <code>iat</code> claim
+	 *
+	 * @return The issue time, in seconds since the epoch
+	 */
+	public int getIssuedAt() {
+		return this.issuedAt;
+	}
+
+	/**
+	 * Returns the issuer the token was verified against
+	 *
+	 * @return The token <code>iss</code> claim
+	 */
+	public String getIssuer() {
+		return this.issuer;
+	}
+
+	public JWTPrincipal getPrincipal() {
+		return this.principal;
+	}
+
+	/**
+	 * Returns the token identifier
+	 *
+	 * @return The token <code>jti</code> claim, or <code>null</code>
+	 */
+	public String getTokenId() {
+		return this.tokenId;
+	}
+
+	/**
+	 * Returns true if the validation matches an invalidation
+	 *
+	 * @param digest       The digest of the validated token
+	 * @param invalidation The invalidation
+	 * @return The status
+	 */
+	public boolean matches(TokenDigest digest, TokenCacheInvalidation invalidation) {
+		switch (invalidation.getType()) {
+		case ALL:
+			return true;
+		case ISSUED_BEFORE:
+			return invalidation.getIssuer().equals(this.issuer) && this.issuedAt < invalidation.getNotBefore();
+		case SUBJECT:
+			return invalidation.getIssuer().equals(this.issuer)
+					&& invalidation.getSubject().equals(this.principal.getIdentifier());
+		case TOKEN:
+			return invalidation.getDigest().equals(digest);
+		default:
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A reference {@link SharedTokenCache} for a cluster of nodes within one JVM.
+ * Each call to {@link #join()} returns the shared cache of a new node.
+ * Validations are stored serialized, as a remote cache would store them, and
+ * invalidations are delivered synchronously to the other nodes. Intended for
+ * testing and as a model for real implementations.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class InMemoryTokenCacheCluster {
+
+	/**
+	 * A node's view of the cluster
+	 */
+	private final class Node implements SharedTokenCache {
+
+		private final List<Consumer<TokenCacheInvalidation>> listeners = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void close() {
+			InMemoryTokenCacheCluster.this.nodes.remove(this);
+		}
+
+		@Override
+		public CachedValidation get(TokenDigest digest) {
+			StoredValidation stored = InMemoryTokenCacheCluster.this.store.get(digest);
+			if (stored == null) {
+				return null;
+			}
+
+			CachedValidation validation = deserialize(stored.bytes);
+			if (validation.getExpiresAtMillis() <= System.currentTimeMillis()) {
+				InMemoryTokenCacheCluster.this.store.remove(digest, stored);
+				return null;
+			}
+			return validation;
+		}
+
+		@Override
+		public void publish(TokenCacheInvalidation invalidation) {
+			if (invalidation.getType() == TokenCacheInvalidation.Type.TOKEN) {
+				InMemoryTokenCacheCluster.this.store.remove(invalidation.getDigest());
+			} else {
+				InMemoryTokenCacheCluster.this.store.entrySet()
+						.removeIf(e -> e.getValue().validation.matches(e.getKey(), invalidation));
+			}
+
+			for (Node node : InMemoryTokenCacheCluster.this.nodes) {
+				if (node != this) {
+					node.listeners.forEach(listener -> listener.accept(invalidation));
+				}
+			}
+		}
+
+		@Override
+		public void put(TokenDigest digest, CachedValidation validation) {
+			InMemoryTokenCacheCluster.this.store.put(digest, new StoredValidation(validation, serialize(validation)));
+		}
+
+		@Override
+		public void subscribe(Consumer<TokenCacheInvalidation> listener) {
+			this.listeners.add(listener);
+		}
+	}
+
+	/**
+	 * A serialized validation, along with the deserialized form used to match
+	 * invalidations
+	 */
+	private static final class StoredValidation {
+
+		private final byte[] bytes;
+
+		private final CachedValidation validation;
+
+		private StoredValidation(CachedValidation validation, byte[] bytes) {
+			this.validation = validation;
+			this.bytes = bytes;
+		}
+	}
+
+	private static CachedValidation deserialize(byte[] bytes) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (CachedValidation) in.readObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] serialize(CachedValidation validation) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(validation);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private final List<Node> nodes = new CopyOnWriteArrayList<>();
+
+	private final ConcurrentMap<TokenDigest, StoredValidation> store = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds a node to the cluster
+	 *
+	 * @return The shared cache of the new node
+	 */
+	public SharedTokenCache join() {
+		Node node = new Node();
+		this.nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Returns the number of validations in the shared tier
+	 *
+	 * @return The validation count
+	 */
+	public int size() {
+		return this.store.size();
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import java.util.ServiceLoader;
+import java.util.function.Consumer;
+
+/**
+ * A service provider interface for a cache of validated tokens shared by every
+ * node of a cluster, such as one backed by Infinispan, Hazelcast or Redis. The
+ * {@link ValidatedTokenCache} of each node keeps a near-cache in front of the
+ * shared tier, so that a token validated on one node is not verified again on
+ * the others. Implementations are discovered with {@link ServiceLoader}, by
+ * listing them in a
+ * <code>META-INF/services/net.odyssi.security.keycloak.auth.cache.SharedTokenCache</code>
+ * resource.
+ *
+ * <p>
+ * Methods are called on request threads. Implementations should bound the time
+ * spent on remote calls and return <code>null</code> from
+ * {@link #get(TokenDigest)} rather than fail, since a miss only costs a local
+ * verification.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ * @see InMemoryTokenCacheCluster
+ */
+public interface SharedTokenCache {
+
+	/**
+	 * Releases the resources held by the cache
+	 */
+	void close();
+
+	/**
+	 * Returns a validation from the shared tier
+	 *
+	 * @param digest The token digest
+	 * @return The validation, or <code>null</code> if none is cached or it has
+	 *         expired
+	 */
+	CachedValidation get(TokenDigest digest);
+
+	/**
+	 * Removes the matching validations from the shared tier, and delivers the
+	 * invalidation to the listeners of every other node
+	 *
+	 * @param invalidation The invalidation
+	 */
+	void publish(TokenCacheInvalidation invalidation);
+
+	/**
+	 * Adds a validation to the shared tier
+	 *
+	 * @param digest     The token digest
+	 * @param validation The validation
+	 */
+	void put(TokenDigest digest, CachedValidation validation);
+
+	/**
+	 * Registers the listener receiving invalidations published by other nodes
+	 *
+	 * @param listener The listener
+	 */
+	void subscribe(Consumer<TokenCacheInvalidation> listener);
+
+}
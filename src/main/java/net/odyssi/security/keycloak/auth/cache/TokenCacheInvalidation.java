@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import java.io.Serializable;
+
+/**
+ * A message removing validated tokens from every node's cache, for example
+ * when a user logs out or KeyCloak pushes a new not-before policy
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class TokenCacheInvalidation implements Serializable {
+
+	/**
+	 * The tokens an invalidation applies to
+	 */
+	public enum Type {
+
+		/**
+		 * Every token
+		 */
+		ALL,
+
+		/**
+		 * Tokens of an issuer issued before a not-before time
+		 */
+		ISSUED_BEFORE,
+
+		/**
+		 * Tokens of a subject of an issuer
+		 */
+		SUBJECT,
+
+		/**
+		 * A single token
+		 */
+		TOKEN
+	}
+
+	private static final TokenCacheInvalidation ALL = new TokenCacheInvalidation(Type.ALL, null, null, null, 0);
+
+	private static final long serialVersionUID = 6140259730418366032L;
+
+	/**
+	 * Returns an invalidation of every token
+	 *
+	 * @return The invalidation
+	 */
+	public static TokenCacheInvalidation all() {
+		return ALL;
+	}
+
+	/**
+	 * Returns an invalidation of the tokens of an issuer issued before a time
+	 *
+	 * @param issuer    The token <code>iss</code> claim
+	 * @param notBefore The not-before time, in seconds since the epoch
+	 * @return The invalidation
+	 */
+	public static TokenCacheInvalidation issuedBefore(String issuer, int notBefore) {
+		return new TokenCacheInvalidation(Type.ISSUED_BEFORE, null, issuer, null, notBefore);
+	}
+
+	/**
+	 * Returns an invalidation of the tokens of a subject
+	 *
+	 * @param issuer  The token <code>iss</code> claim
+	 * @param subject The token <code>sub</code> claim
+	 * @return The invalidation
+	 */
+	public static TokenCacheInvalidation subject(String issuer, String subject) {
+		return new TokenCacheInvalidation(Type.SUBJECT, null, issuer, subject, 0);
+	}
+
+	/**
+	 * Returns an invalidation of a single token
+	 *
+	 * @param digest The token digest
+	 * @return The invalidation
+	 */
+	public static TokenCacheInvalidation token(TokenDigest digest) {
+		return new TokenCacheInvalidation(Type.TOKEN, digest, null, null, 0);
+	}
+
+	private final TokenDigest digest;
+
+	private final String issuer;
+
+	private final int notBefore;
+
+	private final String subject;
+
+	private final Type type;
+
+	private TokenCacheInvalidation(Type type, TokenDigest digest, String issuer, String subject, int notBefore) {
+		this.type = type;
+		this.digest = digest;
+		this.issuer = issuer;
+		this.subject = subject;
+		this.notBefore = notBefore;
+	}
+
+	public TokenDigest getDigest() {
+		return this.digest;
+	}
+
+	public String getIssuer() {
+		return this.issuer;
+	}
+
+	public int getNotBefore() {
+		return this.notBefore;
+	}
+
+	public String getSubject() {
+		return this.subject;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "TokenCacheInvalidation [type=" + this.type + ", digest=" + this.digest + ", issuer=" + this.issuer
+				+ ", subject=" + this.subject
+				+ ", notBefore=" + this.notBefore + "]";
+	}
+
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A SHA-256 digest of a raw token string, used as a cache key so that token
+ * values are never retained in memory by the cache
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class TokenDigest implements Serializable {
+
+	private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	});
+
+	private static final long serialVersionUID = -1427313960405916392L;
+
+	/**
+	 * Returns the digest of the given token string
+	 *
+	 * @param token The raw token
+	 * @return The token digest
+	 */
+	public static TokenDigest of(String token) {
+		MessageDigest digest = DIGESTS.get();
+		digest.reset();
+		return new TokenDigest(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private final byte[] bytes;
+
+	private final int hashCode;
+
+	private TokenDigest(byte[] bytes) {
+		this.bytes = bytes;
+		// The digest is uniformly distributed, so its leading bytes are a good hash
+		this.hashCode = (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TokenDigest)) {
+			return false;
+		}
+		TokenDigest other = (TokenDigest) obj;
+		return this.hashCode == other.hashCode && Arrays.equals(this.bytes, other.bytes);
+	}
+
+	/**
+	 * Returns a copy of the digest bytes
+	 *
+	 * @return The digest bytes
+	 */
+	public byte[] getBytes() {
+		return this.bytes.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return this.hashCode;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("TokenDigest [");
+		for (int i = 0; i < 8; i++) {
+			sb.append(Character.forDigit(this.bytes[i] >> 4 & 0xF, 16)).append(Character.forDigit(this.bytes[i] & 0xF, 16));
+		}
+		return sb.append("...]").toString();
+	}
+}
@@ -0,0 +1,408 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+import org.apache.log4j.Logger;
+
+import org.keycloak.representations.AccessToken;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import net.odyssi.security.keycloak.auth.deployment.DeploymentReloadEvent;
+import net.odyssi.security.keycloak.auth.revocation.RevocationRegistry;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * A bounded cache of successfully validated bearer tokens. Entries are keyed by
+ * a {@link TokenDigest} of the raw token, are only served for the issuer they
+ * were validated against, and expire at the token's <code>exp</code> claim,
+ * extended by the configured clock skew. Eviction is
+ * size-bounded using Caffeine's W-TinyLFU policy.
+ *
+ * <p>
+ * If a {@link SharedTokenCache} is available, this cache acts as a near-cache
+ * in front of it: local misses are looked up in the shared tier, validations
+ * are written through to it, and invalidations are published to every node.
+ * </p>
+ *
+ * <p>
+ * Results are checked against the {@link RevocationRegistry} on every hit, so a
+ * revoked token is never served from the cache.
+ * </p>
+ *
+ * <p>
+ * Entries survive a configuration reload unless the issuer or the signing keys
+ * they were verified against changed.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class ValidatedTokenCache {
+
+	/**
+	 * A cached validation result along with the validation it was built from
+	 */
+	private static final class Entry {
+
+		private final CredentialValidationResult result;
+
+		private final CachedValidation validation;
+
+		private Entry(CredentialValidationResult result, CachedValidation validation) {
+			this.result = result;
+			this.validation = validation;
+		}
+	}
+
+	/**
+	 * Expires each entry at its own absolute expiry time
+	 */
+	private static final class EntryExpiry implements Expiry<TokenDigest, Entry> {
+
+		@Override
+		public long expireAfterCreate(TokenDigest key, Entry value, long currentTime) {
+			long remaining = value.validation.getExpiresAtMillis() - System.currentTimeMillis();
+			return remaining <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(remaining);
+		}
+
+		@Override
+		public long expireAfterRead(TokenDigest key, Entry value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+		@Override
+		public long expireAfterUpdate(TokenDigest key, Entry value, long currentTime, long currentDuration) {
+			return expireAfterCreate(key, value, currentTime);
+		}
+	}
+
+	public static final long DEFAULT_MAX_SIZE = 10000;
+
+	public static final long DEFAULT_MAX_TTL_SECONDS = 300;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(ValidatedTokenCache.class);
+
+	private Cache<TokenDigest, Entry> cache = null;
+
+	private long clockSkewMillis = 0;
+
+	@Inject
+	private Configuration configuration = null;
+
+	private boolean enabled = true;
+
+	private long maxTtlMillis = 0;
+
+	@Inject
+	private RevocationRegistry revocationRegistry = null;
+
+	/**
+	 * The shared tier, or <code>null</code> if the cache is local to this node
+	 */
+	private SharedTokenCache sharedCache = null;
+
+	private final LongAdder sharedHits = new LongAdder();
+
+	/**
+	 * Removes the local entries matching an invalidation
+	 *
+	 * @param invalidation The invalidation
+	 */
+	protected void apply(TokenCacheInvalidation invalidation) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("apply(TokenCacheInvalidation) - Invalidating tokens - invalidation=" + invalidation); //$NON-NLS-1$
+		}
+
+		switch (invalidation.getType()) {
+		case ALL:
+			this.cache.invalidateAll();
+			break;
+		case TOKEN:
+			this.cache.invalidate(invalidation.getDigest());
+			break;
+		default:
+			this.cache.asMap().entrySet().removeIf(e -> e.getValue().validation.matches(e.getKey(), invalidation));
+			break;
+		}
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.sharedCache != null) {
+			this.sharedCache.close();
+		}
+	}
+
+	/**
+	 * Returns the cached validation result for a token. A token validated against
+	 * another issuer, e.g. by another tenant, is not returned.
+	 *
+	 * @param digest The token digest
+	 * @param issuer The issuer the token is being validated against
+	 * @return The cached result, or <code>null</code> if none is cached for the
+	 *         issuer
+	 */
+	public CredentialValidationResult get(TokenDigest digest, String issuer) {
+		if (!this.enabled || issuer == null) {
+			return null;
+		}
+
+		Entry entry = this.cache.getIfPresent(digest);
+		if (entry != null) {
+			if (!issuer.equals(entry.validation.getIssuer())) {
+				return null;
+			}
+			if (this.revocationRegistry.isRevoked(entry.validation)) {
+				this.cache.invalidate(digest);
+				return null;
+			}
+			return entry.result;
+		}
+
+		if (this.sharedCache != null) {
+			CachedValidation validation = null;
+			try {
+				validation = this.sharedCache.get(digest);
+			} catch (RuntimeException e) {
+				logger.warn("get(TokenDigest, String) - Unable to read from shared token cache", e); //$NON-NLS-1$
+			}
+
+			if (validation != null && issuer.equals(validation.getIssuer())
+					&& validation.getExpiresAtMillis() > System.currentTimeMillis()
+					&& !this.revocationRegistry.isRevoked(validation)) {
+				JWTPrincipal principal = validation.getPrincipal();
+				entry = new Entry(new CredentialValidationResult(principal, principal.getRoles()), validation);
+				this.cache.put(digest, entry);
+				this.sharedHits.increment();
+				return entry.result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of entries evicted due to size or expiry
+	 *
+	 * @return The eviction count
+	 */
+	public long getEvictionCount() {
+		return stats().evictionCount();
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached result
+	 *
+	 * @return The hit count
+	 */
+	public long getHitCount() {
+		return stats().hitCount();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a cached result
+	 *
+	 * @return The miss count
+	 */
+	public long getMissCount() {
+		return stats().missCount();
+	}
+
+	/**
+	 * Returns the number of local misses found in the shared tier
+	 *
+	 * @return The shared hit count
+	 */
+	public long getSharedHitCount() {
+		return this.sharedHits.sum();
+	}
+
+	/**
+	 * Returns the approximate number of cached entries
+	 *
+	 * @return The cache size
+	 */
+	public long getSize() {
+		return this.enabled ? this.cache.estimatedSize() : 0;
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.enabled = this.configuration.getBoolean(Constants.TOKEN_CACHE_ENABLED, true);
+		long maxSize = this.configuration.getLong(Constants.TOKEN_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE);
+		this.clockSkewMillis = TimeUnit.SECONDS
+				.toMillis(this.configuration.getLong(Constants.TOKEN_CACHE_CLOCK_SKEW, 0));
+		this.maxTtlMillis = TimeUnit.SECONDS
+				.toMillis(this.configuration.getLong(Constants.TOKEN_CACHE_MAX_TTL, DEFAULT_MAX_TTL_SECONDS));
+
+		this.cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfter(new EntryExpiry()).recordStats().build();
+
+		if (this.sharedCache == null && this.enabled
+				&& this.configuration.getBoolean(Constants.TOKEN_CACHE_SHARED_ENABLED, true)) {
+			this.sharedCache = loadSharedCache();
+		}
+		if (this.sharedCache != null) {
+			this.sharedCache.subscribe(this::apply);
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Validated token cache initialized - enabled=" + this.enabled + ", maxSize=" + maxSize //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", clockSkewMillis=" + this.clockSkewMillis + ", maxTtlMillis=" + this.maxTtlMillis //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", sharedCache=" + this.sharedCache); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Removes a token from the cache of every node
+	 *
+	 * @param digest The token digest
+	 */
+	public void invalidate(TokenDigest digest) {
+		invalidate(TokenCacheInvalidation.token(digest));
+	}
+
+	/**
+	 * Removes the matching tokens from the cache of every node
+	 *
+	 * @param invalidation The invalidation
+	 */
+	public void invalidate(TokenCacheInvalidation invalidation) {
+		apply(invalidation);
+
+		if (this.sharedCache != null) {
+			try {
+				this.sharedCache.publish(invalidation);
+			} catch (RuntimeException e) {
+				logger.error("invalidate(TokenCacheInvalidation) - Unable to publish invalidation - invalidation=" //$NON-NLS-1$
+						+ invalidation, e);
+			}
+		}
+	}
+
+	/**
+	 * Removes all tokens from the cache of every node
+	 */
+	public void invalidateAll() {
+		invalidate(TokenCacheInvalidation.all());
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Removes all tokens when a reloaded deployment no longer trusts the tokens
+	 * validated against the previous one
+	 *
+	 * @param event The reload event
+	 */
+	protected void onDeploymentReload(@Observes DeploymentReloadEvent event) {
+		if (event.isTrustChanged()) {
+			if (logger.isInfoEnabled()) {
+				logger.info("onDeploymentReload(DeploymentReloadEvent) - Issuer or realm key changed.  Invalidating all tokens..."); //$NON-NLS-1$
+			}
+
+			invalidateAll();
+		}
+	}
+
+	/**
+	 * Loads the first {@link SharedTokenCache} found on the classpath
+	 *
+	 * @return The shared cache, or <code>null</code> if none is found
+	 */
+	protected SharedTokenCache loadSharedCache() {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		List<SharedTokenCache> found = new ArrayList<>();
+		for (SharedTokenCache sharedCache : ServiceLoader.load(SharedTokenCache.class,
+				loader != null ? loader : ValidatedTokenCache.class.getClassLoader())) {
+			found.add(sharedCache);
+		}
+
+		if (found.size() > 1) {
+			logger.warn("loadSharedCache() - Multiple shared token caches found.  Using the first - found=" + found); //$NON-NLS-1$
+		}
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	/**
+	 * Caches a successful validation result until the token expires
+	 *
+	 * @param digest The token digest
+	 * @param result The validation result
+	 * @param token  The validated token
+	 */
+	public void put(TokenDigest digest, CredentialValidationResult result, AccessToken token) {
+		if (!this.enabled || result.getStatus() != CredentialValidationResult.Status.VALID) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long expiresAt = now + this.maxTtlMillis;
+		int expiration = token.getExpiration();
+		if (expiration > 0) {
+			expiresAt = Math.min(expiresAt, TimeUnit.SECONDS.toMillis(expiration) + this.clockSkewMillis);
+		}
+
+		if (expiresAt > now) {
+			CachedValidation validation = new CachedValidation((JWTPrincipal) result.getCallerPrincipal(),
+					token.getId(), token.getIssuer(), token.getIssuedFor(), token.getIssuedAt(), expiresAt);
+			this.cache.put(digest, new Entry(result, validation));
+
+			if (this.sharedCache != null) {
+				try {
+					this.sharedCache.put(digest, validation);
+				} catch (RuntimeException e) {
+					logger.warn("put(TokenDigest, CredentialValidationResult, AccessToken) - Unable to write to shared token cache", //$NON-NLS-1$
+							e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache statistics
+	 *
+	 * @return The statistics
+	 */
+	private CacheStats stats() {
+		return this.cache.stats();
+	}
+}
@@ -5,6 +5,8 @@ package net.odyssi.security.keycloak.auth.credential;
 
 import javax.security.enterprise.credential.Credential;
 
+import org.keycloak.adapters.KeycloakDeployment;
+
 /**
  * A {@link Credential} implementation used to encapsulate an OAuth access token
  *
@@ -13,6 +15,8 @@ import javax.security.enterprise.credential.Credential;
  */
 public class AccessTokenCredential implements Credential {
 
+	private KeycloakDeployment deployment = null;
+
 	private String token = null;
 
 	public AccessTokenCredential(String token) {
@@ -20,6 +24,28 @@ public class AccessTokenCredential implements Credential {
 		this.token = token;
 	}
 
+	/**
+	 * Creates a credential for a token issued by a specific KeyCloak realm
+	 *
+	 * @param token      The access token
+	 * @param deployment The deployment of the realm the token is verified
+	 *                   against
+	 */
+	public AccessTokenCredential(String token, KeycloakDeployment deployment) {
+		this(token);
+		this.deployment = deployment;
+	}
+
+	/**
+	 * Returns the deployment the token is verified against
+	 *
+	 * @return The KeyCloak deployment, or <code>null</code> to use the default
+	 *         deployment
+	 */
+	public KeycloakDeployment getDeployment() {
+		return this.deployment;
+	}
+
 	public String getToken() {
 		return this.token;
 	}
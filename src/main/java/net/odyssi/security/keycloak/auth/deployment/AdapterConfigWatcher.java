@@ -0,0 +1,245 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.deployment;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+
+/**
+ * Watches the default and tenant adapter configuration files and reloads the
+ * KeyCloak deployments built from them when they change, e.g. when a client
+ * secret is rotated. Files are polled in the background; a changed file is
+ * parsed and handed to {@link KeycloakDeploymentRegistry#reload(AdapterConfig,
+ * AdapterConfig)}, which builds the new deployment on the polling thread and
+ * swaps it in atomically. A file that cannot be parsed is logged and the
+ * current deployment is kept.
+ *
+ * <p>
+ * Only locations that resolve to a file can be watched, i.e. file system paths
+ * and classpath resources of exploded deployments.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class AdapterConfigWatcher {
+
+	/**
+	 * A watched configuration file along with the state it was last loaded in
+	 */
+	private static final class WatchedFile {
+
+		private byte[] content;
+
+		private AdapterConfig config;
+
+		private final File file;
+
+		private long lastModified;
+
+		private long length;
+
+		private WatchedFile(File file) {
+			this.file = file;
+		}
+	}
+
+	public static final long DEFAULT_INTERVAL_SECONDS = 10;
+
+	public static final String DEFAULT_LOCATION = "keycloak.json"; //$NON-NLS-1$
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(AdapterConfigWatcher.class);
+
+	@Inject
+	private Configuration configuration = null;
+
+	@Inject
+	private KeycloakDeploymentRegistry deploymentRegistry = null;
+
+	private boolean enabled = false;
+
+	private final List<WatchedFile> files = new ArrayList<>();
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Checks the watched files for changes, reloading the deployments of those
+	 * that changed
+	 */
+	protected void check() {
+		for (WatchedFile watched : this.files) {
+			try {
+				long lastModified = watched.file.lastModified();
+				long length = watched.file.length();
+				if (lastModified == watched.lastModified && length == watched.length) {
+					continue;
+				}
+				watched.lastModified = lastModified;
+				watched.length = length;
+
+				byte[] content = Files.readAllBytes(watched.file.toPath());
+				if (Arrays.equals(content, watched.content)) {
+					continue;
+				}
+
+				AdapterConfig config = KeycloakDeploymentBuilder.loadAdapterConfig(new ByteArrayInputStream(content));
+
+				if (logger.isInfoEnabled()) {
+					logger.info("check() - Adapter config changed.  Reloading... - file=" + watched.file); //$NON-NLS-1$
+				}
+
+				this.deploymentRegistry.reload(watched.config, config);
+				watched.config = config;
+				watched.content = content;
+			} catch (IOException | RuntimeException e) {
+				logger.error("check() - Unable to reload adapter config.  Keeping current deployment - file=" //$NON-NLS-1$
+						+ watched.file, e);
+			}
+		}
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.enabled = this.configuration.getBoolean(Constants.CONFIG_RELOAD_ENABLED, false);
+		if (this.enabled) {
+			List<String> locations = new ArrayList<>();
+			locations.add(this.configuration.getString(Constants.CONFIG_RELOAD_LOCATION, DEFAULT_LOCATION));
+			for (String tenant : this.configuration.getStrings(Constants.TENANTS)) {
+				String location = this.configuration
+						.getString(Constants.TENANT_PREFIX + tenant + Constants.TENANT_CONFIG_SUFFIX, null);
+				if (location != null) {
+					locations.add(location);
+				}
+			}
+
+			for (String location : locations) {
+				File file = resolve(location);
+				if (file == null) {
+					logger.warn("init() - Adapter config is not a file and cannot be watched.  Skipping... - location=" //$NON-NLS-1$
+							+ location);
+					continue;
+				}
+
+				WatchedFile watched = new WatchedFile(file);
+				try {
+					watched.lastModified = file.lastModified();
+					watched.length = file.length();
+					watched.content = Files.readAllBytes(file.toPath());
+					watched.config = KeycloakDeploymentBuilder
+							.loadAdapterConfig(new ByteArrayInputStream(watched.content));
+				} catch (IOException | RuntimeException e) {
+					logger.warn("init() - Unable to load adapter config.  Skipping... - file=" + file, e); //$NON-NLS-1$
+					continue;
+				}
+				this.files.add(watched);
+			}
+
+			if (!this.files.isEmpty()) {
+				long intervalSeconds = Math.max(1,
+						this.configuration.getLong(Constants.CONFIG_RELOAD_INTERVAL, DEFAULT_INTERVAL_SECONDS));
+				this.scheduler = Executors
+						.newSingleThreadScheduledExecutor(new NamedThreadFactory("keycloak-soteria-config-reload")); //$NON-NLS-1$
+				this.scheduler.scheduleWithFixedDelay(this::check, intervalSeconds, intervalSeconds,
+						TimeUnit.SECONDS);
+			}
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Adapter config reload initialized - enabled=" + this.enabled + ", files=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ this.files.size());
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns true if adapter configuration files are watched for changes
+	 *
+	 * @return The status
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Creates this bean when the application starts, so that files are watched
+	 * before the first request
+	 *
+	 * @param event The application scope initialization event
+	 */
+	protected void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+		// Initialization is done in init()
+	}
+
+	/**
+	 * Resolves a configuration location to a file, looking on the classpath
+	 * first and then on the file system
+	 *
+	 * @param location The configuration location
+	 * @return The file, or <code>null</code> if the location is not a file
+	 */
+	protected File resolve(String location) {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		URL url = loader == null ? null : loader.getResource(location);
+		if (url != null) {
+			try {
+				return "file".equals(url.getProtocol()) ? new File(url.toURI()) : null; //$NON-NLS-1$
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		File file = new File(location);
+		return file.isFile() ? file : null;
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.deployment;
+
+import java.util.Objects;
+
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+/**
+ * The CDI event emitted by the {@link KeycloakDeploymentRegistry} once a
+ * reloaded adapter configuration has been swapped in. Observers drop whatever
+ * they derived from the previous deployment.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class DeploymentReloadEvent {
+
+	private final AdapterConfig config;
+
+	private final KeycloakDeployment deployment;
+
+	private final AdapterConfig previousConfig;
+
+	private final KeycloakDeployment previousDeployment;
+
+	public DeploymentReloadEvent(AdapterConfig previousConfig, KeycloakDeployment previousDeployment,
+			AdapterConfig config, KeycloakDeployment deployment) {
+		super();
+		this.previousConfig = previousConfig;
+		this.previousDeployment = previousDeployment;
+		this.config = config;
+		this.deployment = deployment;
+	}
+
+	public AdapterConfig getConfig() {
+		return this.config;
+	}
+
+	public KeycloakDeployment getDeployment() {
+		return this.deployment;
+	}
+
+	public AdapterConfig getPreviousConfig() {
+		return this.previousConfig;
+	}
+
+	/**
+	 * Returns the deployment that was replaced
+	 *
+	 * @return The previous deployment, or <code>null</code> if none had been
+	 *         built yet
+	 */
+	public KeycloakDeployment getPreviousDeployment() {
+		return this.previousDeployment;
+	}
+
+	/**
+	 * Returns true if tokens are issued by a different realm or server than
+	 * before. Nothing can have been derived from a deployment that was never
+	 * built, so this is false if there is no previous deployment.
+	 *
+	 * @return The status
+	 */
+	public boolean isIssuerChanged() {
+		return this.previousDeployment != null
+				&& !Objects.equals(this.previousDeployment.getRealmInfoUrl(), this.deployment.getRealmInfoUrl());
+	}
+
+	/**
+	 * Returns true if tokens validated against the previous deployment can no
+	 * longer be trusted, i.e. the issuer or the static realm key changed
+	 *
+	 * @return The status
+	 */
+	public boolean isTrustChanged() {
+		return isIssuerChanged() || this.previousDeployment != null
+				&& !Objects.equals(this.previousConfig.getRealmKey(), this.config.getRealmKey());
+	}
+
+}
@@ -0,0 +1,391 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.deployment;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.util.JsonSerialization;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import net.odyssi.security.keycloak.auth.http.KeycloakHttpClientProvider;
+import net.odyssi.security.keycloak.auth.http.OutboundCallGuard;
+import net.odyssi.security.keycloak.auth.jwks.HttpJWKSSource;
+import net.odyssi.security.keycloak.auth.jwks.JWKSKeyStore;
+import net.odyssi.security.keycloak.auth.jwks.KeyStorePublicKeyLocator;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+
+/**
+ * An application-wide registry of {@link KeycloakDeployment} instances. Each
+ * deployment is built once per distinct set of {@link AdapterConfig} values and
+ * shared by all callers, so that resolving a deployment on the request path is
+ * a lock-free map lookup. Unless a static realm public key is configured, each deployment
+ * verifies token signatures against a {@link JWKSKeyStore} that is refreshed
+ * in the background. Deployments without custom TLS settings share the pooled
+ * HTTP client of the {@link KeycloakHttpClientProvider}.
+ *
+ * <p>
+ * Callers hold on to the adapter configuration they were given, while each
+ * configuration resolves to a slot holding the current deployment. A reloaded
+ * configuration is built into a new deployment off the request path and then
+ * swapped into the slot atomically; requests already holding the previous
+ * deployment finish on it.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class KeycloakDeploymentRegistry {
+
+	/**
+	 * The value identifying a distinct KeyCloak deployment. Two adapter
+	 * configurations share one deployment only if all of their settings are
+	 * equal, so the key is the canonical JSON form of the whole configuration.
+	 */
+	private static final class DeploymentKey {
+
+		private final String authServerUrl;
+
+		private final String canonicalForm;
+
+		private final String realm;
+
+		private final String resource;
+
+		private DeploymentKey(AdapterConfig config) {
+			this.authServerUrl = config.getAuthServerUrl();
+			this.realm = config.getRealm();
+			this.resource = config.getResource();
+			try {
+				this.canonicalForm = CANONICAL_WRITER.writeValueAsString(config);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Unable to serialize adapter config", e); //$NON-NLS-1$
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof DeploymentKey)) {
+				return false;
+			}
+			DeploymentKey other = (DeploymentKey) obj;
+			return this.canonicalForm.equals(other.canonicalForm);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.canonicalForm.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "DeploymentKey [authServerUrl=" + this.authServerUrl + ", realm=" + this.realm + ", resource="
+					+ this.resource + "]";
+		}
+	}
+
+	/**
+	 * Writes adapter configurations with their map entries, e.g. credentials,
+	 * sorted, so that equal configurations have equal JSON forms
+	 */
+	private static final ObjectWriter CANONICAL_WRITER = JsonSerialization.mapper.writer()
+			.with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+	public static final long DEFAULT_JWKS_REFRESH_INTERVAL_SECONDS = 600;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(KeycloakDeploymentRegistry.class);
+
+	@Inject
+	private Configuration configuration = null;
+
+	@Inject
+	private Event<DeploymentReloadEvent> deploymentReloadEvent = null;
+
+	/**
+	 * Deployment slots indexed by the adapter configuration instance that
+	 * requested them. {@link AdapterConfig} does not override
+	 * {@link Object#equals(Object)}, so this is effectively an identity lookup.
+	 */
+	private final ConcurrentMap<AdapterConfig, AtomicReference<KeycloakDeployment>> slotsByConfig = new ConcurrentHashMap<>();
+
+	/**
+	 * Deployment slots indexed by the identifying values of the configurations
+	 * they were built or reloaded from
+	 */
+	private final ConcurrentMap<DeploymentKey, AtomicReference<KeycloakDeployment>> slotsByKey = new ConcurrentHashMap<>();
+
+	@Inject
+	private KeycloakHttpClientProvider httpClientProvider = null;
+
+	/**
+	 * The signing key stores of the deployments, indexed by deployment
+	 */
+	private final ConcurrentMap<KeycloakDeployment, JWKSKeyStore> keyStores = new ConcurrentHashMap<>();
+
+	@Inject
+	private OutboundCallGuard outboundCallGuard = null;
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Builds a new {@link KeycloakDeployment} from the given configuration
+	 *
+	 * @param config The adapter configuration
+	 * @return The KeyCloak deployment
+	 */
+	protected KeycloakDeployment buildDeployment(AdapterConfig config) {
+		return buildDeployment(config, null);
+	}
+
+	/**
+	 * Builds a new {@link KeycloakDeployment} from the given configuration. The
+	 * signing key store of the previous deployment is shared when the new one
+	 * fetches the same JWKS URL with the same HTTP client; otherwise a new key
+	 * store is installed and, on reload, loaded before the deployment is
+	 * returned.
+	 *
+	 * @param config   The adapter configuration
+	 * @param previous The deployment being replaced, or <code>null</code>
+	 * @return The KeyCloak deployment
+	 */
+	protected KeycloakDeployment buildDeployment(AdapterConfig config, KeycloakDeployment previous) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("buildDeployment(AdapterConfig, KeycloakDeployment) - start"); //$NON-NLS-1$
+		}
+
+		KeycloakDeployment deployment = KeycloakDeploymentBuilder.build(config);
+
+		if (this.httpClientProvider.canServe(config)) {
+			deployment.setClient(this.httpClientProvider.getClient());
+		} else {
+			deployment.setClient(this.httpClientProvider.guard(deployment.getClient()));
+		}
+
+		if (deployment.isConfigured() && config.getRealmKey() == null
+				&& this.configuration.getBoolean(Constants.JWKS_ENABLED, true)) {
+			JWKSKeyStore previousKeyStore = previous == null ? null : this.keyStores.get(previous);
+			if (previousKeyStore != null && previous.getClient() == deployment.getClient()
+					&& Objects.equals(previous.getJwksUrl(), deployment.getJwksUrl())) {
+				deployment.setPublicKeyLocator(new KeyStorePublicKeyLocator(previousKeyStore));
+				this.keyStores.put(deployment, previousKeyStore);
+			} else {
+				JWKSKeyStore keyStore = installKeyStore(deployment);
+				if (previous != null) {
+					keyStore.refresh();
+				}
+			}
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("buildDeployment(AdapterConfig, KeycloakDeployment) - end"); //$NON-NLS-1$
+		}
+		return deployment;
+	}
+
+	/**
+	 * Removes all cached deployments
+	 */
+	public void clear() {
+		this.slotsByConfig.clear();
+		this.slotsByKey.clear();
+		this.keyStores.values().forEach(JWKSKeyStore::close);
+		this.keyStores.clear();
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("destroy() - start"); //$NON-NLS-1$
+		}
+
+		clear();
+		this.scheduler.shutdownNow();
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("destroy() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns the {@link KeycloakDeployment} for the given adapter configuration,
+	 * building it on first use
+	 *
+	 * @param config The adapter configuration
+	 * @return The KeyCloak deployment
+	 */
+	public KeycloakDeployment getDeployment(AdapterConfig config) {
+		AtomicReference<KeycloakDeployment> slot = this.slotsByConfig.get(config);
+		if (slot != null) {
+			return slot.get();
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("getDeployment(AdapterConfig) - No deployment cached for adapter config.  Resolving..."); //$NON-NLS-1$
+		}
+
+		DeploymentKey key = new DeploymentKey(config);
+		slot = this.slotsByKey.computeIfAbsent(key, k -> {
+			if (logger.isInfoEnabled()) {
+				logger.info("getDeployment(AdapterConfig) - Building KeyCloak deployment - key=" + k); //$NON-NLS-1$
+			}
+			return new AtomicReference<>(buildDeployment(config));
+		});
+
+		AtomicReference<KeycloakDeployment> existing = this.slotsByConfig.putIfAbsent(config, slot);
+		return existing == null ? slot.get() : existing.get();
+	}
+
+	/**
+	 * Returns the signing key store used by a deployment
+	 *
+	 * @param deployment The KeyCloak deployment
+	 * @return The key store, or <code>null</code> if the deployment uses the
+	 *         KeyCloak default key locator
+	 */
+	public JWKSKeyStore getKeyStore(KeycloakDeployment deployment) {
+		return this.keyStores.get(deployment);
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("keycloak-soteria-jwks")); //$NON-NLS-1$
+	}
+
+	/**
+	 * Replaces the default public key locator of a deployment with a
+	 * {@link JWKSKeyStore} refreshed in the background. Keys that cannot be
+	 * refreshed are kept until a refresh succeeds, and their use is reported as
+	 * stale once the stale grace period of the {@link OutboundCallGuard} has
+	 * passed.
+	 *
+	 * @param deployment The KeyCloak deployment
+	 */
+	protected JWKSKeyStore installKeyStore(KeycloakDeployment deployment) {
+		long unknownKidIntervalSeconds = this.configuration.getLong(Constants.JWKS_UNKNOWN_KID_INTERVAL,
+				deployment.getMinTimeBetweenJwksRequests());
+		long refreshIntervalSeconds = this.configuration.getLong(Constants.JWKS_REFRESH_INTERVAL,
+				DEFAULT_JWKS_REFRESH_INTERVAL_SECONDS);
+
+		JWKSKeyStore keyStore = new JWKSKeyStore(new HttpJWKSSource(deployment::getClient, deployment.getJwksUrl()),
+				TimeUnit.SECONDS.toMillis(unknownKidIntervalSeconds), this.outboundCallGuard.getStaleGraceMillis());
+		keyStore.start(this.scheduler, TimeUnit.SECONDS.toMillis(refreshIntervalSeconds));
+
+		deployment.setPublicKeyLocator(new KeyStorePublicKeyLocator(keyStore));
+		this.keyStores.put(deployment, keyStore);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("installKeyStore(KeycloakDeployment) - JWKS key store installed - jwksUrl=" //$NON-NLS-1$
+					+ deployment.getJwksUrl() + ", refreshIntervalSeconds=" + refreshIntervalSeconds //$NON-NLS-1$
+					+ ", unknownKidIntervalSeconds=" + unknownKidIntervalSeconds); //$NON-NLS-1$
+		}
+		return keyStore;
+	}
+
+	/**
+	 * Replaces the deployment built from an adapter configuration with one built
+	 * from its reloaded values. The new deployment is built on the calling
+	 * thread and then swapped in atomically, so callers still holding the
+	 * previous configuration are served the new deployment from then on, while
+	 * requests already holding the previous deployment finish on it. Reloads are
+	 * serialized; lookups are never blocked.
+	 *
+	 * @param previous The adapter configuration values being replaced
+	 * @param config   The reloaded adapter configuration
+	 * @return The new deployment
+	 */
+	public synchronized KeycloakDeployment reload(AdapterConfig previous, AdapterConfig config) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("reload(AdapterConfig, AdapterConfig) - start"); //$NON-NLS-1$
+		}
+
+		DeploymentKey previousKey = new DeploymentKey(previous);
+		AtomicReference<KeycloakDeployment> slot = this.slotsByKey.get(previousKey);
+		KeycloakDeployment previousDeployment = slot == null ? null : slot.get();
+
+		KeycloakDeployment deployment = buildDeployment(config, previousDeployment);
+		if (slot == null) {
+			AtomicReference<KeycloakDeployment> created = new AtomicReference<>(deployment);
+			slot = this.slotsByKey.putIfAbsent(previousKey, created);
+			if (slot == null) {
+				slot = created;
+			} else {
+				// A deployment was built from the previous values in the meantime
+				previousDeployment = slot.getAndSet(deployment);
+			}
+		} else {
+			slot.set(deployment);
+		}
+		this.slotsByKey.putIfAbsent(new DeploymentKey(config), slot);
+
+		// The previous key store keeps serving in-flight requests, but is no
+		// longer refreshed unless the new deployment shares it
+		JWKSKeyStore keyStore = this.keyStores.get(deployment);
+		JWKSKeyStore previousKeyStore = previousDeployment == null ? null : this.keyStores.remove(previousDeployment);
+		boolean keyStoreShared = keyStore != null && keyStore == previousKeyStore;
+		if (previousKeyStore != null && !keyStoreShared) {
+			previousKeyStore.close();
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("reload(AdapterConfig, AdapterConfig) - KeyCloak deployment reloaded - previousKey=" //$NON-NLS-1$
+					+ previousKey + ", key=" + new DeploymentKey(config) + ", keyStoreShared=" + keyStoreShared); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		this.deploymentReloadEvent
+				.fire(new DeploymentReloadEvent(previous, previousDeployment, config, deployment));
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("reload(AdapterConfig, AdapterConfig) - end"); //$NON-NLS-1$
+		}
+		return deployment;
+	}
+
+	/**
+	 * Returns the number of distinct deployments held by this registry. A
+	 * reloaded deployment is counted once.
+	 *
+	 * @return The deployment count
+	 */
+	public int size() {
+		Set<AtomicReference<KeycloakDeployment>> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+		distinct.addAll(this.slotsByKey.values());
+		return distinct.size();
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+/**
+ * The states of the circuit breaker guarding outbound calls to KeyCloak
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public enum CircuitState {
+
+	/**
+	 * Calls are made normally
+	 */
+	CLOSED,
+
+	/**
+	 * The open period has elapsed and a single trial call is allowed through.
+	 * Its outcome closes or reopens the circuit.
+	 */
+	HALF_OPEN,
+
+	/**
+	 * KeyCloak is considered unhealthy and calls fail immediately
+	 */
+	OPEN
+
+}
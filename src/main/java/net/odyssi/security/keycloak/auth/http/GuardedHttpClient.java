@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+import java.io.IOException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A {@link CloseableHttpClient} that passes every request through the
+ * {@link OutboundCallGuard} of its target host before handing it to the
+ * underlying client. I/O errors
+ * and server error responses count as failures; any other response shows that
+ * KeyCloak is answering and counts as a success. The bulkhead permit is held
+ * until the response headers have been received.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@SuppressWarnings("deprecation")
+public class GuardedHttpClient extends CloseableHttpClient {
+
+	private final CloseableHttpClient delegate;
+
+	private final OutboundCallGuard guard;
+
+	/**
+	 * Creates a new guarded client
+	 *
+	 * @param delegate The client making the calls
+	 * @param guard    The guard the calls pass through
+	 */
+	public GuardedHttpClient(CloseableHttpClient delegate, OutboundCallGuard guard) {
+		super();
+		this.delegate = delegate;
+		this.guard = guard;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		this.delegate.close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.http.impl.client.CloseableHttpClient#doExecute(org.apache.http.
+	 * HttpHost, org.apache.http.HttpRequest, org.apache.http.protocol.HttpContext)
+	 */
+	@Override
+	protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+			throws IOException, ClientProtocolException {
+		this.guard.acquire(target);
+
+		boolean success = false;
+		try {
+			CloseableHttpResponse response = this.delegate.execute(target, request, context);
+			success = response.getStatusLine().getStatusCode() < 500;
+			return response;
+		} finally {
+			this.guard.release(target, success);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.http.client.HttpClient#getConnectionManager()
+	 */
+	@Override
+	public org.apache.http.conn.ClientConnectionManager getConnectionManager() {
+		return this.delegate.getConnectionManager();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.http.client.HttpClient#getParams()
+	 */
+	@Override
+	public org.apache.http.params.HttpParams getParams() {
+		return this.delegate.getParams();
+	}
+
+}
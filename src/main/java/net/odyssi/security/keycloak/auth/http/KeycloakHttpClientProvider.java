@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Provides the pooled, keep-alive {@link HttpClient} shared by all outbound
+ * calls to KeyCloak: authorization code exchange, token refresh, key fetches
+ * and introspection. Connections are bounded per route and in total, and idle
+ * connections are evicted in the background. Every call passes through the
+ * bulkhead and circuit breaker of the {@link OutboundCallGuard}, including the
+ * calls of deployments that keep the client built by KeyCloak, see
+ * {@link #guard(HttpClient)}.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class KeycloakHttpClientProvider {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+
+	public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS = 5000;
+
+	public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+
+	public static final long DEFAULT_KEEP_ALIVE_SECONDS = 30;
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(KeycloakHttpClientProvider.class);
+
+	private CloseableHttpClient client = null;
+
+	@Inject
+	private Configuration configuration = null;
+
+	private PoolingHttpClientConnectionManager connectionManager = null;
+
+	private boolean enabled = true;
+
+	@Inject
+	private OutboundCallGuard outboundCallGuard = null;
+
+	/**
+	 * Returns true if the shared client can serve a deployment. Deployments with
+	 * their own trust store, client key store or trust settings keep the client
+	 * built by KeyCloak.
+	 *
+	 * @param config The adapter configuration
+	 * @return The status
+	 */
+	public boolean canServe(AdapterConfig config) {
+		return this.enabled && config.getTruststore() == null && config.getClientKeystore() == null
+				&& !config.isDisableTrustManager() && !config.isAllowAnyHostname();
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("destroy() - start"); //$NON-NLS-1$
+		}
+
+		try {
+			this.client.close();
+		} catch (IOException e) {
+			logger.warn("destroy() - Unable to close HTTP client", e); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("destroy() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns the number of idle connections in the pool
+	 *
+	 * @return The available connection count
+	 */
+	public int getAvailableConnections() {
+		return stats().getAvailable();
+	}
+
+	/**
+	 * Returns the shared HTTP client
+	 *
+	 * @return The HTTP client
+	 */
+	public HttpClient getClient() {
+		return this.client;
+	}
+
+	/**
+	 * Returns the number of connections currently in use
+	 *
+	 * @return The leased connection count
+	 */
+	public int getLeasedConnections() {
+		return stats().getLeased();
+	}
+
+	/**
+	 * Returns the maximum number of connections in the pool
+	 *
+	 * @return The maximum connection count
+	 */
+	public int getMaxConnections() {
+		return stats().getMax();
+	}
+
+	/**
+	 * Returns the number of requests waiting for a connection
+	 *
+	 * @return The pending request count
+	 */
+	public int getPendingRequests() {
+		return stats().getPending();
+	}
+
+	/**
+	 * Wraps a client built by KeyCloak, for a deployment the shared client
+	 * cannot serve, so that its calls pass through the {@link OutboundCallGuard}
+	 *
+	 * @param client The client built by KeyCloak
+	 * @return The guarded client
+	 */
+	public HttpClient guard(HttpClient client) {
+		if (client instanceof GuardedHttpClient) {
+			return client;
+		}
+		if (!(client instanceof CloseableHttpClient)) {
+			logger.warn("guard(HttpClient) - Unable to guard HTTP client - client=" + client, null); //$NON-NLS-1$
+
+			return client;
+		}
+		return new GuardedHttpClient((CloseableHttpClient) client, this.outboundCallGuard);
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.enabled = this.configuration.getBoolean(Constants.HTTP_POOL_ENABLED, true);
+		int maxConnections = this.configuration.getInt(Constants.HTTP_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+		int maxPerRoute = this.configuration.getInt(Constants.HTTP_MAX_CONNECTIONS_PER_ROUTE,
+				DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		int connectTimeout = this.configuration.getInt(Constants.HTTP_CONNECT_TIMEOUT,
+				DEFAULT_CONNECT_TIMEOUT_MILLIS);
+		int readTimeout = this.configuration.getInt(Constants.HTTP_READ_TIMEOUT, DEFAULT_READ_TIMEOUT_MILLIS);
+		int requestTimeout = this.configuration.getInt(Constants.HTTP_CONNECTION_REQUEST_TIMEOUT,
+				DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS);
+		long keepAliveMillis = TimeUnit.SECONDS
+				.toMillis(this.configuration.getLong(Constants.HTTP_KEEP_ALIVE, DEFAULT_KEEP_ALIVE_SECONDS));
+		long idleTimeoutSeconds = this.configuration.getLong(Constants.HTTP_IDLE_TIMEOUT,
+				DEFAULT_IDLE_TIMEOUT_SECONDS);
+
+		this.connectionManager = new PoolingHttpClientConnectionManager();
+		this.connectionManager.setMaxTotal(maxConnections);
+		this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+		RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)
+				.setSocketTimeout(readTimeout).setConnectionRequestTimeout(requestTimeout).build();
+
+		ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? Math.min(duration, keepAliveMillis) : keepAliveMillis;
+		};
+
+		CloseableHttpClient pooledClient = HttpClients.custom().setConnectionManager(this.connectionManager)
+				.setDefaultRequestConfig(requestConfig).setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections().evictIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS)
+				.useSystemProperties().build();
+		this.client = new GuardedHttpClient(pooledClient, this.outboundCallGuard);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Shared HTTP client initialized - enabled=" + this.enabled + ", maxConnections=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ maxConnections + ", maxPerRoute=" + maxPerRoute + ", connectTimeout=" + connectTimeout //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", readTimeout=" + readTimeout + ", keepAliveMillis=" + keepAliveMillis); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Returns the connection pool statistics
+	 *
+	 * @return The pool statistics
+	 */
+	private PoolStats stats() {
+		return this.connectionManager.getTotalStats();
+	}
+
+}
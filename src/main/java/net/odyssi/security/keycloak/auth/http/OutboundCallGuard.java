@@ -0,0 +1,467 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.http.HttpHost;
+import org.apache.log4j.Logger;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Protects request threads from a slow or failing KeyCloak server. Every
+ * outbound call passes through a bulkhead, which bounds the number of calls in
+ * progress and refuses calls that cannot start within a short wait, and a
+ * circuit breaker, which opens after a run of consecutive failures and then
+ * refuses calls immediately until the open period has elapsed. A single trial
+ * call is then let through, and its outcome closes or reopens the circuit.
+ *
+ * <p>
+ * Each KeyCloak host has its own bulkhead and circuit breaker, so that the
+ * realms of a healthy server are not refused because another server is
+ * failing. The counts reported over JMX cover every host.
+ * </p>
+ *
+ * <p>
+ * While the circuit is not closed, callers holding cached keys or validation
+ * results may keep serving them for a grace period past their expiry, see
+ * {@link #tryServeStale(long)}.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class OutboundCallGuard implements OutboundCallGuardMXBean {
+
+	/**
+	 * The bulkhead and circuit breaker of a KeyCloak host
+	 */
+	private final class HostGuard {
+
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		private final HttpHost host;
+
+		/**
+		 * The {@link System#nanoTime()} at which the circuit last opened
+		 */
+		private volatile long openedAtNanos = 0;
+
+		/**
+		 * The bulkhead permits, or <code>null</code> if concurrency is unbounded
+		 */
+		private final Semaphore permits;
+
+		private final AtomicReference<CircuitState> state = new AtomicReference<>(CircuitState.CLOSED);
+
+		/**
+		 * Whether the trial call of a half-open circuit has been let through
+		 */
+		private final AtomicBoolean trialInProgress = new AtomicBoolean();
+
+		private HostGuard(HttpHost host) {
+			this.host = host;
+			this.permits = OutboundCallGuard.this.maxConcurrentCalls > 0
+					? new Semaphore(OutboundCallGuard.this.maxConcurrentCalls)
+					: null;
+		}
+	}
+
+	/**
+	 * The key of the guard used for calls whose target host is unknown
+	 */
+	private static final HttpHost UNKNOWN_HOST = new HttpHost("unknown"); //$NON-NLS-1$
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	public static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 250;
+
+	public static final String DEFAULT_OBJECT_NAME = "net.odyssi.security.keycloak:type=OutboundCalls";
+
+	public static final long DEFAULT_OPEN_DURATION_SECONDS = 30;
+
+	public static final long DEFAULT_STALE_GRACE_SECONDS = 900;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(OutboundCallGuard.class);
+
+	private final LongAdder bulkheadRejected = new LongAdder();
+
+	private final LongAdder circuitOpened = new LongAdder();
+
+	private final LongAdder circuitRejected = new LongAdder();
+
+	@Inject
+	private Configuration configuration = null;
+
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * The guards of the KeyCloak hosts called so far, indexed by host
+	 */
+	private final ConcurrentMap<HttpHost, HostGuard> hosts = new ConcurrentHashMap<>();
+
+	private int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+
+	private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+	/**
+	 * The name the MXBean is registered under, or <code>null</code> if it is not
+	 * registered
+	 */
+	private ObjectName objectName = null;
+
+	private long openDurationNanos = TimeUnit.SECONDS.toNanos(DEFAULT_OPEN_DURATION_SECONDS);
+
+	private long staleGraceMillis = TimeUnit.SECONDS.toMillis(DEFAULT_STALE_GRACE_SECONDS);
+
+	private final LongAdder staleResults = new LongAdder();
+
+	private final LongAdder successes = new LongAdder();
+
+	/**
+	 * Reserves the right to make an outbound call to a KeyCloak host. Every
+	 * successful call to this method must be followed by a call to
+	 * {@link #release(HttpHost, boolean)} for the same host.
+	 *
+	 * @param host The host called, or <code>null</code> if it is unknown
+	 * @throws OutboundCallRejectedException If the circuit is open or the
+	 *                                       bulkhead is full
+	 */
+	public void acquire(HttpHost host) throws OutboundCallRejectedException {
+		HostGuard guard = guard(host);
+
+		boolean trial = false;
+		CircuitState current = guard.state.get();
+		if (current == CircuitState.OPEN) {
+			if (System.nanoTime() - guard.openedAtNanos < this.openDurationNanos) {
+				this.circuitRejected.increment();
+				throw new OutboundCallRejectedException("Circuit to KeyCloak is open - host=" + guard.host); //$NON-NLS-1$
+			}
+			guard.state.compareAndSet(CircuitState.OPEN, CircuitState.HALF_OPEN);
+			current = guard.state.get();
+		}
+		if (current == CircuitState.HALF_OPEN) {
+			if (!guard.trialInProgress.compareAndSet(false, true)) {
+				this.circuitRejected.increment();
+				throw new OutboundCallRejectedException("Circuit to KeyCloak is half open - host=" + guard.host); //$NON-NLS-1$
+			}
+			trial = true;
+
+			if (logger.isInfoEnabled()) {
+				logger.info("acquire(HttpHost) - Circuit half open.  Allowing trial call to KeyCloak - host=" //$NON-NLS-1$
+						+ guard.host);
+			}
+		}
+
+		if (guard.permits != null && !tryAcquirePermit(guard.permits)) {
+			if (trial) {
+				guard.trialInProgress.set(false);
+			}
+			this.bulkheadRejected.increment();
+			throw new OutboundCallRejectedException("Maximum of " + this.maxConcurrentCalls //$NON-NLS-1$
+					+ " concurrent calls to KeyCloak in progress - host=" + guard.host); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch (JMException e) {
+				logger.warn("destroy() - Unable to unregister outbound call MXBean - objectName=" + this.objectName, e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getActiveCalls()
+	 */
+	@Override
+	public int getActiveCalls() {
+		int activeCalls = 0;
+		for (HostGuard guard : this.hosts.values()) {
+			if (guard.permits != null) {
+				activeCalls += this.maxConcurrentCalls - guard.permits.availablePermits();
+			}
+		}
+		return activeCalls;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getBulkheadRejectedCount()
+	 */
+	@Override
+	public long getBulkheadRejectedCount() {
+		return this.bulkheadRejected.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getCircuitOpenedCount()
+	 */
+	@Override
+	public long getCircuitOpenedCount() {
+		return this.circuitOpened.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getCircuitRejectedCount()
+	 */
+	@Override
+	public long getCircuitRejectedCount() {
+		return this.circuitRejected.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getCircuitState()
+	 */
+	@Override
+	public String getCircuitState() {
+		CircuitState state = CircuitState.CLOSED;
+		for (HostGuard guard : this.hosts.values()) {
+			CircuitState current = guard.state.get();
+			if (current.compareTo(state) > 0) {
+				state = current;
+			}
+		}
+		return state.name();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getFailureCount()
+	 */
+	@Override
+	public long getFailureCount() {
+		return this.failures.sum();
+	}
+
+	/**
+	 * Returns the guard of a KeyCloak host, creating it on first use
+	 *
+	 * @param host The host, or <code>null</code> if it is unknown
+	 * @return The guard
+	 */
+	private HostGuard guard(HttpHost host) {
+		return this.hosts.computeIfAbsent(host == null ? UNKNOWN_HOST : host, HostGuard::new);
+	}
+
+	/**
+	 * Returns how long cached results may be served past their expiry while
+	 * KeyCloak is unhealthy
+	 *
+	 * @return The grace period, in milliseconds
+	 */
+	public long getStaleGraceMillis() {
+		return this.staleGraceMillis;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getStaleResultCount()
+	 */
+	@Override
+	public long getStaleResultCount() {
+		return this.staleResults.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.http.OutboundCallGuardMXBean#
+	 * getSuccessCount()
+	 */
+	@Override
+	public long getSuccessCount() {
+		return this.successes.sum();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.maxConcurrentCalls = this.configuration.getInt(Constants.HTTP_BULKHEAD_MAX_CONCURRENT_CALLS,
+				DEFAULT_MAX_CONCURRENT_CALLS);
+		this.maxWaitMillis = this.configuration.getLong(Constants.HTTP_BULKHEAD_MAX_WAIT, DEFAULT_MAX_WAIT_MILLIS);
+		this.failureThreshold = this.configuration.getInt(Constants.HTTP_CIRCUIT_FAILURE_THRESHOLD,
+				DEFAULT_FAILURE_THRESHOLD);
+		this.openDurationNanos = TimeUnit.SECONDS.toNanos(
+				this.configuration.getLong(Constants.HTTP_CIRCUIT_OPEN_DURATION, DEFAULT_OPEN_DURATION_SECONDS));
+		this.staleGraceMillis = TimeUnit.SECONDS
+				.toMillis(this.configuration.getLong(Constants.HTTP_STALE_GRACE, DEFAULT_STALE_GRACE_SECONDS));
+
+		String name = this.configuration.getString(Constants.HTTP_JMX_NAME, DEFAULT_OBJECT_NAME);
+		try {
+			ObjectName objectName = new ObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			logger.warn("init() - Unable to register outbound call MXBean - objectName=" + name, e); //$NON-NLS-1$
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Outbound call guard initialized - maxConcurrentCalls=" + this.maxConcurrentCalls //$NON-NLS-1$
+					+ ", maxWaitMillis=" + this.maxWaitMillis + ", failureThreshold=" + this.failureThreshold //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", openDurationMillis=" + TimeUnit.NANOSECONDS.toMillis(this.openDurationNanos) //$NON-NLS-1$
+					+ ", staleGraceMillis=" + this.staleGraceMillis); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns true if the circuit of a KeyCloak host is closed, i.e. the host is
+	 * answering
+	 *
+	 * @param host The host
+	 * @return The status
+	 */
+	public boolean isHealthy(HttpHost host) {
+		HostGuard guard = this.hosts.get(host == null ? UNKNOWN_HOST : host);
+		return guard == null || guard.state.get() == CircuitState.CLOSED;
+	}
+
+	/**
+	 * Opens the circuit of a host
+	 *
+	 * @param guard The guard of the host
+	 * @param from  The state the circuit is expected to be in
+	 */
+	private void open(HostGuard guard, CircuitState from) {
+		guard.openedAtNanos = System.nanoTime();
+		if (guard.state.compareAndSet(from, CircuitState.OPEN)) {
+			guard.trialInProgress.set(false);
+			this.circuitOpened.increment();
+
+			logger.warn("open(HostGuard, CircuitState) - Circuit to KeyCloak opened - host=" + guard.host + ", from=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ from + ", consecutiveFailures=" + guard.consecutiveFailures.get()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Releases the right acquired with {@link #acquire(HttpHost)} and records
+	 * the outcome of the call
+	 *
+	 * @param host    The host called, or <code>null</code> if it is unknown
+	 * @param success <code>true</code> if KeyCloak answered without a server
+	 *                error
+	 */
+	public void release(HttpHost host, boolean success) {
+		HostGuard guard = guard(host);
+		if (guard.permits != null) {
+			guard.permits.release();
+		}
+
+		if (success) {
+			this.successes.increment();
+			guard.consecutiveFailures.set(0);
+			if (guard.state.get() != CircuitState.CLOSED) {
+				guard.state.set(CircuitState.CLOSED);
+				guard.trialInProgress.set(false);
+
+				if (logger.isInfoEnabled()) {
+					logger.info("release(HttpHost, boolean) - Circuit to KeyCloak closed - host=" + guard.host); //$NON-NLS-1$
+				}
+			}
+			return;
+		}
+
+		this.failures.increment();
+		int failureCount = guard.consecutiveFailures.incrementAndGet();
+		CircuitState current = guard.state.get();
+		if (current == CircuitState.HALF_OPEN) {
+			open(guard, CircuitState.HALF_OPEN);
+		} else if (current == CircuitState.CLOSED && this.failureThreshold > 0
+				&& failureCount >= this.failureThreshold) {
+			open(guard, CircuitState.CLOSED);
+		}
+	}
+
+	/**
+	 * Waits for a bulkhead permit
+	 *
+	 * @param permits The bulkhead permits of a host
+	 * @return <code>true</code> if a permit was acquired
+	 */
+	private boolean tryAcquirePermit(Semaphore permits) {
+		try {
+			return permits.tryAcquire(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Returns true if a cached result that could not be refreshed from KeyCloak
+	 * may still be served, i.e. it expired less than the grace period ago. Each
+	 * result served this way is counted.
+	 *
+	 * @param expiredAtMillis The time the result expired, in milliseconds since
+	 *                        the epoch
+	 * @return The status
+	 */
+	public boolean tryServeStale(long expiredAtMillis) {
+		if (System.currentTimeMillis() - expiredAtMillis < this.staleGraceMillis) {
+			this.staleResults.increment();
+			return true;
+		}
+		return false;
+	}
+
+}
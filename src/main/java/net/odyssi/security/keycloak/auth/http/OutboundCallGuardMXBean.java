@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+/**
+ * The JMX management interface of the {@link OutboundCallGuard}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public interface OutboundCallGuardMXBean {
+
+	/**
+	 * Returns the number of outbound calls currently in progress
+	 *
+	 * @return The active call count
+	 */
+	int getActiveCalls();
+
+	/**
+	 * Returns the number of calls refused because the maximum number of
+	 * concurrent calls was in progress
+	 *
+	 * @return The bulkhead rejection count
+	 */
+	long getBulkheadRejectedCount();
+
+	/**
+	 * Returns the number of times the circuit has opened
+	 *
+	 * @return The open count
+	 */
+	long getCircuitOpenedCount();
+
+	/**
+	 * Returns the number of calls refused because the circuit was open
+	 *
+	 * @return The circuit rejection count
+	 */
+	long getCircuitRejectedCount();
+
+	/**
+	 * Returns the least healthy state of the circuit breakers of the KeyCloak
+	 * hosts, e.g. <code>OPEN</code> if any circuit is open
+	 *
+	 * @return The state name
+	 */
+	String getCircuitState();
+
+	/**
+	 * Returns the number of calls that failed with an I/O error or a server error
+	 * status
+	 *
+	 * @return The failure count
+	 */
+	long getFailureCount();
+
+	/**
+	 * Returns the number of cached results served past their expiry because
+	 * KeyCloak could not be reached
+	 *
+	 * @return The stale result count
+	 */
+	long getStaleResultCount();
+
+	/**
+	 * Returns the number of calls that completed without a server error
+	 *
+	 * @return The success count
+	 */
+	long getSuccessCount();
+
+}
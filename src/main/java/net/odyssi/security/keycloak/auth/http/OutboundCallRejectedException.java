@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an outbound call to KeyCloak is refused without being made,
+ * either because the circuit is open or because the maximum number of
+ * concurrent calls is in progress. It is an {@link IOException} so that
+ * callers, including the KeyCloak adapter, treat it as an unreachable server.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class OutboundCallRejectedException extends IOException {
+
+	private static final long serialVersionUID = -3276046425530281185L;
+
+	public OutboundCallRejectedException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.introspection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.authentication.ClientCredentialsProviderUtils;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+import org.keycloak.util.TokenUtil;
+
+/**
+ * A client for the OAuth 2.0 token introspection endpoint (RFC 7662) of a
+ * KeyCloak realm
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class TokenIntrospectionClient {
+
+	/**
+	 * The path of the introspection endpoint, relative to the realm URL
+	 */
+	public static final String INTROSPECTION_PATH = "/protocol/openid-connect/token/introspect";
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(TokenIntrospectionClient.class);
+
+	private final KeycloakDeployment deployment;
+
+	/**
+	 * The host of the introspection endpoint, as the HTTP client targets it
+	 */
+	private final HttpHost host;
+
+	private final String introspectionUrl;
+
+	/**
+	 * Creates a new introspection client
+	 *
+	 * @param deployment       The KeyCloak deployment whose client credentials
+	 *                         and HTTP client are used
+	 * @param introspectionUrl The introspection endpoint URL, or
+	 *                         <code>null</code> to derive it from the realm URL
+	 */
+	public TokenIntrospectionClient(KeycloakDeployment deployment, String introspectionUrl) {
+		super();
+		this.deployment = deployment;
+		this.introspectionUrl = introspectionUrl != null ? introspectionUrl
+				: deployment.getRealmInfoUrl() + INTROSPECTION_PATH;
+		this.host = URIUtils.extractHost(URI.create(this.introspectionUrl));
+	}
+
+	public HttpHost getHost() {
+		return this.host;
+	}
+
+	public String getIntrospectionUrl() {
+		return this.introspectionUrl;
+	}
+
+	/**
+	 * Introspects a token
+	 *
+	 * @param token The raw token
+	 * @return The token claims, or <code>null</code> if the token is not an
+	 *         active bearer token
+	 * @throws IOException If the introspection endpoint could not be called
+	 */
+	public AccessToken introspect(String token) throws IOException {
+		if (logger.isDebugEnabled()) {
+			logger.debug("introspect(String) - start"); //$NON-NLS-1$
+		}
+
+		Map<String, String> headers = new HashMap<>();
+		Map<String, String> formParams = new HashMap<>();
+		formParams.put("token", token); //$NON-NLS-1$
+		formParams.put("token_type_hint", "access_token"); //$NON-NLS-1$ //$NON-NLS-2$
+		ClientCredentialsProviderUtils.setClientCredentials(this.deployment, headers, formParams);
+
+		HttpPost request = new HttpPost(this.introspectionUrl);
+		headers.forEach(request::addHeader);
+		request.addHeader("Accept", "application/json"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		List<NameValuePair> params = new ArrayList<>(formParams.size());
+		formParams.forEach((name, value) -> params.add(new BasicNameValuePair(name, value)));
+		request.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+
+		HttpResponse response = this.deployment.getClient().execute(request);
+		HttpEntity entity = response.getEntity();
+		try {
+			int status = response.getStatusLine().getStatusCode();
+			if (status != 200 || entity == null) {
+				throw new IOException("Unexpected introspection response status " + status + " from " //$NON-NLS-1$ //$NON-NLS-2$
+						+ this.introspectionUrl);
+			}
+
+			Map<String, Object> claims;
+			try (InputStream in = entity.getContent()) {
+				@SuppressWarnings("unchecked")
+				Map<String, Object> json = JsonSerialization.readValue(in, Map.class);
+				claims = json;
+			}
+
+			AccessToken accessToken = null;
+			if (Boolean.TRUE.equals(claims.remove("active"))) { //$NON-NLS-1$
+				if (isBearerToken(claims)) {
+					accessToken = JsonSerialization.mapper.convertValue(claims, AccessToken.class);
+				} else {
+					logger.warn("introspect(String) - Active token is not a bearer token - typ=" + claims.get("typ") //$NON-NLS-1$ //$NON-NLS-2$
+							+ ", token_type=" + claims.get("token_type")); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("introspect(String) - end - active=" + (accessToken != null)); //$NON-NLS-1$
+			}
+			return accessToken;
+		} finally {
+			EntityUtils.consumeQuietly(entity);
+		}
+	}
+
+	/**
+	 * Returns true if the claims of an active token describe a bearer access
+	 * token. KeyCloak also reports refresh, offline and ID tokens as active, and
+	 * these must not authenticate a request.
+	 *
+	 * @param claims The introspected claims
+	 * @return The status
+	 */
+	private static boolean isBearerToken(Map<String, Object> claims) {
+		Object type = claims.get("typ"); //$NON-NLS-1$
+		Object tokenType = claims.get("token_type"); //$NON-NLS-1$
+		if (type == null && tokenType == null) {
+			return false;
+		}
+		return (type == null || TokenUtil.TOKEN_TYPE_BEARER.equalsIgnoreCase(type.toString()))
+				&& (tokenType == null || TokenUtil.TOKEN_TYPE_BEARER.equalsIgnoreCase(tokenType.toString()));
+	}
+
+}
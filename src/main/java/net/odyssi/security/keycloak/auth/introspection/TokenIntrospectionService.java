@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.introspection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.representations.AccessToken;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import net.odyssi.security.keycloak.auth.cache.TokenDigest;
+import net.odyssi.security.keycloak.auth.deployment.DeploymentReloadEvent;
+import net.odyssi.security.keycloak.auth.http.OutboundCallGuard;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+
+/**
+ * Validates tokens through the KeyCloak introspection endpoint. Concurrent
+ * requests carrying the same token share a single in-flight introspection
+ * call, and results are cached, per issuer, until the token expires or the
+ * configured TTL elapses, whichever comes first. While KeyCloak cannot be reached, results
+ * past their TTL are served for the stale grace period of the
+ * {@link OutboundCallGuard}, but never past the token's expiry.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class TokenIntrospectionService {
+
+	/**
+	 * A cached introspection result along with the time it becomes stale and
+	 * the time it is evicted
+	 */
+	private static final class Entry {
+
+		private final long expiresAtMillis;
+
+		private final long freshUntilMillis;
+
+		private final CredentialValidationResult result;
+
+		private Entry(CredentialValidationResult result, long freshUntilMillis, long expiresAtMillis) {
+			this.result = result;
+			this.freshUntilMillis = freshUntilMillis;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+
+	/**
+	 * Expires each entry at its own absolute expiry time
+	 */
+	private static final class EntryExpiry implements Expiry<Key, Entry> {
+
+		@Override
+		public long expireAfterCreate(Key key, Entry value, long currentTime) {
+			long remaining = value.expiresAtMillis - System.currentTimeMillis();
+			return remaining <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(remaining);
+		}
+
+		@Override
+		public long expireAfterRead(Key key, Entry value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+		@Override
+		public long expireAfterUpdate(Key key, Entry value, long currentTime, long currentDuration) {
+			return expireAfterCreate(key, value, currentTime);
+		}
+	}
+
+	/**
+	 * The cache key of a token introspected against an issuer, so that a result
+	 * obtained from one realm is never served for another
+	 */
+	private static final class Key {
+
+		private final TokenDigest digest;
+
+		private final String issuer;
+
+		private Key(String issuer, TokenDigest digest) {
+			this.issuer = issuer;
+			this.digest = digest;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.digest.equals(other.digest) && Objects.equals(this.issuer, other.issuer);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.digest.hashCode() + Objects.hashCode(this.issuer);
+		}
+	}
+
+	public static final long DEFAULT_CACHE_MAX_SIZE = 10000;
+
+	public static final long DEFAULT_CACHE_TTL_SECONDS = 30;
+
+	public static final int DEFAULT_THREADS = 8;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(TokenIntrospectionService.class);
+
+	private AsyncCache<Key, Entry> cache = null;
+
+	private long cacheTtlMillis = 0;
+
+	private final ConcurrentMap<KeycloakDeployment, TokenIntrospectionClient> clients = new ConcurrentHashMap<>();
+
+	@Inject
+	private Configuration configuration = null;
+
+	private ExecutorService executor = null;
+
+	@Inject
+	private OutboundCallGuard outboundCallGuard = null;
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the introspection client for a deployment
+	 *
+	 * @param deployment The KeyCloak deployment
+	 * @return The introspection client
+	 */
+	protected TokenIntrospectionClient getClient(KeycloakDeployment deployment) {
+		return this.clients.computeIfAbsent(deployment, d -> new TokenIntrospectionClient(d,
+				this.configuration.getString(Constants.INTROSPECTION_URL, null)));
+	}
+
+	/**
+	 * Returns the number of introspection results served from the cache,
+	 * including requests that joined an in-flight call
+	 *
+	 * @return The hit count
+	 */
+	public long getHitCount() {
+		return this.cache.synchronous().stats().hitCount();
+	}
+
+	/**
+	 * Returns the number of introspection calls made
+	 *
+	 * @return The miss count
+	 */
+	public long getMissCount() {
+		return this.cache.synchronous().stats().missCount();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		int threads = this.configuration.getInt(Constants.INTROSPECTION_THREADS, DEFAULT_THREADS);
+		long maxSize = this.configuration.getLong(Constants.INTROSPECTION_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE);
+		this.cacheTtlMillis = TimeUnit.SECONDS
+				.toMillis(this.configuration.getLong(Constants.INTROSPECTION_CACHE_TTL, DEFAULT_CACHE_TTL_SECONDS));
+
+		this.executor = Executors.newFixedThreadPool(threads,
+				new NamedThreadFactory("keycloak-soteria-introspection")); //$NON-NLS-1$
+		this.cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfter(new EntryExpiry())
+				.executor(this.executor).recordStats().buildAsync();
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Validates a token through the introspection endpoint, blocking until the
+	 * result is available
+	 *
+	 * @param deployment    The KeyCloak deployment
+	 * @param token         The raw token
+	 * @param resultBuilder Builds the validation result of an active token
+	 * @return The validation result
+	 */
+	public CredentialValidationResult introspect(KeycloakDeployment deployment, String token,
+			Function<AccessToken, CredentialValidationResult> resultBuilder) {
+		try {
+			return introspectAsync(deployment, token, resultBuilder).join();
+		} catch (CompletionException e) {
+			logger.error("introspect(KeycloakDeployment, String, Function) - Token introspection failed", e.getCause()); //$NON-NLS-1$
+
+			return CredentialValidationResult.INVALID_RESULT;
+		}
+	}
+
+	/**
+	 * Validates a token through the introspection endpoint. A cached result past
+	 * its TTL is served as is while the circuit to KeyCloak is not closed, and is
+	 * otherwise refreshed, falling back to it if the refresh fails.
+	 *
+	 * @param deployment    The KeyCloak deployment
+	 * @param token         The raw token
+	 * @param resultBuilder Builds the validation result of an active token
+	 * @return The pending validation result, which completes exceptionally if
+	 *         the introspection endpoint could not be called and no stale result
+	 *         could be served
+	 */
+	public CompletableFuture<CredentialValidationResult> introspectAsync(KeycloakDeployment deployment, String token,
+			Function<AccessToken, CredentialValidationResult> resultBuilder) {
+		TokenIntrospectionClient client = getClient(deployment);
+		Key cacheKey = new Key(deployment.getRealmInfoUrl(), TokenDigest.of(token));
+
+		Entry stale = null;
+		CompletableFuture<Entry> cached = this.cache.asMap().get(cacheKey);
+		if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+			Entry entry = cached.join();
+			if (System.currentTimeMillis() >= entry.freshUntilMillis) {
+				if (!this.outboundCallGuard.isHealthy(client.getHost())
+						&& this.outboundCallGuard.tryServeStale(entry.freshUntilMillis)) {
+					return CompletableFuture.completedFuture(entry.result);
+				}
+				stale = entry;
+				this.cache.asMap().remove(cacheKey, cached);
+			}
+		}
+
+		Entry fallback = stale;
+		return this.cache.get(cacheKey, (key, executor) -> CompletableFuture.supplyAsync(() -> {
+			try {
+				return load(client, token, resultBuilder);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, executor)).handle((entry, error) -> {
+			if (error == null) {
+				return entry.result;
+			}
+			if (fallback != null && this.outboundCallGuard.tryServeStale(fallback.freshUntilMillis)) {
+				// Keep the stale result so that later requests find it
+				this.cache.put(cacheKey, CompletableFuture.completedFuture(fallback));
+
+				if (logger.isDebugEnabled()) {
+					logger.debug("introspectAsync(KeycloakDeployment, String, Function) - Introspection failed.  Serving stale result"); //$NON-NLS-1$
+				}
+				return fallback.result;
+			}
+			throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+		});
+	}
+
+	/**
+	 * Introspects a token and wraps the result in a cache entry
+	 *
+	 * @param client        The introspection client
+	 * @param token         The raw token
+	 * @param resultBuilder Builds the validation result of an active token
+	 * @return The cache entry
+	 * @throws IOException If the introspection endpoint could not be called
+	 */
+	private Entry load(TokenIntrospectionClient client, String token,
+			Function<AccessToken, CredentialValidationResult> resultBuilder) throws IOException {
+		AccessToken accessToken = client.introspect(token);
+
+		long freshUntil = System.currentTimeMillis() + this.cacheTtlMillis;
+		long expiresAt = freshUntil + this.outboundCallGuard.getStaleGraceMillis();
+		if (accessToken == null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("load(TokenIntrospectionClient, String, Function) - Token is not active"); //$NON-NLS-1$
+			}
+
+			return new Entry(CredentialValidationResult.INVALID_RESULT, freshUntil, expiresAt);
+		}
+
+		if (accessToken.getExpiration() > 0) {
+			long tokenExpiresAt = TimeUnit.SECONDS.toMillis(accessToken.getExpiration());
+			freshUntil = Math.min(freshUntil, tokenExpiresAt);
+			expiresAt = Math.min(expiresAt, tokenExpiresAt);
+		}
+		return new Entry(resultBuilder.apply(accessToken), freshUntil, expiresAt);
+	}
+
+	/**
+	 * Drops the introspection client of a replaced deployment, and the cached
+	 * results if tokens are now issued elsewhere
+	 *
+	 * @param event The reload event
+	 */
+	protected void onDeploymentReload(@Observes DeploymentReloadEvent event) {
+		if (event.getPreviousDeployment() != null) {
+			this.clients.remove(event.getPreviousDeployment());
+		}
+		if (event.isIssuerChanged()) {
+			this.cache.synchronous().invalidateAll();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.jwks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.util.JWKSUtils;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * A {@link JWKSSource} that reads keys from a JWKS endpoint over HTTP
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class HttpJWKSSource implements JWKSSource {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(HttpJWKSSource.class);
+
+	private final Supplier<HttpClient> clientSupplier;
+
+	private final String jwksUrl;
+
+	/**
+	 * Creates a new JWKS source
+	 *
+	 * @param clientSupplier Supplies the HTTP client used to call the endpoint
+	 * @param jwksUrl        The JWKS endpoint URL
+	 */
+	public HttpJWKSSource(Supplier<HttpClient> clientSupplier, String jwksUrl) {
+		super();
+		this.clientSupplier = clientSupplier;
+		this.jwksUrl = jwksUrl;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.auth.jwks.JWKSSource#fetchKeys()
+	 */
+	@Override
+	public Map<String, PublicKey> fetchKeys() throws IOException {
+		if (logger.isDebugEnabled()) {
+			logger.debug("fetchKeys() - start - jwksUrl=" + this.jwksUrl); //$NON-NLS-1$
+		}
+
+		HttpGet request = new HttpGet(this.jwksUrl);
+		request.addHeader("Accept", "application/json"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		HttpResponse response = this.clientSupplier.get().execute(request);
+		HttpEntity entity = response.getEntity();
+		try {
+			int status = response.getStatusLine().getStatusCode();
+			if (status != 200) {
+				throw new IOException("Unexpected JWKS response status " + status + " from " + this.jwksUrl); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (entity == null) {
+				throw new IOException("Empty JWKS response from " + this.jwksUrl); //$NON-NLS-1$
+			}
+
+			Map<String, PublicKey> keys;
+			try (InputStream in = entity.getContent()) {
+				JSONWebKeySet jwks = JsonSerialization.readValue(in, JSONWebKeySet.class);
+				keys = JWKSUtils.getKeysForUse(jwks, JWK.Use.SIG);
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("fetchKeys() - end - kids=" + keys.keySet()); //$NON-NLS-1$
+			}
+			return keys;
+		} finally {
+			EntityUtils.consumeQuietly(entity);
+		}
+	}
+
+	public String getJwksUrl() {
+		return this.jwksUrl;
+	}
+
+}
@@ -0,0 +1,303 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.jwks;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A local store of realm signing keys indexed by key identifier
+ * (<code>kid</code>). Keys are refreshed periodically in the background so that
+ * rotated keys are known before tokens signed with them arrive. Lookups for an
+ * unknown <code>kid</code> share the fetch in flight, if any, and otherwise
+ * trigger no more than one fetch per configured interval, so that forged tokens
+ * cannot cause a fetch storm against KeyCloak. If refreshes fail, the last
+ * known keys are kept until a refresh succeeds, so that a KeyCloak outage does
+ * not reject every token; once they are older than the refresh interval plus a
+ * stale grace period, their use is logged and counted.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class JWKSKeyStore {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(JWKSKeyStore.class);
+
+	private final AtomicLong fetchCount = new AtomicLong();
+
+	private final AtomicReference<CompletableFuture<Map<String, PublicKey>>> inflight = new AtomicReference<>();
+
+	private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+
+	private volatile long lastRefreshMillis = 0;
+
+	/**
+	 * The age after which keys that could not be refreshed are reported as
+	 * stale
+	 */
+	private volatile long maxKeyAgeMillis = Long.MAX_VALUE;
+
+	private final long minUnknownKidIntervalNanos;
+
+	/**
+	 * The earliest {@link System#nanoTime()} at which an unknown
+	 * <code>kid</code> may trigger another fetch
+	 */
+	private final AtomicLong nextUnknownKidFetch;
+
+	private ScheduledFuture<?> refreshTask = null;
+
+	private final AtomicLong rejectedLookupCount = new AtomicLong();
+
+	private final JWKSSource source;
+
+	private final long staleGraceMillis;
+
+	/**
+	 * Whether the staleness of the current keys has been logged
+	 */
+	private final AtomicBoolean staleKeysLogged = new AtomicBoolean();
+
+	private final AtomicLong staleLookupCount = new AtomicLong();
+
+	/**
+	 * Creates a new key store that never reports its keys as stale
+	 *
+	 * @param source                     The source of the signing keys
+	 * @param minUnknownKidIntervalMillis The minimum time between fetches
+	 *                                   triggered by an unknown <code>kid</code>
+	 */
+	public JWKSKeyStore(JWKSSource source, long minUnknownKidIntervalMillis) {
+		this(source, minUnknownKidIntervalMillis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a new key store
+	 *
+	 * @param source                     The source of the signing keys
+	 * @param minUnknownKidIntervalMillis The minimum time between fetches
+	 *                                   triggered by an unknown <code>kid</code>
+	 * @param staleGraceMillis           How long past the refresh interval keys
+	 *                                   that could not be refreshed are used
+	 *                                   before their use is reported as stale
+	 */
+	public JWKSKeyStore(JWKSSource source, long minUnknownKidIntervalMillis, long staleGraceMillis) {
+		super();
+		this.source = source;
+		this.minUnknownKidIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minUnknownKidIntervalMillis);
+		this.nextUnknownKidFetch = new AtomicLong(System.nanoTime());
+		this.staleGraceMillis = staleGraceMillis;
+	}
+
+	/**
+	 * Returns the keys of a lookup, counting the lookup as stale if the keys were
+	 * not refreshed within the refresh interval plus the stale grace period.
+	 * Stale keys are still served, as they remain the best knowledge of the
+	 * realm's keys while KeyCloak cannot be reached.
+	 *
+	 * @param snapshot The keys
+	 * @return The keys
+	 */
+	private Map<String, PublicKey> checkAge(Map<String, PublicKey> snapshot) {
+		long refreshed = this.lastRefreshMillis;
+		if (refreshed != 0 && System.currentTimeMillis() - refreshed > this.maxKeyAgeMillis) {
+			this.staleLookupCount.incrementAndGet();
+			if (this.staleKeysLogged.compareAndSet(false, true)) {
+				logger.warn("checkAge(Map<String, PublicKey>) - Signing keys not refreshed within the stale grace period.  Serving the last known keys until keys are refreshed - lastRefreshMillis=" //$NON-NLS-1$
+						+ refreshed);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Stops the background refresh
+	 */
+	public synchronized void close() {
+		if (this.refreshTask != null) {
+			this.refreshTask.cancel(false);
+			this.refreshTask = null;
+		}
+	}
+
+	/**
+	 * Returns the number of fetches made against the key source
+	 *
+	 * @return The fetch count
+	 */
+	public long getFetchCount() {
+		return this.fetchCount.get();
+	}
+
+	/**
+	 * Returns the currently known keys
+	 *
+	 * @return The keys, indexed by key identifier
+	 */
+	public Map<String, PublicKey> getKeys() {
+		return this.keys;
+	}
+
+	/**
+	 * Returns the time of the last successful refresh
+	 *
+	 * @return The refresh time in milliseconds since the epoch, or <code>0</code>
+	 *         if the keys were never loaded
+	 */
+	public long getLastRefreshMillis() {
+		return this.lastRefreshMillis;
+	}
+
+	/**
+	 * Returns the public key for a key identifier. An unknown <code>kid</code>
+	 * waits for the fetch already in flight, if any, or else causes a refresh,
+	 * subject to rate limiting.
+	 *
+	 * @param kid The key identifier, or <code>null</code> if the token has none
+	 * @return The public key, or <code>null</code> if the key is unknown
+	 */
+	public PublicKey getPublicKey(String kid) {
+		PublicKey key = lookup(checkAge(this.keys), kid);
+		if (key != null) {
+			return key;
+		}
+
+		CompletableFuture<Map<String, PublicKey>> pending = this.inflight.get();
+		if (pending != null) {
+			return lookup(pending.join(), kid);
+		}
+
+		if (!tryAcquireUnknownKidFetch()) {
+			// A fetch may have completed since the first lookup
+			key = lookup(this.keys, kid);
+			if (key == null) {
+				this.rejectedLookupCount.incrementAndGet();
+				if (logger.isDebugEnabled()) {
+					logger.debug("getPublicKey(String) - Unknown key rejected by rate limit - kid=" + kid); //$NON-NLS-1$
+				}
+			}
+			return key;
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("getPublicKey(String) - Unknown key identifier.  Refreshing keys - kid=" + kid); //$NON-NLS-1$
+		}
+		return lookup(refresh(), kid);
+	}
+
+	/**
+	 * Returns the number of unknown-key lookups rejected by rate limiting
+	 *
+	 * @return The rejected lookup count
+	 */
+	public long getRejectedLookupCount() {
+		return this.rejectedLookupCount.get();
+	}
+
+	/**
+	 * Returns the number of lookups served from keys that were not refreshed
+	 * within the refresh interval plus the stale grace period
+	 *
+	 * @return The stale lookup count
+	 */
+	public long getStaleLookupCount() {
+		return this.staleLookupCount.get();
+	}
+
+	/**
+	 * Looks up a key in a key snapshot
+	 *
+	 * @param snapshot The keys
+	 * @param kid      The key identifier
+	 * @return The public key, or <code>null</code> if none is found
+	 */
+	private PublicKey lookup(Map<String, PublicKey> snapshot, String kid) {
+		if (kid != null) {
+			return snapshot.get(kid);
+		}
+		if (snapshot.size() == 1) {
+			Iterator<PublicKey> it = snapshot.values().iterator();
+			return it.next();
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches the keys from the key source. Concurrent callers share a single
+	 * fetch. If the fetch fails, the previously known keys are retained.
+	 *
+	 * @return The current keys
+	 */
+	public Map<String, PublicKey> refresh() {
+		CompletableFuture<Map<String, PublicKey>> mine = new CompletableFuture<>();
+		CompletableFuture<Map<String, PublicKey>> existing;
+		while ((existing = this.inflight.get()) == null) {
+			if (this.inflight.compareAndSet(null, mine)) {
+				break;
+			}
+		}
+		if (existing != null) {
+			return existing.join();
+		}
+
+		try {
+			this.fetchCount.incrementAndGet();
+			Map<String, PublicKey> fetched = this.source.fetchKeys();
+			this.keys = Collections.unmodifiableMap(new HashMap<>(fetched));
+			this.lastRefreshMillis = System.currentTimeMillis();
+			this.staleKeysLogged.set(false);
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("refresh() - Keys refreshed - kids=" + this.keys.keySet()); //$NON-NLS-1$
+			}
+		} catch (Exception e) {
+			logger.error("refresh() - Unable to refresh signing keys.  Retaining previous keys", e); //$NON-NLS-1$
+		} finally {
+			mine.complete(this.keys);
+			this.inflight.compareAndSet(mine, null);
+		}
+		return this.keys;
+	}
+
+	/**
+	 * Starts refreshing the keys in the background
+	 *
+	 * @param scheduler             The scheduler running the refresh
+	 * @param refreshIntervalMillis The time between refreshes
+	 */
+	public synchronized void start(ScheduledExecutorService scheduler, long refreshIntervalMillis) {
+		close();
+		this.maxKeyAgeMillis = this.staleGraceMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+				: refreshIntervalMillis + this.staleGraceMillis;
+		this.refreshTask = scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Attempts to reserve a fetch for an unknown key identifier
+	 *
+	 * @return <code>true</code> if the fetch may proceed
+	 */
+	private boolean tryAcquireUnknownKidFetch() {
+		long now = System.nanoTime();
+		long next = this.nextUnknownKidFetch.get();
+		return now - next >= 0 && this.nextUnknownKidFetch.compareAndSet(next, now + this.minUnknownKidIntervalNanos);
+	}
+
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.jwks;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Map;
+
+/**
+ * A source of realm signing keys, typically a JSON Web Key Set (JWKS) endpoint
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@FunctionalInterface
+public interface JWKSSource {
+
+	/**
+	 * Fetches the current signing keys
+	 *
+	 * @return The public keys, indexed by key identifier (<code>kid</code>)
+	 * @throws IOException If the keys could not be retrieved
+	 */
+	Map<String, PublicKey> fetchKeys() throws IOException;
+
+}
@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.jwks;
+
+import java.security.PublicKey;
+
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.rotation.PublicKeyLocator;
+
+/**
+ * A KeyCloak {@link PublicKeyLocator} backed by a {@link JWKSKeyStore}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class KeyStorePublicKeyLocator implements PublicKeyLocator {
+
+	private final JWKSKeyStore keyStore;
+
+	public KeyStorePublicKeyLocator(JWKSKeyStore keyStore) {
+		super();
+		this.keyStore = keyStore;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.keycloak.adapters.rotation.PublicKeyLocator#getPublicKey(java.lang.String,
+	 * org.keycloak.adapters.KeycloakDeployment)
+	 */
+	@Override
+	public PublicKey getPublicKey(String kid, KeycloakDeployment deployment) {
+		return this.keyStore.getPublicKey(kid);
+	}
+
+	public JWKSKeyStore getKeyStore() {
+		return this.keyStore;
+	}
+
+	/**
+	 * Forces a refresh of the signing keys
+	 *
+	 * @param deployment The KeyCloak deployment
+	 */
+	public void reset(KeycloakDeployment deployment) {
+		this.keyStore.refresh();
+	}
+
+}
@@ -0,0 +1,251 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.representations.AccessToken;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Maps the claims of an {@link AccessToken} to the claims of a principal. The
+ * claims kept, their names and their types are compiled at startup into a flat
+ * plan of accessor rules, so mapping a token involves no reflection or rule
+ * lookup. When an explicit list of claims is configured, only those claims are
+ * read from the token; no other claim is copied into the principal.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class ClaimMapper {
+
+	/**
+	 * A compiled mapping of one claim
+	 */
+	private static final class ClaimRule {
+
+		private final Function<AccessToken, Object> accessor;
+
+		private final String source;
+
+		private final String target;
+
+		private final ClaimType type;
+
+		private ClaimRule(String source, String target, ClaimType type) {
+			super();
+			this.source = source;
+			this.target = target;
+			this.type = type;
+
+			Function<AccessToken, Object> standard = STANDARD_CLAIMS.get(source);
+			this.accessor = standard != null ? standard : token -> token.getOtherClaims().get(source);
+		}
+	}
+
+	/**
+	 * The value of {@link Constants#CLAIMS_INCLUDE} that keeps every claim
+	 */
+	public static final String ALL_CLAIMS = "*";
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(ClaimMapper.class);
+
+	/**
+	 * Accessors for the registered claims that KeyCloak binds to
+	 * {@link AccessToken} fields rather than keeping among its other claims
+	 */
+	private static final Map<String, Function<AccessToken, Object>> STANDARD_CLAIMS = new HashMap<>();
+
+	static {
+		STANDARD_CLAIMS.put("acr", AccessToken::getAcr); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("aud", token -> token.getAudience() == null ? null : Arrays.asList(token.getAudience())); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("auth_time", token -> time(token.getAuthTime())); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("azp", AccessToken::getIssuedFor); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("email", AccessToken::getEmail); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("exp", token -> time(token.getExpiration())); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("family_name", AccessToken::getFamilyName); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("given_name", AccessToken::getGivenName); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("iat", token -> time(token.getIssuedAt())); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("iss", AccessToken::getIssuer); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("jti", AccessToken::getId); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("name", AccessToken::getName); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("nbf", token -> time(token.getNotBefore())); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("preferred_username", AccessToken::getPreferredUsername); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("sub", AccessToken::getSubject); //$NON-NLS-1$
+		STANDARD_CLAIMS.put("typ", AccessToken::getType); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns a time claim, or <code>null</code> if it is unset
+	 *
+	 * @param seconds The time, in seconds since the epoch
+	 * @return The claim value
+	 */
+	private static Object time(int seconds) {
+		return seconds == 0 ? null : Integer.valueOf(seconds);
+	}
+
+	@Inject
+	private Configuration configuration = null;
+
+	/**
+	 * The claims dropped when every claim is kept
+	 */
+	private Set<String> excluded = Collections.emptySet();
+
+	/**
+	 * Whether every claim is kept, rather than only the planned ones
+	 */
+	private boolean includeAll = true;
+
+	/**
+	 * The compiled rules. When every claim is kept, these are the claims that
+	 * are renamed, converted or read from a standard field.
+	 */
+	private ClaimRule[] plan = new ClaimRule[0];
+
+	/**
+	 * The sources of the planned claims, which are skipped when every other
+	 * claim is copied
+	 */
+	private Set<String> plannedSources = Collections.emptySet();
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		Set<String> included = new LinkedHashSet<>(Arrays.asList(this.configuration.getStrings(Constants.CLAIMS_INCLUDE)));
+		this.includeAll = included.isEmpty() || included.remove(ALL_CLAIMS);
+		this.excluded = new HashSet<>(Arrays.asList(this.configuration.getStrings(Constants.CLAIMS_EXCLUDE)));
+
+		Map<String, String> renames = parseRules(Constants.CLAIMS_RENAME);
+		Map<String, ClaimType> types = new HashMap<>();
+		for (Map.Entry<String, String> rule : parseRules(Constants.CLAIMS_TYPES).entrySet()) {
+			try {
+				types.put(rule.getKey(), ClaimType.valueOf(rule.getValue().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				logger.warn("init() - Ignoring unknown claim type - claim=" + rule.getKey() + ", type=" //$NON-NLS-1$ //$NON-NLS-2$
+						+ rule.getValue(), null);
+			}
+		}
+
+		Set<String> sources = new LinkedHashSet<>(included);
+		if (this.includeAll) {
+			sources.addAll(renames.keySet());
+			sources.addAll(types.keySet());
+		}
+		sources.removeAll(this.excluded);
+
+		List<ClaimRule> rules = new ArrayList<>(sources.size());
+		for (String source : sources) {
+			rules.add(new ClaimRule(source, renames.getOrDefault(source, source), types.get(source)));
+		}
+		this.plan = rules.toArray(new ClaimRule[0]);
+		this.plannedSources = sources;
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Claim mapping compiled - includeAll=" + this.includeAll + ", plannedClaims=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ sources + ", excludedClaims=" + this.excluded); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Maps the claims of a token to the claims of a principal
+	 *
+	 * @param token The access token
+	 * @return The principal claims
+	 */
+	public Map<String, Object> mapClaims(AccessToken token) {
+		Map<String, Object> otherClaims = token.getOtherClaims();
+		if (this.includeAll && this.plan.length == 0 && this.excluded.isEmpty()) {
+			// Nothing to map, so the token's claims are shared as they are
+			return otherClaims;
+		}
+
+		Map<String, Object> claims;
+		if (this.includeAll) {
+			claims = new HashMap<>((int) ((otherClaims.size() + this.plan.length) / 0.75f) + 1);
+			for (Map.Entry<String, Object> claim : otherClaims.entrySet()) {
+				String name = claim.getKey();
+				if (!this.excluded.contains(name) && !this.plannedSources.contains(name)) {
+					claims.put(name, claim.getValue());
+				}
+			}
+		} else {
+			claims = new HashMap<>((int) (this.plan.length / 0.75f) + 1);
+		}
+
+		for (ClaimRule rule : this.plan) {
+			Object value = rule.accessor.apply(token);
+			if (value == null) {
+				continue;
+			}
+
+			if (rule.type != null) {
+				try {
+					value = rule.type.convert(value);
+				} catch (RuntimeException e) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("mapClaims(AccessToken) - Dropping claim that cannot be converted - claim=" //$NON-NLS-1$
+								+ rule.source + ", type=" + rule.type); //$NON-NLS-1$
+					}
+					continue;
+				}
+			}
+			claims.put(rule.target, value);
+		}
+		return claims;
+	}
+
+	/**
+	 * Parses a list of <code>name=value</code> rules
+	 *
+	 * @param key The setting name
+	 * @return The rules, by name
+	 */
+	private Map<String, String> parseRules(String key) {
+		Map<String, String> rules = new HashMap<>();
+		for (String rule : this.configuration.getStrings(key)) {
+			String name = StringUtils.substringBefore(rule, "=").trim(); //$NON-NLS-1$
+			String value = StringUtils.substringAfter(rule, "=").trim(); //$NON-NLS-1$
+			if (name.isEmpty() || value.isEmpty()) {
+				logger.warn("parseRules(String) - Ignoring invalid claim rule - key=" + key + ", rule=" + rule, null); //$NON-NLS-1$ //$NON-NLS-2$
+				continue;
+			}
+			rules.put(name, value);
+		}
+		return rules;
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.mapping;
+
+import java.lang.reflect.Array;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The types a claim value can be converted to when it is mapped into a
+ * principal. Conversions throw an unchecked exception when a value cannot be
+ * represented as the type.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public enum ClaimType {
+
+	BOOLEAN {
+		@Override
+		public Object convert(Object value) {
+			if (value instanceof Boolean) {
+				return value;
+			}
+			String text = value.toString();
+			if ("true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) { //$NON-NLS-1$ //$NON-NLS-2$
+				return Boolean.valueOf(text);
+			}
+			throw new IllegalArgumentException("Not a boolean: " + text); //$NON-NLS-1$
+		}
+	},
+
+	/**
+	 * A {@link Date}, from a number of seconds since the epoch or an ISO-8601
+	 * instant
+	 */
+	DATE {
+		@Override
+		public Object convert(Object value) {
+			if (value instanceof Date) {
+				return value;
+			}
+			if (value instanceof Number) {
+				return new Date(((Number) value).longValue() * 1000);
+			}
+			try {
+				return new Date(Long.parseLong(value.toString()) * 1000);
+			} catch (NumberFormatException e) {
+				return Date.from(Instant.parse(value.toString()));
+			}
+		}
+	},
+
+	DOUBLE {
+		@Override
+		public Object convert(Object value) {
+			return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+		}
+	},
+
+	INTEGER {
+		@Override
+		public Object convert(Object value) {
+			return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+		}
+	},
+
+	/**
+	 * A read-only {@link List}. Collections and arrays are copied, strings are
+	 * split on whitespace (as in the <code>scope</code> claim), and any other
+	 * value becomes a single element list.
+	 */
+	LIST {
+		@Override
+		public Object convert(Object value) {
+			if (value instanceof Collection) {
+				return Collections.unmodifiableList(new ArrayList<>((Collection<?>) value));
+			}
+			if (value.getClass().isArray()) {
+				int length = Array.getLength(value);
+				List<Object> list = new ArrayList<>(length);
+				for (int i = 0; i < length; i++) {
+					list.add(Array.get(value, i));
+				}
+				return Collections.unmodifiableList(list);
+			}
+			if (value instanceof String) {
+				String text = ((String) value).trim();
+				return text.isEmpty() ? Collections.emptyList()
+						: Collections.unmodifiableList(Arrays.asList(text.split("\\s+"))); //$NON-NLS-1$
+			}
+			return Collections.singletonList(value);
+		}
+	},
+
+	LONG {
+		@Override
+		public Object convert(Object value) {
+			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+		}
+	},
+
+	STRING {
+		@Override
+		public Object convert(Object value) {
+			return value.toString();
+		}
+	};
+
+	/**
+	 * Converts a non-null claim value
+	 *
+	 * @param value The claim value
+	 * @return The converted value
+	 */
+	public abstract Object convert(Object value);
+
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.mapping;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.representations.AccessToken;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.model.RoleDictionary;
+import net.odyssi.security.keycloak.common.model.RoleSet;
+
+/**
+ * Maps the realm and client roles carried by an {@link AccessToken} to the
+ * caller's groups. The mapping rules (which sources are read, prefixes,
+ * renames and exclusions) are compiled at startup into one lookup table per
+ * source. Each table memoizes the {@link RoleDictionary} index that a role name
+ * maps to, so a token's roles are mapped in a single pass of table lookups and
+ * bit sets, with no string building once a role has been seen.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class RoleMapper {
+
+	/**
+	 * The lookup table for the roles of one source: the realm, or one client
+	 */
+	private static final class RoleTable {
+
+		private final Set<String> excluded;
+
+		private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<>();
+
+		private final String prefix;
+
+		private final Map<String, String> renames;
+
+		private RoleTable(String prefix, Map<String, String> renames, Set<String> excluded) {
+			super();
+			this.prefix = prefix;
+			this.renames = renames;
+			this.excluded = excluded;
+		}
+
+		/**
+		 * Returns the dictionary index of the group a role maps to, or
+		 * {@link RoleMapper#DROPPED} if the role is excluded
+		 *
+		 * @param role The role name
+		 * @return The group index
+		 */
+		private int indexOf(String role) {
+			Integer index = this.indexes.get(role);
+			if (index != null) {
+				return index;
+			}
+
+			int mapped = DROPPED;
+			if (!this.excluded.contains(role)) {
+				String group = this.renames.get(role);
+				mapped = RoleDictionary.register(group != null ? group : this.prefix + role);
+			}
+			if (this.indexes.size() < MAX_TABLE_SIZE) {
+				this.indexes.put(role, mapped);
+			}
+			return mapped;
+		}
+
+		/**
+		 * Maps roles into a bitset of group indexes
+		 *
+		 * @param roles The role names
+		 * @param bits  The bitset
+		 * @return The bitset, grown if necessary
+		 */
+		private long[] map(Collection<String> roles, long[] bits) {
+			for (String role : roles) {
+				int index = indexOf(role);
+				if (index != DROPPED) {
+					int word = index >>> 6;
+					if (word >= bits.length) {
+						bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+					}
+					bits[word] |= 1L << index;
+				}
+			}
+			return bits;
+		}
+	}
+
+	public static final String CLIENT_PLACEHOLDER = "{client}";
+
+	/**
+	 * The maximum number of role names memoized per source. Role names are
+	 * bounded by the realm's configuration; the limit only guards against
+	 * misconfiguration.
+	 */
+	public static final int MAX_TABLE_SIZE = 10000;
+
+	/**
+	 * The table value of an excluded role
+	 */
+	private static final int DROPPED = -1;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(RoleMapper.class);
+
+	/**
+	 * The clients whose roles are mapped
+	 */
+	private String[] clients = new String[0];
+
+	/**
+	 * The lookup tables of the mapped clients, in the same order as
+	 * {@link #clients}
+	 */
+	private RoleTable[] clientTables = new RoleTable[0];
+
+	@Inject
+	private Configuration configuration = null;
+
+	/**
+	 * The lookup table of the realm roles, or <code>null</code> if realm roles
+	 * are not mapped
+	 */
+	private RoleTable realmTable = null;
+
+	/**
+	 * Returns the clients whose roles are mapped
+	 *
+	 * @return The client identifiers
+	 */
+	public String[] getClients() {
+		return this.clients.clone();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		Set<String> selectedClients = new LinkedHashSet<>(
+				Arrays.asList(this.configuration.getStrings(Constants.ROLES_CLIENTS)));
+
+		// Rules keyed "client/role" apply to a mapped client; all others to the realm
+		Map<String, Map<String, String>> renames = new HashMap<>();
+		for (String rule : this.configuration.getStrings(Constants.ROLES_RENAME)) {
+			String source = StringUtils.substringBefore(rule, "=").trim(); //$NON-NLS-1$
+			String group = StringUtils.substringAfter(rule, "=").trim(); //$NON-NLS-1$
+			if (source.isEmpty() || group.isEmpty()) {
+				logger.warn("init() - Ignoring invalid role rename rule - rule=" + rule, null); //$NON-NLS-1$
+				continue;
+			}
+			String owner = owner(source, selectedClients);
+			renames.computeIfAbsent(owner, k -> new HashMap<>()).put(roleName(source, owner), group);
+		}
+
+		Map<String, Set<String>> exclusions = new HashMap<>();
+		for (String source : this.configuration.getStrings(Constants.ROLES_EXCLUDE)) {
+			String owner = owner(source, selectedClients);
+			exclusions.computeIfAbsent(owner, k -> new HashSet<>()).add(roleName(source, owner));
+		}
+
+		if (this.configuration.getBoolean(Constants.ROLES_REALM_ENABLED, true)) {
+			this.realmTable = new RoleTable(this.configuration.getString(Constants.ROLES_REALM_PREFIX, ""), //$NON-NLS-1$
+					renames.getOrDefault(null, Collections.emptyMap()),
+					exclusions.getOrDefault(null, Collections.emptySet()));
+		}
+
+		String clientPrefix = this.configuration.getString(Constants.ROLES_CLIENT_PREFIX, ""); //$NON-NLS-1$
+		this.clients = selectedClients.toArray(new String[0]);
+		this.clientTables = new RoleTable[this.clients.length];
+		for (int i = 0; i < this.clients.length; i++) {
+			String client = this.clients[i];
+			this.clientTables[i] = new RoleTable(StringUtils.replace(clientPrefix, CLIENT_PLACEHOLDER, client),
+					renames.getOrDefault(client, Collections.emptyMap()),
+					exclusions.getOrDefault(client, Collections.emptySet()));
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Role mapping compiled - realmRoles=" + (this.realmTable != null) + ", clients=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ selectedClients);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Maps the roles carried by a token to the caller's groups
+	 *
+	 * @param token The access token
+	 * @return The groups
+	 */
+	public RoleSet mapRoles(AccessToken token) {
+		long[] bits = new long[(RoleDictionary.size() >>> 6) + 1];
+
+		if (this.realmTable != null) {
+			AccessToken.Access realmAccess = token.getRealmAccess();
+			if (realmAccess != null && realmAccess.getRoles() != null) {
+				bits = this.realmTable.map(realmAccess.getRoles(), bits);
+			}
+		}
+
+		Map<String, AccessToken.Access> resourceAccess = token.getResourceAccess();
+		if (resourceAccess != null && !resourceAccess.isEmpty()) {
+			for (int i = 0; i < this.clients.length; i++) {
+				AccessToken.Access access = resourceAccess.get(this.clients[i]);
+				if (access != null && access.getRoles() != null) {
+					bits = this.clientTables[i].map(access.getRoles(), bits);
+				}
+			}
+		}
+
+		return RoleSet.ofBits(bits);
+	}
+
+	/**
+	 * Returns the client a rule's source role belongs to, or <code>null</code>
+	 * for a realm role
+	 *
+	 * @param source  The source role, either <code>role</code> or
+	 *                <code>client/role</code>
+	 * @param clients The mapped clients
+	 * @return The owning client
+	 */
+	private String owner(String source, Set<String> clients) {
+		int separator = source.indexOf('/');
+		if (separator > 0) {
+			String client = source.substring(0, separator);
+			if (clients.contains(client)) {
+				return client;
+			}
+		}
+		return null;
+	}
+
+	private String roleName(String source, String owner) {
+		return owner == null ? source : source.substring(owner.length() + 1);
+	}
+
+}
@@ -0,0 +1,274 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.path;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A set of servlet-style URL patterns compiled into character tries, so that a
+ * request path is matched against every pattern in a single pass with no
+ * allocation. Three kinds of pattern are supported, as in
+ * <code>web.xml</code>:
+ *
+ * <ul>
+ * <li>exact paths, e.g. <code>/health</code></li>
+ * <li>path prefixes, e.g. <code>/static/*</code>, which match
+ * <code>/static</code> and everything below it</li>
+ * <li>extensions, e.g. <code>*.css</code></li>
+ * </ul>
+ *
+ * <p>
+ * Paths are matched as sent by the client, relative to the context path.
+ * Paths that are not in normal form -- those containing <code>%</code>,
+ * <code>;</code>, <code>\</code>, <code>//</code> or a <code>.</code> or
+ * <code>..</code> segment -- never match, so that encoding or dot-segment
+ * tricks cannot widen a pattern.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class PathPatternSet {
+
+	/**
+	 * A trie node. Children are indexed by character; patterns are limited to
+	 * ASCII.
+	 */
+	private static final class Node {
+
+		private Node[] children = null;
+
+		/**
+		 * Whether a pattern ends exactly at this node
+		 */
+		private boolean exact = false;
+
+		/**
+		 * Whether a prefix pattern ends at this node
+		 */
+		private boolean prefix = false;
+
+		private Node child(char c) {
+			return this.children == null || c >= ALPHABET_SIZE ? null : this.children[c];
+		}
+
+		private Node getOrCreateChild(char c) {
+			if (this.children == null) {
+				this.children = new Node[ALPHABET_SIZE];
+			}
+			if (this.children[c] == null) {
+				this.children[c] = new Node();
+			}
+			return this.children[c];
+		}
+	}
+
+	private static final int ALPHABET_SIZE = 128;
+
+	public static final PathPatternSet EMPTY = new PathPatternSet();
+
+	private static final String EXTENSION_PATTERN_START = "*."; //$NON-NLS-1$
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(PathPatternSet.class);
+
+	private static final String PREFIX_PATTERN_END = "/*"; //$NON-NLS-1$
+
+	/**
+	 * Compiles a set of patterns. Invalid patterns are logged and skipped.
+	 *
+	 * @param patterns The patterns
+	 * @return The compiled pattern set
+	 */
+	public static PathPatternSet compile(String... patterns) {
+		PathPatternSet set = new PathPatternSet();
+		for (String pattern : patterns) {
+			if (!set.add(pattern)) {
+				logger.warn("compile(String...) - Invalid path pattern.  Skipping... - pattern=" + pattern); //$NON-NLS-1$
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Returns true if a character may appear in a pattern
+	 *
+	 * @param c The character
+	 * @return The status
+	 */
+	private static boolean isPatternChar(char c) {
+		return c > ' ' && c < ALPHABET_SIZE && c != '%' && c != ';' && c != '\\' && c != '*';
+	}
+
+	/**
+	 * Returns true if the part of a path from an offset is in normal form
+	 *
+	 * @param path   The path
+	 * @param offset The start of the part
+	 * @return The status
+	 */
+	private static boolean isNormalized(String path, int offset) {
+		int end = path.length();
+		if (offset >= end || path.charAt(offset) != '/') {
+			return false;
+		}
+
+		for (int i = offset; i < end; i++) {
+			char c = path.charAt(i);
+			if (c == '%' || c == ';' || c == '\\') {
+				return false;
+			}
+			if (c == '/' && i + 1 < end) {
+				char next = path.charAt(i + 1);
+				if (next == '/') {
+					return false;
+				}
+				if (next == '.') {
+					// A "." or ".." segment
+					int segmentEnd = i + 2;
+					if (segmentEnd < end && path.charAt(segmentEnd) == '.') {
+						segmentEnd++;
+					}
+					if (segmentEnd == end || path.charAt(segmentEnd) == '/') {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private final Node extensions = new Node();
+
+	private final List<String> patterns = new ArrayList<>();
+
+	private final Node paths = new Node();
+
+	private PathPatternSet() {
+		super();
+	}
+
+	/**
+	 * Adds a pattern to the tries
+	 *
+	 * @param pattern The pattern
+	 * @return <code>false</code> if the pattern is invalid
+	 */
+	private boolean add(String pattern) {
+		if (pattern == null || pattern.isEmpty()) {
+			return false;
+		}
+
+		Node node;
+		String literal;
+		boolean prefix = false;
+		if (pattern.startsWith(EXTENSION_PATTERN_START)) {
+			node = this.extensions;
+			literal = pattern.substring(EXTENSION_PATTERN_START.length());
+			if (literal.isEmpty() || literal.indexOf('/') >= 0 || literal.indexOf('.') >= 0) {
+				return false;
+			}
+		} else if (pattern.charAt(0) == '/') {
+			node = this.paths;
+			prefix = pattern.endsWith(PREFIX_PATTERN_END);
+			literal = prefix ? pattern.substring(0, pattern.length() - PREFIX_PATTERN_END.length()) : pattern;
+		} else {
+			return false;
+		}
+
+		for (int i = 0; i < literal.length(); i++) {
+			char c = literal.charAt(i);
+			if (!isPatternChar(c)) {
+				return false;
+			}
+			node = node.getOrCreateChild(c);
+		}
+
+		if (prefix) {
+			node.prefix = true;
+		} else {
+			node.exact = true;
+		}
+		this.patterns.add(pattern);
+		return true;
+	}
+
+	/**
+	 * Returns the patterns in the set
+	 *
+	 * @return The patterns
+	 */
+	public List<String> getPatterns() {
+		return Collections.unmodifiableList(this.patterns);
+	}
+
+	public boolean isEmpty() {
+		return this.patterns.isEmpty();
+	}
+
+	/**
+	 * Returns true if the part of a path from an offset matches a pattern in the
+	 * set
+	 *
+	 * @param path   The path, e.g. a request URI
+	 * @param offset The start of the part matched, e.g. the length of the
+	 *               context path
+	 * @return The status
+	 */
+	public boolean matches(String path, int offset) {
+		if (this.patterns.isEmpty() || !isNormalized(path, offset)) {
+			return false;
+		}
+
+		int end = path.length();
+		Node node = this.paths;
+		for (int i = offset;; i++) {
+			if (node.prefix && (i == end || path.charAt(i) == '/')) {
+				return true;
+			}
+			if (i == end) {
+				if (node.exact) {
+					return true;
+				}
+				break;
+			}
+			node = node.child(path.charAt(i));
+			if (node == null) {
+				break;
+			}
+		}
+
+		// Extensions are matched within the last segment only
+		int i = end - 1;
+		while (i > offset && path.charAt(i) != '.' && path.charAt(i) != '/') {
+			i--;
+		}
+		if (path.charAt(i) != '.') {
+			return false;
+		}
+
+		node = this.extensions;
+		for (i++; i < end && node != null; i++) {
+			node = node.child(path.charAt(i));
+		}
+		return node != null && node.exact;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return this.patterns.toString();
+	}
+
+}
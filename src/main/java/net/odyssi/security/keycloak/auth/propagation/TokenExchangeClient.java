@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.propagation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.authentication.ClientCredentialsProviderUtils;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * A client for the OAuth 2.0 token exchange grant (RFC 8693) of a KeyCloak
+ * realm, exchanging a caller's access token for one issued to another
+ * audience
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class TokenExchangeClient {
+
+	public static final String ACCESS_TOKEN_TYPE = "urn:ietf:params:oauth:token-type:access_token";
+
+	public static final String TOKEN_EXCHANGE_GRANT_TYPE = "urn:ietf:params:oauth:grant-type:token-exchange";
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(TokenExchangeClient.class);
+
+	private final KeycloakDeployment deployment;
+
+	/**
+	 * Creates a new token exchange client
+	 *
+	 * @param deployment The KeyCloak deployment whose client credentials, token
+	 *                   endpoint and HTTP client are used
+	 */
+	public TokenExchangeClient(KeycloakDeployment deployment) {
+		super();
+		this.deployment = deployment;
+	}
+
+	/**
+	 * Exchanges an access token for one issued to another audience
+	 *
+	 * @param token    The caller's raw access token
+	 * @param audience The client identifier of the downstream audience
+	 * @return The token response
+	 * @throws IOException If the token endpoint could not be called or refused
+	 *                     the exchange
+	 */
+	public AccessTokenResponse exchange(String token, String audience) throws IOException {
+		if (logger.isDebugEnabled()) {
+			logger.debug("exchange(String, String) - start"); //$NON-NLS-1$
+		}
+
+		Map<String, String> headers = new HashMap<>();
+		Map<String, String> formParams = new HashMap<>();
+		formParams.put("grant_type", TOKEN_EXCHANGE_GRANT_TYPE); //$NON-NLS-1$
+		formParams.put("subject_token", token); //$NON-NLS-1$
+		formParams.put("subject_token_type", ACCESS_TOKEN_TYPE); //$NON-NLS-1$
+		formParams.put("requested_token_type", ACCESS_TOKEN_TYPE); //$NON-NLS-1$
+		formParams.put("audience", audience); //$NON-NLS-1$
+		ClientCredentialsProviderUtils.setClientCredentials(this.deployment, headers, formParams);
+
+		HttpPost request = new HttpPost(this.deployment.getTokenUrl());
+		headers.forEach(request::addHeader);
+		request.addHeader("Accept", "application/json"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		List<NameValuePair> params = new ArrayList<>(formParams.size());
+		formParams.forEach((name, value) -> params.add(new BasicNameValuePair(name, value)));
+		request.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+
+		HttpResponse response = this.deployment.getClient().execute(request);
+		HttpEntity entity = response.getEntity();
+		try {
+			int status = response.getStatusLine().getStatusCode();
+			if (status != 200 || entity == null) {
+				throw new IOException("Unexpected token exchange response status " + status + " for audience " //$NON-NLS-1$ //$NON-NLS-2$
+						+ audience);
+			}
+
+			AccessTokenResponse tokenResponse;
+			try (InputStream in = entity.getContent()) {
+				tokenResponse = JsonSerialization.readValue(in, AccessTokenResponse.class);
+			}
+			if (tokenResponse.getToken() == null) {
+				throw new IOException("No access token in token exchange response for audience " + audience); //$NON-NLS-1$
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("exchange(String, String) - end - expiresIn=" + tokenResponse.getExpiresIn()); //$NON-NLS-1$
+			}
+			return tokenResponse;
+		} finally {
+			EntityUtils.consumeQuietly(entity);
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.propagation;
+
+import java.io.IOException;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+
+import org.apache.log4j.Logger;
+
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * A JAX-RS {@link ClientRequestFilter} that sends the current caller's access
+ * token on outbound calls, exchanged for the downstream audience where one is
+ * configured. When the audience is chosen by URL, calls to URLs matching no
+ * propagation rule are sent without a token. Requests that already carry an
+ * <code>Authorization</code> header are left unchanged. Register it on a client with, e.g.
+ * <code>client.register(new TokenPropagationFilter(tokenPropagationService))</code>.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class TokenPropagationFilter implements ClientRequestFilter {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(TokenPropagationFilter.class);
+
+	private final String audience;
+
+	private final TokenPropagationService service;
+
+	/**
+	 * Creates a filter choosing the audience of each call by its URL, as
+	 * configured in <code>keycloak.soteria.propagation.audiences</code> and
+	 * <code>keycloak.soteria.propagation.pass-through</code>
+	 *
+	 * @param service The token propagation service
+	 */
+	public TokenPropagationFilter(TokenPropagationService service) {
+		this(service, null);
+	}
+
+	/**
+	 * Creates a filter exchanging the caller's token for a fixed audience
+	 *
+	 * @param service  The token propagation service
+	 * @param audience The client identifier of the downstream audience, or
+	 *                 <code>null</code> to choose it by URL
+	 */
+	public TokenPropagationFilter(TokenPropagationService service, String audience) {
+		super();
+		this.service = service;
+		this.audience = audience;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.ws.rs.client.ClientRequestFilter#filter(javax.ws.rs.client.
+	 * ClientRequestContext)
+	 */
+	@Override
+	public void filter(ClientRequestContext requestContext) throws IOException {
+		if (requestContext.getHeaders().containsKey(Constants.AUTHORIZATION_HEADER)) {
+			return;
+		}
+
+		String token = this.audience == null ? this.service.getToken(requestContext.getUri())
+				: this.service.getToken(this.audience);
+		if (token != null) {
+			requestContext.getHeaders().putSingle(Constants.AUTHORIZATION_HEADER, Constants.BEARER_TOKEN_PREFIX + token);
+		} else if (logger.isDebugEnabled()) {
+			logger.debug("filter(ClientRequestContext) - No token to propagate - uri=" + requestContext.getUri()); //$NON-NLS-1$
+		}
+	}
+
+}
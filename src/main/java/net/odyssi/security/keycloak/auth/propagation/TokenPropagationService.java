@@ -0,0 +1,434 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.propagation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.inject.Inject;
+import javax.security.enterprise.SecurityContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.KeycloakSecurityContext;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import net.odyssi.security.keycloak.auth.deployment.KeycloakDeploymentRegistry;
+import net.odyssi.security.keycloak.auth.tenant.TenantResolver;
+import net.odyssi.security.keycloak.auth.token.BearerTokenPrecheck;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * Provides the access token to send on calls made to other services on behalf
+ * of the current caller. The caller's own token is taken from the bearer
+ * <code>Authorization</code> header of the current request or, for logged-in
+ * users, from their session. For downstream audiences, the token is exchanged
+ * with KeyCloak for one issued to that audience. On calls chosen by URL, no
+ * token is sent to URLs matching neither an audience rule nor an allow-listed
+ * pass-through prefix, so the caller's token never leaves for an unknown
+ * service.
+ *
+ * <p>
+ * Exchanged tokens are cached per issuer, subject and audience until shortly
+ * before they expire, so a subject's sessions share them. Concurrent callers
+ * needing the same exchanged token share a single in-flight exchange, made on
+ * the thread of the first caller.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class TokenPropagationService {
+
+	/**
+	 * An exchanged token along with the time it expires
+	 */
+	private static final class ExchangedToken {
+
+		private final long expiresAtMillis;
+
+		private final String token;
+
+		private ExchangedToken(String token, long expiresAtMillis) {
+			this.token = token;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+
+	/**
+	 * The identity an exchanged token is cached under
+	 */
+	private static final class ExchangeKey {
+
+		private final String audience;
+
+		private final int hashCode;
+
+		private final String issuer;
+
+		private final String subject;
+
+		private ExchangeKey(String issuer, String subject, String audience) {
+			this.issuer = issuer;
+			this.subject = subject;
+			this.audience = audience;
+			this.hashCode = Objects.hash(issuer, subject, audience);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ExchangeKey)) {
+				return false;
+			}
+			ExchangeKey other = (ExchangeKey) obj;
+			return Objects.equals(this.subject, other.subject) && Objects.equals(this.audience, other.audience)
+					&& Objects.equals(this.issuer, other.issuer);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+	}
+
+	/**
+	 * Expires each exchanged token the configured margin before the token itself
+	 * expires
+	 */
+	private final class ExchangedTokenExpiry implements Expiry<ExchangeKey, ExchangedToken> {
+
+		@Override
+		public long expireAfterCreate(ExchangeKey key, ExchangedToken value, long currentTime) {
+			long remaining = value.expiresAtMillis - TokenPropagationService.this.expiryMarginMillis
+					- System.currentTimeMillis();
+			return remaining <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(remaining);
+		}
+
+		@Override
+		public long expireAfterRead(ExchangeKey key, ExchangedToken value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+		@Override
+		public long expireAfterUpdate(ExchangeKey key, ExchangedToken value, long currentTime,
+				long currentDuration) {
+			return expireAfterCreate(key, value, currentTime);
+		}
+	}
+
+	public static final long DEFAULT_CACHE_MAX_SIZE = 10000;
+
+	public static final long DEFAULT_EXPIRY_MARGIN_SECONDS = 30;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(TokenPropagationService.class);
+
+	@Inject
+	@SuppressWarnings("cdi-ambiguous-dependency")
+	private AdapterConfig adapterConfig = null;
+
+	/**
+	 * The downstream audiences, indexed by the URL prefix of their services and
+	 * ordered from the longest prefix to the shortest
+	 */
+	private Map<String, String> audiencesByUrlPrefix = new LinkedHashMap<>();
+
+	private AsyncCache<ExchangeKey, ExchangedToken> cache = null;
+
+	@Inject
+	private Configuration configuration = null;
+
+	@Inject
+	private KeycloakDeploymentRegistry deploymentRegistry = null;
+
+	private long expiryMarginMillis = TimeUnit.SECONDS.toMillis(DEFAULT_EXPIRY_MARGIN_SECONDS);
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * The URL prefixes of the services trusted with the caller's own token
+	 */
+	private final List<String> passThroughUrlPrefixes = new ArrayList<>();
+
+	@Inject
+	private HttpServletRequest request = null;
+
+	@Inject
+	@SuppressWarnings("cdi-ambiguous-dependency")
+	private SecurityContext securityContext = null;
+
+	@Inject
+	private TenantResolver tenantResolver = null;
+
+	/**
+	 * Exchanges a token with KeyCloak
+	 *
+	 * @param token    The caller's raw token
+	 * @param audience The downstream audience
+	 * @return The exchanged token
+	 * @throws IOException If the exchange failed
+	 */
+	private ExchangedToken exchange(String token, String audience) throws IOException {
+		long now = System.currentTimeMillis();
+		AccessTokenResponse response = new TokenExchangeClient(getDeployment()).exchange(token, audience);
+		return new ExchangedToken(response.getToken(), now + TimeUnit.SECONDS.toMillis(response.getExpiresIn()));
+	}
+
+	/**
+	 * Returns the downstream audience configured for a URL
+	 *
+	 * @param url The URL called
+	 * @return The audience of the longest matching URL prefix, or
+	 *         <code>null</code> if no prefix matches
+	 */
+	public String getAudience(String url) {
+		for (Map.Entry<String, String> entry : this.audiencesByUrlPrefix.entrySet()) {
+			if (url.startsWith(entry.getKey())) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the raw access token of the current caller
+	 *
+	 * @return The token, or <code>null</code> if there is no current request or
+	 *         the caller has no token
+	 */
+	public String getCallerToken() {
+		try {
+			String header = this.request.getHeader(Constants.AUTHORIZATION_HEADER);
+			int start = StringUtils.isEmpty(header) ? -1 : BearerTokenPrecheck.tokenStart(header);
+			if (start >= 0) {
+				return header.substring(start).trim();
+			}
+
+			HttpSession session = this.request.getSession(false);
+			Object attribute = session == null ? null : session.getAttribute(KeycloakSecurityContext.class.getName());
+			return attribute instanceof KeycloakSecurityContext
+					? ((KeycloakSecurityContext) attribute).getTokenString()
+					: null;
+		} catch (ContextNotActiveException | IllegalStateException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("getCallerToken() - No current request.  No token to propagate"); //$NON-NLS-1$
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the deployment exchanges are made with, i.e. that of the tenant of
+	 * the current request
+	 *
+	 * @return The KeyCloak deployment
+	 */
+	protected KeycloakDeployment getDeployment() {
+		AdapterConfig config = this.tenantResolver.isEnabled() ? this.tenantResolver.resolve(this.request) : null;
+		return this.deploymentRegistry.getDeployment(config == null ? this.adapterConfig : config);
+	}
+
+	/**
+	 * Returns the number of exchanged tokens served from the cache, including
+	 * requests that joined an in-flight exchange
+	 *
+	 * @return The hit count
+	 */
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Returns the number of token exchanges made
+	 *
+	 * @return The miss count
+	 */
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Returns the token to send to a downstream audience on behalf of the
+	 * current caller, exchanging the caller's token for one issued to that
+	 * audience
+	 *
+	 * @param audience The client identifier of the downstream audience
+	 * @return The exchanged token, or <code>null</code> if the caller has no
+	 *         token
+	 * @throws IOException If the token could not be exchanged
+	 */
+	public String getToken(String audience) throws IOException {
+		String token = getCallerToken();
+		if (token == null) {
+			return null;
+		}
+
+		Principal principal = this.securityContext.getCallerPrincipal();
+		if (!(principal instanceof JWTPrincipal)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("getToken(String) - Caller is not a JWT principal.  Exchanging without caching..."); //$NON-NLS-1$
+			}
+
+			this.misses.increment();
+			return exchange(token, audience).token;
+		}
+
+		JWTPrincipal caller = (JWTPrincipal) principal;
+		ExchangeKey key = new ExchangeKey(caller.getIssuer(), caller.getIdentifier(), audience);
+		CompletableFuture<ExchangedToken> future = this.cache.asMap().get(key);
+		if (future == null) {
+			CompletableFuture<ExchangedToken> mine = new CompletableFuture<>();
+			future = this.cache.asMap().putIfAbsent(key, mine);
+			if (future == null) {
+				// This caller makes the exchange; concurrent callers join it
+				this.misses.increment();
+				future = mine;
+				try {
+					mine.complete(exchange(token, audience));
+				} catch (IOException | RuntimeException e) {
+					mine.completeExceptionally(e);
+				} catch (Error e) {
+					// Concurrent callers must not wait forever on an exchange that died
+					mine.completeExceptionally(e);
+					throw e;
+				}
+			} else {
+				this.hits.increment();
+			}
+		} else {
+			this.hits.increment();
+		}
+
+		try {
+			return future.join().token;
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause
+					: new IOException("Unable to exchange token for audience " + audience, cause); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns the token to send on a call to a URL on behalf of the current
+	 * caller. The caller's token is exchanged if an audience is configured for
+	 * the URL, and sent as is if the URL matches a pass-through prefix. Audience
+	 * rules take precedence over pass-through prefixes.
+	 *
+	 * @param uri The URL called
+	 * @return The token, or <code>null</code> if the caller has no token or the
+	 *         URL matches no rule
+	 * @throws IOException If the token could not be exchanged
+	 */
+	public String getToken(URI uri) throws IOException {
+		String url = uri.toString();
+		String audience = getAudience(url);
+		if (audience != null) {
+			return getToken(audience);
+		}
+		if (isPassThrough(url)) {
+			return getCallerToken();
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("getToken(URI) - No propagation rule matches URL.  Sending no token - uri=" + uri); //$NON-NLS-1$
+		}
+		return null;
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		List<String[]> rules = new ArrayList<>();
+		for (String rule : this.configuration.getStrings(Constants.PROPAGATION_AUDIENCES)) {
+			String audience = StringUtils.substringBefore(rule, "=").trim(); //$NON-NLS-1$
+			String urlPrefix = StringUtils.substringAfter(rule, "=").trim(); //$NON-NLS-1$
+			if (audience.isEmpty() || urlPrefix.isEmpty()) {
+				logger.warn("init() - Invalid propagation audience rule.  Skipping... - rule=" + rule); //$NON-NLS-1$
+				continue;
+			}
+			rules.add(new String[] { urlPrefix, audience });
+		}
+		rules.sort((a, b) -> b[0].length() - a[0].length());
+		for (String[] rule : rules) {
+			this.audiencesByUrlPrefix.putIfAbsent(rule[0], rule[1]);
+		}
+
+		for (String urlPrefix : this.configuration.getStrings(Constants.PROPAGATION_PASS_THROUGH)) {
+			if (!urlPrefix.isEmpty()) {
+				this.passThroughUrlPrefixes.add(urlPrefix);
+			}
+		}
+
+		this.expiryMarginMillis = TimeUnit.SECONDS.toMillis(
+				this.configuration.getLong(Constants.PROPAGATION_EXPIRY_MARGIN, DEFAULT_EXPIRY_MARGIN_SECONDS));
+		long maxSize = this.configuration.getLong(Constants.PROPAGATION_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE);
+		// Exchanges complete on the calling thread, so cache maintenance does too
+		this.cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfter(new ExchangedTokenExpiry())
+				.executor(Runnable::run).buildAsync();
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Token propagation initialized - audiences=" + this.audiencesByUrlPrefix //$NON-NLS-1$
+					+ ", passThrough=" + this.passThroughUrlPrefixes + ", expiryMarginMillis=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ this.expiryMarginMillis);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns true if the caller's own token may be sent to a URL, i.e. it
+	 * matches a prefix in <code>keycloak.soteria.propagation.pass-through</code>
+	 *
+	 * @param url The URL called
+	 * @return The status
+	 */
+	public boolean isPassThrough(String url) {
+		for (String urlPrefix : this.passThroughUrlPrefixes) {
+			if (url.startsWith(urlPrefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
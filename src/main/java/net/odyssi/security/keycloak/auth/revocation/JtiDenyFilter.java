@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.revocation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of revoked token identifiers (<code>jti</code>). A negative
+ * answer is exact, so most tokens are cleared without touching the exact set of
+ * revocations; a positive answer must be confirmed against it. Lookups and
+ * additions are lock-free.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class JtiDenyFilter {
+
+	/**
+	 * The number of bits set per identifier, which with ten bits per expected
+	 * identifier gives a false positive rate of about one percent
+	 */
+	private static final int HASH_COUNT = 7;
+
+	/**
+	 * Returns a 64-bit FNV-1a hash of a string, finished with the MurmurHash3
+	 * mixer
+	 *
+	 * @param value The string
+	 * @return The hash
+	 */
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private final AtomicLongArray bits;
+
+	private final int mask;
+
+	/**
+	 * Creates a filter sized for an expected number of identifiers
+	 *
+	 * @param expected The expected number of identifiers
+	 */
+	public JtiDenyFilter(int expected) {
+		super();
+		int bitCount = Integer.highestOneBit(Math.max(64, Math.min(1 << 30, expected * 10)) - 1) << 1;
+		this.bits = new AtomicLongArray(bitCount >>> 6);
+		this.mask = bitCount - 1;
+	}
+
+	/**
+	 * Adds an identifier to the filter
+	 *
+	 * @param jti The token identifier
+	 */
+	public void add(String jti) {
+		long hash = hash(jti);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = h1 + i * h2 & this.mask;
+			int word = bit >>> 6;
+			long flag = 1L << bit;
+			long current;
+			while (((current = this.bits.get(word)) & flag) == 0
+					&& !this.bits.compareAndSet(word, current, current | flag)) {
+				// Retry
+			}
+		}
+	}
+
+	/**
+	 * Returns true if an identifier may have been added to the filter
+	 *
+	 * @param jti The token identifier
+	 * @return The status
+	 */
+	public boolean mightContain(String jti) {
+		long hash = hash(jti);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = h1 + i * h2 & this.mask;
+			if ((this.bits.get(bit >>> 6) & 1L << bit) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
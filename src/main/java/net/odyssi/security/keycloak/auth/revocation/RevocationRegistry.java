@@ -0,0 +1,343 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.revocation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+import net.odyssi.security.keycloak.auth.cache.CachedValidation;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+
+/**
+ * Decides whether a validated token has been revoked. A token is revoked if it
+ * was issued before the not-before time of its realm, its client or its user,
+ * or if its identifier (<code>jti</code>) has been revoked. Realm not-before
+ * times are pushed by KeyCloak; client and user not-before times and revoked
+ * identifiers arrive as {@link TokenRevocationEvent}s fired by the application,
+ * for example from KeyCloak admin events.
+ *
+ * <p>
+ * Checks take no locks and do a constant amount of work: three hash lookups of
+ * the realm, client and user not-before times that are each skipped while no
+ * such times are set, and a {@link JtiDenyFilter} lookup that is skipped while
+ * no identifiers are revoked. Not-before times are held per issuer, so that a
+ * revocation in one realm does not revoke the tokens of another. Only
+ * identifiers the filter reports as possibly revoked are confirmed against the
+ * exact set. Revoked identifiers are forgotten once their tokens expire, and
+ * the filter is rebuilt without them.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class RevocationRegistry {
+
+	public static final long DEFAULT_CLEANUP_INTERVAL_SECONDS = 60;
+
+	public static final int DEFAULT_EXPECTED_JTIS = 100000;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(RevocationRegistry.class);
+
+	/**
+	 * Returns true if a token was issued before the not-before time of an
+	 * identifier of its issuer
+	 *
+	 * @param notBefore The not-before times, indexed by issuer and identifier
+	 * @param issuer    The token issuer
+	 * @param id        The client identifier or subject of the token
+	 * @param issuedAt  The token issue time, in seconds since the epoch
+	 * @return The status
+	 */
+	private static boolean isIssuedBefore(ConcurrentMap<String, ConcurrentMap<String, Integer>> notBefore,
+			String issuer, String id, int issuedAt) {
+		ConcurrentMap<String, Integer> times = notBefore.get(issuer);
+		Integer time = times == null ? null : times.get(id);
+		return time != null && issuedAt < time;
+	}
+
+	/**
+	 * The client not-before times, indexed by issuer and client identifier
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Integer>> clientNotBefore = new ConcurrentHashMap<>();
+
+	@Inject
+	private Configuration configuration = null;
+
+	private boolean enabled = true;
+
+	private int expectedJtis = DEFAULT_EXPECTED_JTIS;
+
+	/**
+	 * The deny-filter of revoked identifiers, or <code>null</code> while none are
+	 * revoked
+	 */
+	private volatile JtiDenyFilter filter = null;
+
+	/**
+	 * The realm not-before times, indexed by the realm issuer URL
+	 */
+	private final ConcurrentMap<String, Integer> realmNotBefore = new ConcurrentHashMap<>();
+
+	/**
+	 * The revoked identifiers, mapped to the expiry time of their tokens in
+	 * seconds since the epoch
+	 */
+	private final ConcurrentMap<String, Integer> revokedJtis = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * The user not-before times, indexed by issuer and subject
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Integer>> userNotBefore = new ConcurrentHashMap<>();
+
+	/**
+	 * Forgets the revoked identifiers whose tokens have expired, rebuilding the
+	 * deny-filter without them
+	 */
+	protected synchronized void cleanup() {
+		int now = Time.currentTime();
+		if (!this.revokedJtis.values().removeIf(expiration -> expiration > 0 && expiration < now)) {
+			return;
+		}
+
+		JtiDenyFilter rebuilt = null;
+		if (!this.revokedJtis.isEmpty()) {
+			rebuilt = new JtiDenyFilter(Math.max(this.expectedJtis, this.revokedJtis.size()));
+			for (String jti : this.revokedJtis.keySet()) {
+				rebuilt.add(jti);
+			}
+		}
+		this.filter = rebuilt;
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("cleanup() - Expired revocations removed - revoked=" + this.revokedJtis.size()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the number of revoked identifiers
+	 *
+	 * @return The revoked identifier count
+	 */
+	public int getRevokedCount() {
+		return this.revokedJtis.size();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.enabled = this.configuration.getBoolean(Constants.REVOCATION_ENABLED, true);
+		this.expectedJtis = Math.max(1,
+				this.configuration.getInt(Constants.REVOCATION_EXPECTED_JTIS, DEFAULT_EXPECTED_JTIS));
+		if (this.enabled) {
+			long cleanupIntervalSeconds = this.configuration.getLong(Constants.REVOCATION_CLEANUP_INTERVAL,
+					DEFAULT_CLEANUP_INTERVAL_SECONDS);
+			this.scheduler = Executors
+					.newSingleThreadScheduledExecutor(new NamedThreadFactory("keycloak-soteria-revocation")); //$NON-NLS-1$
+			this.scheduler.scheduleWithFixedDelay(this::cleanup, cleanupIntervalSeconds, cleanupIntervalSeconds,
+					TimeUnit.SECONDS);
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Revocation registry initialized - enabled=" + this.enabled + ", expectedJtis=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ this.expectedJtis);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Returns true if a verified token has been revoked
+	 *
+	 * @param token The access token
+	 * @return The status
+	 */
+	public boolean isRevoked(AccessToken token) {
+		return isRevoked(token.getId(), token.getSubject(), token.getIssuedFor(), token.getIssuer(),
+				token.getIssuedAt());
+	}
+
+	/**
+	 * Returns true if a cached validation has been revoked
+	 *
+	 * @param validation The cached validation
+	 * @return The status
+	 */
+	public boolean isRevoked(CachedValidation validation) {
+		return isRevoked(validation.getTokenId(), validation.getPrincipal().getIdentifier(),
+				validation.getClientId(), validation.getPrincipal().getIssuer(), validation.getIssuedAt());
+	}
+
+	/**
+	 * Returns true if a token has been revoked
+	 *
+	 * @param jti      The token identifier, or <code>null</code>
+	 * @param subject  The token subject, or <code>null</code>
+	 * @param clientId The client the token was issued for, or <code>null</code>
+	 * @param issuer   The token issuer, or <code>null</code>
+	 * @param issuedAt The token issue time, in seconds since the epoch
+	 * @return The status
+	 */
+	public boolean isRevoked(String jti, String subject, String clientId, String issuer, int issuedAt) {
+		if (!this.enabled) {
+			return false;
+		}
+
+		if (issuer != null && !this.realmNotBefore.isEmpty()) {
+			Integer notBefore = this.realmNotBefore.get(issuer);
+			if (notBefore != null && issuedAt < notBefore) {
+				return true;
+			}
+		}
+		if (issuer != null && clientId != null && !this.clientNotBefore.isEmpty()
+				&& isIssuedBefore(this.clientNotBefore, issuer, clientId, issuedAt)) {
+			return true;
+		}
+		if (issuer != null && subject != null && !this.userNotBefore.isEmpty()
+				&& isIssuedBefore(this.userNotBefore, issuer, subject, issuedAt)) {
+			return true;
+		}
+
+		JtiDenyFilter filter = this.filter;
+		return jti != null && filter != null && filter.mightContain(jti) && this.revokedJtis.containsKey(jti);
+	}
+
+	/**
+	 * Applies a revocation fired by the application
+	 *
+	 * @param event The revocation
+	 */
+	protected void onTokenRevocation(@Observes TokenRevocationEvent event) {
+		switch (event.getType()) {
+		case CLIENT:
+			pushClientNotBefore(event.getIssuer(), event.getIdentifier(), event.getTime());
+			break;
+		case TOKEN:
+			revoke(event.getIdentifier(), event.getTime());
+			break;
+		case USER:
+			pushUserNotBefore(event.getIssuer(), event.getIdentifier(), event.getTime());
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Sets the not-before time of a client. Tokens issued by the issuer for the
+	 * client before this time are revoked.
+	 *
+	 * @param issuer    The realm issuer URL
+	 * @param clientId  The client identifier
+	 * @param notBefore The not-before time, in seconds since the epoch
+	 */
+	public void pushClientNotBefore(String issuer, String clientId, int notBefore) {
+		this.clientNotBefore.computeIfAbsent(issuer, i -> new ConcurrentHashMap<>()).merge(clientId, notBefore,
+				Math::max);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("pushClientNotBefore(String, String, int) - Client not-before updated - issuer=" + issuer //$NON-NLS-1$
+					+ ", clientId=" + clientId + ", notBefore=" + notBefore); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * Sets the not-before time of a realm. Tokens issued by the realm before this
+	 * time are revoked.
+	 *
+	 * @param issuer    The realm issuer URL
+	 * @param notBefore The not-before time, in seconds since the epoch
+	 */
+	public void pushRealmNotBefore(String issuer, int notBefore) {
+		this.realmNotBefore.merge(issuer, notBefore, Math::max);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("pushRealmNotBefore(String, int) - Realm not-before updated - issuer=" + issuer //$NON-NLS-1$
+					+ ", notBefore=" + notBefore); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Sets the not-before time of a user. Tokens issued by the issuer to the user
+	 * before this time are revoked.
+	 *
+	 * @param issuer    The realm issuer URL
+	 * @param subject   The user's token subject
+	 * @param notBefore The not-before time, in seconds since the epoch
+	 */
+	public void pushUserNotBefore(String issuer, String subject, int notBefore) {
+		this.userNotBefore.computeIfAbsent(issuer, i -> new ConcurrentHashMap<>()).merge(subject, notBefore,
+				Math::max);
+
+		if (logger.isInfoEnabled()) {
+			logger.info("pushUserNotBefore(String, String, int) - User not-before updated - issuer=" + issuer //$NON-NLS-1$
+					+ ", subject=" + subject + ", notBefore=" + notBefore); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * Revokes a token by identifier
+	 *
+	 * @param jti        The token identifier
+	 * @param expiration The token <code>exp</code> claim, after which the
+	 *                   revocation is forgotten, or <code>0</code> to keep it
+	 */
+	public synchronized void revoke(String jti, int expiration) {
+		this.revokedJtis.put(jti, expiration);
+
+		JtiDenyFilter filter = this.filter;
+		if (filter == null) {
+			filter = new JtiDenyFilter(this.expectedJtis);
+		}
+		filter.add(jti);
+		this.filter = filter;
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("revoke(String, int) - Token revoked - jti=" + jti + ", expiration=" + expiration); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.revocation;
+
+/**
+ * The CDI event revoking tokens, observed by the {@link RevocationRegistry}.
+ * Applications fire it from whatever tells them that tokens must no longer be
+ * accepted, for example KeyCloak admin events relayed to the application.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class TokenRevocationEvent {
+
+	/**
+	 * The tokens a revocation applies to
+	 */
+	public enum Type {
+
+		/**
+		 * Tokens issued for a client of an issuer before a not-before time
+		 */
+		CLIENT,
+
+		/**
+		 * A single token
+		 */
+		TOKEN,
+
+		/**
+		 * Tokens issued to a user of an issuer before a not-before time
+		 */
+		USER
+	}
+
+	/**
+	 * Returns a revocation of the tokens issued for a client before a time
+	 *
+	 * @param issuer    The token <code>iss</code> claim
+	 * @param clientId  The token <code>azp</code> claim
+	 * @param notBefore The not-before time, in seconds since the epoch
+	 * @return The revocation
+	 */
+	public static TokenRevocationEvent client(String issuer, String clientId, int notBefore) {
+		return new TokenRevocationEvent(Type.CLIENT, issuer, clientId, notBefore);
+	}
+
+	/**
+	 * Returns a revocation of a single token
+	 *
+	 * @param jti        The token <code>jti</code> claim
+	 * @param expiration The token <code>exp</code> claim, after which the
+	 *                   revocation is forgotten, or <code>0</code> to keep it
+	 * @return The revocation
+	 */
+	public static TokenRevocationEvent token(String jti, int expiration) {
+		return new TokenRevocationEvent(Type.TOKEN, null, jti, expiration);
+	}
+
+	/**
+	 * Returns a revocation of the tokens issued to a user before a time
+	 *
+	 * @param issuer    The token <code>iss</code> claim
+	 * @param subject   The token <code>sub</code> claim
+	 * @param notBefore The not-before time, in seconds since the epoch
+	 * @return The revocation
+	 */
+	public static TokenRevocationEvent user(String issuer, String subject, int notBefore) {
+		return new TokenRevocationEvent(Type.USER, issuer, subject, notBefore);
+	}
+
+	private final String identifier;
+
+	private final String issuer;
+
+	private final int time;
+
+	private final Type type;
+
+	private TokenRevocationEvent(Type type, String issuer, String identifier, int time) {
+		this.type = type;
+		this.issuer = issuer;
+		this.identifier = identifier;
+		this.time = time;
+	}
+
+	/**
+	 * Returns the client identifier, user subject or token identifier revoked
+	 *
+	 * @return The identifier
+	 */
+	public String getIdentifier() {
+		return this.identifier;
+	}
+
+	public String getIssuer() {
+		return this.issuer;
+	}
+
+	/**
+	 * Returns the not-before time of a client or user revocation, or the expiry
+	 * time of a revoked token
+	 *
+	 * @return The time, in seconds since the epoch
+	 */
+	public int getTime() {
+		return this.time;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "TokenRevocationEvent [type=" + this.type + ", issuer=" + this.issuer + ", identifier=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ this.identifier + ", time=" + this.time + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+}
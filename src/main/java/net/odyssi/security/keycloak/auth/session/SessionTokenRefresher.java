@@ -0,0 +1,436 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.session;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.log4j.Logger;
+import org.keycloak.KeycloakSecurityContext;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.ServerRequest;
+import org.keycloak.adapters.rotation.AdapterRSATokenVerifier;
+import org.keycloak.common.VerificationException;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.IDToken;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+
+/**
+ * Refreshes the tokens of code grant sessions in the background, shortly
+ * before they expire, so that requests do not wait on a refresh round-trip to
+ * KeyCloak. Only sessions used within the active window are refreshed. Each
+ * session is refreshed a random amount of time ahead of expiry, so sessions
+ * created together are not all refreshed together, and at most a fixed number
+ * of refreshes run at once.
+ *
+ * <p>
+ * Sessions are tracked by {@link #track(HttpServletRequest, KeycloakDeployment)}
+ * on each authenticated request. A background refresh never touches the
+ * session or its security context, which request threads may be using at the
+ * same time; the refreshed tokens are built into a new security context that
+ * is swapped into the session on the session's next request, on the request
+ * thread. A session that is inactive, whose security context was replaced, or
+ * whose refresh fails is no longer refreshed in the background, and falls back
+ * to the KeyCloak adapter's inline refresh.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class SessionTokenRefresher {
+
+	/**
+	 * A security context built from refreshed tokens, waiting to be swapped into
+	 * the session
+	 */
+	private static final class RefreshedContext {
+
+		private final RefreshableKeycloakSecurityContext context;
+
+		/**
+		 * The security context held by the session that this one replaces
+		 */
+		private final RefreshableKeycloakSecurityContext replaces;
+
+		private RefreshedContext(RefreshableKeycloakSecurityContext replaces,
+				RefreshableKeycloakSecurityContext context) {
+			this.replaces = replaces;
+			this.context = context;
+		}
+	}
+
+	/**
+	 * A session whose tokens are refreshed in the background
+	 */
+	private static final class TrackedSession {
+
+		/**
+		 * The security context the session held on its last request
+		 */
+		private volatile RefreshableKeycloakSecurityContext context;
+
+		private volatile KeycloakDeployment deployment;
+
+		private final AtomicBoolean inFlight = new AtomicBoolean();
+
+		private volatile long lastAccessMillis;
+
+		private final AtomicReference<RefreshedContext> refreshed = new AtomicReference<>();
+
+		/**
+		 * The time the tokens are next refreshed, in seconds since the epoch
+		 */
+		private volatile int refreshAt;
+	}
+
+	public static final long DEFAULT_ACTIVE_WINDOW_SECONDS = 300;
+
+	public static final int DEFAULT_JITTER_SECONDS = 30;
+
+	public static final int DEFAULT_LEAD_SECONDS = 30;
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+	public static final int DEFAULT_MAX_SESSIONS = 100000;
+
+	public static final long DEFAULT_SCAN_INTERVAL_SECONDS = 5;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(SessionTokenRefresher.class);
+
+	private long activeWindowMillis = TimeUnit.SECONDS.toMillis(DEFAULT_ACTIVE_WINDOW_SECONDS);
+
+	@Inject
+	private Configuration configuration = null;
+
+	private boolean enabled = false;
+
+	private ExecutorService executor = null;
+
+	private final LongAdder failed = new LongAdder();
+
+	private int jitterSeconds = DEFAULT_JITTER_SECONDS;
+
+	private int leadSeconds = DEFAULT_LEAD_SECONDS;
+
+	private int maxSessions = DEFAULT_MAX_SESSIONS;
+
+	private final LongAdder refreshed = new LongAdder();
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * The tracked sessions, indexed by session identifier
+	 */
+	private final ConcurrentMap<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+		}
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+		this.sessions.clear();
+	}
+
+	/**
+	 * Returns the number of failed background refreshes
+	 *
+	 * @return The failure count
+	 */
+	public long getFailedCount() {
+		return this.failed.sum();
+	}
+
+	/**
+	 * Returns the number of successful background refreshes
+	 *
+	 * @return The refresh count
+	 */
+	public long getRefreshedCount() {
+		return this.refreshed.sum();
+	}
+
+	/**
+	 * Returns the number of sessions tracked for background refresh
+	 *
+	 * @return The session count
+	 */
+	public int getTrackedSessions() {
+		return this.sessions.size();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.enabled = this.configuration.getBoolean(Constants.SESSION_REFRESH_ENABLED, false);
+		if (this.enabled) {
+			this.activeWindowMillis = TimeUnit.SECONDS.toMillis(
+					this.configuration.getLong(Constants.SESSION_REFRESH_ACTIVE_WINDOW, DEFAULT_ACTIVE_WINDOW_SECONDS));
+			this.jitterSeconds = Math.max(0,
+					this.configuration.getInt(Constants.SESSION_REFRESH_JITTER, DEFAULT_JITTER_SECONDS));
+			this.leadSeconds = Math.max(0,
+					this.configuration.getInt(Constants.SESSION_REFRESH_LEAD, DEFAULT_LEAD_SECONDS));
+			this.maxSessions = this.configuration.getInt(Constants.SESSION_REFRESH_MAX_SESSIONS,
+					DEFAULT_MAX_SESSIONS);
+			int maxConcurrency = Math.max(1,
+					this.configuration.getInt(Constants.SESSION_REFRESH_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY));
+			long scanIntervalSeconds = this.configuration.getLong(Constants.SESSION_REFRESH_SCAN_INTERVAL,
+					DEFAULT_SCAN_INTERVAL_SECONDS);
+
+			this.executor = Executors.newFixedThreadPool(maxConcurrency,
+					new NamedThreadFactory("keycloak-soteria-session-refresh")); //$NON-NLS-1$
+			this.scheduler = Executors
+					.newSingleThreadScheduledExecutor(new NamedThreadFactory("keycloak-soteria-session-scan")); //$NON-NLS-1$
+			this.scheduler.scheduleWithFixedDelay(this::scan, scanIntervalSeconds, scanIntervalSeconds,
+					TimeUnit.SECONDS);
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Session token refresh initialized - enabled=" + this.enabled + ", leadSeconds=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ this.leadSeconds + ", jitterSeconds=" + this.jitterSeconds); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns true if session tokens are refreshed in the background
+	 *
+	 * @return The status
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Returns the time a session's tokens should next be refreshed. The refresh
+	 * is scheduled between the lead time and the lead time plus the jitter
+	 * before the access token expires, but no earlier than halfway through the
+	 * token's remaining lifetime, so that tokens living no longer than the lead
+	 * time are not refreshed on every scan.
+	 *
+	 * @param context The security context
+	 * @return The refresh time, in seconds since the epoch
+	 */
+	protected int nextRefreshAt(RefreshableKeycloakSecurityContext context) {
+		int now = Time.currentTime();
+		int expiration = context.getToken().getExpiration();
+		int jitter = this.jitterSeconds == 0 ? 0 : ThreadLocalRandom.current().nextInt(this.jitterSeconds + 1);
+		return Math.max(expiration - this.leadSeconds - jitter, now + Math.max(0, expiration - now) / 2);
+	}
+
+	/**
+	 * Refreshes the tokens of a session into a new security context, parked on
+	 * the tracked session until its next request. A refresh made while an
+	 * earlier one is still parked starts from the parked tokens.
+	 *
+	 * @param sessionId The session identifier
+	 * @param tracked   The tracked session
+	 */
+	private void refresh(String sessionId, TrackedSession tracked) {
+		RefreshedContext parked = tracked.refreshed.get();
+		RefreshableKeycloakSecurityContext current = parked == null ? tracked.context : parked.context;
+
+		RefreshableKeycloakSecurityContext context = null;
+		try {
+			context = refreshContext(current, tracked.deployment);
+		} catch (IOException | ServerRequest.HttpFailure | VerificationException | JWSInputException
+				| RuntimeException e) {
+			logger.warn("refresh(String, TrackedSession) - Unable to refresh session tokens - sessionId=" + sessionId, //$NON-NLS-1$
+					e);
+		}
+
+		if (context != null) {
+			RefreshedContext replacement = new RefreshedContext(parked == null ? tracked.context : parked.replaces,
+					context);
+			if (!tracked.refreshed.compareAndSet(parked, replacement)) {
+				// The parked tokens were swapped into the session in the meantime
+				tracked.refreshed.set(new RefreshedContext(current, context));
+			}
+			tracked.refreshAt = nextRefreshAt(context);
+			this.refreshed.increment();
+		} else {
+			this.failed.increment();
+			this.sessions.remove(sessionId, tracked);
+		}
+		tracked.inFlight.set(false);
+	}
+
+	/**
+	 * Exchanges the refresh token of a security context for new tokens at
+	 * KeyCloak, and builds a new security context from them. The access token is
+	 * verified as the KeyCloak adapter verifies it; an ID token, if one is
+	 * issued, is parsed without verification, as the adapter's code grant does.
+	 *
+	 * @param current    The security context to refresh
+	 * @param deployment The KeyCloak deployment
+	 * @return The refreshed security context
+	 * @throws IOException                Thrown if KeyCloak cannot be reached
+	 * @throws ServerRequest.HttpFailure  Thrown if KeyCloak rejects the refresh
+	 * @throws VerificationException      Thrown if the access token is invalid
+	 * @throws JWSInputException          Thrown if the ID token cannot be parsed
+	 */
+	protected RefreshableKeycloakSecurityContext refreshContext(RefreshableKeycloakSecurityContext current,
+			KeycloakDeployment deployment)
+			throws IOException, ServerRequest.HttpFailure, VerificationException, JWSInputException {
+		AccessTokenResponse response = ServerRequest.invokeRefresh(deployment, current.getRefreshToken());
+		AccessToken token = AdapterRSATokenVerifier.verifyToken(response.getToken(), deployment);
+		IDToken idToken = response.getIdToken() == null ? null
+				: new JWSInput(response.getIdToken()).readJsonContent(IDToken.class);
+		if (response.getNotBeforePolicy() > deployment.getNotBefore()) {
+			deployment.updateNotBefore(response.getNotBeforePolicy());
+		}
+
+		boolean idTokenIssued = idToken != null;
+		return new RefreshableKeycloakSecurityContext(deployment, null, response.getToken(), token,
+				idTokenIssued ? response.getIdToken() : current.getIdTokenString(),
+				idTokenIssued ? idToken : current.getIdToken(),
+				response.getRefreshToken() == null ? current.getRefreshToken() : response.getRefreshToken());
+	}
+
+	/**
+	 * Submits the tracked sessions that are due for a refresh, and stops tracking
+	 * inactive sessions
+	 */
+	protected void scan() {
+		long inactiveBefore = System.currentTimeMillis() - this.activeWindowMillis;
+		int now = Time.currentTime();
+
+		try {
+			this.sessions.forEach((sessionId, tracked) -> {
+				if (tracked.lastAccessMillis < inactiveBefore) {
+					this.sessions.remove(sessionId, tracked);
+				} else if (tracked.refreshAt <= now && tracked.inFlight.compareAndSet(false, true)) {
+					try {
+						this.executor.execute(() -> refresh(sessionId, tracked));
+					} catch (RejectedExecutionException e) {
+						tracked.inFlight.set(false);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			logger.error("scan() - Unable to scan tracked sessions", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Records activity on the session of an authenticated request, tracking the
+	 * session for background refresh if it holds refreshable KeyCloak tokens.
+	 * Tokens refreshed in the background since the session's last request are
+	 * swapped into the session here, on the request thread.
+	 *
+	 * @param req        The servlet request
+	 * @param deployment The KeyCloak deployment
+	 */
+	public void track(HttpServletRequest req, KeycloakDeployment deployment) {
+		if (!this.enabled || deployment == null) {
+			return;
+		}
+
+		HttpSession session = req.getSession(false);
+		if (session == null) {
+			return;
+		}
+
+		Object attribute = session.getAttribute(KeycloakSecurityContext.class.getName());
+		if (!(attribute instanceof RefreshableKeycloakSecurityContext)) {
+			return;
+		}
+
+		RefreshableKeycloakSecurityContext context = (RefreshableKeycloakSecurityContext) attribute;
+		if (context.getRefreshToken() == null || context.getToken() == null) {
+			return;
+		}
+
+		String sessionId = session.getId();
+		TrackedSession tracked = this.sessions.get(sessionId);
+		if (tracked == null) {
+			if (this.sessions.size() >= this.maxSessions) {
+				return;
+			}
+
+			tracked = new TrackedSession();
+			update(tracked, context, deployment);
+			tracked = this.sessions.putIfAbsent(sessionId, tracked);
+			if (tracked == null) {
+				return;
+			}
+		}
+
+		RefreshedContext refreshed = tracked.refreshed.get();
+		if (refreshed != null && tracked.refreshed.compareAndSet(refreshed, null) && refreshed.replaces == context) {
+			session.setAttribute(KeycloakSecurityContext.class.getName(), refreshed.context);
+			context = refreshed.context;
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("track(HttpServletRequest, KeycloakDeployment) - Refreshed tokens swapped into session - sessionId=" //$NON-NLS-1$
+						+ sessionId);
+			}
+		}
+
+		update(tracked, context, deployment);
+	}
+
+	/**
+	 * Updates a tracked session with the latest request state. A new security
+	 * context, as created by a swap, an inline refresh or a new login, is
+	 * rescheduled.
+	 *
+	 * @param tracked    The tracked session
+	 * @param context    The security context
+	 * @param deployment The KeyCloak deployment
+	 */
+	private void update(TrackedSession tracked, RefreshableKeycloakSecurityContext context,
+			KeycloakDeployment deployment) {
+		if (tracked.context != context) {
+			tracked.refreshAt = nextRefreshAt(context);
+			tracked.context = context;
+		}
+		tracked.deployment = deployment;
+		tracked.lastAccessMillis = System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.tenant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+import net.odyssi.security.keycloak.auth.deployment.DeploymentReloadEvent;
+import net.odyssi.security.keycloak.auth.deployment.KeycloakDeploymentRegistry;
+import net.odyssi.security.keycloak.auth.token.BearerTokenPrecheck;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Resolves the KeyCloak realm, or tenant, a request belongs to. A tenant is
+ * chosen by the request host, by the longest configured path prefix of the
+ * request URI, or by the unverified <code>iss</code> claim of its bearer token,
+ * trying each strategy in the configured order. The token is then verified
+ * against the chosen tenant's realm keys, so an issuer claim can only select a
+ * realm, not bypass it.
+ *
+ * <p>
+ * Tenant adapter configurations are loaded and indexed once, at startup. Each
+ * lookup is a bounded number of hash lookups, and does not grow with the number
+ * of tenants. Tenant deployments are built on first use, and cached, by the
+ * {@link KeycloakDeploymentRegistry}, which also swaps in the deployments of
+ * reloaded tenant configurations.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class TenantResolver {
+
+	/**
+	 * The ways a tenant can be chosen for a request
+	 */
+	public enum Strategy {
+		HOST, ISSUER, PATH
+	}
+
+	public static final String DEFAULT_RESOLUTION = "host,path,issuer"; //$NON-NLS-1$
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(TenantResolver.class);
+
+	/**
+	 * Returns a path prefix without a trailing separator
+	 *
+	 * @param prefix The configured prefix
+	 * @return The normalized prefix, or <code>null</code> if the prefix is the
+	 *         root path
+	 */
+	private static String normalizePathPrefix(String prefix) {
+		String normalized = StringUtils.stripEnd(prefix.startsWith("/") ? prefix : "/" + prefix, "/"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return normalized.isEmpty() ? null : normalized;
+	}
+
+	@Inject
+	private Configuration configuration = null;
+
+	/**
+	 * The length of the longest configured path prefix
+	 */
+	private int maxPathPrefixLength = 0;
+
+	/**
+	 * The resolution strategies, in the order they are tried
+	 */
+	private Strategy[] strategies = new Strategy[0];
+
+	private Map<String, AdapterConfig> tenantsByHost = new HashMap<>();
+
+	/**
+	 * Tenants indexed by issuer. This index changes when a tenant's reloaded
+	 * configuration names another realm or server.
+	 */
+	private Map<String, AdapterConfig> tenantsByIssuer = new ConcurrentHashMap<>();
+
+	private Map<String, AdapterConfig> tenantsByPathPrefix = new HashMap<>();
+
+	/**
+	 * Returns the issuer URL of the tokens of a tenant
+	 *
+	 * @param config The tenant adapter configuration
+	 * @return The issuer URL
+	 */
+	protected String getIssuer(AdapterConfig config) {
+		return StringUtils.stripEnd(config.getAuthServerUrl(), "/") + "/realms/" + config.getRealm(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		String[] tenants = this.configuration.getStrings(Constants.TENANTS);
+		for (String tenant : tenants) {
+			String location = this.configuration
+					.getString(Constants.TENANT_PREFIX + tenant + Constants.TENANT_CONFIG_SUFFIX, null);
+			AdapterConfig config = location == null ? null : loadAdapterConfig(location);
+			if (config == null) {
+				logger.warn("init() - No adapter config found for tenant.  Skipping... - tenant=" + tenant //$NON-NLS-1$
+						+ ", location=" + location); //$NON-NLS-1$
+				continue;
+			}
+
+			for (String host : this.configuration
+					.getStrings(Constants.TENANT_PREFIX + tenant + Constants.TENANT_HOSTS_SUFFIX)) {
+				this.tenantsByHost.put(host.toLowerCase(Locale.ROOT), config);
+			}
+			for (String prefix : this.configuration
+					.getStrings(Constants.TENANT_PREFIX + tenant + Constants.TENANT_PATH_PREFIXES_SUFFIX)) {
+				String normalized = normalizePathPrefix(prefix);
+				if (normalized == null) {
+					logger.warn("init() - The root path cannot be a tenant prefix.  Skipping... - tenant=" + tenant); //$NON-NLS-1$
+					continue;
+				}
+				this.tenantsByPathPrefix.put(normalized, config);
+				this.maxPathPrefixLength = Math.max(this.maxPathPrefixLength, normalized.length());
+			}
+			this.tenantsByIssuer.put(getIssuer(config), config);
+		}
+
+		if (!this.tenantsByIssuer.isEmpty()) {
+			String[] names = this.configuration.getStrings(Constants.TENANTS_RESOLUTION);
+			if (names.length == 0) {
+				names = StringUtils.split(DEFAULT_RESOLUTION, ',');
+			}
+
+			List<Strategy> strategies = new ArrayList<>();
+			for (String name : names) {
+				try {
+					strategies.add(Strategy.valueOf(name.toUpperCase(Locale.ROOT)));
+				} catch (IllegalArgumentException e) {
+					logger.warn("init() - Unknown tenant resolution strategy.  Skipping... - strategy=" + name); //$NON-NLS-1$
+				}
+			}
+			this.strategies = strategies.toArray(new Strategy[strategies.size()]);
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Tenant resolver initialized - tenants=" + this.tenantsByIssuer.size() //$NON-NLS-1$
+					+ ", hosts=" + this.tenantsByHost.size() + ", pathPrefixes=" + this.tenantsByPathPrefix.size() //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", strategies=" + StringUtils.join(this.strategies, ',')); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns true if any tenants are configured
+	 *
+	 * @return The status
+	 */
+	public boolean isEnabled() {
+		return this.strategies.length > 0;
+	}
+
+	/**
+	 * Loads a tenant adapter configuration from the classpath or, failing that,
+	 * the file system
+	 *
+	 * @param location The configuration location
+	 * @return The adapter configuration, or <code>null</code> if it cannot be
+	 *         loaded
+	 */
+	protected AdapterConfig loadAdapterConfig(String location) {
+		InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(location);
+		try {
+			if (in == null) {
+				File file = new File(location);
+				if (!file.isFile()) {
+					return null;
+				}
+				in = new FileInputStream(file);
+			}
+			return KeycloakDeploymentBuilder.loadAdapterConfig(in);
+		} catch (IOException | RuntimeException e) {
+			logger.error("loadAdapterConfig(String) - Unable to load adapter config - location=" + location, e); //$NON-NLS-1$
+
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignored
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-indexes a tenant by issuer when its reloaded configuration names
+	 * another realm or server. The tenant keeps its original adapter
+	 * configuration, which the {@link KeycloakDeploymentRegistry} now resolves to
+	 * the reloaded deployment.
+	 *
+	 * @param event The reload event
+	 */
+	protected void onDeploymentReload(@Observes DeploymentReloadEvent event) {
+		String previousIssuer = getIssuer(event.getPreviousConfig());
+		String issuer = getIssuer(event.getConfig());
+		if (!previousIssuer.equals(issuer)) {
+			AdapterConfig config = this.tenantsByIssuer.remove(previousIssuer);
+			if (config != null) {
+				this.tenantsByIssuer.put(issuer, config);
+
+				if (logger.isInfoEnabled()) {
+					logger.info("onDeploymentReload(DeploymentReloadEvent) - Tenant issuer changed - previousIssuer=" //$NON-NLS-1$
+							+ previousIssuer + ", issuer=" + issuer); //$NON-NLS-1$
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resolves the tenant of a request
+	 *
+	 * @param req The servlet request
+	 * @return The tenant adapter configuration, or <code>null</code> if the
+	 *         request matches no tenant
+	 */
+	public AdapterConfig resolve(HttpServletRequest req) {
+		for (Strategy strategy : this.strategies) {
+			AdapterConfig config = null;
+			switch (strategy) {
+			case HOST:
+				config = resolveByHost(req);
+				break;
+			case ISSUER:
+				config = resolveByIssuer(req);
+				break;
+			case PATH:
+				config = resolveByPath(req);
+				break;
+			default:
+				break;
+			}
+
+			if (config != null) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("resolve(HttpServletRequest) - Tenant resolved - strategy=" + strategy + ", realm=" //$NON-NLS-1$ //$NON-NLS-2$
+							+ config.getRealm());
+				}
+				return config;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the tenant of a request by its host name
+	 *
+	 * @param req The servlet request
+	 * @return The tenant adapter configuration, or <code>null</code>
+	 */
+	protected AdapterConfig resolveByHost(HttpServletRequest req) {
+		String host = req.getServerName();
+		return host == null || this.tenantsByHost.isEmpty() ? null
+				: this.tenantsByHost.get(host.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Resolves the tenant of a request by the unverified issuer of its bearer
+	 * token
+	 *
+	 * @param req The servlet request
+	 * @return The tenant adapter configuration, or <code>null</code>
+	 */
+	protected AdapterConfig resolveByIssuer(HttpServletRequest req) {
+		String header = req.getHeader(Constants.AUTHORIZATION_HEADER);
+		if (StringUtils.isEmpty(header)) {
+			return null;
+		}
+
+		int start = BearerTokenPrecheck.tokenStart(header);
+		String issuer = start < 0 ? null : BearerTokenPrecheck.peekIssuer(header, start, header.length());
+		return issuer == null ? null : this.tenantsByIssuer.get(issuer);
+	}
+
+	/**
+	 * Resolves the tenant of a request by the longest configured prefix of its
+	 * context-relative path. Prefixes match whole path segments only.
+	 *
+	 * @param req The servlet request
+	 * @return The tenant adapter configuration, or <code>null</code>
+	 */
+	protected AdapterConfig resolveByPath(HttpServletRequest req) {
+		if (this.tenantsByPathPrefix.isEmpty()) {
+			return null;
+		}
+
+		String path = req.getRequestURI();
+		String contextPath = req.getContextPath();
+		if (contextPath != null && path.startsWith(contextPath)) {
+			path = path.substring(contextPath.length());
+		}
+
+		// Only prefixes ending on a segment boundary no longer than the longest
+		// configured prefix are looked up
+		int end = path.length();
+		if (end > this.maxPathPrefixLength) {
+			end = path.lastIndexOf('/', this.maxPathPrefixLength);
+		}
+		while (end > 0) {
+			AdapterConfig config = this.tenantsByPathPrefix.get(path.substring(0, end));
+			if (config != null) {
+				return config;
+			}
+			end = path.lastIndexOf('/', end - 1);
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,283 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.token;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A cheap, allocation-free check of a bearer token performed before any
+ * signature verification. The token is examined in place within the
+ * <code>Authorization</code> header: its three-segment structure and base64url
+ * alphabet are checked, and the <code>alg</code> header and the
+ * <code>iss</code> and <code>exp</code> claims are peeked at without binding
+ * the token to an object model. A token accepted here may still fail full
+ * verification; a token rejected here would certainly have failed it.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class BearerTokenPrecheck {
+
+	/**
+	 * The outcome of a pre-check
+	 */
+	public enum Result {
+		ACCEPTED, EXPIRED, ISSUER_MISMATCH, MALFORMED, UNSUPPORTED_ALGORITHM
+	}
+
+	private static final byte[] ALG = "alg".getBytes(StandardCharsets.US_ASCII);
+
+	private static final String BEARER_SCHEME = "Bearer";
+
+	/**
+	 * Maps base64url characters to their 6-bit values; all other characters map
+	 * to <code>-1</code>
+	 */
+	private static final int[] BASE64URL = new int[128];
+
+	private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[4096]);
+
+	private static final byte[] EXP = "exp".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ISS = "iss".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The largest decoded segment that is peeked at. Larger segments are
+	 * checked structurally only.
+	 */
+	private static final int MAX_PEEK_BYTES = 64 * 1024;
+
+	static {
+		Arrays.fill(BASE64URL, -1);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for (int i = 0; i < alphabet.length(); i++) {
+			BASE64URL[alphabet.charAt(i)] = i;
+		}
+	}
+
+	/**
+	 * Returns this thread's decode buffer, sized for a segment
+	 *
+	 * @param encodedLength The encoded segment length
+	 * @return The buffer, or <code>null</code> if the segment is too large to
+	 *         peek at
+	 */
+	private static byte[] buffer(int encodedLength) {
+		int decodedLength = encodedLength * 3 / 4;
+		if (decodedLength > MAX_PEEK_BYTES) {
+			return null;
+		}
+
+		byte[] buffer = BUFFERS.get();
+		if (buffer.length < decodedLength) {
+			buffer = new byte[Math.min(MAX_PEEK_BYTES, Math.max(decodedLength, buffer.length * 2))];
+			BUFFERS.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Decodes a base64url segment whose alphabet has already been checked
+	 *
+	 * @param value  The text containing the segment
+	 * @param start  The segment offset
+	 * @param end    The segment end offset (exclusive)
+	 * @param buffer The destination buffer
+	 * @return The number of bytes decoded
+	 */
+	private static int decode(CharSequence value, int start, int end, byte[] buffer) {
+		int length = 0;
+		int bits = 0;
+		int bitCount = 0;
+		for (int i = start; i < end; i++) {
+			bits = bits << 6 | BASE64URL[value.charAt(i)];
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				buffer[length++] = (byte) (bits >> bitCount);
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the unverified <code>iss</code> claim of a token, for choosing the
+	 * realm the token is then verified against
+	 *
+	 * @param value The text containing the token
+	 * @param start The offset of the token
+	 * @param end   The end offset (exclusive) of the token
+	 * @return The issuer, or <code>null</code> if it cannot be read
+	 */
+	public static String peekIssuer(CharSequence value, int start, int end) {
+		int firstDot = -1;
+		int secondDot = -1;
+		for (int i = start; i < end && secondDot < 0; i++) {
+			char c = value.charAt(i);
+			if (c == '.') {
+				if (firstDot < 0) {
+					firstDot = i;
+				} else {
+					secondDot = i;
+				}
+			} else if (firstDot >= 0 && (c >= 128 || BASE64URL[c] < 0)) {
+				return null;
+			}
+		}
+
+		if (secondDot < 0) {
+			return null;
+		}
+
+		byte[] buffer = buffer(secondDot - firstDot - 1);
+		if (buffer == null) {
+			return null;
+		}
+
+		int length = decode(value, firstDot + 1, secondDot, buffer);
+		int iss = JsonPeek.find(buffer, length, ISS);
+		return iss < 0 ? null : JsonPeek.readString(buffer, length, iss);
+	}
+
+	/**
+	 * Returns the offset of the token within an <code>Authorization</code>
+	 * header using the <code>Bearer</code> scheme. The scheme is matched
+	 * case-insensitively.
+	 *
+	 * @param header The header value
+	 * @return The token offset, or <code>-1</code> if the header does not carry
+	 *         a bearer token
+	 */
+	public static int tokenStart(String header) {
+		int length = header.length();
+		int schemeLength = BEARER_SCHEME.length();
+		if (length <= schemeLength || !header.regionMatches(true, 0, BEARER_SCHEME, 0, schemeLength)
+				|| header.charAt(schemeLength) != ' ') {
+			return -1;
+		}
+
+		int start = schemeLength + 1;
+		while (start < length && header.charAt(start) == ' ') {
+			start++;
+		}
+		return start < length ? start : -1;
+	}
+
+	private final byte[] expectedIssuer;
+
+	/**
+	 * Creates a new pre-check
+	 *
+	 * @param expectedIssuer The expected <code>iss</code> claim, or
+	 *                       <code>null</code> to skip the issuer check
+	 */
+	public BearerTokenPrecheck(String expectedIssuer) {
+		super();
+		this.expectedIssuer = expectedIssuer == null ? null : expectedIssuer.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks a token
+	 *
+	 * @param value      The text containing the token
+	 * @param start      The offset of the token
+	 * @param end        The end offset (exclusive) of the token
+	 * @param nowSeconds The current time, in seconds since the epoch
+	 * @return The check result
+	 */
+	public Result check(CharSequence value, int start, int end, long nowSeconds) {
+		int firstDot = -1;
+		int secondDot = -1;
+
+		// Trailing whitespace is tolerated, as servlet containers may not trim it
+		while (end > start && value.charAt(end - 1) == ' ') {
+			end--;
+		}
+
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c == '.') {
+				if (firstDot < 0) {
+					firstDot = i;
+				} else if (secondDot < 0) {
+					secondDot = i;
+				} else {
+					return Result.MALFORMED;
+				}
+			} else if (c >= 128 || BASE64URL[c] < 0) {
+				return Result.MALFORMED;
+			}
+		}
+
+		if (secondDot < 0 || !validLength(firstDot - start) || !validLength(secondDot - firstDot - 1)
+				|| !validLength(end - secondDot - 1)) {
+			return Result.MALFORMED;
+		}
+
+		byte[] buffer = buffer(firstDot - start);
+		if (buffer != null) {
+			int length = decode(value, start, firstDot, buffer);
+			int alg = JsonPeek.find(buffer, length, ALG);
+			if (alg < 0 || !supportedAlgorithm(buffer, length, alg)) {
+				return Result.UNSUPPORTED_ALGORITHM;
+			}
+		}
+
+		buffer = buffer(secondDot - firstDot - 1);
+		if (buffer != null) {
+			int length = decode(value, firstDot + 1, secondDot, buffer);
+
+			int exp = JsonPeek.find(buffer, length, EXP);
+			if (exp >= 0) {
+				long expiration = JsonPeek.readLong(buffer, length, exp);
+				if (expiration > 0 && expiration < nowSeconds) {
+					return Result.EXPIRED;
+				}
+			}
+
+			if (this.expectedIssuer != null) {
+				int iss = JsonPeek.find(buffer, length, ISS);
+				if (iss >= 0 && JsonPeek.stringEquals(buffer, length, iss, this.expectedIssuer) == Boolean.FALSE) {
+					return Result.ISSUER_MISMATCH;
+				}
+			}
+		}
+
+		return Result.ACCEPTED;
+	}
+
+	/**
+	 * Returns true if the <code>alg</code> header names an asymmetric signature
+	 * algorithm. <code>none</code> and the HMAC algorithms are rejected. An
+	 * escaped name is left to full verification.
+	 *
+	 * @param json   The decoded header
+	 * @param length The header length
+	 * @param offset The offset of the <code>alg</code> value
+	 * @return The status
+	 */
+	private boolean supportedAlgorithm(byte[] json, int length, int offset) {
+		if (offset + 3 >= length || json[offset] != '"') {
+			return false;
+		}
+		byte first = json[offset + 1];
+		byte second = json[offset + 2];
+		if (first == '\\' || second == '\\') {
+			return true;
+		}
+		return (first == 'R' || first == 'E' || first == 'P') && second == 'S';
+	}
+
+	/**
+	 * Returns true if a base64url segment length is possible without padding
+	 *
+	 * @param length The encoded length
+	 * @return The status
+	 */
+	private boolean validLength(int length) {
+		return length > 0 && length % 4 != 1;
+	}
+
+}
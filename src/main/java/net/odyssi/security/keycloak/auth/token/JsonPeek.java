@@ -0,0 +1,306 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.token;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal lookups of top-level members in a UTF-8 encoded JSON object. The
+ * members are scanned in place; nothing is bound, and only string values that
+ * are read are copied.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+final class JsonPeek {
+
+	/**
+	 * Finds the value of a top-level member. Member names are compared after
+	 * unescaping them, and if a member occurs more than once, the last
+	 * occurrence is found, as it is by the parser that later verifies the token.
+	 *
+	 * @param json   The JSON document
+	 * @param length The document length
+	 * @param key    The member name, in ASCII
+	 * @return The offset of the member value, or <code>-1</code> if the member
+	 *         is absent or the document is malformed
+	 */
+	static int find(byte[] json, int length, byte[] key) {
+		int i = skipWhitespace(json, length, 0);
+		if (i >= length || json[i] != '{') {
+			return -1;
+		}
+		i = skipWhitespace(json, length, i + 1);
+		if (i < length && json[i] == '}') {
+			return -1;
+		}
+
+		int found = -1;
+		while (true) {
+			if (i >= length || json[i] != '"') {
+				return -1;
+			}
+
+			int keyStart = i + 1;
+			int keyEnd = skipString(json, length, i);
+			if (keyEnd < 0) {
+				return -1;
+			}
+
+			i = skipWhitespace(json, length, keyEnd);
+			if (i >= length || json[i] != ':') {
+				return -1;
+			}
+			i = skipWhitespace(json, length, i + 1);
+			if (i >= length) {
+				return -1;
+			}
+
+			if (keyEquals(json, keyStart, keyEnd - 1, key)) {
+				found = i;
+			}
+
+			i = skipValue(json, length, i);
+			if (i < 0) {
+				return -1;
+			}
+			i = skipWhitespace(json, length, i);
+			if (i >= length) {
+				return -1;
+			}
+			if (json[i] == '}') {
+				return found;
+			}
+			if (json[i] != ',') {
+				return -1;
+			}
+			i = skipWhitespace(json, length, i + 1);
+		}
+	}
+
+	/**
+	 * Returns the value of a hexadecimal digit
+	 *
+	 * @return The value, or <code>-1</code> if the byte is not a hexadecimal
+	 *         digit
+	 */
+	private static int hexValue(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares a member name with an ASCII key, unescaping the name as it goes
+	 *
+	 * @return The status
+	 */
+	private static boolean keyEquals(byte[] json, int start, int end, byte[] key) {
+		int k = 0;
+		for (int i = start; i < end; i++) {
+			int c = json[i];
+			if (c == '\\') {
+				if (++i >= end) {
+					return false;
+				}
+				c = json[i];
+				if (c == 'u') {
+					if (i + 4 >= end) {
+						return false;
+					}
+					c = 0;
+					for (int j = i + 1; j <= i + 4; j++) {
+						int digit = hexValue(json[j]);
+						if (digit < 0) {
+							return false;
+						}
+						c = c << 4 | digit;
+					}
+					i += 4;
+				} else if (c != '"' && c != '\\' && c != '/') {
+					// The remaining escapes are control characters
+					return false;
+				}
+			}
+			if (k >= key.length || key[k++] != c) {
+				return false;
+			}
+		}
+		return k == key.length;
+	}
+
+	/**
+	 * Reads a non-negative integral number
+	 *
+	 * @param json   The JSON document
+	 * @param length The document length
+	 * @param offset The offset of the value
+	 * @return The number, or <code>-1</code> if the value is not a plain
+	 *         integer, e.g. a string, a fraction or an exponent
+	 */
+	static long readLong(byte[] json, int length, int offset) {
+		long value = 0;
+		int digits = 0;
+		int i = offset;
+		for (; i < length && json[i] >= '0' && json[i] <= '9'; i++) {
+			if (++digits > 18) {
+				return -1;
+			}
+			value = value * 10 + (json[i] - '0');
+		}
+		if (digits == 0 || i < length && json[i] != ',' && json[i] != '}' && !whitespace(json[i])) {
+			return -1;
+		}
+		return value;
+	}
+
+	/**
+	 * Compares a string value with an expected value
+	 *
+	 * @param json     The JSON document
+	 * @param length   The document length
+	 * @param offset   The offset of the value
+	 * @param expected The expected UTF-8 bytes
+	 * @return {@link Boolean#TRUE} or {@link Boolean#FALSE}, or
+	 *         <code>null</code> if the value is not a plain string and cannot be
+	 *         compared without decoding it
+	 */
+	static Boolean stringEquals(byte[] json, int length, int offset, byte[] expected) {
+		if (json[offset] != '"') {
+			return null;
+		}
+
+		int i = offset + 1;
+		for (byte b : expected) {
+			if (i >= length || json[i] == '\\') {
+				return null;
+			}
+			if (json[i] != b) {
+				return Boolean.FALSE;
+			}
+			i++;
+		}
+
+		if (i >= length || json[i] == '\\') {
+			return null;
+		}
+		return json[i] == '"' ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	/**
+	 * Reads a string value
+	 *
+	 * @param json   The JSON document
+	 * @param length The document length
+	 * @param offset The offset of the value
+	 * @return The string, or <code>null</code> if the value is not a string or
+	 *         contains escapes other than <code>\/</code>
+	 */
+	static String readString(byte[] json, int length, int offset) {
+		if (json[offset] != '"') {
+			return null;
+		}
+
+		StringBuilder sb = null;
+		int start = offset + 1;
+		for (int i = start; i < length; i++) {
+			byte b = json[i];
+			if (b == '"') {
+				String tail = new String(json, start, i - start, StandardCharsets.UTF_8);
+				return sb == null ? tail : sb.append(tail).toString();
+			}
+			if (b == '\\') {
+				if (i + 1 >= length || json[i + 1] != '/') {
+					return null;
+				}
+				if (sb == null) {
+					sb = new StringBuilder();
+				}
+				sb.append(new String(json, start, i - start, StandardCharsets.UTF_8)).append('/');
+				start = ++i + 1;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Skips a string
+	 *
+	 * @return The offset following the closing quote, or <code>-1</code>
+	 */
+	private static int skipString(byte[] json, int length, int offset) {
+		for (int i = offset + 1; i < length; i++) {
+			if (json[i] == '\\') {
+				i++;
+			} else if (json[i] == '"') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Skips a value of any type
+	 *
+	 * @return The offset following the value, or <code>-1</code>
+	 */
+	private static int skipValue(byte[] json, int length, int offset) {
+		byte c = json[offset];
+		if (c == '"') {
+			return skipString(json, length, offset);
+		}
+
+		if (c == '{' || c == '[') {
+			int depth = 0;
+			int i = offset;
+			while (i < length) {
+				c = json[i];
+				if (c == '"') {
+					i = skipString(json, length, i);
+					if (i < 0) {
+						return -1;
+					}
+					continue;
+				}
+				if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					if (--depth == 0) {
+						return i + 1;
+					}
+				}
+				i++;
+			}
+			return -1;
+		}
+
+		int i = offset;
+		while (i < length && json[i] != ',' && json[i] != '}' && json[i] != ']' && !whitespace(json[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int skipWhitespace(byte[] json, int length, int offset) {
+		int i = offset;
+		while (i < length && whitespace(json[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean whitespace(byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+	}
+
+	private JsonPeek() {
+	}
+}
@@ -0,0 +1,305 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Delivers {@link AuthenticationSuccessEvent}s to their observers. By default
+ * events are fired synchronously on the authenticating thread. In asynchronous
+ * mode, the authenticating thread only enqueues the event on a bounded queue;
+ * a background thread drains the queue in batches, firing each
+ * {@link AuthenticationSuccessEvent} and then one
+ * {@link AuthenticationSuccessBatch} per batch. Observers in asynchronous mode
+ * run outside the request, so must not depend on request scoped beans.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class AuthenticationEventDispatcher implements AuthenticationEventDispatcherMXBean {
+
+	/**
+	 * What to do with an event when the queue is full
+	 */
+	public enum OverflowPolicy {
+
+		/**
+		 * Deliver the event synchronously on the authenticating thread
+		 */
+		CALLER_RUNS,
+
+		/**
+		 * Discard the new event
+		 */
+		DROP_NEWEST,
+
+		/**
+		 * Discard the oldest queued event to make room for the new one
+		 */
+		DROP_OLDEST
+	}
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	public static final String DEFAULT_OBJECT_NAME = "net.odyssi.security.keycloak:type=AuthenticationEvents";
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(AuthenticationEventDispatcher.class);
+
+	private boolean asynchronous = false;
+
+	@Inject
+	private Event<AuthenticationSuccessBatch> authenticationSuccessBatch = null;
+
+	@Inject
+	private Event<AuthenticationSuccessEvent> authenticationSuccessEvent = null;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	@Inject
+	private Configuration configuration = null;
+
+	private final LongAdder delivered = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * The name the MXBean is registered under, or <code>null</code> if it is not
+	 * registered
+	 */
+	private ObjectName objectName = null;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+	private BlockingQueue<AuthenticationSuccessEvent> queue = null;
+
+	private Thread worker = null;
+
+	/**
+	 * Performs object destruction. Events still queued are delivered before the
+	 * worker stops.
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.worker != null) {
+			this.worker.interrupt();
+			try {
+				this.worker.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch (JMException e) {
+				logger.warn("destroy() - Unable to unregister event dispatcher MXBean - objectName=" + this.objectName, //$NON-NLS-1$
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Delivers a batch of events to the observers
+	 *
+	 * @param batch The events
+	 */
+	private void deliver(List<AuthenticationSuccessEvent> batch) {
+		for (AuthenticationSuccessEvent event : batch) {
+			deliver(event);
+		}
+
+		try {
+			this.authenticationSuccessBatch.fire(new AuthenticationSuccessBatch(new ArrayList<>(batch)));
+		} catch (RuntimeException e) {
+			logger.error("deliver(List<AuthenticationSuccessEvent>) - Authentication success batch observer failed", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Delivers an event to the observers. Failures of asynchronous observers are
+	 * logged rather than propagated.
+	 *
+	 * @param event The event
+	 */
+	private void deliver(AuthenticationSuccessEvent event) {
+		try {
+			this.authenticationSuccessEvent.fire(event);
+			this.delivered.increment();
+		} catch (RuntimeException e) {
+			if (!this.asynchronous) {
+				throw e;
+			}
+			logger.error("deliver(AuthenticationSuccessEvent) - Authentication success observer failed", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Dispatches an event, either delivering it now or enqueueing it for
+	 * asynchronous delivery
+	 *
+	 * @param event The event
+	 */
+	public void dispatch(AuthenticationSuccessEvent event) {
+		if (!this.asynchronous) {
+			deliver(event);
+			return;
+		}
+
+		if (this.queue.offer(event)) {
+			return;
+		}
+
+		switch (this.overflowPolicy) {
+		case CALLER_RUNS:
+			deliver(event);
+			break;
+		case DROP_OLDEST:
+			while (!this.queue.offer(event)) {
+				if (this.queue.poll() != null) {
+					this.dropped.increment();
+				}
+			}
+			break;
+		default:
+			this.dropped.increment();
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.AuthenticationEventDispatcherMXBean#
+	 * getDeliveredCount()
+	 */
+	@Override
+	public long getDeliveredCount() {
+		return this.delivered.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.AuthenticationEventDispatcherMXBean#
+	 * getDroppedCount()
+	 */
+	@Override
+	public long getDroppedCount() {
+		return this.dropped.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.AuthenticationEventDispatcherMXBean#
+	 * getQueueDepth()
+	 */
+	@Override
+	public int getQueueDepth() {
+		return this.queue == null ? 0 : this.queue.size();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.asynchronous = this.configuration.getBoolean(Constants.EVENTS_ASYNC, false);
+		if (this.asynchronous) {
+			int capacity = this.configuration.getInt(Constants.EVENTS_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+			this.batchSize = Math.max(1, this.configuration.getInt(Constants.EVENTS_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+			String policy = this.configuration.getString(Constants.EVENTS_OVERFLOW_POLICY,
+					OverflowPolicy.DROP_NEWEST.name());
+			try {
+				this.overflowPolicy = OverflowPolicy.valueOf(policy.toUpperCase().replace('-', '_'));
+			} catch (IllegalArgumentException e) {
+				logger.warn("init() - Unknown overflow policy.  Dropping newest events - policy=" + policy); //$NON-NLS-1$
+			}
+
+			this.queue = new ArrayBlockingQueue<>(capacity);
+			this.worker = new NamedThreadFactory("keycloak-soteria-events").newThread(this::run); //$NON-NLS-1$
+			this.worker.start();
+
+			String name = this.configuration.getString(Constants.EVENTS_JMX_NAME, DEFAULT_OBJECT_NAME);
+			try {
+				ObjectName objectName = new ObjectName(name);
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+				this.objectName = objectName;
+			} catch (JMException e) {
+				logger.warn("init() - Unable to register event dispatcher MXBean - objectName=" + name, e); //$NON-NLS-1$
+			}
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Authentication event dispatch initialized - asynchronous=" + this.asynchronous //$NON-NLS-1$
+					+ ", batchSize=" + this.batchSize + ", overflowPolicy=" + this.overflowPolicy); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.AuthenticationEventDispatcherMXBean#
+	 * isAsynchronous()
+	 */
+	@Override
+	public boolean isAsynchronous() {
+		return this.asynchronous;
+	}
+
+	/**
+	 * Drains the queue in batches until interrupted, then delivers any events
+	 * left in it
+	 */
+	private void run() {
+		List<AuthenticationSuccessEvent> batch = new ArrayList<>(this.batchSize);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				batch.add(this.queue.take());
+				this.queue.drainTo(batch, this.batchSize - 1);
+				deliver(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Shutting down
+		}
+
+		this.queue.drainTo(batch);
+		if (!batch.isEmpty()) {
+			deliver(batch);
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common;
+
+/**
+ * The JMX management interface of the {@link AuthenticationEventDispatcher}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public interface AuthenticationEventDispatcherMXBean {
+
+	/**
+	 * Returns the number of events delivered to observers
+	 *
+	 * @return The delivered event count
+	 */
+	long getDeliveredCount();
+
+	/**
+	 * Returns the number of events dropped because the queue was full
+	 *
+	 * @return The dropped event count
+	 */
+	long getDroppedCount();
+
+	/**
+	 * Returns the number of events waiting to be delivered
+	 *
+	 * @return The queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns true if events are delivered asynchronously
+	 *
+	 * @return The status
+	 */
+	boolean isAsynchronous();
+
+}
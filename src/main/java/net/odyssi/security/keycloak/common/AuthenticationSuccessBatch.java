@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common;
+
+import java.util.List;
+
+/**
+ * The CDI event emitted with a batch of {@link AuthenticationSuccessEvent}s
+ * when authentication success events are delivered asynchronously
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class AuthenticationSuccessBatch {
+
+	private List<AuthenticationSuccessEvent> events = null;
+
+	public AuthenticationSuccessBatch(List<AuthenticationSuccessEvent> events) {
+		super();
+		this.events = events;
+	}
+
+	public List<AuthenticationSuccessEvent> getEvents() {
+		return this.events;
+	}
+
+}
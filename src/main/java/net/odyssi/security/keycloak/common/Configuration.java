@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * The tunable settings of the library. Values are read from the optional
+ * {@value Constants#CONFIGURATION_FILE} classpath resource, and may be
+ * overridden with system properties of the same name.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class Configuration {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(Configuration.class);
+
+	private final Properties properties = new Properties();
+
+	/**
+	 * Returns a boolean setting
+	 *
+	 * @param key          The setting name
+	 * @param defaultValue The value returned when the setting is absent
+	 * @return The setting value
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Returns an integer setting
+	 *
+	 * @param key          The setting name
+	 * @param defaultValue The value returned when the setting is absent or invalid
+	 * @return The setting value
+	 */
+	public int getInt(String key, int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+
+	/**
+	 * Returns a long setting
+	 *
+	 * @param key          The setting name
+	 * @param defaultValue The value returned when the setting is absent or invalid
+	 * @return The setting value
+	 */
+	public long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			logger.warn("getLong(String, long) - Invalid numeric setting.  Using default - key=" + key + ", value=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ value, null);
+
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns a string setting
+	 *
+	 * @param key          The setting name
+	 * @param defaultValue The value returned when the setting is absent
+	 * @return The setting value
+	 */
+	public String getString(String key, String defaultValue) {
+		String value = System.getProperty(key);
+		if (value == null) {
+			value = this.properties.getProperty(key);
+		}
+		return StringUtils.isBlank(value) ? defaultValue : value.trim();
+	}
+
+	/**
+	 * Returns a comma-separated list setting
+	 *
+	 * @param key The setting name
+	 * @return The setting values, or an empty array if the setting is absent
+	 */
+	public String[] getStrings(String key) {
+		String value = getString(key, null);
+		return value == null ? new String[0] : StringUtils.stripAll(StringUtils.split(value, ','));
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = Configuration.class.getClassLoader();
+		}
+
+		try (InputStream in = loader.getResourceAsStream(Constants.CONFIGURATION_FILE)) {
+			if (in != null) {
+				this.properties.load(in);
+
+				if (logger.isInfoEnabled()) {
+					logger.info("init() - Configuration loaded - file=" + Constants.CONFIGURATION_FILE); //$NON-NLS-1$
+				}
+			}
+		} catch (IOException e) {
+			logger.error("init() - Unable to read configuration file - file=" + Constants.CONFIGURATION_FILE, e); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+}
@@ -11,8 +11,178 @@ package net.odyssi.security.keycloak.common;
  */
 public class Constants {
 
+	public static final String AUDIT_BATCH_SIZE = "keycloak.soteria.audit.batch-size";
+
+	public static final String AUDIT_CAPACITY = "keycloak.soteria.audit.capacity";
+
+	public static final String AUDIT_ENABLED = "keycloak.soteria.audit.enabled";
+
+	public static final String AUDIT_FILE = "keycloak.soteria.audit.file";
+
+	public static final String AUDIT_JMX_NAME = "keycloak.soteria.audit.jmx-name";
+
+	public static final String AUDIT_MAX_FILE_BYTES = "keycloak.soteria.audit.max-file-bytes";
+
+	public static final String AUDIT_MAX_FILES = "keycloak.soteria.audit.max-files";
+
+	public static final String AUDIT_SUCCESS_SAMPLING = "keycloak.soteria.audit.success-sampling";
+
 	public static final String AUTHORIZATION_HEADER = "Authorization";
 
+	public static final String BEARER_PRECHECK_ENABLED = "keycloak.soteria.bearer-precheck.enabled";
+
 	public static final String BEARER_TOKEN_PREFIX = "Bearer ";
 
+	public static final String CLAIMS_EXCLUDE = "keycloak.soteria.claims.exclude";
+
+	public static final String CLAIMS_INCLUDE = "keycloak.soteria.claims.include";
+
+	public static final String CLAIMS_RENAME = "keycloak.soteria.claims.rename";
+
+	public static final String CLAIMS_TYPES = "keycloak.soteria.claims.types";
+
+	public static final String CONFIG_RELOAD_ENABLED = "keycloak.soteria.config-reload.enabled";
+
+	public static final String CONFIG_RELOAD_INTERVAL = "keycloak.soteria.config-reload.interval-seconds";
+
+	public static final String CONFIG_RELOAD_LOCATION = "keycloak.soteria.config-reload.location";
+
+	public static final String CONFIGURATION_FILE = "keycloak-soteria.properties";
+
+	public static final String EVENTS_ASYNC = "keycloak.soteria.events.async";
+
+	public static final String EVENTS_BATCH_SIZE = "keycloak.soteria.events.batch-size";
+
+	public static final String EVENTS_JMX_NAME = "keycloak.soteria.events.jmx-name";
+
+	public static final String EVENTS_OVERFLOW_POLICY = "keycloak.soteria.events.overflow-policy";
+
+	public static final String EVENTS_QUEUE_CAPACITY = "keycloak.soteria.events.queue-capacity";
+
+	public static final String HTTP_BULKHEAD_MAX_CONCURRENT_CALLS = "keycloak.soteria.http.bulkhead.max-concurrent-calls";
+
+	public static final String HTTP_BULKHEAD_MAX_WAIT = "keycloak.soteria.http.bulkhead.max-wait-millis";
+
+	public static final String HTTP_CIRCUIT_FAILURE_THRESHOLD = "keycloak.soteria.http.circuit-breaker.failure-threshold";
+
+	public static final String HTTP_CIRCUIT_OPEN_DURATION = "keycloak.soteria.http.circuit-breaker.open-duration-seconds";
+
+	public static final String HTTP_CONNECT_TIMEOUT = "keycloak.soteria.http.connect-timeout-millis";
+
+	public static final String HTTP_CONNECTION_REQUEST_TIMEOUT = "keycloak.soteria.http.connection-request-timeout-millis";
+
+	public static final String HTTP_IDLE_TIMEOUT = "keycloak.soteria.http.idle-timeout-seconds";
+
+	public static final String HTTP_JMX_NAME = "keycloak.soteria.http.jmx-name";
+
+	public static final String HTTP_KEEP_ALIVE = "keycloak.soteria.http.keep-alive-seconds";
+
+	public static final String HTTP_MAX_CONNECTIONS = "keycloak.soteria.http.max-connections";
+
+	public static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "keycloak.soteria.http.max-connections-per-route";
+
+	public static final String HTTP_POOL_ENABLED = "keycloak.soteria.http.pool-enabled";
+
+	public static final String HTTP_READ_TIMEOUT = "keycloak.soteria.http.read-timeout-millis";
+
+	public static final String HTTP_STALE_GRACE = "keycloak.soteria.http.stale-grace-seconds";
+
+	public static final String IGNORED_PATHS = "keycloak.soteria.ignored-paths";
+
+	public static final String INTROSPECTION_CACHE_MAX_SIZE = "keycloak.soteria.introspection.cache-max-size";
+
+	public static final String INTROSPECTION_CACHE_TTL = "keycloak.soteria.introspection.cache-ttl-seconds";
+
+	public static final String INTROSPECTION_THREADS = "keycloak.soteria.introspection.threads";
+
+	public static final String INTROSPECTION_URL = "keycloak.soteria.introspection.url";
+
+	public static final String JWKS_ENABLED = "keycloak.soteria.jwks.enabled";
+
+	public static final String JWKS_REFRESH_INTERVAL = "keycloak.soteria.jwks.refresh-interval-seconds";
+
+	public static final String JWKS_UNKNOWN_KID_INTERVAL = "keycloak.soteria.jwks.unknown-kid-interval-seconds";
+
+	public static final String METRICS_ENABLED = "keycloak.soteria.metrics.enabled";
+
+	public static final String METRICS_JMX_ENABLED = "keycloak.soteria.metrics.jmx-enabled";
+
+	public static final String METRICS_JMX_NAME = "keycloak.soteria.metrics.jmx-name";
+
+	public static final String PRINCIPAL_COMPACT_SERIALIZATION = "keycloak.soteria.principal.compact-serialization";
+
+	public static final String PROPAGATION_AUDIENCES = "keycloak.soteria.propagation.audiences";
+
+	public static final String PROPAGATION_CACHE_MAX_SIZE = "keycloak.soteria.propagation.cache-max-size";
+
+	public static final String PROPAGATION_EXPIRY_MARGIN = "keycloak.soteria.propagation.expiry-margin-seconds";
+
+	public static final String PROPAGATION_PASS_THROUGH = "keycloak.soteria.propagation.pass-through";
+
+	public static final String PUBLIC_PATHS = "keycloak.soteria.public-paths";
+
+	public static final String REVOCATION_CLEANUP_INTERVAL = "keycloak.soteria.revocation.cleanup-interval-seconds";
+
+	public static final String REVOCATION_ENABLED = "keycloak.soteria.revocation.enabled";
+
+	public static final String REVOCATION_EXPECTED_JTIS = "keycloak.soteria.revocation.expected-jtis";
+
+	public static final String ROLES_CLIENT_PREFIX = "keycloak.soteria.roles.client-prefix";
+
+	public static final String ROLES_CLIENTS = "keycloak.soteria.roles.clients";
+
+	public static final String ROLES_EXCLUDE = "keycloak.soteria.roles.exclude";
+
+	public static final String ROLES_REALM_ENABLED = "keycloak.soteria.roles.realm-enabled";
+
+	public static final String ROLES_REALM_PREFIX = "keycloak.soteria.roles.realm-prefix";
+
+	public static final String ROLES_RENAME = "keycloak.soteria.roles.rename";
+
+	public static final String SESSION_REFRESH_ACTIVE_WINDOW = "keycloak.soteria.session-refresh.active-window-seconds";
+
+	public static final String SESSION_REFRESH_ENABLED = "keycloak.soteria.session-refresh.enabled";
+
+	public static final String SESSION_REFRESH_JITTER = "keycloak.soteria.session-refresh.jitter-seconds";
+
+	public static final String SESSION_REFRESH_LEAD = "keycloak.soteria.session-refresh.lead-seconds";
+
+	public static final String SESSION_REFRESH_MAX_CONCURRENCY = "keycloak.soteria.session-refresh.max-concurrency";
+
+	public static final String SESSION_REFRESH_MAX_SESSIONS = "keycloak.soteria.session-refresh.max-sessions";
+
+	public static final String SESSION_REFRESH_SCAN_INTERVAL = "keycloak.soteria.session-refresh.scan-interval-seconds";
+
+	public static final String TENANT_CONFIG_SUFFIX = ".config";
+
+	public static final String TENANT_HOSTS_SUFFIX = ".hosts";
+
+	public static final String TENANT_PATH_PREFIXES_SUFFIX = ".path-prefixes";
+
+	public static final String TENANT_PREFIX = "keycloak.soteria.tenant.";
+
+	public static final String TENANTS = "keycloak.soteria.tenants";
+
+	public static final String TENANTS_RESOLUTION = "keycloak.soteria.tenants.resolution";
+
+	public static final String TOKEN_CACHE_CLOCK_SKEW = "keycloak.soteria.token-cache.clock-skew-seconds";
+
+	public static final String TOKEN_CACHE_ENABLED = "keycloak.soteria.token-cache.enabled";
+
+	public static final String TOKEN_CACHE_MAX_SIZE = "keycloak.soteria.token-cache.max-size";
+
+	public static final String TOKEN_CACHE_MAX_TTL = "keycloak.soteria.token-cache.max-ttl-seconds";
+
+	public static final String TOKEN_CACHE_SHARED_ENABLED = "keycloak.soteria.token-cache.shared-enabled";
+
+	public static final String VALIDATION_MODE = "keycloak.soteria.validation-mode";
+
+	public static final String VALIDATION_MODE_INTROSPECTION = "introspection";
+
+	public static final String VALIDATION_MODE_LOCAL = "local";
+
+	public static final String VALIDATION_THREADS = "keycloak.soteria.validation.threads";
+
+	public static final String VALIDATION_TIMEOUT = "keycloak.soteria.validation.timeout-millis";
+
 }
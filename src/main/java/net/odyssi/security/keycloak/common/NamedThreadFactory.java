@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} creating named daemon threads for the library's
+ * background work
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	private final String prefix;
+
+	/**
+	 * Creates a new thread factory
+	 *
+	 * @param prefix The thread name prefix
+	 */
+	public NamedThreadFactory(String prefix) {
+		super();
+		this.prefix = prefix;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, this.prefix + "-" + this.count.incrementAndGet()); //$NON-NLS-1$
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.audit;
+
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+/**
+ * The outcomes of an authentication recorded in the audit log
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public enum AuditOutcome {
+
+	/**
+	 * The caller was redirected to KeyCloak to log in
+	 */
+	CHALLENGED,
+
+	/**
+	 * The authentication could not be completed, e.g. because the deployment is
+	 * not configured or KeyCloak returned no challenge
+	 */
+	FAILED,
+
+	/**
+	 * The credential was found to be invalid
+	 */
+	INVALID,
+
+	/**
+	 * The credential could not be validated
+	 */
+	NOT_VALIDATED,
+
+	/**
+	 * The request was rejected before its credential was validated, e.g. by the
+	 * bearer token pre-check
+	 */
+	REJECTED,
+
+	/**
+	 * The caller was authenticated
+	 */
+	SUCCESS;
+
+	/**
+	 * Returns the outcome of a credential validation
+	 *
+	 * @param status The validation status
+	 * @return The audit outcome
+	 */
+	public static AuditOutcome of(CredentialValidationResult.Status status) {
+		switch (status) {
+		case VALID:
+			return SUCCESS;
+		case INVALID:
+			return INVALID;
+		default:
+			return NOT_VALIDATED;
+		}
+	}
+
+}
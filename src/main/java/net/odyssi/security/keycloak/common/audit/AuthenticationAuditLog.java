@@ -0,0 +1,401 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.NamedThreadFactory;
+
+/**
+ * An audit trail of authentication outcomes, written off the request thread.
+ * Request threads claim a slot in a preallocated ring buffer with a single
+ * compare-and-set, fill it in and publish it; they never block, lock or touch
+ * the file system. A single writer thread drains published slots in batches to
+ * a {@link RollingAuditFile}, one tab-separated line per record:
+ *
+ * <pre>
+ * timestamp-millis  outcome  latency-micros  source-address  issuer  subject
+ * </pre>
+ *
+ * Successful outcomes may be sampled, so that only one in every
+ * <i>n</i> is recorded. When the buffer is full, records are dropped and
+ * counted rather than slowing down requests.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class AuthenticationAuditLog implements AuthenticationAuditLogMXBean {
+
+	/**
+	 * A preallocated ring buffer slot. Its fields are written by the claiming
+	 * request thread before the slot is published, and read by the writer thread
+	 * after.
+	 */
+	private static final class AuditSlot {
+
+		private String issuer;
+
+		private long latencyNanos;
+
+		private AuditOutcome outcome;
+
+		private String sourceAddress;
+
+		private String subject;
+
+		private long timestamp;
+	}
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	public static final String DEFAULT_FILE = "keycloak-soteria-audit.log"; //$NON-NLS-1$
+
+	public static final long DEFAULT_MAX_FILE_BYTES = 10L * 1024 * 1024;
+
+	public static final int DEFAULT_MAX_FILES = 10;
+
+	public static final String DEFAULT_OBJECT_NAME = "net.odyssi.security.keycloak:type=AuthenticationAudit";
+
+	/**
+	 * The time the writer waits before polling an empty buffer again
+	 */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(AuthenticationAuditLog.class);
+
+	/**
+	 * Appends a field value, replacing characters that would break the line
+	 * format
+	 *
+	 * @param line  The line being built
+	 * @param value The value, or <code>null</code>
+	 */
+	private static void appendField(StringBuilder line, String value) {
+		line.append('\t');
+		if (value == null || value.isEmpty()) {
+			line.append('-');
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			line.append(c < ' ' || c == 0x7f ? '?' : c);
+		}
+	}
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * The next sequence to be claimed by a request thread
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	@Inject
+	private Configuration configuration = null;
+
+	/**
+	 * The next sequence to be read by the writer. Slots before it are free.
+	 */
+	private volatile long consumed = 0;
+
+	private final LongAdder dropped = new LongAdder();
+
+	private boolean enabled = false;
+
+	private RollingAuditFile file = null;
+
+	private int mask = 0;
+
+	/**
+	 * The name the MXBean is registered under, or <code>null</code> if it is not
+	 * registered
+	 */
+	private ObjectName objectName = null;
+
+	/**
+	 * The sequence last published in each slot
+	 */
+	private AtomicLongArray published = null;
+
+	private final LongAdder sampledOut = new LongAdder();
+
+	private AuditSlot[] slots = null;
+
+	/**
+	 * One in this many successful outcomes is recorded
+	 */
+	private int successSampling = 1;
+
+	private Thread worker = null;
+
+	private final LongAdder written = new LongAdder();
+
+	/**
+	 * Performs object destruction. Records already published are written before
+	 * the writer stops.
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.worker != null) {
+			this.worker.interrupt();
+			try {
+				this.worker.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch (JMException e) {
+				logger.warn("destroy() - Unable to unregister audit log MXBean - objectName=" + this.objectName, e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Writes the published records following a sequence, up to the batch size
+	 *
+	 * @param next The next sequence to read
+	 * @param line The buffer the batch is formatted into
+	 * @return The next sequence to read after the batch
+	 */
+	private long drain(long next, StringBuilder line) {
+		int count = 0;
+		while (count < this.batchSize) {
+			int index = (int) next & this.mask;
+			if (this.published.get(index) != next) {
+				break;
+			}
+
+			AuditSlot slot = this.slots[index];
+			line.append(slot.timestamp).append('\t').append(slot.outcome.name()).append('\t')
+					.append(TimeUnit.NANOSECONDS.toMicros(slot.latencyNanos));
+			appendField(line, slot.sourceAddress);
+			appendField(line, slot.issuer);
+			appendField(line, slot.subject);
+			line.append('\n');
+
+			next++;
+			count++;
+		}
+
+		if (count > 0) {
+			// The slots are free again once formatted, before the file is written
+			this.consumed = next;
+
+			byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+			line.setLength(0);
+			try {
+				this.file.write(bytes, bytes.length);
+				this.written.add(count);
+			} catch (IOException e) {
+				this.dropped.add(count);
+				logger.error("drain(long, StringBuilder) - Unable to write audit records - count=" + count, e); //$NON-NLS-1$
+			}
+		}
+		return next;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.audit.AuthenticationAuditLogMXBean#
+	 * getDroppedCount()
+	 */
+	@Override
+	public long getDroppedCount() {
+		return this.dropped.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.audit.AuthenticationAuditLogMXBean#
+	 * getPendingCount()
+	 */
+	@Override
+	public long getPendingCount() {
+		return this.claimed.get() - this.consumed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.audit.AuthenticationAuditLogMXBean#
+	 * getSampledOutCount()
+	 */
+	@Override
+	public long getSampledOutCount() {
+		return this.sampledOut.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.audit.AuthenticationAuditLogMXBean#
+	 * getWrittenCount()
+	 */
+	@Override
+	public long getWrittenCount() {
+		return this.written.sum();
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		if (this.configuration.getBoolean(Constants.AUDIT_ENABLED, false)) {
+			String path = this.configuration.getString(Constants.AUDIT_FILE, DEFAULT_FILE);
+			long maxFileBytes = this.configuration.getLong(Constants.AUDIT_MAX_FILE_BYTES, DEFAULT_MAX_FILE_BYTES);
+			int maxFiles = this.configuration.getInt(Constants.AUDIT_MAX_FILES, DEFAULT_MAX_FILES);
+			try {
+				this.file = new RollingAuditFile(new File(path), maxFileBytes, maxFiles);
+			} catch (IOException e) {
+				logger.error("init() - Unable to open audit file.  Auditing disabled - file=" + path, e); //$NON-NLS-1$
+			}
+		}
+
+		if (this.file != null) {
+			int capacity = Math.max(2, this.configuration.getInt(Constants.AUDIT_CAPACITY, DEFAULT_CAPACITY));
+			capacity = Integer.highestOneBit(capacity - 1) << 1;
+			this.slots = new AuditSlot[capacity];
+			this.published = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				this.slots[i] = new AuditSlot();
+				this.published.set(i, -1);
+			}
+			this.mask = capacity - 1;
+			this.batchSize = Math.max(1, this.configuration.getInt(Constants.AUDIT_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+			this.successSampling = Math.max(1, this.configuration.getInt(Constants.AUDIT_SUCCESS_SAMPLING, 1));
+
+			this.worker = new NamedThreadFactory("keycloak-soteria-audit").newThread(this::run); //$NON-NLS-1$
+			this.worker.start();
+			this.enabled = true;
+
+			String name = this.configuration.getString(Constants.AUDIT_JMX_NAME, DEFAULT_OBJECT_NAME);
+			try {
+				ObjectName objectName = new ObjectName(name);
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+				this.objectName = objectName;
+			} catch (JMException e) {
+				logger.warn("init() - Unable to register audit log MXBean - objectName=" + name, e); //$NON-NLS-1$
+			}
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Authentication audit log initialized - enabled=" + this.enabled + ", capacity=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ (this.slots == null ? 0 : this.slots.length) + ", successSampling=" + this.successSampling); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Records an authentication outcome. Returns immediately; the record is
+	 * dropped if the ring buffer is full.
+	 *
+	 * @param outcome       The outcome
+	 * @param subject       The caller's token subject, or <code>null</code>
+	 * @param issuer        The caller's token issuer, or <code>null</code>
+	 * @param sourceAddress The client address, or <code>null</code>
+	 * @param startNanos    The {@link System#nanoTime()} the authentication
+	 *                      started at
+	 */
+	public void record(AuditOutcome outcome, String subject, String issuer, String sourceAddress, long startNanos) {
+		if (!this.enabled) {
+			return;
+		}
+		if (outcome == AuditOutcome.SUCCESS && this.successSampling > 1
+				&& ThreadLocalRandom.current().nextInt(this.successSampling) != 0) {
+			this.sampledOut.increment();
+			return;
+		}
+
+		long latencyNanos = System.nanoTime() - startNanos;
+		long sequence;
+		do {
+			sequence = this.claimed.get();
+			if (sequence - this.consumed >= this.slots.length) {
+				this.dropped.increment();
+				return;
+			}
+		} while (!this.claimed.compareAndSet(sequence, sequence + 1));
+
+		int index = (int) sequence & this.mask;
+		AuditSlot slot = this.slots[index];
+		slot.timestamp = System.currentTimeMillis();
+		slot.outcome = outcome;
+		slot.latencyNanos = latencyNanos;
+		slot.sourceAddress = sourceAddress;
+		slot.issuer = issuer;
+		slot.subject = subject;
+		this.published.lazySet(index, sequence);
+	}
+
+	/**
+	 * Writes published records until interrupted, then writes any records left
+	 * and closes the file
+	 */
+	private void run() {
+		StringBuilder line = new StringBuilder(this.batchSize * 128);
+		long next = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			long drained = drain(next, line);
+			if (drained == next) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+			next = drained;
+		}
+
+		long drained;
+		while ((drained = drain(next, line)) != next) {
+			next = drained;
+		}
+
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			logger.warn("run() - Unable to close audit file", e); //$NON-NLS-1$
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.audit;
+
+/**
+ * The JMX management interface of the {@link AuthenticationAuditLog}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public interface AuthenticationAuditLogMXBean {
+
+	/**
+	 * Returns the number of records dropped because the ring buffer was full or
+	 * the audit file could not be written
+	 *
+	 * @return The dropped record count
+	 */
+	long getDroppedCount();
+
+	/**
+	 * Returns the number of records waiting to be written
+	 *
+	 * @return The pending record count
+	 */
+	long getPendingCount();
+
+	/**
+	 * Returns the number of successful outcomes skipped by sampling
+	 *
+	 * @return The sampled-out record count
+	 */
+	long getSampledOutCount();
+
+	/**
+	 * Returns the number of records written to the audit file
+	 *
+	 * @return The written record count
+	 */
+	long getWrittenCount();
+
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.audit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An append-only file that is rolled over once it reaches a maximum size. The
+ * current file is renamed with the suffix <code>.1</code>, older files are
+ * shifted up by one, and the oldest file beyond the retained count is deleted.
+ * Not thread-safe; written by the audit log writer thread only.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class RollingAuditFile implements Closeable {
+
+	private final File file;
+
+	private final long maxBytes;
+
+	private final int maxFiles;
+
+	private OutputStream out = null;
+
+	private long size = 0;
+
+	/**
+	 * Opens a rolling file, appending to it if it exists
+	 *
+	 * @param file     The file
+	 * @param maxBytes The size at which the file is rolled over
+	 * @param maxFiles The number of rolled-over files retained
+	 * @throws IOException If the file cannot be opened
+	 */
+	public RollingAuditFile(File file, long maxBytes, int maxFiles) throws IOException {
+		super();
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.maxFiles = Math.max(1, maxFiles);
+		open();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.out != null) {
+			this.out.close();
+			this.out = null;
+		}
+	}
+
+	private File getRolledFile(int index) {
+		return new File(this.file.getPath() + "." + index); //$NON-NLS-1$
+	}
+
+	private void open() throws IOException {
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Unable to create audit directory " + parent); //$NON-NLS-1$
+		}
+
+		this.out = new FileOutputStream(this.file, true);
+		this.size = this.file.length();
+	}
+
+	/**
+	 * Rolls the file over, shifting the retained files and starting a new one
+	 *
+	 * @throws IOException If the new file cannot be opened
+	 */
+	private void roll() throws IOException {
+		close();
+
+		File oldest = getRolledFile(this.maxFiles);
+		if (oldest.exists()) {
+			oldest.delete();
+		}
+		for (int i = this.maxFiles - 1; i >= 1; i--) {
+			File rolled = getRolledFile(i);
+			if (rolled.exists()) {
+				rolled.renameTo(getRolledFile(i + 1));
+			}
+		}
+		this.file.renameTo(getRolledFile(1));
+
+		open();
+	}
+
+	/**
+	 * Appends bytes to the file, rolling it over first if they would take it
+	 * past its maximum size
+	 *
+	 * @param bytes  The bytes
+	 * @param length The number of bytes to write
+	 * @throws IOException If the bytes cannot be written
+	 */
+	public void write(byte[] bytes, int length) throws IOException {
+		if (this.out == null) {
+			open();
+		}
+		if (this.size > 0 && this.size + length > this.maxBytes) {
+			roll();
+		}
+
+		this.out.write(bytes, 0, length);
+		this.size += length;
+	}
+
+}
@@ -0,0 +1,294 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+import org.apache.log4j.Logger;
+import org.keycloak.adapters.spi.AuthOutcome;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Records the latency of each {@link AuthenticationStage} and counts
+ * authentication outcomes. Latencies are kept in lock-free
+ * {@link LatencyHistogram}s and counts in {@link LongAdder}s, so recording
+ * takes no locks and costs nothing while no requests are made. The metrics are
+ * exposed as a JMX MXBean, and are forwarded to any {@link MetricsRegistry}
+ * implementations found on the classpath.
+ *
+ * <p>
+ * Stages are timed with {@link #start()} and
+ * {@link #recordStage(AuthenticationStage, long)}. When metrics are disabled,
+ * {@link #start()} returns <code>0</code> and nothing is recorded.
+ * </p>
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+@ApplicationScoped
+public class AuthenticationMetrics implements AuthenticationMetricsMXBean {
+
+	public static final String DEFAULT_OBJECT_NAME = "net.odyssi.security.keycloak:type=AuthenticationMetrics";
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = Logger.getLogger(AuthenticationMetrics.class);
+
+	private static LongAdder[] adders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		for (int i = 0; i < size; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static Map<String, Long> counts(Enum<?>[] keys, LongAdder[] adders) {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (Enum<?> key : keys) {
+			counts.put(key.name(), adders[key.ordinal()].sum());
+		}
+		return counts;
+	}
+
+	private final LongAdder[] authOutcomes = adders(AuthOutcome.values().length);
+
+	@Inject
+	private Configuration configuration = null;
+
+	private boolean enabled = true;
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[AuthenticationStage.values().length];
+
+	/**
+	 * The name the MXBean is registered under, or <code>null</code> if it is not
+	 * registered
+	 */
+	private ObjectName objectName = null;
+
+	private MetricsRegistry[] registries = new MetricsRegistry[0];
+
+	private final LongAdder[] validationStatuses = adders(CredentialValidationResult.Status.values().length);
+
+	public AuthenticationMetrics() {
+		super();
+		for (int i = 0; i < this.histograms.length; i++) {
+			this.histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Performs object destruction
+	 */
+	@PreDestroy
+	protected void destroy() {
+		if (this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch (JMException e) {
+				logger.warn("destroy() - Unable to unregister metrics MXBean - objectName=" + this.objectName, e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.metrics.AuthenticationMetricsMXBean#
+	 * getAuthOutcomes()
+	 */
+	@Override
+	public Map<String, Long> getAuthOutcomes() {
+		return counts(AuthOutcome.values(), this.authOutcomes);
+	}
+
+	/**
+	 * Returns the histogram of a stage
+	 *
+	 * @param stage The stage
+	 * @return The histogram
+	 */
+	public LatencyHistogram getHistogram(AuthenticationStage stage) {
+		return this.histograms[stage.ordinal()];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.odyssi.security.keycloak.common.metrics.AuthenticationMetricsMXBean#
+	 * getStages()
+	 */
+	@Override
+	public List<StageStatistics> getStages() {
+		List<StageStatistics> stages = new ArrayList<>();
+		for (AuthenticationStage stage : AuthenticationStage.values()) {
+			stages.add(StageStatistics.of(stage, getHistogram(stage)));
+		}
+		return stages;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.odyssi.security.keycloak.common.metrics.AuthenticationMetricsMXBean#
+	 * getValidationStatuses()
+	 */
+	@Override
+	public Map<String, Long> getValidationStatuses() {
+		return counts(CredentialValidationResult.Status.values(), this.validationStatuses);
+	}
+
+	/**
+	 * Performs object initialization
+	 */
+	@PostConstruct
+	protected void init() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - start"); //$NON-NLS-1$
+		}
+
+		this.enabled = this.configuration.getBoolean(Constants.METRICS_ENABLED, true);
+
+		List<MetricsRegistry> found = new ArrayList<>();
+		if (this.enabled) {
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
+			for (MetricsRegistry registry : ServiceLoader.load(MetricsRegistry.class,
+					loader != null ? loader : AuthenticationMetrics.class.getClassLoader())) {
+				found.add(registry);
+			}
+		}
+		this.registries = found.toArray(new MetricsRegistry[0]);
+
+		if (this.enabled && this.configuration.getBoolean(Constants.METRICS_JMX_ENABLED, true)) {
+			String name = this.configuration.getString(Constants.METRICS_JMX_NAME, DEFAULT_OBJECT_NAME);
+			try {
+				ObjectName objectName = new ObjectName(name);
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(this, objectName);
+				this.objectName = objectName;
+			} catch (JMException e) {
+				logger.warn("init() - Unable to register metrics MXBean - objectName=" + name, e); //$NON-NLS-1$
+			}
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("init() - Authentication metrics initialized - enabled=" + this.enabled + ", objectName=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ this.objectName + ", registries=" + found); //$NON-NLS-1$
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("init() - end"); //$NON-NLS-1$
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.odyssi.security.keycloak.common.metrics.AuthenticationMetricsMXBean#
+	 * isEnabled()
+	 */
+	@Override
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Counts the outcome of a code grant authentication
+	 *
+	 * @param outcome The outcome
+	 */
+	public void recordAuthOutcome(AuthOutcome outcome) {
+		if (!this.enabled || outcome == null) {
+			return;
+		}
+
+		this.authOutcomes[outcome.ordinal()].increment();
+		for (MetricsRegistry registry : this.registries) {
+			registry.recordAuthOutcome(outcome);
+		}
+	}
+
+	/**
+	 * Records the latency of a stage started with {@link #start()}
+	 *
+	 * @param stage      The stage
+	 * @param startNanos The value returned by {@link #start()}
+	 */
+	public void recordStage(AuthenticationStage stage, long startNanos) {
+		if (startNanos == 0) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - startNanos;
+		this.histograms[stage.ordinal()].record(nanos);
+		for (MetricsRegistry registry : this.registries) {
+			registry.recordStage(stage, nanos);
+		}
+	}
+
+	/**
+	 * Counts the status of a credential validation
+	 *
+	 * @param status The status
+	 */
+	public void recordValidationStatus(CredentialValidationResult.Status status) {
+		if (!this.enabled) {
+			return;
+		}
+
+		this.validationStatuses[status.ordinal()].increment();
+		for (MetricsRegistry registry : this.registries) {
+			registry.recordValidationStatus(status);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.odyssi.security.keycloak.common.metrics.AuthenticationMetricsMXBean#
+	 * reset()
+	 */
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : this.histograms) {
+			histogram.reset();
+		}
+		for (LongAdder adder : this.authOutcomes) {
+			adder.reset();
+		}
+		for (LongAdder adder : this.validationStatuses) {
+			adder.reset();
+		}
+	}
+
+	/**
+	 * Starts timing a stage
+	 *
+	 * @return The start time, or <code>0</code> if metrics are disabled
+	 */
+	public long start() {
+		return this.enabled ? System.nanoTime() : 0;
+	}
+
+}
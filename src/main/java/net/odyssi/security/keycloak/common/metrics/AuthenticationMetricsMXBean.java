@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JMX management interface of the {@link AuthenticationMetrics}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public interface AuthenticationMetricsMXBean {
+
+	/**
+	 * Returns the number of code grant authentications by KeyCloak
+	 * <code>AuthOutcome</code>
+	 *
+	 * @return The counts, by outcome name
+	 */
+	Map<String, Long> getAuthOutcomes();
+
+	/**
+	 * Returns the latency of every authentication stage
+	 *
+	 * @return The stage statistics
+	 */
+	List<StageStatistics> getStages();
+
+	/**
+	 * Returns the number of credential validations by result status
+	 *
+	 * @return The counts, by status name
+	 */
+	Map<String, Long> getValidationStatuses();
+
+	/**
+	 * Returns true if metrics are being recorded
+	 *
+	 * @return The status
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Clears all recorded metrics
+	 */
+	void reset();
+
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.metrics;
+
+/**
+ * The timed stages of an authentication
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public enum AuthenticationStage {
+
+	/**
+	 * The exchange of an authorization code, or the restoration of a session,
+	 * by the KeyCloak request authenticator
+	 */
+	CODE_EXCHANGE,
+
+	/**
+	 * The notification of the container about the authentication result
+	 */
+	CONTAINER_LOGIN,
+
+	/**
+	 * The lookup, or first build, of the KeyCloak deployment
+	 */
+	DEPLOYMENT_LOOKUP,
+
+	/**
+	 * The parsing and pre-check of the <code>Authorization</code> header
+	 */
+	HEADER_PARSING,
+
+	/**
+	 * The construction of the caller principal from an access token
+	 */
+	PRINCIPAL_BUILD,
+
+	/**
+	 * The verification of a bearer token's signature and claims
+	 */
+	SIGNATURE_VERIFICATION,
+
+	/**
+	 * The dispatch of the authentication success event to its observers
+	 */
+	SUCCESS_EVENT
+
+}
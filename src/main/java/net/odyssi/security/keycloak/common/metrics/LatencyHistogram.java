@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds. Values are counted in
+ * log-linear buckets: each power of two is split into eight sub-buckets, so
+ * quantiles are reported with a relative error below 12.5% while recording is
+ * a handful of atomic increments on a fixed array.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	/**
+	 * Returns the bucket a value is counted in
+	 *
+	 * @param value The value
+	 * @return The bucket index
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int mantissa = (int) (value >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKETS - 1;
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+	}
+
+	/**
+	 * Returns the largest value counted in a bucket
+	 *
+	 * @param bucket The bucket index
+	 * @return The value
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Returns the number of recorded values
+	 *
+	 * @return The count
+	 */
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * Returns the largest recorded value
+	 *
+	 * @return The maximum, in nanoseconds
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values
+	 *
+	 * @return The mean, in nanoseconds
+	 */
+	public long getMean() {
+		long n = this.count.sum();
+		return n == 0 ? 0 : this.sum.sum() / n;
+	}
+
+	/**
+	 * Returns an upper bound of a quantile of the recorded values
+	 *
+	 * @param quantile The quantile, between 0 and 1
+	 * @return The quantile value, in nanoseconds
+	 */
+	public long getQuantile(double quantile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Records a value
+	 *
+	 * @param nanos The value, in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		this.buckets.incrementAndGet(bucket(value));
+		this.count.increment();
+		this.sum.add(value);
+		this.max.accumulate(value);
+	}
+
+	/**
+	 * Clears the recorded values. Values recorded concurrently may be partially
+	 * cleared.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.reset();
+		this.sum.reset();
+		this.max.reset();
+	}
+
+}
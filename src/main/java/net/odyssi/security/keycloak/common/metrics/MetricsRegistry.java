@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.metrics;
+
+import java.util.ServiceLoader;
+
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+import org.keycloak.adapters.spi.AuthOutcome;
+
+/**
+ * A service provider interface for forwarding authentication metrics to an
+ * external metrics library, such as Micrometer or Dropwizard Metrics.
+ * Implementations are discovered with {@link ServiceLoader}, by listing them in
+ * a
+ * <code>META-INF/services/net.odyssi.security.keycloak.common.metrics.MetricsRegistry</code>
+ * resource. Methods are called on request threads and must not block.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public interface MetricsRegistry {
+
+	/**
+	 * Records the outcome of a code grant authentication
+	 *
+	 * @param outcome The outcome
+	 */
+	void recordAuthOutcome(AuthOutcome outcome);
+
+	/**
+	 * Records the latency of an authentication stage
+	 *
+	 * @param stage The stage
+	 * @param nanos The latency, in nanoseconds
+	 */
+	void recordStage(AuthenticationStage stage, long nanos);
+
+	/**
+	 * Records the status of a credential validation
+	 *
+	 * @param status The status
+	 */
+	void recordValidationStatus(CredentialValidationResult.Status status);
+
+}
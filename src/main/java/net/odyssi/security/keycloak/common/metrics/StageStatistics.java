@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the latency of one {@link AuthenticationStage}, as exposed
+ * through JMX
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class StageStatistics {
+
+	/**
+	 * Takes a snapshot of a stage's histogram
+	 *
+	 * @param stage     The stage
+	 * @param histogram The stage's histogram
+	 * @return The snapshot
+	 */
+	public static StageStatistics of(AuthenticationStage stage, LatencyHistogram histogram) {
+		return new StageStatistics(stage.name(), histogram.getCount(), histogram.getMean(),
+				histogram.getQuantile(0.5), histogram.getQuantile(0.99), histogram.getQuantile(0.999),
+				histogram.getMax());
+	}
+
+	private final long count;
+
+	private final long maxNanos;
+
+	private final long meanNanos;
+
+	private final long p50Nanos;
+
+	private final long p999Nanos;
+
+	private final long p99Nanos;
+
+	private final String stage;
+
+	@ConstructorProperties({ "stage", "count", "meanNanos", "p50Nanos", "p99Nanos", "p999Nanos", "maxNanos" })
+	public StageStatistics(String stage, long count, long meanNanos, long p50Nanos, long p99Nanos, long p999Nanos,
+			long maxNanos) {
+		super();
+		this.stage = stage;
+		this.count = count;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public long getMaxNanos() {
+		return this.maxNanos;
+	}
+
+	public long getMeanNanos() {
+		return this.meanNanos;
+	}
+
+	public long getP50Nanos() {
+		return this.p50Nanos;
+	}
+
+	public long getP999Nanos() {
+		return this.p999Nanos;
+	}
+
+	public long getP99Nanos() {
+		return this.p99Nanos;
+	}
+
+	public String getStage() {
+		return this.stage;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "StageStatistics [stage=" + this.stage + ", count=" + this.count + ", meanNanos=" + this.meanNanos
+				+ ", p50Nanos=" + this.p50Nanos + ", p99Nanos=" + this.p99Nanos + ", p999Nanos=" + this.p999Nanos
+				+ ", maxNanos=" + this.maxNanos + "]";
+	}
+
+}
@@ -3,18 +3,27 @@
  */
 package net.odyssi.security.keycloak.common.model;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.security.Principal;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.security.enterprise.CallerPrincipal;
 
+import net.odyssi.security.keycloak.common.Constants;
+
 /**
  * A Java EE {@link Principal} containing information obtained from a JSON Web
- * Token (JWT) used for authentication
+ * Token (JWT) used for authentication. The claims and roles decoded from the
+ * token are shared rather than copied. The claims are exposed as a read-only
+ * view, and the roles as a canonical {@link RoleSet}.
+ * Two principals are equal if they have the same issuer and subject.
+ * Principals are serialized in the compact form written by the
+ * {@link JWTPrincipalCodec}.
  *
  * @author Steven D. Nakhla
  *
@@ -44,25 +53,46 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 
 		private JWTPrincipal principal = null;
 
+		/**
+		 * Whether the principal's role set was created by this builder, and may
+		 * therefore be added to
+		 */
+		private boolean rolesOwned = false;
+
 		private JWTPrincipalBuilder() {
 		}
 
 		public JWTPrincipalBuilder addRole(String role) {
+			if (!this.rolesOwned) {
+				this.principal.roles = this.principal.roles == null ? new LinkedHashSet<>()
+						: new LinkedHashSet<>(this.principal.roles);
+				this.rolesOwned = true;
+			}
 			this.principal.roles.add(role);
 			return this;
 		}
 
 		/**
-		 * Returns the {@link JWTPrincipal}
+		 * Returns the {@link JWTPrincipal}. Its roles are replaced with the
+		 * canonical {@link RoleSet} for them.
 		 *
 		 * @return The JWT principal
 		 */
 		public JWTPrincipal build() {
+			this.principal.roles = RoleSet.of(this.principal.roles);
+			this.rolesOwned = false;
 			return this.principal;
 		}
 
+		/**
+		 * Sets the claims. The map is held by reference, not copied, and must not
+		 * be modified afterwards.
+		 *
+		 * @param claims The claims
+		 * @return The principal builder
+		 */
 		public JWTPrincipalBuilder setClaims(Map<String, Object> claims) {
-			this.principal.claims = new HashMap<>(claims);
+			this.principal.claims = claims;
 			return this;
 		}
 
@@ -101,15 +131,39 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 			return this;
 		}
 
+		/**
+		 * Sets the roles. The set is not copied; the roles are interned into a
+		 * shared {@link RoleSet} when the principal is built.
+		 *
+		 * @param roles The roles
+		 * @return The principal builder
+		 */
 		public JWTPrincipalBuilder setRoles(Set<String> roles) {
-			this.principal.roles = new LinkedHashSet<>(roles);
+			this.principal.roles = roles;
+			this.rolesOwned = false;
 			return this;
 		}
 	}
 
+	/**
+	 * Whether principals are serialized in the compact form written by the
+	 * {@link JWTPrincipalCodec}
+	 */
+	private static final boolean COMPACT_SERIALIZATION = Boolean
+			.parseBoolean(System.getProperty(Constants.PRINCIPAL_COMPACT_SERIALIZATION, "true")); //$NON-NLS-1$
+
 	private static final long serialVersionUID = 993827539148333474L;
 
-	private Map<String, Object> claims = new HashMap<>();
+	/**
+	 * The claims as decoded from the token. The map is shared with the token
+	 * rather than copied.
+	 */
+	private Map<String, Object> claims = null;
+
+	/**
+	 * The read-only view of the claims, created on first use
+	 */
+	private transient Map<String, Object> claimsView = null;
 
 	private String emailAddress = null;
 
@@ -119,13 +173,23 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 
 	private String givenName = null;
 
+	/**
+	 * The cached hash code, or <code>0</code> if it has not been computed yet
+	 */
+	private transient int hash = 0;
+
 	private String identifier = null;
 
 	private String issuer = null;
 
 	private String loginName = null;
 
-	private Set<String> roles = new LinkedHashSet<>();
+	/**
+	 * The roles. Once the principal is built, this is the canonical
+	 * {@link RoleSet} shared by all principals with the same roles.
+	 */
+	private Set<String> roles = null;
+
 
 	public JWTPrincipal(String name) {
 		super(name);
@@ -148,74 +212,24 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 			return false;
 		}
 		JWTPrincipal other = (JWTPrincipal) obj;
-		if (this.claims == null) {
-			if (other.claims != null) {
-				return false;
-			}
-		} else if (!this.claims.equals(other.claims)) {
+		if (hashCode() != other.hashCode()) {
 			return false;
 		}
-		if (this.emailAddress == null) {
-			if (other.emailAddress != null) {
-				return false;
-			}
-		} else if (!this.emailAddress.equals(other.emailAddress)) {
-			return false;
-		}
-		if (this.familyName == null) {
-			if (other.familyName != null) {
-				return false;
-			}
-		} else if (!this.familyName.equals(other.familyName)) {
-			return false;
-		}
-		if (this.fullName == null) {
-			if (other.fullName != null) {
-				return false;
-			}
-		} else if (!this.fullName.equals(other.fullName)) {
-			return false;
-		}
-		if (this.givenName == null) {
-			if (other.givenName != null) {
-				return false;
-			}
-		} else if (!this.givenName.equals(other.givenName)) {
-			return false;
-		}
-		if (this.identifier == null) {
-			if (other.identifier != null) {
-				return false;
-			}
-		} else if (!this.identifier.equals(other.identifier)) {
-			return false;
-		}
-		if (this.loginName == null) {
-			if (other.loginName != null) {
-				return false;
-			}
-		} else if (!this.loginName.equals(other.loginName)) {
-			return false;
-		}
-		if (this.roles == null) {
-			if (other.roles != null) {
-				return false;
-			}
-		} else if (!this.roles.equals(other.roles)) {
-			return false;
-		}
-		if (this.issuer == null) {
-			if (other.issuer != null) {
-				return false;
-			}
-		} else if (!this.issuer.equals(other.issuer)) {
-			return false;
-		}
-		return true;
+		return Objects.equals(this.issuer, other.issuer) && Objects.equals(subject(), other.subject());
 	}
 
+	/**
+	 * Returns a read-only view of the claims. The view is created on first use.
+	 *
+	 * @return The claims
+	 */
 	public Map<String, Object> getClaims() {
-		return this.claims;
+		Map<String, Object> view = this.claimsView;
+		if (view == null) {
+			view = this.claims == null ? Collections.emptyMap() : Collections.unmodifiableMap(this.claims);
+			this.claimsView = view;
+		}
+		return view;
 	}
 
 	public String getEmailAddress() {
@@ -246,8 +260,13 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 		return this.loginName;
 	}
 
+	/**
+	 * Returns the roles, as an immutable {@link RoleSet}
+	 *
+	 * @return The roles
+	 */
 	public Set<String> getRoles() {
-		return this.roles;
+		return this.roles == null ? RoleSet.EMPTY : this.roles;
 	}
 
 	/*
@@ -257,20 +276,39 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + (this.claims == null ? 0 : this.claims.hashCode());
-		result = prime * result + (this.emailAddress == null ? 0 : this.emailAddress.hashCode());
-		result = prime * result + (this.familyName == null ? 0 : this.familyName.hashCode());
-		result = prime * result + (this.fullName == null ? 0 : this.fullName.hashCode());
-		result = prime * result + (this.givenName == null ? 0 : this.givenName.hashCode());
-		result = prime * result + (this.identifier == null ? 0 : this.identifier.hashCode());
-		result = prime * result + (this.loginName == null ? 0 : this.loginName.hashCode());
-		result = prime * result + (this.roles == null ? 0 : this.roles.hashCode());
-		result = prime * result + (this.issuer == null ? 0 : this.issuer.hashCode());
+		int result = this.hash;
+		if (result == 0) {
+			final int prime = 31;
+			result = 1;
+			result = prime * result + (this.issuer == null ? 0 : this.issuer.hashCode());
+			String subject = subject();
+			result = prime * result + (subject == null ? 0 : subject.hashCode());
+			this.hash = result;
+		}
 		return result;
 	}
 
+	/**
+	 * Returns true if the principal has a role. The check is a bit test against
+	 * the principal's {@link RoleSet}.
+	 *
+	 * @param role The role name
+	 * @return The status
+	 */
+	public boolean hasRole(String role) {
+		return getRoles().contains(role);
+	}
+
+	/**
+	 * Returns the value identifying the caller within the issuer: the subject,
+	 * or the principal name if the token carried no subject
+	 *
+	 * @return The subject
+	 */
+	private String subject() {
+		return this.identifier != null ? this.identifier : getName();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -284,4 +322,15 @@ public class JWTPrincipal extends CallerPrincipal implements Serializable {
 				+ this.issuer + "]";
 	}
 
+	/**
+	 * Replaces this principal with its compact serialized form, unless compact
+	 * serialization is disabled
+	 *
+	 * @return The object to serialize
+	 * @throws ObjectStreamException Never
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return COMPACT_SERIALIZATION ? new SerializedJWTPrincipal(this) : this;
+	}
+
 }
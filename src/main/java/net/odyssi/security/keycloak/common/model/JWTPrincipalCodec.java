@@ -0,0 +1,319 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.odyssi.security.keycloak.common.model.JWTPrincipal.JWTPrincipalBuilder;
+
+/**
+ * Encodes {@link JWTPrincipal} objects in a compact binary form, suitable for
+ * replicated HTTP sessions. Every string, whether a role name, a claim name or
+ * a claim value, is written once and then referenced by its index in a string
+ * table built as the principal is written. Numbers are written as variable
+ * length integers, and JSON claim values are tagged by type rather than
+ * described by class metadata.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class JWTPrincipalCodec {
+
+	private static final int TAG_DOUBLE = 5;
+
+	private static final int TAG_FALSE = 3;
+
+	private static final int TAG_INT = 6;
+
+	private static final int TAG_LIST = 8;
+
+	private static final int TAG_LONG = 7;
+
+	private static final int TAG_MAP = 9;
+
+	private static final int TAG_NULL = 0;
+
+	private static final int TAG_OBJECT = 10;
+
+	private static final int TAG_STRING = 1;
+
+	private static final int TAG_TRUE = 2;
+
+	/**
+	 * The version of the encoding
+	 */
+	private static final int VERSION = 1;
+
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+	/**
+	 * Reads a principal
+	 *
+	 * @param in The input to read from
+	 * @return The principal
+	 * @throws IOException            If the principal cannot be read
+	 * @throws ClassNotFoundException If a claim value's class cannot be found
+	 */
+	public static JWTPrincipal read(ObjectInput in) throws IOException, ClassNotFoundException {
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new StreamCorruptedException("Unsupported principal encoding version " + version); //$NON-NLS-1$
+		}
+
+		List<String> strings = new ArrayList<>();
+
+		JWTPrincipalBuilder builder = JWTPrincipalBuilder.getInstance(readString(in, strings));
+		builder.setEmailAddress(readString(in, strings)).setFamilyName(readString(in, strings))
+				.setFullName(readString(in, strings)).setGivenName(readString(in, strings))
+				.setIdentifier(readString(in, strings)).setIssuer(readString(in, strings))
+				.setLoginName(readString(in, strings));
+
+		int roleCount = readVarInt(in);
+		Set<String> roles = new LinkedHashSet<>(capacity(roleCount));
+		for (int i = 0; i < roleCount; i++) {
+			roles.add(readString(in, strings));
+		}
+		builder.setRoles(roles);
+
+		int claimCount = readVarInt(in);
+		Map<String, Object> claims = new HashMap<>(capacity(claimCount));
+		for (int i = 0; i < claimCount; i++) {
+			claims.put(readString(in, strings), readValue(in, strings));
+		}
+		builder.setClaims(claims);
+
+		return builder.build();
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String, ObjectOutput, Map)}
+	 */
+	private static String readString(ObjectInput in, List<String> strings) throws IOException {
+		int code = readVarInt(in);
+		if (code == 0) {
+			return null;
+		}
+		if ((code & 1) == 1) {
+			int index = code >>> 1;
+			if (index >= strings.size()) {
+				throw new StreamCorruptedException("Invalid string reference " + index); //$NON-NLS-1$
+			}
+			return strings.get(index);
+		}
+
+		byte[] bytes = new byte[(code >>> 1) - 1];
+		in.readFully(bytes);
+		String value = new String(bytes, StandardCharsets.UTF_8);
+		strings.add(value);
+		return value;
+	}
+
+	/**
+	 * Reads a claim value written by
+	 * {@link #writeValue(Object, ObjectOutput, Map)}
+	 */
+	private static Object readValue(ObjectInput in, List<String> strings) throws IOException, ClassNotFoundException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_STRING:
+			return readString(in, strings);
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_DOUBLE:
+			return in.readDouble();
+		case TAG_INT:
+			return (int) zigZagDecode(readVarLong(in));
+		case TAG_LONG:
+			return zigZagDecode(readVarLong(in));
+		case TAG_LIST: {
+			int size = readVarInt(in);
+			List<Object> list = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(readValue(in, strings));
+			}
+			return list;
+		}
+		case TAG_MAP: {
+			int size = readVarInt(in);
+			Map<String, Object> map = new LinkedHashMap<>(capacity(size));
+			for (int i = 0; i < size; i++) {
+				map.put(readString(in, strings), readValue(in, strings));
+			}
+			return map;
+		}
+		case TAG_OBJECT:
+			return in.readObject();
+		default:
+			throw new StreamCorruptedException("Invalid claim value tag " + tag); //$NON-NLS-1$
+		}
+	}
+
+	private static int readVarInt(ObjectInput in) throws IOException {
+		long value = readVarLong(in);
+		if (value > Integer.MAX_VALUE) {
+			throw new StreamCorruptedException("Invalid length " + value); //$NON-NLS-1$
+		}
+		return (int) value;
+	}
+
+	private static long readVarLong(ObjectInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Malformed variable length integer"); //$NON-NLS-1$
+	}
+
+	private static boolean stringKeys(Map<?, ?> map) {
+		for (Object key : map.keySet()) {
+			if (!(key instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a principal
+	 *
+	 * @param principal The principal
+	 * @param out       The output to write to
+	 * @throws IOException If the principal cannot be written
+	 */
+	public static void write(JWTPrincipal principal, ObjectOutput out) throws IOException {
+		out.writeByte(VERSION);
+
+		Map<String, Integer> strings = new HashMap<>();
+
+		writeString(principal.getName(), out, strings);
+		writeString(principal.getEmailAddress(), out, strings);
+		writeString(principal.getFamilyName(), out, strings);
+		writeString(principal.getFullName(), out, strings);
+		writeString(principal.getGivenName(), out, strings);
+		writeString(principal.getIdentifier(), out, strings);
+		writeString(principal.getIssuer(), out, strings);
+		writeString(principal.getLoginName(), out, strings);
+
+		Set<String> roles = principal.getRoles();
+		writeVarInt(roles.size(), out);
+		for (String role : roles) {
+			writeString(role, out, strings);
+		}
+
+		Map<String, Object> claims = principal.getClaims();
+		writeVarInt(claims.size(), out);
+		for (Map.Entry<String, Object> claim : claims.entrySet()) {
+			writeString(claim.getKey(), out, strings);
+			writeValue(claim.getValue(), out, strings);
+		}
+	}
+
+	/**
+	 * Writes a string. A string already in the table is written as a reference
+	 * to it; otherwise its UTF-8 bytes are written and it is added to the table.
+	 */
+	private static void writeString(String value, ObjectOutput out, Map<String, Integer> strings) throws IOException {
+		if (value == null) {
+			writeVarInt(0, out);
+			return;
+		}
+
+		Integer index = strings.get(value);
+		if (index != null) {
+			writeVarInt(index << 1 | 1, out);
+			return;
+		}
+
+		strings.put(value, strings.size());
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length + 1 << 1, out);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes a claim value. JSON values are tagged by type; any other value is
+	 * written with standard serialization.
+	 */
+	private static void writeValue(Object value, ObjectOutput out, Map<String, Integer> strings) throws IOException {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			writeString((String) value, out, strings);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(TAG_INT);
+			writeVarLong(zigZagEncode((Integer) value), out);
+		} else if (value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			writeVarLong(zigZagEncode((Long) value), out);
+		} else if (value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			out.writeByte(TAG_LIST);
+			writeVarInt(list.size(), out);
+			for (Object element : list) {
+				writeValue(element, out, strings);
+			}
+		} else if (value instanceof Map && stringKeys((Map<?, ?>) value)) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(TAG_MAP);
+			writeVarInt(map.size(), out);
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeString((String) entry.getKey(), out, strings);
+				writeValue(entry.getValue(), out, strings);
+			}
+		} else {
+			out.writeByte(TAG_OBJECT);
+			out.writeObject(value);
+		}
+	}
+
+	private static void writeVarInt(int value, ObjectOutput out) throws IOException {
+		writeVarLong(value & 0xFFFFFFFFL, out);
+	}
+
+	private static void writeVarLong(long value, ObjectOutput out) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long zigZagDecode(long value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private static long zigZagEncode(long value) {
+		return value << 1 ^ value >> 63;
+	}
+
+	private JWTPrincipalCodec() {
+	}
+}
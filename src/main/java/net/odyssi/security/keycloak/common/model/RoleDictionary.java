@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The application-wide dictionary of role names. Each distinct role name is
+ * assigned a small, stable index the first time it is seen, and a single
+ * canonical {@link String} instance is kept for it. Indexes are local to the
+ * JVM and are never serialized.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class RoleDictionary {
+
+	private static final ConcurrentMap<String, Integer> INDEXES = new ConcurrentHashMap<>();
+
+	/**
+	 * The number of registered role names
+	 */
+	private static int count = 0;
+
+	/**
+	 * The canonical role names, by index
+	 */
+	private static volatile String[] names = new String[64];
+
+	/**
+	 * Returns the index of a role name, or <code>-1</code> if it has not been
+	 * registered
+	 *
+	 * @param role The role name
+	 * @return The index
+	 */
+	public static int indexOf(String role) {
+		Integer index = INDEXES.get(role);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the canonical role name with the given index
+	 *
+	 * @param index The index
+	 * @return The role name
+	 */
+	public static String nameOf(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Registers a role name, returning its index
+	 *
+	 * @param role The role name
+	 * @return The index
+	 */
+	public static int register(String role) {
+		Integer index = INDEXES.get(role);
+		if (index != null) {
+			return index;
+		}
+
+		synchronized (RoleDictionary.class) {
+			index = INDEXES.get(role);
+			if (index == null) {
+				String[] current = names;
+				if (count == current.length) {
+					current = Arrays.copyOf(current, count * 2);
+				}
+				current[count] = role;
+				// Publish the name before its index becomes visible
+				names = current;
+				index = count++;
+				INDEXES.put(role, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Returns the number of registered role names
+	 *
+	 * @return The role count
+	 */
+	public static int size() {
+		return INDEXES.size();
+	}
+
+	private RoleDictionary() {
+	}
+}
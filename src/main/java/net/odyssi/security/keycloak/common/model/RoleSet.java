@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.model;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable set of role names, backed by a bitset over the
+ * {@link RoleDictionary}. Identical role sets are shared: {@link #of(Collection)}
+ * returns a canonical instance from an application-wide pool, so principals
+ * with the same roles hold a reference to the same set, and a membership check
+ * is a dictionary lookup and a bit test.
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public final class RoleSet extends AbstractSet<String> implements Serializable {
+
+	public static final RoleSet EMPTY = new RoleSet(new long[0], new String[0]);
+
+	/**
+	 * The maximum number of distinct role sets kept in the pool. Sets built once
+	 * the pool is full are still valid, but are not shared.
+	 */
+	public static final int MAX_POOLED_SETS = 10000;
+
+	private static final ConcurrentMap<RoleSet, RoleSet> POOL = new ConcurrentHashMap<>();
+
+	private static final long serialVersionUID = 4127416880335536741L;
+
+	/**
+	 * Returns the canonical role set containing the given roles
+	 *
+	 * @param roles The role names
+	 * @return The role set
+	 */
+	public static RoleSet of(Collection<String> roles) {
+		if (roles instanceof RoleSet) {
+			return (RoleSet) roles;
+		}
+		if (roles == null || roles.isEmpty()) {
+			return EMPTY;
+		}
+
+		long[] bits = new long[0];
+		int count = 0;
+		for (String role : roles) {
+			int index = RoleDictionary.register(role);
+			int word = index >>> 6;
+			if (word >= bits.length) {
+				bits = Arrays.copyOf(bits, word + 1);
+			}
+			long mask = 1L << index;
+			if ((bits[word] & mask) == 0) {
+				bits[word] |= mask;
+				count++;
+			}
+		}
+
+		return ofBits(bits, count);
+	}
+
+	/**
+	 * Returns the canonical role set containing the roles whose
+	 * {@link RoleDictionary} indexes are set in a bitset
+	 *
+	 * @param bits The bitset, which is owned by the role set afterwards
+	 * @return The role set
+	 */
+	public static RoleSet ofBits(long[] bits) {
+		int count = 0;
+		for (long word : bits) {
+			count += Long.bitCount(word);
+		}
+		return count == 0 ? EMPTY : ofBits(bits, count);
+	}
+
+	private static RoleSet ofBits(long[] bits, int count) {
+		// Trailing empty words are trimmed so that equal sets have equal bitsets
+		int length = bits.length;
+		while (length > 0 && bits[length - 1] == 0) {
+			length--;
+		}
+		if (length < bits.length) {
+			bits = Arrays.copyOf(bits, length);
+		}
+
+		String[] names = new String[count];
+		int n = 0;
+		for (int word = 0; word < bits.length; word++) {
+			long remaining = bits[word];
+			while (remaining != 0) {
+				names[n++] = RoleDictionary.nameOf(word << 6 | Long.numberOfTrailingZeros(remaining));
+				remaining &= remaining - 1;
+			}
+		}
+
+		RoleSet set = new RoleSet(bits, names);
+		RoleSet pooled = POOL.get(set);
+		if (pooled != null) {
+			return pooled;
+		}
+		if (POOL.size() >= MAX_POOLED_SETS) {
+			return set;
+		}
+		pooled = POOL.putIfAbsent(set, set);
+		return pooled == null ? set : pooled;
+	}
+
+	/**
+	 * Returns the number of distinct role sets in the pool
+	 *
+	 * @return The pool size
+	 */
+	public static int poolSize() {
+		return POOL.size();
+	}
+
+	/**
+	 * The membership bits, indexed by {@link RoleDictionary} index. Indexes are
+	 * local to the JVM, so the bits are rebuilt on deserialization.
+	 */
+	private final transient long[] bits;
+
+	private final int hash;
+
+	/**
+	 * The canonical role names, in dictionary order
+	 */
+	private final String[] names;
+
+	private RoleSet(long[] bits, String[] names) {
+		super();
+		this.bits = bits;
+		this.names = names;
+
+		int h = 0;
+		for (String name : names) {
+			h += name.hashCode();
+		}
+		this.hash = h;
+	}
+
+	/**
+	 * Returns true if the set contains the role with the given
+	 * {@link RoleDictionary} index
+	 *
+	 * @param index The role index
+	 * @return The status
+	 */
+	public boolean contains(int index) {
+		int word = index >>> 6;
+		return index >= 0 && word < this.bits.length && (this.bits[word] & 1L << index) != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof String && contains(RoleDictionary.indexOf((String) o));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractSet#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof RoleSet) {
+			RoleSet other = (RoleSet) o;
+			return this.hash == other.hash && Arrays.equals(this.bits, other.bits);
+		}
+		return super.equals(o);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractSet#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return Collections.unmodifiableList(Arrays.asList(this.names)).iterator();
+	}
+
+	/**
+	 * Replaces a deserialized set with the canonical set for its roles
+	 *
+	 * @return The canonical role set
+	 * @throws ObjectStreamException Never
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		return of(Arrays.asList(this.names));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return this.names.length;
+	}
+
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.common.model;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+
+/**
+ * The serialized form of a {@link JWTPrincipal}, written with the
+ * {@link JWTPrincipalCodec} and resolved back to a principal when read
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+final class SerializedJWTPrincipal implements Externalizable {
+
+	private static final long serialVersionUID = -6069211796917284526L;
+
+	private JWTPrincipal principal = null;
+
+	/**
+	 * Creates a new, empty instance for deserialization
+	 */
+	public SerializedJWTPrincipal() {
+		super();
+	}
+
+	SerializedJWTPrincipal(JWTPrincipal principal) {
+		super();
+		this.principal = principal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+	 */
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		this.principal = JWTPrincipalCodec.read(in);
+	}
+
+	/**
+	 * Replaces this object with the principal it holds
+	 *
+	 * @return The principal
+	 * @throws ObjectStreamException Never
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		return this.principal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+	 */
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		JWTPrincipalCodec.write(this.principal, out);
+	}
+
+}
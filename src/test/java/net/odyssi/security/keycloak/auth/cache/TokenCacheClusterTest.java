@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+import net.odyssi.security.keycloak.auth.revocation.RevocationRegistry;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal;
+
+/**
+ * Tests of a cluster of {@link ValidatedTokenCache}s sharing validated tokens
+ * through an {@link InMemoryTokenCacheCluster}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class TokenCacheClusterTest {
+
+	private static final String ISSUER = "https://keycloak.example.com/auth/realms/a";
+
+	private static final int NODE_COUNT = 3;
+
+	private static final String OTHER_ISSUER = "https://keycloak.example.com/auth/realms/b";
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private InMemoryTokenCacheCluster cluster = null;
+
+	private final List<ValidatedTokenCache> nodes = new ArrayList<>();
+
+	/**
+	 * Validates a token on a node, as the identity store does after verifying it
+	 *
+	 * @param node    The node
+	 * @param issuer  The token issuer
+	 * @param subject The token subject
+	 * @return The token digest
+	 */
+	private TokenDigest validate(ValidatedTokenCache node, String issuer, String subject) {
+		AccessToken token = new AccessToken();
+		token.id(UUID.randomUUID().toString());
+		token.issuer(issuer);
+		token.subject(subject);
+		token.issuedAt(Time.currentTime() - 10);
+		token.expiration(Time.currentTime() + 300);
+
+		JWTPrincipal principal = JWTPrincipal.JWTPrincipalBuilder.getInstance(subject).setIssuer(issuer)
+				.setIdentifier(subject).addRole("user").build();
+		TokenDigest digest = TokenDigest.of(issuer + "/" + token.getId());
+		node.put(digest, new CredentialValidationResult(principal, principal.getRoles()), token);
+		return digest;
+	}
+
+	private void assertCachedEverywhere(TokenDigest digest, String issuer) {
+		for (ValidatedTokenCache node : this.nodes) {
+			assertNotNull(node.get(digest, issuer));
+		}
+	}
+
+	private void assertCachedNowhere(TokenDigest digest, String issuer) {
+		for (ValidatedTokenCache node : this.nodes) {
+			assertNull(node.get(digest, issuer));
+		}
+	}
+
+	@Before
+	public void setUp() throws ReflectiveOperationException {
+		this.cluster = new InMemoryTokenCacheCluster();
+		for (int i = 0; i < NODE_COUNT; i++) {
+			ValidatedTokenCache node = new ValidatedTokenCache();
+			inject(node, "configuration", new Configuration());
+			inject(node, "revocationRegistry", new RevocationRegistry());
+			inject(node, "sharedCache", this.cluster.join());
+			node.init();
+			this.nodes.add(node);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.nodes.forEach(ValidatedTokenCache::destroy);
+	}
+
+	@Test
+	public void servesValidationsFromTheSharedTier() {
+		TokenDigest digest = validate(this.nodes.get(0), ISSUER, "alice");
+		assertEquals(1, this.cluster.size());
+
+		CredentialValidationResult first = this.nodes.get(0).get(digest, ISSUER);
+		for (int i = 1; i < NODE_COUNT; i++) {
+			ValidatedTokenCache node = this.nodes.get(i);
+			CredentialValidationResult result = node.get(digest, ISSUER);
+			assertNotNull(result);
+			assertEquals(CredentialValidationResult.Status.VALID, result.getStatus());
+			assertEquals(first.getCallerPrincipal(), result.getCallerPrincipal());
+			assertEquals(first.getCallerGroups(), result.getCallerGroups());
+			assertEquals(1, node.getSharedHitCount());
+		}
+	}
+
+	@Test
+	public void servesValidationsOnlyForTheirIssuer() {
+		TokenDigest digest = validate(this.nodes.get(0), ISSUER, "alice");
+
+		assertNull(this.nodes.get(0).get(digest, OTHER_ISSUER));
+		assertNull(this.nodes.get(1).get(digest, OTHER_ISSUER));
+		assertNull(this.nodes.get(1).get(digest, null));
+		assertCachedEverywhere(digest, ISSUER);
+	}
+
+	@Test
+	public void invalidatesTokensOnEveryNode() {
+		TokenDigest digest = validate(this.nodes.get(0), ISSUER, "alice");
+		assertCachedEverywhere(digest, ISSUER);
+
+		this.nodes.get(NODE_COUNT - 1).invalidate(digest);
+		assertEquals(0, this.cluster.size());
+		assertCachedNowhere(digest, ISSUER);
+	}
+
+	@Test
+	public void invalidatesSubjectsOfOneIssuer() {
+		TokenDigest digest = validate(this.nodes.get(0), ISSUER, "alice");
+		TokenDigest otherSubject = validate(this.nodes.get(0), ISSUER, "bob");
+		TokenDigest otherIssuer = validate(this.nodes.get(0), OTHER_ISSUER, "alice");
+		assertCachedEverywhere(digest, ISSUER);
+		assertCachedEverywhere(otherSubject, ISSUER);
+		assertCachedEverywhere(otherIssuer, OTHER_ISSUER);
+
+		this.nodes.get(1).invalidate(TokenCacheInvalidation.subject(ISSUER, "alice"));
+		assertEquals(2, this.cluster.size());
+		assertCachedNowhere(digest, ISSUER);
+		assertCachedEverywhere(otherSubject, ISSUER);
+		assertCachedEverywhere(otherIssuer, OTHER_ISSUER);
+	}
+
+	@Test
+	public void invalidatesTokensIssuedBeforeANotBeforeOfOneIssuer() {
+		TokenDigest digest = validate(this.nodes.get(0), ISSUER, "alice");
+		TokenDigest otherIssuer = validate(this.nodes.get(0), OTHER_ISSUER, "alice");
+		assertCachedEverywhere(digest, ISSUER);
+		assertCachedEverywhere(otherIssuer, OTHER_ISSUER);
+
+		this.nodes.get(1).invalidate(TokenCacheInvalidation.issuedBefore(ISSUER, Time.currentTime() - 20));
+		assertCachedEverywhere(digest, ISSUER);
+
+		this.nodes.get(1).invalidate(TokenCacheInvalidation.issuedBefore(ISSUER, Time.currentTime() + 1));
+		assertEquals(1, this.cluster.size());
+		assertCachedNowhere(digest, ISSUER);
+		assertCachedEverywhere(otherIssuer, OTHER_ISSUER);
+	}
+
+	@Test
+	public void invalidatesEverythingOnEveryNode() {
+		TokenDigest digest = validate(this.nodes.get(0), ISSUER, "alice");
+		TokenDigest otherIssuer = validate(this.nodes.get(0), OTHER_ISSUER, "bob");
+		assertCachedEverywhere(digest, ISSUER);
+		assertCachedEverywhere(otherIssuer, OTHER_ISSUER);
+
+		this.nodes.get(2).invalidateAll();
+		assertEquals(0, this.cluster.size());
+		assertCachedNowhere(digest, ISSUER);
+		assertCachedNowhere(otherIssuer, OTHER_ISSUER);
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Tests of the {@link GuardedHttpClient} against a stub KeyCloak server
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class GuardedHttpClientTest {
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private GuardedHttpClient client = null;
+
+	private OutboundCallGuard guard = null;
+
+	private HttpServer server = null;
+
+	/**
+	 * The status the stub server answers with
+	 */
+	private volatile int status = 200;
+
+	private int get() throws IOException {
+		HttpHost host = new HttpHost("127.0.0.1", this.server.getAddress().getPort()); //$NON-NLS-1$
+		try (CloseableHttpResponse response = this.client.execute(host, new HttpGet("/certs"))) { //$NON-NLS-1$
+			return response.getStatusLine().getStatusCode();
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			exchange.sendResponseHeaders(this.status, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException, ReflectiveOperationException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0); //$NON-NLS-1$
+		this.server.createContext("/certs", this::handle); //$NON-NLS-1$
+		this.server.start();
+
+		System.setProperty(Constants.HTTP_CIRCUIT_FAILURE_THRESHOLD, "2"); //$NON-NLS-1$
+		System.setProperty(Constants.HTTP_JMX_NAME, OutboundCallGuard.DEFAULT_OBJECT_NAME + ",name=client-test"); //$NON-NLS-1$
+
+		this.guard = new OutboundCallGuard();
+		inject(this.guard, "configuration", new Configuration()); //$NON-NLS-1$
+		this.guard.init();
+		this.client = new GuardedHttpClient(HttpClients.createDefault(), this.guard);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.client.close();
+		this.guard.destroy();
+		this.server.stop(0);
+		System.clearProperty(Constants.HTTP_CIRCUIT_FAILURE_THRESHOLD);
+		System.clearProperty(Constants.HTTP_JMX_NAME);
+	}
+
+	@Test
+	public void countsClientErrorsAsSuccesses() throws IOException {
+		this.status = 404;
+		assertEquals(404, get());
+		assertEquals(404, get());
+		assertEquals(404, get());
+
+		assertEquals(3, this.guard.getSuccessCount());
+		assertEquals(0, this.guard.getFailureCount());
+		assertEquals("CLOSED", this.guard.getCircuitState()); //$NON-NLS-1$
+		assertEquals(0, this.guard.getActiveCalls());
+	}
+
+	@Test
+	public void opensTheCircuitOnServerErrors() throws IOException {
+		this.status = 503;
+		assertEquals(503, get());
+		assertEquals(503, get());
+		assertEquals("OPEN", this.guard.getCircuitState()); //$NON-NLS-1$
+
+		// Refused without reaching the server
+		this.status = 200;
+		assertThrows(OutboundCallRejectedException.class, this::get);
+		assertEquals(1, this.guard.getCircuitRejectedCount());
+		assertEquals(2, this.guard.getFailureCount());
+		assertEquals(0, this.guard.getActiveCalls());
+	}
+
+	@Test
+	public void countsIOErrorsAsFailures() throws IOException {
+		this.server.stop(0);
+
+		assertThrows(IOException.class, this::get);
+		assertEquals(1, this.guard.getFailureCount());
+		assertEquals(0, this.guard.getActiveCalls());
+	}
+
+}
@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Tests of the {@link OutboundCallGuard} bulkhead and circuit breaker
+ * transitions
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class OutboundCallGuardTest {
+
+	private static final HttpHost HOST = new HttpHost("keycloak.example.com", 443, "https"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final HttpHost OTHER_HOST = new HttpHost("keycloak.example.org", 443, "https"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private OutboundCallGuard guard = null;
+
+	/**
+	 * Makes a call to a host that fails
+	 *
+	 * @param host The host
+	 */
+	private void fail(HttpHost host) throws OutboundCallRejectedException {
+		this.guard.acquire(host);
+		this.guard.release(host, false);
+	}
+
+	/**
+	 * Opens the circuit of {@link #HOST} and lets its open period elapse
+	 */
+	private void openAndElapse() throws OutboundCallRejectedException, ReflectiveOperationException {
+		fail(HOST);
+		fail(HOST);
+		assertEquals("OPEN", this.guard.getCircuitState()); //$NON-NLS-1$
+		setOpenDuration(0);
+	}
+
+	private void setOpenDuration(long seconds) throws ReflectiveOperationException {
+		inject(this.guard, "openDurationNanos", TimeUnit.SECONDS.toNanos(seconds)); //$NON-NLS-1$
+	}
+
+	@Before
+	public void setUp() throws ReflectiveOperationException {
+		System.setProperty(Constants.HTTP_BULKHEAD_MAX_CONCURRENT_CALLS, "1"); //$NON-NLS-1$
+		System.setProperty(Constants.HTTP_BULKHEAD_MAX_WAIT, "0"); //$NON-NLS-1$
+		System.setProperty(Constants.HTTP_CIRCUIT_FAILURE_THRESHOLD, "2"); //$NON-NLS-1$
+		System.setProperty(Constants.HTTP_JMX_NAME, OutboundCallGuard.DEFAULT_OBJECT_NAME + ",name=test"); //$NON-NLS-1$
+
+		this.guard = new OutboundCallGuard();
+		inject(this.guard, "configuration", new Configuration()); //$NON-NLS-1$
+		this.guard.init();
+	}
+
+	@After
+	public void tearDown() {
+		this.guard.destroy();
+		System.clearProperty(Constants.HTTP_BULKHEAD_MAX_CONCURRENT_CALLS);
+		System.clearProperty(Constants.HTTP_BULKHEAD_MAX_WAIT);
+		System.clearProperty(Constants.HTTP_CIRCUIT_FAILURE_THRESHOLD);
+		System.clearProperty(Constants.HTTP_JMX_NAME);
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() throws OutboundCallRejectedException {
+		fail(HOST);
+		this.guard.acquire(HOST);
+		this.guard.release(HOST, true);
+		fail(HOST);
+		assertEquals("CLOSED", this.guard.getCircuitState()); //$NON-NLS-1$
+		assertTrue(this.guard.isHealthy(HOST));
+
+		fail(HOST);
+		assertEquals("OPEN", this.guard.getCircuitState()); //$NON-NLS-1$
+		assertFalse(this.guard.isHealthy(HOST));
+		assertEquals(1, this.guard.getCircuitOpenedCount());
+		assertEquals(3, this.guard.getFailureCount());
+		assertEquals(1, this.guard.getSuccessCount());
+
+		assertThrows(OutboundCallRejectedException.class, () -> this.guard.acquire(HOST));
+		assertEquals(1, this.guard.getCircuitRejectedCount());
+		assertEquals(0, this.guard.getActiveCalls());
+
+		// The circuits of other hosts are unaffected
+		assertTrue(this.guard.isHealthy(OTHER_HOST));
+		this.guard.acquire(OTHER_HOST);
+		this.guard.release(OTHER_HOST, true);
+	}
+
+	@Test
+	public void letsASingleTrialThroughWhenHalfOpen() throws Exception {
+		openAndElapse();
+
+		this.guard.acquire(HOST);
+		assertEquals("HALF_OPEN", this.guard.getCircuitState()); //$NON-NLS-1$
+		assertFalse(this.guard.isHealthy(HOST));
+
+		assertThrows(OutboundCallRejectedException.class, () -> this.guard.acquire(HOST));
+		assertEquals(1, this.guard.getCircuitRejectedCount());
+		assertEquals(0, this.guard.getBulkheadRejectedCount());
+		assertEquals(1, this.guard.getActiveCalls());
+	}
+
+	@Test
+	public void closesWhenTheTrialSucceeds() throws Exception {
+		openAndElapse();
+
+		this.guard.acquire(HOST);
+		this.guard.release(HOST, true);
+		assertEquals("CLOSED", this.guard.getCircuitState()); //$NON-NLS-1$
+		assertTrue(this.guard.isHealthy(HOST));
+		assertEquals(0, this.guard.getActiveCalls());
+
+		// A single failure no longer opens the circuit
+		fail(HOST);
+		assertEquals("CLOSED", this.guard.getCircuitState()); //$NON-NLS-1$
+		this.guard.acquire(HOST);
+		this.guard.release(HOST, true);
+	}
+
+	@Test
+	public void reopensWhenTheTrialFails() throws Exception {
+		openAndElapse();
+
+		this.guard.acquire(HOST);
+		setOpenDuration(30);
+		this.guard.release(HOST, false);
+		assertEquals("OPEN", this.guard.getCircuitState()); //$NON-NLS-1$
+		assertEquals(2, this.guard.getCircuitOpenedCount());
+
+		assertThrows(OutboundCallRejectedException.class, () -> this.guard.acquire(HOST));
+		assertEquals(1, this.guard.getCircuitRejectedCount());
+
+		// A new trial is let through once the open period elapses again
+		setOpenDuration(0);
+		this.guard.acquire(HOST);
+		this.guard.release(HOST, true);
+		assertEquals("CLOSED", this.guard.getCircuitState()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void rejectsCallsBeyondTheBulkhead() throws OutboundCallRejectedException {
+		this.guard.acquire(HOST);
+		assertThrows(OutboundCallRejectedException.class, () -> this.guard.acquire(HOST));
+		assertEquals(1, this.guard.getBulkheadRejectedCount());
+		assertEquals(0, this.guard.getCircuitRejectedCount());
+		assertEquals(1, this.guard.getActiveCalls());
+
+		// Each host has its own bulkhead
+		this.guard.acquire(OTHER_HOST);
+		assertEquals(2, this.guard.getActiveCalls());
+		this.guard.release(OTHER_HOST, true);
+
+		this.guard.release(HOST, true);
+		assertEquals(0, this.guard.getActiveCalls());
+		this.guard.acquire(HOST);
+		this.guard.release(HOST, true);
+
+		// Rejected calls are not failures of KeyCloak
+		assertEquals(0, this.guard.getFailureCount());
+		assertEquals("CLOSED", this.guard.getCircuitState()); //$NON-NLS-1$
+	}
+
+}
@@ -0,0 +1,248 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.introspection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.security.enterprise.identitystore.CredentialValidationResult;
+import javax.security.enterprise.identitystore.CredentialValidationResult.Status;
+
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.authentication.ClientCredentialsProviderUtils;
+import org.keycloak.representations.AccessToken;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.odyssi.security.keycloak.auth.http.OutboundCallGuard;
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Tests of the {@link TokenIntrospectionService} against a stub introspection
+ * endpoint
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class TokenIntrospectionServiceTest {
+
+	private static final Function<AccessToken, CredentialValidationResult> RESULT_BUILDER = token -> new CredentialValidationResult(
+			token.getSubject());
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	/**
+	 * Returns the introspection response of an active token
+	 *
+	 * @param type       The token type
+	 * @param expiration The token expiration, in seconds since the epoch
+	 * @return The response body
+	 */
+	private static String active(String type, long expiration) {
+		return "{\"active\":true,\"sub\":\"alice\",\"typ\":\"" + type + "\",\"exp\":" + expiration + "}"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private static long nowSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+	}
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private final KeycloakDeployment deployment = new KeycloakDeployment();
+
+	private volatile CountDownLatch gate = new CountDownLatch(0);
+
+	/**
+	 * The response body of each token the stub endpoint knows
+	 */
+	private final Map<String, String> responses = new ConcurrentHashMap<>();
+
+	private HttpServer server = null;
+
+	private ExecutorService serverExecutor = null;
+
+	private TokenIntrospectionService service = null;
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			this.calls.incrementAndGet();
+			this.gate.await(5, TimeUnit.SECONDS);
+
+			String token = null;
+			for (String param : read(exchange.getRequestBody()).split("&")) { //$NON-NLS-1$
+				if (param.startsWith("token=")) { //$NON-NLS-1$
+					token = URLDecoder.decode(param.substring(6), "UTF-8"); //$NON-NLS-1$
+				}
+			}
+
+			byte[] body = this.responses.getOrDefault(token, "{\"active\":false}").getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+			exchange.getResponseHeaders().add("Content-Type", "application/json"); //$NON-NLS-1$ //$NON-NLS-2$
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private Status introspect(String token) {
+		return this.service.introspect(this.deployment, token, RESULT_BUILDER).getStatus();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int n; (n = in.read(buffer)) > 0;) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Before
+	public void setUp() throws IOException, ReflectiveOperationException {
+		this.serverExecutor = Executors.newCachedThreadPool();
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0); //$NON-NLS-1$
+		this.server.createContext("/introspect", this::handle); //$NON-NLS-1$
+		this.server.setExecutor(this.serverExecutor);
+		this.server.start();
+
+		System.setProperty(Constants.INTROSPECTION_URL,
+				"http://127.0.0.1:" + this.server.getAddress().getPort() + "/introspect"); //$NON-NLS-1$ //$NON-NLS-2$
+		System.setProperty(Constants.INTROSPECTION_CACHE_TTL, "1"); //$NON-NLS-1$
+
+		this.deployment.setResourceName("app"); //$NON-NLS-1$
+		this.deployment.setResourceCredentials(Collections.<String, Object>singletonMap("secret", "secret")); //$NON-NLS-1$ //$NON-NLS-2$
+		this.deployment.setClientAuthenticator(ClientCredentialsProviderUtils.bootstrapClientAuthenticator(this.deployment));
+		this.deployment.setClient(HttpClients.createDefault());
+
+		OutboundCallGuard outboundCallGuard = new OutboundCallGuard();
+		inject(outboundCallGuard, "configuration", new Configuration()); //$NON-NLS-1$
+
+		this.service = new TokenIntrospectionService();
+		inject(this.service, "configuration", new Configuration()); //$NON-NLS-1$
+		inject(this.service, "outboundCallGuard", outboundCallGuard); //$NON-NLS-1$
+		this.service.init();
+	}
+
+	@After
+	public void tearDown() {
+		this.service.destroy();
+		this.server.stop(0);
+		this.serverExecutor.shutdownNow();
+		System.clearProperty(Constants.INTROSPECTION_URL);
+		System.clearProperty(Constants.INTROSPECTION_CACHE_TTL);
+	}
+
+	@Test
+	public void coalescesConcurrentIntrospections() {
+		this.responses.put("token-a", active("Bearer", nowSeconds() + 300)); //$NON-NLS-1$ //$NON-NLS-2$
+		this.gate = new CountDownLatch(1);
+
+		List<CompletableFuture<CredentialValidationResult>> results = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			results.add(this.service.introspectAsync(this.deployment, "token-a", RESULT_BUILDER)); //$NON-NLS-1$
+		}
+		this.gate.countDown();
+
+		for (CompletableFuture<CredentialValidationResult> result : results) {
+			assertEquals(Status.VALID, result.join().getStatus());
+		}
+		assertEquals(1, this.calls.get());
+		assertEquals(1, this.service.getMissCount());
+	}
+
+	@Test
+	public void cachesResultsForTheirTtl() throws InterruptedException {
+		this.responses.put("token-a", active("Bearer", nowSeconds() + 300)); //$NON-NLS-1$ //$NON-NLS-2$
+
+		assertEquals(Status.VALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(Status.VALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(1, this.calls.get());
+
+		Thread.sleep(1100);
+		assertEquals(Status.VALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(2, this.calls.get());
+	}
+
+	@Test
+	public void capsTheTtlAtTokenExpiry() throws InterruptedException {
+		System.setProperty(Constants.INTROSPECTION_CACHE_TTL, "3600"); //$NON-NLS-1$
+		this.service.destroy();
+		this.service.init();
+
+		long expiration = nowSeconds() + 2;
+		this.responses.put("token-a", active("Bearer", expiration)); //$NON-NLS-1$ //$NON-NLS-2$
+
+		assertEquals(Status.VALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(Status.VALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(1, this.calls.get());
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(expiration) - System.currentTimeMillis() + 100);
+		this.responses.put("token-a", "{\"active\":false}"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(Status.INVALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(2, this.calls.get());
+	}
+
+	@Test
+	public void cachesInactiveResults() {
+		assertEquals(Status.INVALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(Status.INVALID, introspect("token-a")); //$NON-NLS-1$
+		assertEquals(1, this.calls.get());
+	}
+
+	@Test
+	public void rejectsActiveTokensThatAreNotBearerTokens() {
+		long expiration = nowSeconds() + 300;
+		this.responses.put("refresh", active("Refresh", expiration)); //$NON-NLS-1$ //$NON-NLS-2$
+		this.responses.put("offline", active("Offline", expiration)); //$NON-NLS-1$ //$NON-NLS-2$
+		this.responses.put("id", active("ID", expiration)); //$NON-NLS-1$ //$NON-NLS-2$
+		this.responses.put("untyped", "{\"active\":true,\"sub\":\"alice\",\"exp\":" + expiration + "}"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		this.responses.put("token-type", //$NON-NLS-1$
+				"{\"active\":true,\"sub\":\"alice\",\"token_type\":\"refresh_token\",\"exp\":" + expiration + "}"); //$NON-NLS-1$ //$NON-NLS-2$
+		this.responses.put("bearer", "{\"active\":true,\"sub\":\"alice\",\"token_type\":\"bearer\",\"exp\":" //$NON-NLS-1$ //$NON-NLS-2$
+				+ expiration + "}"); //$NON-NLS-1$
+
+		assertEquals(Status.INVALID, introspect("refresh")); //$NON-NLS-1$
+		assertEquals(Status.INVALID, introspect("offline")); //$NON-NLS-1$
+		assertEquals(Status.INVALID, introspect("id")); //$NON-NLS-1$
+		assertEquals(Status.INVALID, introspect("untyped")); //$NON-NLS-1$
+		assertEquals(Status.INVALID, introspect("token-type")); //$NON-NLS-1$
+		assertEquals(Status.VALID, introspect("bearer")); //$NON-NLS-1$
+	}
+
+}
@@ -0,0 +1,223 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.jwks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link JWKSKeyStore} against a stub {@link JWKSSource}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class JWKSKeyStoreTest {
+
+	private static final long UNKNOWN_KID_INTERVAL_MILLIS = 60000;
+
+	/**
+	 * Waits for a background refresh to load a key, without looking it up
+	 *
+	 * @param keyStore The key store
+	 * @param kid      The key identifier
+	 */
+	private static void awaitKey(JWKSKeyStore keyStore, String kid) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!keyStore.getKeys().containsKey(kid) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(kid, keyStore.getKeys().containsKey(kid));
+	}
+
+	private static PublicKey generateKey() throws NoSuchAlgorithmException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA"); //$NON-NLS-1$
+		generator.initialize(1024);
+		return generator.generateKeyPair().getPublic();
+	}
+
+	private final AtomicBoolean failing = new AtomicBoolean();
+
+	/**
+	 * Released to let a fetch of the stub source complete
+	 */
+	private volatile CountDownLatch fetchGate = new CountDownLatch(0);
+
+	/**
+	 * Counted down when a fetch of the stub source starts
+	 */
+	private final CountDownLatch fetchStarted = new CountDownLatch(1);
+
+	private final AtomicReference<Map<String, PublicKey>> published = new AtomicReference<>(
+			Collections.<String, PublicKey>emptyMap());
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * The stub key source, serving the published keys unless failing
+	 */
+	private final JWKSSource source = () -> {
+		this.fetchStarted.countDown();
+		try {
+			this.fetchGate.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		if (this.failing.get()) {
+			throw new IOException("KeyCloak unavailable"); //$NON-NLS-1$
+		}
+		return this.published.get();
+	};
+
+	@Before
+	public void setUp() {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		this.scheduler.shutdownNow();
+	}
+
+	@Test
+	public void sharesOneFetchBetweenConcurrentUnknownKidLookups() throws Exception {
+		PublicKey key = generateKey();
+		this.published.set(Collections.singletonMap("k1", key)); //$NON-NLS-1$
+		this.fetchGate = new CountDownLatch(1);
+
+		JWKSKeyStore keyStore = new JWKSKeyStore(this.source, UNKNOWN_KID_INTERVAL_MILLIS);
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<PublicKey>> lookups = new ArrayList<>();
+			lookups.add(callers.submit(() -> keyStore.getPublicKey("k1"))); //$NON-NLS-1$
+			assertTrue(this.fetchStarted.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < 15; i++) {
+				lookups.add(callers.submit(() -> keyStore.getPublicKey("k1"))); //$NON-NLS-1$
+			}
+
+			// Let the other lookups reach the fetch in flight
+			Thread.sleep(100);
+			this.fetchGate.countDown();
+			for (Future<PublicKey> lookup : lookups) {
+				assertSame(key, lookup.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(1, keyStore.getFetchCount());
+		assertEquals(0, keyStore.getRejectedLookupCount());
+	}
+
+	@Test
+	public void fetchesNothingForForgedKidsWithinTheRateLimitWindow() throws Exception {
+		PublicKey key = generateKey();
+		this.published.set(Collections.singletonMap("k1", key)); //$NON-NLS-1$
+
+		JWKSKeyStore keyStore = new JWKSKeyStore(this.source, UNKNOWN_KID_INTERVAL_MILLIS);
+		keyStore.refresh();
+		assertEquals(1, keyStore.getFetchCount());
+
+		// The first unknown kid may be a rotated key, and is fetched
+		assertNull(keyStore.getPublicKey("forged-0")); //$NON-NLS-1$
+		assertEquals(2, keyStore.getFetchCount());
+
+		for (int i = 1; i <= 100; i++) {
+			assertNull(keyStore.getPublicKey("forged-" + i)); //$NON-NLS-1$
+		}
+		assertEquals(2, keyStore.getFetchCount());
+		assertEquals(100, keyStore.getRejectedLookupCount());
+		assertSame(key, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+	}
+
+	@Test
+	public void rotatesKeysOnBackgroundRefresh() throws Exception {
+		PublicKey oldKey = generateKey();
+		PublicKey newKey = generateKey();
+		this.published.set(Collections.singletonMap("k1", oldKey)); //$NON-NLS-1$
+
+		JWKSKeyStore keyStore = new JWKSKeyStore(this.source, UNKNOWN_KID_INTERVAL_MILLIS);
+		keyStore.start(this.scheduler, 50);
+		try {
+			awaitKey(keyStore, "k1"); //$NON-NLS-1$
+			assertSame(oldKey, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+
+			this.published.set(Collections.singletonMap("k2", newKey)); //$NON-NLS-1$
+			awaitKey(keyStore, "k2"); //$NON-NLS-1$
+		} finally {
+			keyStore.close();
+		}
+
+		long fetches = keyStore.getFetchCount();
+		assertSame(newKey, keyStore.getPublicKey("k2")); //$NON-NLS-1$
+		assertEquals(fetches, keyStore.getFetchCount());
+		assertEquals(Collections.singleton("k2"), keyStore.getKeys().keySet()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void servesTheLastKnownKeysWhileRefreshesFail() throws Exception {
+		PublicKey key = generateKey();
+		this.published.set(Collections.singletonMap("k1", key)); //$NON-NLS-1$
+
+		JWKSKeyStore keyStore = new JWKSKeyStore(this.source, UNKNOWN_KID_INTERVAL_MILLIS, 0);
+		keyStore.start(this.scheduler, 100);
+		keyStore.close();
+		keyStore.refresh();
+		assertSame(key, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+		assertEquals(0, keyStore.getStaleLookupCount());
+
+		// Past the refresh interval plus the grace period, with KeyCloak down
+		this.failing.set(true);
+		Thread.sleep(150);
+		keyStore.refresh();
+		assertSame(key, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+		assertSame(key, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+		assertEquals(2, keyStore.getStaleLookupCount());
+
+		this.failing.set(false);
+		keyStore.refresh();
+		assertSame(key, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+		assertEquals(2, keyStore.getStaleLookupCount());
+	}
+
+	@Test
+	public void neverReportsKeysAsStaleWithoutAGracePeriod() throws Exception {
+		PublicKey key = generateKey();
+		this.published.set(Collections.singletonMap("k1", key)); //$NON-NLS-1$
+
+		JWKSKeyStore keyStore = new JWKSKeyStore(this.source, UNKNOWN_KID_INTERVAL_MILLIS);
+		keyStore.start(this.scheduler, 10);
+		keyStore.close();
+		keyStore.refresh();
+
+		this.failing.set(true);
+		Thread.sleep(50);
+		keyStore.refresh();
+		assertSame(key, keyStore.getPublicKey("k1")); //$NON-NLS-1$
+		assertEquals(0, keyStore.getStaleLookupCount());
+	}
+
+}
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link PathPatternSet} matching rules
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class PathPatternSetTest {
+
+	private static boolean matches(PathPatternSet set, String path) {
+		return set.matches(path, 0);
+	}
+
+	@Test
+	public void matchesExactPathsOnly() {
+		PathPatternSet set = PathPatternSet.compile("/health");
+		assertTrue(matches(set, "/health"));
+		assertFalse(matches(set, "/health/"));
+		assertFalse(matches(set, "/health/live"));
+		assertFalse(matches(set, "/healthz"));
+		assertFalse(matches(set, "/heal"));
+		assertFalse(matches(set, "/"));
+	}
+
+	@Test
+	public void matchesPrefixesAtSegmentBoundaries() {
+		PathPatternSet set = PathPatternSet.compile("/static/*");
+		assertTrue(matches(set, "/static"));
+		assertTrue(matches(set, "/static/"));
+		assertTrue(matches(set, "/static/app.js"));
+		assertTrue(matches(set, "/static/css/site.css"));
+		assertFalse(matches(set, "/staticfiles"));
+		assertFalse(matches(set, "/staticfiles/app.js"));
+		assertFalse(matches(set, "/stat"));
+		assertFalse(matches(set, "/api/static/app.js"));
+	}
+
+	@Test
+	public void distinguishesExactAndPrefixPatternsOfTheSamePath() {
+		PathPatternSet exact = PathPatternSet.compile("/x");
+		PathPatternSet prefix = PathPatternSet.compile("/x/*");
+		assertTrue(matches(exact, "/x"));
+		assertFalse(matches(exact, "/x/y"));
+		assertTrue(matches(prefix, "/x"));
+		assertTrue(matches(prefix, "/x/y"));
+		assertFalse(matches(prefix, "/xy"));
+	}
+
+	@Test
+	public void matchesNestedPrefixes() {
+		PathPatternSet set = PathPatternSet.compile("/a/b/*", "/a/bc");
+		assertTrue(matches(set, "/a/b/c"));
+		assertTrue(matches(set, "/a/bc"));
+		assertFalse(matches(set, "/a/bcd"));
+		assertFalse(matches(set, "/a"));
+	}
+
+	@Test
+	public void matchesRootPrefixEverywhere() {
+		PathPatternSet set = PathPatternSet.compile("/*");
+		assertTrue(matches(set, "/"));
+		assertTrue(matches(set, "/health"));
+		assertTrue(matches(set, "/a/b/c.css"));
+		assertFalse(matches(set, ""));
+		assertFalse(matches(set, "health"));
+	}
+
+	@Test
+	public void matchesExtensionsInTheLastSegmentOnly() {
+		PathPatternSet set = PathPatternSet.compile("*.css");
+		assertTrue(matches(set, "/site.css"));
+		assertTrue(matches(set, "/a/b/site.css"));
+		assertTrue(matches(set, "/a.b/site.css"));
+		assertFalse(matches(set, "/site.css/admin"));
+		assertFalse(matches(set, "/a.css/b"));
+		assertFalse(matches(set, "/site.cssx"));
+		assertFalse(matches(set, "/site.cs"));
+		assertFalse(matches(set, "/sitecss"));
+		assertFalse(matches(set, "/site.min.js"));
+	}
+
+	@Test
+	public void rejectsEncodedPaths() {
+		PathPatternSet set = PathPatternSet.compile("/static/*", "/health", "*.css");
+		assertFalse(matches(set, "/static/%2e%2e/admin"));
+		assertFalse(matches(set, "/static/%2E%2E/admin"));
+		assertFalse(matches(set, "/%2e/health"));
+		assertFalse(matches(set, "/health%2f"));
+		assertFalse(matches(set, "/admin%2esite.css"));
+		assertFalse(matches(set, "/static\\..\\admin"));
+	}
+
+	@Test
+	public void rejectsPathParameters() {
+		PathPatternSet set = PathPatternSet.compile("/static/*", "/health", "*.css");
+		assertFalse(matches(set, "/health;jsessionid=ABC123"));
+		assertFalse(matches(set, "/static;jsessionid=ABC123/app.js"));
+		assertFalse(matches(set, "/admin;x=.css"));
+		assertFalse(matches(set, "/site.css;jsessionid=ABC123"));
+	}
+
+	@Test
+	public void rejectsEmptySegments() {
+		PathPatternSet set = PathPatternSet.compile("/static/*", "/health");
+		assertFalse(matches(set, "//health"));
+		assertFalse(matches(set, "/static//app.js"));
+		assertFalse(matches(set, "//static/app.js"));
+	}
+
+	@Test
+	public void rejectsDotSegments() {
+		PathPatternSet set = PathPatternSet.compile("/static/*", "/health", "*.css");
+		assertFalse(matches(set, "/./health"));
+		assertFalse(matches(set, "/static/./app.js"));
+		assertFalse(matches(set, "/static/../admin"));
+		assertFalse(matches(set, "/static/.."));
+		assertFalse(matches(set, "/static/."));
+		assertFalse(matches(set, "/static/../admin/site.css"));
+	}
+
+	@Test
+	public void allowsDotsWithinSegments() {
+		PathPatternSet set = PathPatternSet.compile("/static/*");
+		assertTrue(matches(set, "/static/.hidden"));
+		assertTrue(matches(set, "/static/..x"));
+		assertTrue(matches(set, "/static/x.."));
+		assertTrue(matches(set, "/static/.../app.js"));
+	}
+
+	@Test
+	public void matchesFromAContextPathOffset() {
+		PathPatternSet set = PathPatternSet.compile("/health", "/static/*", "*.css");
+		assertTrue(set.matches("/app/health", 4));
+		assertTrue(set.matches("/app/static/app.js", 4));
+		assertTrue(set.matches("/app/site.css", 4));
+		assertFalse(set.matches("/app/health", 0));
+		assertFalse(set.matches("/health", 4));
+		assertFalse(set.matches("/app", 4));
+		assertFalse(set.matches("/apphealth", 4));
+		assertFalse(set.matches("/app//health", 4));
+		assertFalse(set.matches("/app/../health", 4));
+		assertFalse(set.matches("/app/./health", 4));
+	}
+
+	@Test
+	public void matchesExtensionsFromAContextPathOffset() {
+		PathPatternSet set = PathPatternSet.compile("*.css");
+		assertTrue(set.matches("/app.v2/site.css", 7));
+		assertFalse(set.matches("/app.css/x", 8));
+		assertFalse(set.matches("/app.css", 8));
+	}
+
+	@Test
+	public void skipsInvalidPatterns() {
+		PathPatternSet set = PathPatternSet.compile("", "health", "*.", "*.a/b", "*.min.js", "/a%2fb", "/a;b",
+				"/a b", "/x/*/y", "/ok");
+		assertEquals(Arrays.asList("/ok"), set.getPatterns());
+		assertTrue(matches(set, "/ok"));
+		assertFalse(matches(set, "/a%2fb"));
+	}
+
+	@Test
+	public void matchesNothingWhenEmpty() {
+		assertTrue(PathPatternSet.EMPTY.isEmpty());
+		assertFalse(matches(PathPatternSet.EMPTY, "/"));
+		assertFalse(matches(PathPatternSet.compile(), "/health"));
+	}
+
+}
@@ -0,0 +1,260 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.propagation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.enterprise.SecurityContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.authentication.ClientCredentialsProviderUtils;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+import net.odyssi.security.keycloak.common.model.JWTPrincipal.JWTPrincipalBuilder;
+
+/**
+ * Tests of the {@link TokenPropagationService} propagation rules and exchange
+ * cache, against a stub KeyCloak token endpoint
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class TokenPropagationServiceTest {
+
+	private static final String CALLER_TOKEN = "caller-token"; //$NON-NLS-1$
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = TokenPropagationService.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	/**
+	 * The error the stub token endpoint throws, if any
+	 */
+	private volatile Error error = null;
+
+	/**
+	 * Released to let a call to the stub token endpoint complete
+	 */
+	private volatile CountDownLatch gate = new CountDownLatch(0);
+
+	private TokenPropagationService service = null;
+
+	/**
+	 * Counted down when a call to the stub token endpoint starts
+	 */
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	/**
+	 * The status the stub token endpoint answers with
+	 */
+	private volatile int status = 200;
+
+	private HttpResponse exchange() throws InterruptedException {
+		int call = this.calls.incrementAndGet();
+		this.started.countDown();
+		this.gate.await(5, TimeUnit.SECONDS);
+		if (this.error != null) {
+			throw this.error;
+		}
+
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, this.status, null);
+		response.setEntity(new StringEntity("{\"access_token\":\"exchanged-" + call + "\",\"expires_in\":300}", //$NON-NLS-1$ //$NON-NLS-2$
+				ContentType.APPLICATION_JSON));
+		return response;
+	}
+
+	@Before
+	public void setUp() throws ReflectiveOperationException {
+		System.setProperty(Constants.PROPAGATION_AUDIENCES, "orders=https://orders.example.com/"); //$NON-NLS-1$
+		System.setProperty(Constants.PROPAGATION_PASS_THROUGH, "https://api.example.com/"); //$NON-NLS-1$
+
+		KeycloakDeployment deployment = new KeycloakDeployment() {
+
+			@Override
+			public String getTokenUrl() {
+				return "https://keycloak.example.com/auth/realms/a/protocol/openid-connect/token"; //$NON-NLS-1$
+			}
+		};
+		deployment.setResourceName("app"); //$NON-NLS-1$
+		deployment.setResourceCredentials(Collections.<String, Object>singletonMap("secret", "secret")); //$NON-NLS-1$ //$NON-NLS-2$
+		deployment.setClientAuthenticator(ClientCredentialsProviderUtils.bootstrapClientAuthenticator(deployment));
+		deployment.setClient((HttpClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { HttpClient.class }, (proxy, method, args) -> {
+					if ("execute".equals(method.getName())) { //$NON-NLS-1$
+						return exchange();
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}));
+
+		HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+					if ("getHeader".equals(method.getName())) { //$NON-NLS-1$
+						return Constants.AUTHORIZATION_HEADER.equals(args[0])
+								? Constants.BEARER_TOKEN_PREFIX + CALLER_TOKEN
+								: null;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		Object principal = JWTPrincipalBuilder.getInstance("alice").setIssuer("https://keycloak.example.com") //$NON-NLS-1$ //$NON-NLS-2$
+				.setIdentifier("alice-id").build(); //$NON-NLS-1$
+		SecurityContext securityContext = (SecurityContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { SecurityContext.class }, (proxy, method, args) -> {
+					if ("getCallerPrincipal".equals(method.getName())) { //$NON-NLS-1$
+						return principal;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+
+		this.service = new TokenPropagationService() {
+
+			@Override
+			protected KeycloakDeployment getDeployment() {
+				return deployment;
+			}
+		};
+		inject(this.service, "configuration", new Configuration()); //$NON-NLS-1$
+		inject(this.service, "request", request); //$NON-NLS-1$
+		inject(this.service, "securityContext", securityContext); //$NON-NLS-1$
+		this.service.init();
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(Constants.PROPAGATION_AUDIENCES);
+		System.clearProperty(Constants.PROPAGATION_PASS_THROUGH);
+	}
+
+	@Test
+	public void sendsNoTokenToUrlsMatchingNoRule() throws IOException {
+		assertNull(this.service.getToken(URI.create("https://elsewhere.example.net/orders"))); //$NON-NLS-1$
+		assertNull(this.service.getToken(URI.create("https://api.example.com.example.net/"))); //$NON-NLS-1$
+		assertEquals(0, this.calls.get());
+	}
+
+	@Test
+	public void sendsTheCallerTokenToPassThroughUrls() throws IOException {
+		assertEquals(CALLER_TOKEN, this.service.getToken(URI.create("https://api.example.com/v1/items"))); //$NON-NLS-1$
+		assertEquals(0, this.calls.get());
+	}
+
+	@Test
+	public void cachesExchangedTokens() throws IOException {
+		URI uri = URI.create("https://orders.example.com/v1/orders"); //$NON-NLS-1$
+		assertEquals("exchanged-1", this.service.getToken(uri)); //$NON-NLS-1$
+		assertEquals("exchanged-1", this.service.getToken(uri)); //$NON-NLS-1$
+		assertEquals("exchanged-1", this.service.getToken("orders")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, this.calls.get());
+		assertEquals(1, this.service.getMissCount());
+		assertEquals(2, this.service.getHitCount());
+
+		// Each audience has its own token
+		assertEquals("exchanged-2", this.service.getToken("billing")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(2, this.calls.get());
+	}
+
+	@Test
+	public void sharesAnInFlightExchange() throws Exception {
+		this.gate = new CountDownLatch(1);
+
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> tokens = new ArrayList<>();
+			tokens.add(callers.submit(() -> this.service.getToken("orders"))); //$NON-NLS-1$
+			assertTrue(this.started.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < 7; i++) {
+				tokens.add(callers.submit(() -> this.service.getToken("orders"))); //$NON-NLS-1$
+			}
+
+			// Let the other callers join the exchange in flight
+			Thread.sleep(100);
+			this.gate.countDown();
+			for (Future<String> token : tokens) {
+				assertEquals("exchanged-1", token.get(5, TimeUnit.SECONDS)); //$NON-NLS-1$
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(1, this.calls.get());
+		assertEquals(1, this.service.getMissCount());
+		assertEquals(7, this.service.getHitCount());
+	}
+
+	@Test
+	public void failsJoinedCallersWhenTheExchangeThrowsAnError() throws Exception {
+		Error error = new LinkageError("exchange died"); //$NON-NLS-1$
+		this.error = error;
+		this.gate = new CountDownLatch(1);
+
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			Future<String> owner = callers.submit(() -> this.service.getToken("orders")); //$NON-NLS-1$
+			assertTrue(this.started.await(5, TimeUnit.SECONDS));
+			List<Future<String>> joined = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				joined.add(callers.submit(() -> this.service.getToken("orders"))); //$NON-NLS-1$
+			}
+
+			Thread.sleep(100);
+			this.gate.countDown();
+			assertSame(error, assertThrows(ExecutionException.class, () -> owner.get(5, TimeUnit.SECONDS)).getCause());
+			for (Future<String> token : joined) {
+				Throwable cause = assertThrows(ExecutionException.class, () -> token.get(5, TimeUnit.SECONDS)).getCause();
+				assertTrue(cause instanceof IOException);
+				assertSame(error, cause.getCause());
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+		assertEquals(1, this.calls.get());
+
+		// The failed exchange is not cached
+		this.error = null;
+		assertEquals("exchanged-2", this.service.getToken("orders")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void retriesRefusedExchanges() throws IOException {
+		this.status = 403;
+		assertThrows(IOException.class, () -> this.service.getToken("orders")); //$NON-NLS-1$
+
+		this.status = 200;
+		assertEquals("exchanged-2", this.service.getToken("orders")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(2, this.service.getMissCount());
+	}
+
+}
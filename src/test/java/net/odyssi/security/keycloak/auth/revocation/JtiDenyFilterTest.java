@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.revocation;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link JtiDenyFilter} Bloom filter
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class JtiDenyFilterTest {
+
+	private static final int EXPECTED = 10000;
+
+	private static List<String> jtis(int count) {
+		List<String> jtis = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			jtis.add(UUID.randomUUID().toString());
+		}
+		return jtis;
+	}
+
+	@Test
+	public void containsEveryAddedIdentifier() {
+		JtiDenyFilter filter = new JtiDenyFilter(EXPECTED);
+		List<String> added = jtis(EXPECTED);
+		added.forEach(filter::add);
+
+		for (String jti : added) {
+			assertTrue(jti, filter.mightContain(jti));
+		}
+	}
+
+	@Test
+	public void containsEveryIdentifierWhenOverfilled() {
+		JtiDenyFilter filter = new JtiDenyFilter(10);
+		List<String> added = jtis(EXPECTED);
+		added.forEach(filter::add);
+
+		for (String jti : added) {
+			assertTrue(jti, filter.mightContain(jti));
+		}
+	}
+
+	@Test
+	public void rejectsMostOtherIdentifiersAtTheExpectedSize() {
+		JtiDenyFilter filter = new JtiDenyFilter(EXPECTED);
+		jtis(EXPECTED).forEach(filter::add);
+
+		int falsePositives = 0;
+		for (String jti : jtis(EXPECTED)) {
+			if (filter.mightContain(jti)) {
+				falsePositives++;
+			}
+		}
+		// About one percent is expected
+		assertTrue("falsePositives=" + falsePositives, falsePositives < EXPECTED / 20); //$NON-NLS-1$
+	}
+
+	@Test
+	public void containsNothingWhenEmpty() {
+		JtiDenyFilter filter = new JtiDenyFilter(EXPECTED);
+		for (String jti : jtis(1000)) {
+			assertFalse(filter.mightContain(jti));
+		}
+		assertFalse(filter.mightContain("")); //$NON-NLS-1$
+	}
+
+}
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.revocation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Tests of the {@link RevocationRegistry} revocation stages
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class RevocationRegistryTest {
+
+	private static final String ISSUER = "https://keycloak.example.com/auth/realms/a";
+
+	private static final String OTHER_ISSUER = "https://keycloak.example.com/auth/realms/b";
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	private RevocationRegistry registry = null;
+
+	private boolean isRevoked(String jti, String subject, String clientId, String issuer, int issuedAt) {
+		return this.registry.isRevoked(jti, subject, clientId, issuer, issuedAt);
+	}
+
+	@Before
+	public void setUp() throws ReflectiveOperationException {
+		this.registry = new RevocationRegistry();
+		inject(this.registry, "configuration", new Configuration());
+		this.registry.init();
+	}
+
+	@After
+	public void tearDown() {
+		this.registry.destroy();
+		System.clearProperty(Constants.REVOCATION_ENABLED);
+	}
+
+	@Test
+	public void revokesNothingByDefault() {
+		assertFalse(isRevoked("jti-1", "alice", "app", ISSUER, Time.currentTime())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked(null, null, null, null, 0));
+		assertEquals(0, this.registry.getRevokedCount());
+	}
+
+	@Test
+	public void revokesTokensIssuedBeforeTheRealmNotBefore() {
+		this.registry.pushRealmNotBefore(ISSUER, 100);
+
+		assertTrue(isRevoked("jti-1", "alice", "app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", ISSUER, 100)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", OTHER_ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		// An older push does not move the not-before time back
+		this.registry.pushRealmNotBefore(ISSUER, 50);
+		assertTrue(isRevoked("jti-1", "alice", "app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Test
+	public void revokesTokensIssuedBeforeTheClientNotBeforeOfTheirIssuer() {
+		this.registry.onTokenRevocation(TokenRevocationEvent.client(ISSUER, "app", 100)); //$NON-NLS-1$
+
+		assertTrue(isRevoked("jti-1", "alice", "app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", ISSUER, 100)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "other-app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", OTHER_ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", null, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Test
+	public void revokesTokensIssuedBeforeTheUserNotBeforeOfTheirIssuer() {
+		this.registry.onTokenRevocation(TokenRevocationEvent.user(ISSUER, "alice", 100)); //$NON-NLS-1$
+
+		assertTrue(isRevoked("jti-1", "alice", "app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", ISSUER, 100)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "bob", "app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(isRevoked("jti-1", "alice", "app", OTHER_ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Test
+	public void revokesTokensByIdentifier() {
+		this.registry.onTokenRevocation(TokenRevocationEvent.token("jti-1", Time.currentTime() + 300)); //$NON-NLS-1$
+
+		assertTrue(isRevoked("jti-1", "alice", "app", ISSUER, 0)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertTrue(isRevoked("jti-1", null, null, null, 0)); //$NON-NLS-1$
+		assertFalse(isRevoked("jti-2", "alice", "app", ISSUER, 0)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals(1, this.registry.getRevokedCount());
+	}
+
+	@Test
+	public void checksVerifiedAccessTokens() {
+		this.registry.pushUserNotBefore(ISSUER, "alice", Time.currentTime()); //$NON-NLS-1$
+
+		AccessToken token = new AccessToken();
+		token.id("jti-1"); //$NON-NLS-1$
+		token.issuer(ISSUER);
+		token.subject("alice"); //$NON-NLS-1$
+		token.issuedFor("app"); //$NON-NLS-1$
+		token.issuedAt(Time.currentTime() - 10);
+		assertTrue(this.registry.isRevoked(token));
+
+		token.issuedAt(Time.currentTime());
+		assertFalse(this.registry.isRevoked(token));
+	}
+
+	@Test
+	public void forgetsExpiredIdentifiersOnCleanup() {
+		int now = Time.currentTime();
+		this.registry.revoke("expired", now - 1); //$NON-NLS-1$
+		this.registry.revoke("live", now + 300); //$NON-NLS-1$
+		this.registry.revoke("forever", 0); //$NON-NLS-1$
+		assertTrue(isRevoked("expired", null, null, null, 0)); //$NON-NLS-1$
+
+		this.registry.cleanup();
+		assertEquals(2, this.registry.getRevokedCount());
+		assertFalse(isRevoked("expired", null, null, null, 0)); //$NON-NLS-1$
+		assertTrue(isRevoked("live", null, null, null, 0)); //$NON-NLS-1$
+		assertTrue(isRevoked("forever", null, null, null, 0)); //$NON-NLS-1$
+
+		// Revocations made after the filter was rebuilt are still found
+		this.registry.revoke("later", now + 300); //$NON-NLS-1$
+		assertTrue(isRevoked("later", null, null, null, 0)); //$NON-NLS-1$
+		assertTrue(isRevoked("live", null, null, null, 0)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void dropsTheFilterOnceEveryIdentifierExpires() throws ReflectiveOperationException {
+		this.registry.revoke("expired", Time.currentTime() - 1); //$NON-NLS-1$
+		this.registry.cleanup();
+
+		Field filter = RevocationRegistry.class.getDeclaredField("filter"); //$NON-NLS-1$
+		filter.setAccessible(true);
+		assertNull(filter.get(this.registry));
+		assertEquals(0, this.registry.getRevokedCount());
+		assertFalse(isRevoked("expired", null, null, null, 0)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void revokesNothingWhenDisabled() throws ReflectiveOperationException {
+		this.registry.destroy();
+		System.setProperty(Constants.REVOCATION_ENABLED, "false"); //$NON-NLS-1$
+		setUp();
+
+		this.registry.pushRealmNotBefore(ISSUER, 100);
+		this.registry.revoke("jti-1", 0); //$NON-NLS-1$
+		assertFalse(isRevoked("jti-1", "alice", "app", ISSUER, 99)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+}
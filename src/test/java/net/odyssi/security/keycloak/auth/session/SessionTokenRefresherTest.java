@@ -0,0 +1,173 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.KeycloakSecurityContext;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.common.util.Time;
+import org.keycloak.representations.AccessToken;
+
+import net.odyssi.security.keycloak.common.Configuration;
+import net.odyssi.security.keycloak.common.Constants;
+
+/**
+ * Tests of the {@link SessionTokenRefresher} parking refreshed tokens until the
+ * session's next request
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class SessionTokenRefresherTest {
+
+	private static final String ATTRIBUTE = KeycloakSecurityContext.class.getName();
+
+	private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+		Field field = SessionTokenRefresher.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	/**
+	 * Creates a security context whose access token expires in five minutes
+	 *
+	 * @param deployment   The KeyCloak deployment
+	 * @param refreshToken The refresh token
+	 * @return The security context
+	 */
+	private static RefreshableKeycloakSecurityContext context(KeycloakDeployment deployment, String refreshToken) {
+		AccessToken token = new AccessToken();
+		token.issuer("https://keycloak.example.com/auth/realms/a"); //$NON-NLS-1$
+		token.subject("alice"); //$NON-NLS-1$
+		token.expiration(Time.currentTime() + 300);
+		return new RefreshableKeycloakSecurityContext(deployment, null, "access-" + refreshToken, token, null, null,
+				refreshToken);
+	}
+
+	private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+	private final KeycloakDeployment deployment = new KeycloakDeployment();
+
+	private final AtomicInteger refreshes = new AtomicInteger();
+
+	private SessionTokenRefresher refresher = null;
+
+	private HttpServletRequest request = null;
+
+	private void awaitRefreshes(long count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.refresher.getRefreshedCount() + this.refresher.getFailedCount() < count
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, this.refresher.getRefreshedCount());
+	}
+
+	@Before
+	public void setUp() throws ReflectiveOperationException {
+		System.setProperty(Constants.SESSION_REFRESH_ENABLED, "true"); //$NON-NLS-1$
+		System.setProperty(Constants.SESSION_REFRESH_SCAN_INTERVAL, "3600"); //$NON-NLS-1$
+
+		HttpSession session = (HttpSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { HttpSession.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getId": //$NON-NLS-1$
+						return "session-1"; //$NON-NLS-1$
+					case "getAttribute": //$NON-NLS-1$
+						return this.attributes.get(args[0]);
+					case "setAttribute": //$NON-NLS-1$
+						this.attributes.put((String) args[0], args[1]);
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		this.request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+					if ("getSession".equals(method.getName())) { //$NON-NLS-1$
+						return session;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+
+		this.refresher = new SessionTokenRefresher() {
+
+			@Override
+			protected RefreshableKeycloakSecurityContext refreshContext(RefreshableKeycloakSecurityContext current,
+					KeycloakDeployment deployment) {
+				return context(deployment, "refresh-" + SessionTokenRefresherTest.this.refreshes.incrementAndGet()); //$NON-NLS-1$
+			}
+		};
+		inject(this.refresher, "configuration", new Configuration());
+		this.refresher.init();
+	}
+
+	@After
+	public void tearDown() {
+		this.refresher.destroy();
+		Time.setOffset(0);
+		System.clearProperty(Constants.SESSION_REFRESH_ENABLED);
+		System.clearProperty(Constants.SESSION_REFRESH_SCAN_INTERVAL);
+	}
+
+	@Test
+	public void parksRefreshedTokensUntilTheNextRequest() throws InterruptedException {
+		RefreshableKeycloakSecurityContext original = context(this.deployment, "refresh-0"); //$NON-NLS-1$
+		this.attributes.put(ATTRIBUTE, original);
+		this.refresher.track(this.request, this.deployment);
+		assertEquals(1, this.refresher.getTrackedSessions());
+
+		this.refresher.scan();
+		assertEquals(0, this.refreshes.get());
+
+		// Within the refresh lead time of expiry, but before the token expires
+		Time.setOffset(280);
+		this.refresher.scan();
+		awaitRefreshes(1);
+		assertSame(original, this.attributes.get(ATTRIBUTE));
+
+		this.refresher.track(this.request, this.deployment);
+		RefreshableKeycloakSecurityContext swapped = (RefreshableKeycloakSecurityContext) this.attributes
+				.get(ATTRIBUTE);
+		assertEquals("refresh-1", swapped.getRefreshToken()); //$NON-NLS-1$
+
+		// The swapped tokens are not due, so the next scan refreshes nothing
+		this.refresher.scan();
+		this.refresher.track(this.request, this.deployment);
+		assertSame(swapped, this.attributes.get(ATTRIBUTE));
+		assertEquals(1, this.refreshes.get());
+	}
+
+	@Test
+	public void discardsParkedTokensWhenTheSessionContextWasReplaced() throws InterruptedException {
+		this.attributes.put(ATTRIBUTE, context(this.deployment, "refresh-0")); //$NON-NLS-1$
+		this.refresher.track(this.request, this.deployment);
+
+		Time.setOffset(280);
+		this.refresher.scan();
+		awaitRefreshes(1);
+
+		RefreshableKeycloakSecurityContext login = context(this.deployment, "login"); //$NON-NLS-1$
+		this.attributes.put(ATTRIBUTE, login);
+		this.refresher.track(this.request, this.deployment);
+		assertSame(login, this.attributes.get(ATTRIBUTE));
+	}
+
+}
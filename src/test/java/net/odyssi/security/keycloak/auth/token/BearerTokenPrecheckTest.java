@@ -0,0 +1,252 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import net.odyssi.security.keycloak.auth.token.BearerTokenPrecheck.Result;
+
+/**
+ * Tests of the {@link BearerTokenPrecheck}
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class BearerTokenPrecheckTest {
+
+	private static final String HEADER = "{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"k1\"}";
+
+	private static final String ISSUER = "https://sso.example.com/auth/realms/test";
+
+	private static final long NOW = 1600000000L;
+
+	private static final String SIGNATURE = encode("signature");
+
+	private static String encode(String json) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String token(String header, String payload) {
+		return encode(header) + "." + encode(payload) + "." + SIGNATURE;
+	}
+
+	private static String payload(String claims) {
+		return "{\"iss\":\"" + ISSUER + "\",\"sub\":\"user\",\"exp\":" + (NOW + 300) + claims + "}";
+	}
+
+	private static Result check(String token) {
+		return new BearerTokenPrecheck(ISSUER).check(token, 0, token.length(), NOW);
+	}
+
+	private static String peekIssuer(String token) {
+		return BearerTokenPrecheck.peekIssuer(token, 0, token.length());
+	}
+
+	private static String padding(int length) {
+		char[] chars = new char[length];
+		Arrays.fill(chars, 'x');
+		return new String(chars);
+	}
+
+	@Test
+	public void acceptsWellFormedToken() {
+		assertEquals(Result.ACCEPTED, check(token(HEADER, payload(""))));
+		assertEquals(Result.ACCEPTED, check(token("{\"alg\":\"ES256\"}", payload(""))));
+		assertEquals(Result.ACCEPTED, check(token("{\"alg\":\"PS512\"}", payload(""))));
+	}
+
+	@Test
+	public void toleratesTrailingSpaces() {
+		assertEquals(Result.ACCEPTED, check(token(HEADER, payload("")) + "  "));
+	}
+
+	@Test
+	public void rejectsPaddingAndNonAlphabetCharacters() {
+		String token = token(HEADER, payload(""));
+		int firstDot = token.indexOf('.');
+
+		assertEquals(Result.MALFORMED, check(token + "="));
+		assertEquals(Result.MALFORMED, check(token + "=="));
+		assertEquals(Result.MALFORMED, check(token.substring(0, firstDot) + "=" + token.substring(firstDot)));
+		assertEquals(Result.MALFORMED, check(token.replace('-', '+').replace('_', '/') + "+/"));
+		assertEquals(Result.MALFORMED, check(token.substring(0, firstDot) + " " + token.substring(firstDot)));
+		assertEquals(Result.MALFORMED, check(token.substring(0, firstDot) + "\u00e9" + token.substring(firstDot)));
+		assertEquals(Result.MALFORMED, check(token.substring(0, firstDot) + "\u0100" + token.substring(firstDot)));
+	}
+
+	@Test
+	public void rejectsWrongSegmentStructure() {
+		String header = encode(HEADER);
+		String payload = encode(payload(""));
+
+		assertEquals(Result.MALFORMED, check(header + "." + payload));
+		assertEquals(Result.MALFORMED, check(header + "." + payload + "." + SIGNATURE + "." + SIGNATURE));
+		assertEquals(Result.MALFORMED, check(header + ".." + SIGNATURE));
+		assertEquals(Result.MALFORMED, check("." + payload + "." + SIGNATURE));
+		assertEquals(Result.MALFORMED, check(header + "." + payload + "."));
+		// No base64url encoding is one character longer than a multiple of four
+		assertEquals(Result.MALFORMED, check(header + "." + payload + ".abcde"));
+	}
+
+	@Test
+	public void rejectsUnsupportedAlgorithms() {
+		assertEquals(Result.UNSUPPORTED_ALGORITHM, check(token("{\"alg\":\"none\"}", payload(""))));
+		assertEquals(Result.UNSUPPORTED_ALGORITHM, check(token("{\"alg\":\"HS256\"}", payload(""))));
+		assertEquals(Result.UNSUPPORTED_ALGORITHM, check(token("{\"typ\":\"JWT\"}", payload(""))));
+		assertEquals(Result.UNSUPPORTED_ALGORITHM, check(token("{\"alg\":256}", payload(""))));
+		assertEquals(Result.UNSUPPORTED_ALGORITHM, check(token("not json", payload(""))));
+	}
+
+	@Test
+	public void readsLastDuplicateAlgorithm() {
+		assertEquals(Result.ACCEPTED, check(token("{\"alg\":\"none\",\"alg\":\"RS256\"}", payload(""))));
+		assertEquals(Result.UNSUPPORTED_ALGORITHM,
+				check(token("{\"alg\":\"RS256\",\"alg\":\"none\"}", payload(""))));
+	}
+
+	@Test
+	public void readsEscapedAlgorithmNames() {
+		assertEquals(Result.UNSUPPORTED_ALGORITHM,
+				check(token("{\"alg\":\"RS256\",\"\\u0061lg\":\"none\"}", payload(""))));
+		assertEquals(Result.ACCEPTED, check(token("{\"\\u0061lg\":\"RS256\"}", payload(""))));
+		// An escaped value is left to full verification
+		assertEquals(Result.ACCEPTED, check(token("{\"alg\":\"\\u0052S256\"}", payload(""))));
+	}
+
+	@Test
+	public void ignoresAlgorithmOfNestedObjects() {
+		assertEquals(Result.UNSUPPORTED_ALGORITHM,
+				check(token("{\"jwk\":{\"alg\":\"RS256\"},\"alg\":\"HS256\"}", payload(""))));
+		assertEquals(Result.ACCEPTED, check(token("{\"jwk\":{\"alg\":\"HS256\"},\"alg\":\"RS256\"}", payload(""))));
+	}
+
+	@Test
+	public void rejectsExpiredTokens() {
+		String expired = "{\"iss\":\"" + ISSUER + "\",\"exp\":" + (NOW - 1) + "}";
+		assertEquals(Result.EXPIRED, check(token(HEADER, expired)));
+
+		String current = "{\"iss\":\"" + ISSUER + "\",\"exp\":" + NOW + "}";
+		assertEquals(Result.ACCEPTED, check(token(HEADER, current)));
+	}
+
+	@Test
+	public void leavesNonIntegralExpirationToFullVerification() {
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"exp\":1.7E9}")));
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"exp\":1.0E0}")));
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"exp\":\"1\"}")));
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"exp\":0}")));
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"" + ISSUER + "\"}")));
+	}
+
+	@Test
+	public void rejectsIssuerMismatch() {
+		assertEquals(Result.ISSUER_MISMATCH, check(token(HEADER, "{\"iss\":\"https://evil\"}")));
+		assertEquals(Result.ISSUER_MISMATCH, check(token(HEADER, "{\"iss\":\"" + ISSUER + "x\"}")));
+		assertEquals(Result.ISSUER_MISMATCH, check(token(HEADER, "{\"iss\":\"" + ISSUER.substring(1) + "\"}")));
+	}
+
+	@Test
+	public void readsLastDuplicateIssuer() {
+		assertEquals(Result.ISSUER_MISMATCH,
+				check(token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"iss\":\"https://evil\"}")));
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"https://evil\",\"iss\":\"" + ISSUER + "\"}")));
+		assertEquals("https://evil", peekIssuer(token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"iss\":\"https://evil\"}")));
+	}
+
+	@Test
+	public void readsEscapedIssuerNames() {
+		String token = token(HEADER, "{\"iss\":\"" + ISSUER + "\",\"i\\u0073s\":\"https://evil\"}");
+		assertEquals(Result.ISSUER_MISMATCH, check(token));
+		assertEquals("https://evil", peekIssuer(token));
+	}
+
+	@Test
+	public void ignoresIssuerOfNestedObjects() {
+		String token = token(HEADER, "{\"act\":{\"iss\":\"https://evil\"},\"iss\":\"" + ISSUER + "\"}");
+		assertEquals(Result.ACCEPTED, check(token));
+		assertEquals(ISSUER, peekIssuer(token));
+
+		token = token(HEADER, "{\"act\":{\"iss\":\"https://evil\"}}");
+		assertEquals(Result.ACCEPTED, check(token));
+		assertNull(peekIssuer(token));
+	}
+
+	@Test
+	public void leavesEscapedIssuerValuesToFullVerification() {
+		String escaped = ISSUER.replace("/", "\\/");
+		assertEquals(Result.ACCEPTED, check(token(HEADER, "{\"iss\":\"" + escaped + "\"}")));
+		assertEquals(ISSUER, peekIssuer(token(HEADER, "{\"iss\":\"" + escaped + "\"}")));
+		assertNull(peekIssuer(token(HEADER, "{\"iss\":\"https://\\u0065vil\"}")));
+	}
+
+	@Test
+	public void skipsIssuerCheckWithoutExpectedIssuer() {
+		String token = token(HEADER, "{\"iss\":\"https://evil\"}");
+		assertEquals(Result.ACCEPTED, new BearerTokenPrecheck(null).check(token, 0, token.length(), NOW));
+	}
+
+	@Test
+	public void peeksIssuerWithinHeader() {
+		String token = token(HEADER, payload(""));
+		String header = "Bearer " + token;
+		assertEquals(ISSUER, BearerTokenPrecheck.peekIssuer(header, 7, header.length()));
+		assertNull(peekIssuer(encode(HEADER) + "." + encode(payload(""))));
+		assertNull(peekIssuer(encode(HEADER) + "." + encode(payload("")) + "=." + SIGNATURE));
+	}
+
+	@Test
+	public void checksTokensLargerThanPeekLimitStructurallyOnly() {
+		String claims = ",\"pad\":\"" + padding(70 * 1024) + "\"";
+
+		String expired = "{\"iss\":\"https://evil\",\"exp\":" + (NOW - 1) + claims + "}";
+		assertEquals(Result.ACCEPTED, check(token(HEADER, expired)));
+		assertNull(peekIssuer(token(HEADER, payload(claims))));
+
+		String token = token(HEADER, expired);
+		assertEquals(Result.MALFORMED, check(token.substring(0, token.length() - 1) + "*"));
+	}
+
+	@Test
+	public void peeksAtTokensUpToPeekLimit() {
+		String claims = ",\"pad\":\"" + padding(60 * 1024) + "\"";
+
+		String expired = "{\"iss\":\"" + ISSUER + "\",\"exp\":" + (NOW - 1) + claims + "}";
+		assertEquals(Result.EXPIRED, check(token(HEADER, expired)));
+		assertEquals(ISSUER, peekIssuer(token(HEADER, payload(claims))));
+
+		// The grown decode buffer still serves small tokens
+		assertEquals(Result.ACCEPTED, check(token(HEADER, payload(""))));
+		assertEquals(Result.ISSUER_MISMATCH, check(token(HEADER, "{\"iss\":\"https://evil\"}")));
+	}
+
+	@Test
+	public void findsTokenStartForAnySchemeCase() {
+		assertEquals(7, BearerTokenPrecheck.tokenStart("Bearer abc"));
+		assertEquals(7, BearerTokenPrecheck.tokenStart("bearer abc"));
+		assertEquals(7, BearerTokenPrecheck.tokenStart("BEARER abc"));
+		assertEquals(7, BearerTokenPrecheck.tokenStart("bEaReR abc"));
+		assertEquals(9, BearerTokenPrecheck.tokenStart("Bearer   abc"));
+	}
+
+	@Test
+	public void rejectsOtherSchemes() {
+		assertEquals(-1, BearerTokenPrecheck.tokenStart(""));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Bearer"));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Bearer "));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Bearer    "));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Bearerabc"));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Bearer\tabc"));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart(" Bearer abc"));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Basic dXNlcjpwYXNz"));
+		assertEquals(-1, BearerTokenPrecheck.tokenStart("Bear abc"));
+	}
+
+}
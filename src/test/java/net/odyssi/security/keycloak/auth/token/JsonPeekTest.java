@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package net.odyssi.security.keycloak.auth.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link JsonPeek} member lookups
+ *
+ * @author Steven D. Nakhla
+ *
+ */
+public class JsonPeekTest {
+
+	private static final byte[] ISS = "iss".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] EXP = "exp".getBytes(StandardCharsets.US_ASCII);
+
+	private static byte[] json(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String readIssuer(String text) {
+		byte[] json = json(text);
+		int offset = JsonPeek.find(json, json.length, ISS);
+		return offset < 0 ? null : JsonPeek.readString(json, json.length, offset);
+	}
+
+	private static long readExpiration(String text) {
+		byte[] json = json(text);
+		int offset = JsonPeek.find(json, json.length, EXP);
+		return offset < 0 ? -1 : JsonPeek.readLong(json, json.length, offset);
+	}
+
+	@Test
+	public void findsTopLevelMember() {
+		assertEquals("https://a", readIssuer("{\"sub\":\"x\",\"iss\":\"https://a\"}"));
+		assertEquals("https://a", readIssuer(" {\n\t\"iss\" : \"https://a\" \r\n}"));
+	}
+
+	@Test
+	public void ignoresMembersOfNestedObjects() {
+		assertNull(readIssuer("{\"sub\":\"x\",\"act\":{\"iss\":\"https://evil\"}}"));
+		assertEquals("https://a",
+				readIssuer("{\"act\":{\"iss\":\"https://evil\",\"x\":[{\"iss\":\"y\"}]},\"iss\":\"https://a\"}"));
+		assertEquals("https://a", readIssuer("{\"aud\":[\"iss\",\"}\"],\"note\":\"{\\\"iss\\\":1}\",\"iss\":\"https://a\"}"));
+	}
+
+	@Test
+	public void ignoresMemberNamesInValues() {
+		assertEquals("https://a", readIssuer("{\"name\":\"iss\",\"iss\":\"https://a\"}"));
+		assertNull(readIssuer("{\"name\":\"iss\"}"));
+	}
+
+	@Test
+	public void usesLastDuplicateMember() {
+		assertEquals("https://b", readIssuer("{\"iss\":\"https://a\",\"iss\":\"https://b\"}"));
+	}
+
+	@Test
+	public void unescapesMemberNames() {
+		assertEquals("https://evil", readIssuer("{\"i\\u0073s\":\"https://evil\"}"));
+		assertEquals("https://evil", readIssuer("{\"iss\":\"https://a\",\"\\u0069\\u0053s\":\"x\",\"i\\u0073s\":\"https://evil\"}"));
+		assertNull(readIssuer("{\"i\\u0053s\":\"https://evil\"}"));
+		assertNull(readIssuer("{\"i\\nss\":\"https://evil\"}"));
+		assertNull(readIssuer("{\"i\\u00\":\"https://evil\"}"));
+	}
+
+	@Test
+	public void rejectsMalformedDocuments() {
+		assertNull(readIssuer(""));
+		assertNull(readIssuer("{}"));
+		assertNull(readIssuer("[\"iss\"]"));
+		assertNull(readIssuer("{\"iss\":\"https://a\""));
+		assertNull(readIssuer("{\"iss\":\"https://a\","));
+		assertNull(readIssuer("{\"iss\" \"https://a\"}"));
+		assertNull(readIssuer("{\"iss\":\"https://a\" \"sub\":\"x\"}"));
+		assertNull(readIssuer("{\"sub\":{\"x\":1},\"iss\":\"https://a\""));
+	}
+
+	@Test
+	public void readsOnlyPlainStrings() {
+		assertEquals("https://a/realms/b", readIssuer("{\"iss\":\"https:\\/\\/a\\/realms\\/b\"}"));
+		assertNull(readIssuer("{\"iss\":\"https://\\u0061\"}"));
+		assertNull(readIssuer("{\"iss\":42}"));
+		assertNull(readIssuer("{\"iss\":null}"));
+	}
+
+	@Test
+	public void comparesPlainStrings() {
+		byte[] expected = json("https://a");
+		byte[] json = json("{\"iss\":\"https://a\"}");
+		assertEquals(Boolean.TRUE, JsonPeek.stringEquals(json, json.length, JsonPeek.find(json, json.length, ISS), expected));
+
+		json = json("{\"iss\":\"https://ab\"}");
+		assertEquals(Boolean.FALSE, JsonPeek.stringEquals(json, json.length, JsonPeek.find(json, json.length, ISS), expected));
+
+		json = json("{\"iss\":\"https://\"}");
+		assertEquals(Boolean.FALSE, JsonPeek.stringEquals(json, json.length, JsonPeek.find(json, json.length, ISS), expected));
+
+		json = json("{\"iss\":\"https:\\/\\/a\"}");
+		assertNull(JsonPeek.stringEquals(json, json.length, JsonPeek.find(json, json.length, ISS), expected));
+
+		json = json("{\"iss\":1}");
+		assertNull(JsonPeek.stringEquals(json, json.length, JsonPeek.find(json, json.length, ISS), expected));
+	}
+
+	@Test
+	public void readsIntegralNumbersOnly() {
+		assertEquals(1600000000L, readExpiration("{\"exp\":1600000000}"));
+		assertEquals(1600000000L, readExpiration("{\"exp\":1600000000 ,\"iat\":1}"));
+		assertEquals(-1L, readExpiration("{\"exp\":1.6E9}"));
+		assertEquals(-1L, readExpiration("{\"exp\":1600000000.5}"));
+		assertEquals(-1L, readExpiration("{\"exp\":16e8}"));
+		assertEquals(-1L, readExpiration("{\"exp\":\"1600000000\"}"));
+		assertEquals(-1L, readExpiration("{\"exp\":-5}"));
+		assertEquals(-1L, readExpiration("{\"exp\":1234567890123456789}"));
+	}
+
+}